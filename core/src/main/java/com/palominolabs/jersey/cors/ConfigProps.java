@@ -0,0 +1,55 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+
+/**
+ * Reads {@link CorsConfig} properties, which containers hand over as strings (e.g. servlet init params) or as values of
+ * the exact type when configured in code.
+ */
+final class ConfigProps {
+
+    private ConfigProps() {
+    }
+
+    static String getStringProp(Map<String, Object> props, String propName, String defaultValue) {
+        return props.containsKey(propName) ? getString(props.get(propName)) : defaultValue;
+    }
+
+    static int getIntProp(Map<String, Object> props, String propName, int defaultValue) {
+        return props.containsKey(propName) ? getInt(props.get(propName)) : defaultValue;
+    }
+
+    static boolean getBooleanProp(Map<String, Object> props, String propName, boolean defaultValue) {
+        return props.containsKey(propName) ? getBoolean(props.get(propName)) : defaultValue;
+    }
+
+    @Nonnull
+    private static String getString(Object propValue) {
+        if (propValue instanceof String) {
+            return (String) propValue;
+        }
+
+        throw new IllegalArgumentException("Could not parse " + propValue + " as a String");
+    }
+
+    private static int getInt(Object propValue) {
+        if (propValue instanceof String) {
+            return Integer.parseInt((String) propValue);
+        } else if (propValue instanceof Integer) {
+            return (Integer) propValue;
+        }
+
+        throw new IllegalArgumentException("Could not parse " + propValue + " as an int");
+    }
+
+    private static boolean getBoolean(Object propValue) {
+        if (propValue instanceof String) {
+            return Boolean.parseBoolean((String) propValue);
+        } else if (propValue instanceof Boolean) {
+            return (Boolean) propValue;
+        }
+
+        throw new IllegalArgumentException("Could not parse " + propValue + " as a bool");
+    }
+}
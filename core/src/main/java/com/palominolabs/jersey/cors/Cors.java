@@ -21,6 +21,13 @@ public @interface Cors {
      */
     String allowOrigin() default "";
 
+    /**
+     * Takes precedence over allowOrigin. See {@link CorsConfig#ALLOWED_ORIGINS} for the format.
+     *
+     * @return comma-separated list of allowed origins, which may include wildcard subdomains like "https://*.foo.com"
+     */
+    String allowedOrigins() default "";
+
     /**
      * @return Comma-separated list of header names
      */
@@ -31,4 +38,12 @@ public @interface Cors {
      *         means use the global config (boxed Booleans are not allowed in annotations, hence the Ternary enum).
      */
     Ternary allowCredentials() default Ternary.NEUTRAL;
+
+    /**
+     * See {@link CorsConfig#REJECT_DISALLOWED_ORIGINS}.
+     *
+     * @return true to answer requests from origins not in allowedOrigins with a 403 without invoking the resource
+     *         method, false to invoke it and just not send CORS headers. Neutral means use the global config.
+     */
+    Ternary rejectDisallowedOrigins() default Ternary.NEUTRAL;
 }
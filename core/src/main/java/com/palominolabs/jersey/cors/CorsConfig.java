@@ -0,0 +1,189 @@
+package com.palominolabs.jersey.cors;
+
+/**
+ * Jersey property names to use to configure what corresponding HTTP headers should be included in responses.
+ *
+ * The Jersey 1 integration supports all of them. The JAX-RS 2 {@code CorsFeature} supports the header defaults
+ * ({@link #MAX_AGE}, {@link #ALLOW_METHODS}, {@link #ALLOW_HEADERS}, {@link #ALLOW_CREDENTIALS}, {@link #ALLOW_ORIGIN}
+ * and {@link #EXPOSE_HEADERS}), {@link #ALLOWED_ORIGINS}, {@link #ORIGIN_CACHE_SIZE},
+ * {@link #REJECT_DISALLOWED_ORIGINS}, {@link #SHORT_CIRCUIT_PREFLIGHT}, {@link #VALIDATE_PREFLIGHT} and
+ * {@link #POLICY_TABLES}. It refuses to start if any of the others is set, rather than silently serving different
+ * headers than the same config would on Jersey 1.
+ */
+public final class CorsConfig {
+    private static final String PREFIX = "com.palominolabs.jersey.cors.";
+
+    /**
+     * Expiration of preflight response caching in seconds as either a java.lang.Integer or a java.lang.String. The
+     * default is 24 * 3600 (1 day).
+     */
+    public static final String MAX_AGE = PREFIX + "maxAge";
+    /**
+     * Comma-separated list of HTTP methods. The default is "GET". The header is only sent if this is non-empty.
+     */
+    public static final String ALLOW_METHODS = PREFIX + "allowMethods";
+    /**
+     * Comma-separated list of HTTP headers. The default is "". The header is only sent if this is non-empty.
+     */
+    public static final String ALLOW_HEADERS = PREFIX + "allowHeaders";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is false. The header is only sent if this is
+     * true.
+     */
+    public static final String ALLOW_CREDENTIALS = PREFIX + "allowCredentials";
+    /**
+     * String '*', 'null' (as a string), or an origin URI. The default is '*'.
+     */
+    public static final String ALLOW_ORIGIN = PREFIX + "allowOrigin";
+    /**
+     * Comma-separated list of allowed origins. Each entry is either an exact origin like 'https://foo.com' or a
+     * wildcard subdomain origin like 'https://*.foo.com' (which does not match 'https://foo.com' itself). The default
+     * is "". If this is non-empty, it takes precedence over {@link #ALLOW_ORIGIN}: the request's Origin is echoed back
+     * if it is in the list, and no CORS headers are sent otherwise.
+     */
+    public static final String ALLOWED_ORIGINS = PREFIX + "allowedOrigins";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is false. If true, preflight requests (OPTIONS
+     * requests with both Origin and Access-Control-Request-Method) to methods with {@link CorsPreflight} are answered
+     * with an empty 204 response before the resource method is invoked. Plain OPTIONS requests still reach the resource
+     * method.
+     */
+    public static final String SHORT_CIRCUIT_PREFLIGHT = PREFIX + "shortCircuitPreflight";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is false. If true, a preflight's
+     * Access-Control-Request-Method and Access-Control-Request-Headers are checked against the allowed methods and
+     * headers. A preflight asking for anything that isn't allowed gets no CORS headers; otherwise
+     * Access-Control-Allow-Methods and Access-Control-Allow-Headers list just what was asked for rather than everything
+     * that is allowed.
+     */
+    public static final String VALIDATE_PREFLIGHT = PREFIX + "validatePreflight";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is false. If true, requests to methods with
+     * {@link Cors} whose Origin is not in the allowlist ({@link #ALLOWED_ORIGINS} or the allowedOrigins annotation
+     * element) are answered with a 403 before the resource method is invoked, rather than being processed normally
+     * and sent without CORS headers. Requests without an Origin, and methods using a fixed
+     * {@link #ALLOW_ORIGIN} rather than an allowlist, are not affected. Can be overridden per method or class with the
+     * rejectDisallowedOrigins element of {@link Cors}.
+     */
+    public static final String REJECT_DISALLOWED_ORIGINS = PREFIX + "rejectDisallowedOrigins";
+    /**
+     * Most Origin values to cache the allowlist decision for, per distinct allowlist, as either a java.lang.Integer or
+     * a java.lang.String. The default is 1024; 0 disables the cache. Only allowlists with wildcard entries are cached.
+     * The cache is rounded down to a power of two and holds at most that many origins of up to 300 characters each,
+     * however many distinct origins clients send. See {@link OriginDecisionCache}.
+     */
+    public static final String ORIGIN_CACHE_SIZE = PREFIX + "originCacheSize";
+    /**
+     * Path to a properties file of default header values, using the same names as these properties. The default is ""
+     * (no file). Values in the file override the Jersey params for {@link #MAX_AGE}, {@link #ALLOW_METHODS},
+     * {@link #ALLOW_HEADERS}, {@link #ALLOW_CREDENTIALS}, {@link #ALLOW_ORIGIN}, {@link #ALLOWED_ORIGINS},
+     * {@link #EXPOSE_HEADERS} and {@link #REJECT_DISALLOWED_ORIGINS}; other properties in it are ignored. The file is
+     * reloaded when it changes, and annotation overrides are applied on top of the new values. New contents only take
+     * effect once two polls in a row have read them, so save the file by renaming a complete copy into place. If the
+     * file can't be read, is empty or contains invalid values, the previous values stay in effect.
+     */
+    public static final String POLICY_FILE = PREFIX + "policyFile";
+    /**
+     * How often to check {@link #POLICY_FILE} for changes, in milliseconds, as either a java.lang.Integer or a
+     * java.lang.String. The default is 5000.
+     */
+    public static final String POLICY_FILE_POLL_INTERVAL = PREFIX + "policyFilePollInterval";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is false. If true, the filters count requests,
+     * allowed and disallowed origins and so on per resource method, and estimate the number of distinct origins. See
+     * {@code CorsMetrics}.
+     */
+    public static final String METRICS = PREFIX + "metrics";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is false. If true (and {@link #METRICS} is
+     * true), time spent in the filters is measured too.
+     */
+    public static final String METRICS_LATENCY = PREFIX + "metricsLatency";
+    /**
+     * Name to register the {@code CorsMetricsMXBean} under, to tell apart applications in the same JVM. The default is
+     * "default".
+     */
+    public static final String METRICS_NAME = PREFIX + "metricsName";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is false. If true, preflights are recorded by
+     * path, origin, requested method and requested headers to find ones that could be avoided. See
+     * {@code PreflightAnalyzer}. It is registered with JMX under {@link #METRICS_NAME}.
+     */
+    public static final String PREFLIGHT_ANALYZER = PREFIX + "preflightAnalyzer";
+    /**
+     * Integer, or integer string. The default is 1. The {@code PreflightAnalyzer} records one in this many
+     * combinations of origin, requested method and requested headers.
+     */
+    public static final String PREFLIGHT_ANALYZER_SAMPLE_RATE = PREFIX + "preflightAnalyzerSampleRate";
+    /**
+     * Integer, or integer string. The default is 1000. The most (path, origin, requested method, requested headers)
+     * tuples the {@code PreflightAnalyzer} tracks.
+     */
+    public static final String PREFLIGHT_ANALYZER_MAX_SOURCES = PREFIX + "preflightAnalyzerMaxSources";
+    /**
+     * Integer, or integer string. The default is 0, for no limit. If positive, each origin may send this many
+     * preflights per second, on average; further preflights are answered with a 429 without invoking the @OPTIONS
+     * method. See {@code PreflightRateLimiter}.
+     */
+    public static final String PREFLIGHT_RATE_LIMIT = PREFIX + "preflightRateLimit";
+    /**
+     * Integer, or integer string. The default is {@link #PREFLIGHT_RATE_LIMIT}, i.e. a second's worth. The most
+     * preflights an origin may send at once before {@link #PREFLIGHT_RATE_LIMIT} applies.
+     */
+    public static final String PREFLIGHT_RATE_LIMIT_BURST = PREFIX + "preflightRateLimitBurst";
+    /**
+     * Integer, or integer string. The default is 4096. The most origins to keep rate limits for; origins beyond that
+     * share one limit.
+     */
+    public static final String PREFLIGHT_RATE_LIMIT_ORIGINS = PREFIX + "preflightRateLimitOrigins";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is false. If true, the filters for every root
+     * resource method are resolved at startup and exported to {@code CorsServletFilter}, which then answers preflights
+     * and adds CORS headers before Jersey sees the request, and Jersey gets no CORS filters for those methods. The
+     * Jersey servlet must be loaded on startup so the policy is exported before the first request.
+     */
+    public static final String SERVLET_FILTER = PREFIX + "servletFilter";
+    /**
+     * Name to export the policy under for {@code CorsServletFilter}, to tell apart applications in the same JVM. The
+     * default is "default".
+     */
+    public static final String SERVLET_FILTER_NAME = PREFIX + "servletFilterName";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is true. If false, {@link CorsPolicyTable}s
+     * generated by the annotation processor are ignored and all annotations are read reflectively.
+     */
+    public static final String POLICY_TABLES = PREFIX + "policyTables";
+    /**
+     * Path of a file of rules mapping path patterns to policies, for resource methods that can't be annotated. The
+     * default is "" (no rules). Read once at startup. Rules only apply to root resource methods without CORS
+     * annotations of their own or on their class. See {@link PolicyRules} for the format.
+     */
+    public static final String POLICY_RULES_FILE = PREFIX + "policyRulesFile";
+    /**
+     * Comma-separated list of hosts, each as it appears in the Host header (with the port, if it isn't the default),
+     * that get defaults of their own. The default is "" (no tenants). Requests to one of these hosts get headers
+     * resolved against the properties under {@link #TENANT_PREFIX} for that host; requests to any other host get the
+     * usual defaults. Every method's annotations are resolved against every tenant's defaults at startup, so picking
+     * a tenant's headers costs one map lookup per request.
+     */
+    public static final String TENANTS = PREFIX + "tenants";
+    /**
+     * Prefix of the properties that override the defaults for one of the {@link #TENANTS}: the prefix, then the host,
+     * then a dot and the last part of the name of {@link #MAX_AGE}, {@link #ALLOW_METHODS}, {@link #ALLOW_HEADERS},
+     * {@link #ALLOW_CREDENTIALS}, {@link #ALLOW_ORIGIN}, {@link #ALLOWED_ORIGINS}, {@link #EXPOSE_HEADERS} or
+     * {@link #REJECT_DISALLOWED_ORIGINS}, e.g. "com.palominolabs.jersey.cors.tenant.shop.example.com.allowedOrigins".
+     * Values a tenant doesn't set are taken from the usual defaults. They can also be set in {@link #POLICY_FILE}.
+     */
+    public static final String TENANT_PREFIX = PREFIX + "tenant.";
+    /**
+     * Either java.lang.Boolean or string 'true' or 'false'. The default is false. If true, requests that reach a
+     * resource method are flagged, and {@code CorsFallbackResponseFilter}, which must also be registered, adds the
+     * headers of a bare {@link Cors} to the responses to all other requests (404s, 405s and responses to requests that
+     * a request filter rejected). Can't be combined with {@link #SERVLET_FILTER}.
+     */
+    public static final String FALLBACK = PREFIX + "fallback";
+    /**
+     * Comma-separated list of HTTP headers. The default is "". The header is only sent if this is non-empty.
+     */
+    public static final String EXPOSE_HEADERS = PREFIX + "exposeHeaders";
+}
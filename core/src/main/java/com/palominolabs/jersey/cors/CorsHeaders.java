@@ -8,4 +8,7 @@ final class CorsHeaders {
     static final String ALLOW_METHODS = "Access-Control-Allow-Methods";
     static final String ALLOW_HEADERS = "Access-Control-Allow-Headers";
     static final String ORIGIN = "Origin";
+    static final String REQUEST_METHOD = "Access-Control-Request-Method";
+    static final String REQUEST_HEADERS = "Access-Control-Request-Headers";
+    static final String HOST = "Host";
 }
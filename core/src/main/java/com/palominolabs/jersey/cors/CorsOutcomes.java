@@ -0,0 +1,38 @@
+package com.palominolabs.jersey.cors;
+
+/**
+ * Flags for what adding CORS headers to a response did, combined into the int returned by {@link ResourceHeaders} and
+ * {@link PreflightHeaders}, so that callers can count outcomes or answer a request differently depending on them.
+ */
+interface CorsOutcomes {
+
+    /**
+     * The request had no Origin header
+     */
+    int NO_ORIGIN = 1;
+    /**
+     * The request's Origin is not allowed, so no CORS headers were added
+     */
+    int DISALLOWED_ORIGIN = 1 << 1;
+    /**
+     * CORS headers were added
+     */
+    int ALLOWED = 1 << 2;
+    /**
+     * The preflight asked for a method or headers that are not allowed, so no CORS headers were added
+     */
+    int REJECTED_PREFLIGHT = 1 << 3;
+    /**
+     * At least one CORS header was already present in the response and was left alone
+     */
+    int HEADER_PRESENT = 1 << 4;
+    /**
+     * The request's Origin is not allowed and the method rejects such requests with a 403
+     */
+    int REJECTED_ORIGIN = 1 << 5;
+    /**
+     * The preflight's origin is over its {@link CorsConfig#PREFLIGHT_RATE_LIMIT}, so no CORS headers were added and the
+     * preflight is to be answered with a 429
+     */
+    int RATE_LIMITED = 1 << 6;
+}
@@ -0,0 +1,91 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import static com.palominolabs.jersey.cors.Ternary.NEUTRAL;
+
+/**
+ * The elements of a {@link Cors} annotation, or of a method's and its class's annotations merged, that override the
+ * defaults. Empty strings and {@link Ternary#NEUTRAL} mean "not overridden", as in the annotation.
+ */
+@Immutable
+final class CorsOverrides {
+
+    @Nonnull
+    final String allowOrigin;
+    @Nonnull
+    final String allowedOrigins;
+    @Nonnull
+    final String exposeHeaders;
+    @Nonnull
+    final Ternary allowCredentials;
+    @Nonnull
+    final Ternary rejectDisallowedOrigins;
+
+    CorsOverrides(@Nonnull String allowOrigin, @Nonnull String allowedOrigins, @Nonnull String exposeHeaders,
+        @Nonnull Ternary allowCredentials, @Nonnull Ternary rejectDisallowedOrigins) {
+        this.allowOrigin = allowOrigin;
+        this.allowedOrigins = allowedOrigins;
+        this.exposeHeaders = exposeHeaders;
+        this.allowCredentials = allowCredentials;
+        this.rejectDisallowedOrigins = rejectDisallowedOrigins;
+    }
+
+    @Nonnull
+    static CorsOverrides of(@Nonnull Cors ann) {
+        return new CorsOverrides(ann.allowOrigin(), ann.allowedOrigins(), ann.exposeHeaders(), ann.allowCredentials(),
+            ann.rejectDisallowedOrigins());
+    }
+
+    /**
+     * Merge these overrides, from a method, with those of its class, so that applying the result once gives the same
+     * config as applying the class's and then the method's.
+     *
+     * @param classOverrides overrides from the class, if it is annotated
+     * @return the merged overrides
+     */
+    @Nonnull
+    CorsOverrides over(@Nullable CorsOverrides classOverrides) {
+        if (classOverrides == null) {
+            return this;
+        }
+
+        // a fixed origin on the method replaces the class's allowlist, as it does when applied in sequence
+        String mergedAllowedOrigins = !allowedOrigins.isEmpty() ? allowedOrigins :
+            !allowOrigin.isEmpty() ? "" : classOverrides.allowedOrigins;
+        return new CorsOverrides(pick(allowOrigin, classOverrides.allowOrigin), mergedAllowedOrigins,
+            pick(exposeHeaders, classOverrides.exposeHeaders), pick(allowCredentials, classOverrides.allowCredentials),
+            pick(rejectDisallowedOrigins, classOverrides.rejectDisallowedOrigins));
+    }
+
+    static String pick(String specific, String general) {
+        return specific.isEmpty() ? general : specific;
+    }
+
+    static Ternary pick(Ternary specific, Ternary general) {
+        return specific == NEUTRAL ? general : specific;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CorsOverrides)) {
+            return false;
+        }
+        CorsOverrides that = (CorsOverrides) o;
+        return allowOrigin.equals(that.allowOrigin) && allowedOrigins.equals(that.allowedOrigins) &&
+            exposeHeaders.equals(that.exposeHeaders) && allowCredentials == that.allowCredentials &&
+            rejectDisallowedOrigins == that.rejectDisallowedOrigins;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(allowOrigin, allowedOrigins, exposeHeaders, allowCredentials, rejectDisallowedOrigins);
+    }
+}
@@ -0,0 +1,126 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Joiner;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Base class for the policy tables generated by the jersey-cors-filter-processor annotation processor. A table holds
+ * the {@link Cors} and {@link CorsPreflight} annotations of a set of resource classes, already merged per method, so
+ * that {@code CorsResourceFilterFactory} can look them up rather than reading the annotations reflectively.
+ *
+ * Generated tables are registered as services in META-INF/services and found with {@link java.util.ServiceLoader}.
+ * They are not meant to be written by hand: the processor also rejects invalid annotations at compile time, and a table
+ * that doesn't match the classes it describes silently takes precedence over their annotations.
+ */
+@NotThreadSafe
+public abstract class CorsPolicyTable {
+
+    private final Set<String> classes = newHashSet();
+
+    private final Map<String, CorsPreflightOverrides> classPreflights = newHashMap();
+
+    private final Map<String, CorsOverrides> corsMethods = newHashMap();
+
+    private final Map<String, CorsPreflightOverrides> preflightMethods = newHashMap();
+
+    /**
+     * Declare that the table lists every method of a class that gets a filter, so methods of the class that aren't in
+     * the table get none.
+     *
+     * @param className binary name of the class
+     */
+    protected final void resourceClass(@Nonnull String className) {
+        classes.add(className);
+    }
+
+    /**
+     * Record a class's own {@link CorsPreflight}, which preflights answered by {@code CorsAutoPreflightRequestFilter}
+     * use.
+     */
+    protected final void classPreflight(@Nonnull String className, int maxAge, @Nonnull String allowMethods,
+        @Nonnull String allowHeaders, @Nonnull Ternary allowCredentials, @Nonnull String allowOrigin,
+        @Nonnull String allowedOrigins) {
+        classPreflights.put(className,
+            new CorsPreflightOverrides(maxAge, allowMethods, allowHeaders, allowCredentials, allowOrigin,
+                allowedOrigins));
+    }
+
+    /**
+     * Record a method's {@link Cors} merged with its class's.
+     *
+     * @param methodKey see {@link #methodKey(String, String, List)}
+     */
+    protected final void cors(@Nonnull String methodKey, @Nonnull String allowOrigin, @Nonnull String allowedOrigins,
+        @Nonnull String exposeHeaders, @Nonnull Ternary allowCredentials, @Nonnull Ternary rejectDisallowedOrigins) {
+        corsMethods.put(methodKey,
+            new CorsOverrides(allowOrigin, allowedOrigins, exposeHeaders, allowCredentials, rejectDisallowedOrigins));
+    }
+
+    /**
+     * Record an @OPTIONS method's {@link CorsPreflight} merged with its class's.
+     *
+     * @param methodKey see {@link #methodKey(String, String, List)}
+     */
+    protected final void preflight(@Nonnull String methodKey, int maxAge, @Nonnull String allowMethods,
+        @Nonnull String allowHeaders, @Nonnull Ternary allowCredentials, @Nonnull String allowOrigin,
+        @Nonnull String allowedOrigins) {
+        preflightMethods.put(methodKey,
+            new CorsPreflightOverrides(maxAge, allowMethods, allowHeaders, allowCredentials, allowOrigin,
+                allowedOrigins));
+    }
+
+    @Nonnull
+    Set<String> getClasses() {
+        return classes;
+    }
+
+    @Nonnull
+    Map<String, CorsPreflightOverrides> getClassPreflights() {
+        return classPreflights;
+    }
+
+    @Nonnull
+    Map<String, CorsOverrides> getCorsMethods() {
+        return corsMethods;
+    }
+
+    @Nonnull
+    Map<String, CorsPreflightOverrides> getPreflightMethods() {
+        return preflightMethods;
+    }
+
+    /**
+     * @param method method
+     * @return the method's key in policy tables
+     */
+    @Nonnull
+    static String methodKey(@Nonnull Method method) {
+        List<String> paramTypes = newArrayList();
+        for (Class<?> paramType : method.getParameterTypes()) {
+            String name = paramType.getCanonicalName();
+            paramTypes.add(name == null ? paramType.getName() : name);
+        }
+        return methodKey(method.getDeclaringClass().getName(), method.getName(), paramTypes);
+    }
+
+    /**
+     * @param className  binary name of the declaring class, e.g. "com.foo.Outer$Inner"
+     * @param methodName method name
+     * @param paramTypes canonical names of the erased parameter types, e.g. "java.lang.String[]"
+     * @return the method's key in policy tables, e.g. "com.foo.Outer$Inner#get(java.lang.String[],int)"
+     */
+    @Nonnull
+    static String methodKey(@Nonnull String className, @Nonnull String methodName, @Nonnull List<String> paramTypes) {
+        return className + "#" + methodName + "(" + Joiner.on(',').join(paramTypes) + ")";
+    }
+}
@@ -49,4 +49,11 @@ public @interface CorsPreflight {
      * @return The string "*" or the URI that is an allowed origin
      */
     String allowOrigin() default "";
+
+    /**
+     * Takes precedence over allowOrigin. See {@link CorsConfig#ALLOWED_ORIGINS} for the format.
+     *
+     * @return comma-separated list of allowed origins, which may include wildcard subdomains like "https://*.foo.com"
+     */
+    String allowedOrigins() default "";
 }
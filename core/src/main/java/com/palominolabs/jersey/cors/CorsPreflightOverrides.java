@@ -0,0 +1,87 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import static com.palominolabs.jersey.cors.CorsOverrides.pick;
+import static com.palominolabs.jersey.cors.CorsPreflight.UNSET_MAX_AGE;
+
+/**
+ * The elements of a {@link CorsPreflight} annotation, or of a method's and its class's annotations merged, that
+ * override the defaults. Empty strings, {@link Ternary#NEUTRAL} and {@link CorsPreflight#UNSET_MAX_AGE} mean "not
+ * overridden", as in the annotation.
+ */
+@Immutable
+final class CorsPreflightOverrides {
+
+    final int maxAge;
+    @Nonnull
+    final String allowMethods;
+    @Nonnull
+    final String allowHeaders;
+    @Nonnull
+    final Ternary allowCredentials;
+    @Nonnull
+    final String allowOrigin;
+    @Nonnull
+    final String allowedOrigins;
+
+    CorsPreflightOverrides(int maxAge, @Nonnull String allowMethods, @Nonnull String allowHeaders,
+        @Nonnull Ternary allowCredentials, @Nonnull String allowOrigin, @Nonnull String allowedOrigins) {
+        this.maxAge = maxAge;
+        this.allowMethods = allowMethods;
+        this.allowHeaders = allowHeaders;
+        this.allowCredentials = allowCredentials;
+        this.allowOrigin = allowOrigin;
+        this.allowedOrigins = allowedOrigins;
+    }
+
+    @Nonnull
+    static CorsPreflightOverrides of(@Nonnull CorsPreflight ann) {
+        return new CorsPreflightOverrides(ann.maxAge(), ann.allowMethods(), ann.allowHeaders(), ann.allowCredentials(),
+            ann.allowOrigin(), ann.allowedOrigins());
+    }
+
+    /**
+     * Merge these overrides, from a method, with those of its class, so that applying the result once gives the same
+     * config as applying the class's and then the method's.
+     *
+     * @param classOverrides overrides from the class, if it is annotated
+     * @return the merged overrides
+     */
+    @Nonnull
+    CorsPreflightOverrides over(@Nullable CorsPreflightOverrides classOverrides) {
+        if (classOverrides == null) {
+            return this;
+        }
+
+        String mergedAllowedOrigins = !allowedOrigins.isEmpty() ? allowedOrigins :
+            !allowOrigin.isEmpty() ? "" : classOverrides.allowedOrigins;
+        return new CorsPreflightOverrides(maxAge == UNSET_MAX_AGE ? classOverrides.maxAge : maxAge,
+            pick(allowMethods, classOverrides.allowMethods), pick(allowHeaders, classOverrides.allowHeaders),
+            pick(allowCredentials, classOverrides.allowCredentials), pick(allowOrigin, classOverrides.allowOrigin),
+            mergedAllowedOrigins);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CorsPreflightOverrides)) {
+            return false;
+        }
+        CorsPreflightOverrides that = (CorsPreflightOverrides) o;
+        return maxAge == that.maxAge && allowMethods.equals(that.allowMethods) &&
+            allowHeaders.equals(that.allowHeaders) && allowCredentials == that.allowCredentials &&
+            allowOrigin.equals(that.allowOrigin) && allowedOrigins.equals(that.allowedOrigins);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(maxAge, allowMethods, allowHeaders, allowCredentials, allowOrigin, allowedOrigins);
+    }
+}
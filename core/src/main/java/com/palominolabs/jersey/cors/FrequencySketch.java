@@ -0,0 +1,117 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate, aging access counts for the admission policy of {@link OriginDecisionCache}, as in TinyLFU (Einziger et
+ * al., "TinyLFU: A Highly Efficient Cache Admission Policy").
+ *
+ * This is a count-min sketch of 4 bit counters, 16 to a long. Each key has a counter in 4 of the longs (a different
+ * group of 4 counters in each), and its frequency is the smallest of the 4, so collisions can only make a key look more
+ * popular than it is. Counters stop at 15. After every 10 increments per long, all counters are halved, so keys that
+ * were popular a while ago don't keep out keys that are popular now.
+ *
+ * Keys are given as their String.hashCode(), which is cached, so counting doesn't touch the characters of the key.
+ */
+@ThreadSafe
+final class FrequencySketch {
+
+    private static final long[] SEEDS =
+        {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final int MAX_COUNT = 15;
+
+    private final AtomicLongArray table;
+
+    private final int tableMask;
+
+    private final int sampleSize;
+
+    /**
+     * Increments since the counters were last halved
+     */
+    private final AtomicInteger additions = new AtomicInteger();
+
+    /**
+     * @param capacity number of keys the sketch should tell apart, i.e. the capacity of the cache it is for
+     */
+    FrequencySketch(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity) * 2 - 1);
+        table = new AtomicLongArray(size);
+        tableMask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+    /**
+     * @param hash key hash
+     * @return estimated number of recent increments for the key, at most 15
+     */
+    int frequency(int hash) {
+        int frequency = MAX_COUNT;
+        for (int depth = 0; depth < SEEDS.length; depth++) {
+            int offset = offset(hash, depth);
+            frequency = Math.min(frequency, (int) ((table.get(index(hash, depth)) >>> offset) & MAX_COUNT));
+        }
+        return frequency;
+    }
+
+    /**
+     * @param hash key hash
+     */
+    void increment(int hash) {
+        boolean added = false;
+        for (int depth = 0; depth < SEEDS.length; depth++) {
+            added |= incrementAt(index(hash, depth), offset(hash, depth));
+        }
+
+        // saturated counters aren't written to, so the hottest keys don't touch this shared counter at all
+        if (added && additions.incrementAndGet() == sampleSize) {
+            reset();
+            additions.addAndGet(-sampleSize / 2);
+        }
+    }
+
+    private boolean incrementAt(int index, int offset) {
+        long mask = (long) MAX_COUNT << offset;
+        while (true) {
+            long value = table.get(index);
+            if ((value & mask) == mask) {
+                return false;
+            }
+            if (table.compareAndSet(index, value, value + (1L << offset))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Halve every counter.
+     */
+    private void reset() {
+        for (int i = 0; i < table.length(); i++) {
+            while (true) {
+                long value = table.get(i);
+                if (table.compareAndSet(i, value, (value >>> 1) & RESET_MASK)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    private int index(int hash, int depth) {
+        long h = (hash + SEEDS[depth]) * SEEDS[depth];
+        h += h >>> 32;
+        return (int) h & tableMask;
+    }
+
+    /**
+     * @return bit offset of the key's counter in the long for the given depth: depth d uses counters 4d to 4d + 3
+     */
+    private static int offset(int hash, int depth) {
+        return ((depth << 2) + ((hash >>> (depth << 3)) & 3)) << 2;
+    }
+}
@@ -0,0 +1,150 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.List;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * A fixed set of header name/value pairs, rendered to strings once when a filter is built so that applying them to a
+ * response is a single loop with no formatting, allocation or per-header configuration checks.
+ *
+ * A container adapter can also have the block encoded once in its own form (see {@link #getEncoded(Encoder)}) and
+ * apply it to header maps that implement {@link Target}.
+ */
+@Immutable
+final class HeaderBlock {
+
+    private final String[] names;
+
+    private final String[] values;
+
+    /**
+     * The block in the form of the last encoder asked for, or null if none has been yet
+     */
+    private volatile Encoded<?> encoded;
+
+    private HeaderBlock(String[] names, String[] values) {
+        this.names = names;
+        this.values = values;
+    }
+
+    /**
+     * Set each header in the block that is not already present.
+     *
+     * @param h headers to add to
+     * @return false if any of the headers was already present
+     */
+    boolean putIfNotPresent(@Nonnull MultivaluedMap<String, Object> h) {
+        if (h instanceof Target) {
+            return ((Target) h).putIfNotPresent(this);
+        }
+
+        String[] n = names;
+        String[] v = values;
+        boolean allAdded = true;
+        for (int i = 0; i < n.length; i++) {
+            if (h.containsKey(n[i])) {
+                allAdded = false;
+            } else {
+                h.putSingle(n[i], v[i]);
+            }
+        }
+        return allAdded;
+    }
+
+    /**
+     * @param encoder encoder for a container's header representation
+     * @param <E>     encoded type
+     * @return the block encoded by the encoder, which is only done the first time the encoder asks
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    <E> E getEncoded(@Nonnull Encoder<E> encoder) {
+        Encoded<?> e = encoded;
+        if (e == null || e.encoder != encoder) {
+            // racing threads encode the same thing, so it doesn't matter whose result is kept
+            e = new Encoded<E>(encoder, encoder.encode(names.clone(), values.clone()));
+            encoded = e;
+        }
+        return (E) e.value;
+    }
+
+    /**
+     * Turns a block into a container's own representation of headers, e.g. pre-encoded bytes.
+     *
+     * @param <E> encoded type
+     */
+    interface Encoder<E> {
+        /**
+         * @param names  header names
+         * @param values header values, in the same order
+         * @return the encoded headers
+         */
+        @Nonnull
+        E encode(@Nonnull String[] names, @Nonnull String[] values);
+    }
+
+    /**
+     * A header map that applies whole blocks itself, e.g. from their encoded form.
+     */
+    interface Target extends MultivaluedMap<String, Object> {
+        /**
+         * Set each header in the block that is not already present.
+         *
+         * @param block headers to add
+         * @return false if any of the headers was already present
+         */
+        boolean putIfNotPresent(@Nonnull HeaderBlock block);
+    }
+
+    @Immutable
+    private static final class Encoded<E> {
+        final Encoder<E> encoder;
+        final E value;
+
+        private Encoded(Encoder<E> encoder, E value) {
+            this.encoder = encoder;
+            this.value = value;
+        }
+    }
+
+    @NotThreadSafe
+    static final class Builder {
+        private final List<String> names = newArrayList();
+        private final List<String> values = newArrayList();
+
+        /**
+         * @param name  header name
+         * @param value header value
+         * @return this
+         */
+        @Nonnull
+        Builder add(@Nonnull String name, @Nonnull String value) {
+            names.add(name);
+            values.add(value);
+            return this;
+        }
+
+        /**
+         * @param name  header name
+         * @param value header value, which is skipped if it is empty
+         * @return this
+         */
+        @Nonnull
+        Builder addIfNotEmpty(@Nonnull String name, @Nonnull String value) {
+            if (!value.isEmpty()) {
+                add(name, value);
+            }
+            return this;
+        }
+
+        @Nonnull
+        HeaderBlock build() {
+            return new HeaderBlock(names.toArray(new String[names.size()]), values.toArray(new String[values.size()]));
+        }
+    }
+}
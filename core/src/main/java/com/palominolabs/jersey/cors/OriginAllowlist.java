@@ -0,0 +1,20 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Decides whether a request's Origin is allowed, for filters configured with an origin allowlist.
+ *
+ * @see OriginMatcher
+ * @see OriginDecisionCache
+ */
+@ThreadSafe
+interface OriginAllowlist {
+
+    /**
+     * @param origin the Origin header sent by the user agent
+     * @return true if the origin is in the allowlist
+     */
+    boolean matches(@Nonnull String origin);
+}
@@ -0,0 +1,68 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.concurrent.Immutable;
+import java.beans.ConstructorProperties;
+
+/**
+ * Counts for the {@link OriginDecisionCache}s of an application, summed over its allowlists, as of when the stats were
+ * taken. See {@code CorsMetrics}.
+ */
+@Immutable
+public final class OriginCacheStats {
+
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long size;
+    private final long capacity;
+
+    @ConstructorProperties({"hits", "misses", "evictions", "size", "capacity"})
+    public OriginCacheStats(long hits, long misses, long evictions, long size, long capacity) {
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return lookups answered from the cache
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return lookups that had to be matched against the allowlist
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return cached decisions replaced by a more frequently seen origin
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return decisions currently cached
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return most decisions that can be cached
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public String toString() {
+        return "OriginCacheStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", size=" + size +
+            ", capacity=" + capacity + "}";
+    }
+}
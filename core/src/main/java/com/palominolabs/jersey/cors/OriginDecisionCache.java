@@ -0,0 +1,162 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded cache of allowlist decisions, put in front of an {@link OriginMatcher} by {@code CorsResourceFilterFactory}
+ * when {@link CorsConfig#ORIGIN_CACHE_SIZE} is non-zero. Both allowed and disallowed origins are cached.
+ *
+ * Clients can send any number of distinct Origin values, so the cache has a fixed number of slots (grouped into buckets
+ * of 4, by origin hash) and never grows. Whether a new origin gets a slot when its bucket is full is decided as in
+ * TinyLFU: it replaces the bucket's least frequently seen origin only if it has been seen more often than that origin,
+ * according to a {@link FrequencySketch}. An origin seen once, as most junk origins are, can't push out one that is
+ * seen all the time, while origins that have stopped coming age out of the sketch and can be replaced.
+ *
+ * Lookups don't lock or allocate. Origins longer than {@link #MAX_ORIGIN_LENGTH} aren't cached, which together with
+ * the slot count bounds the memory the cache can retain.
+ */
+@ThreadSafe
+final class OriginDecisionCache implements OriginAllowlist {
+
+    /**
+     * Longest origin to cache; longer than any real scheme, host name and port
+     */
+    static final int MAX_ORIGIN_LENGTH = 300;
+
+    private static final int WAYS = 4;
+
+    static final int HITS = 0;
+    static final int MISSES = 1;
+    static final int EVICTIONS = 2;
+
+    private final OriginMatcher matcher;
+
+    private final AtomicReferenceArray<Entry> slots;
+
+    /**
+     * Mask giving the first slot of the bucket for a hash
+     */
+    private final int bucketMask;
+
+    private final FrequencySketch sketch;
+
+    private final StripedCounters counters = new StripedCounters();
+
+    /**
+     * @param matcher    allowlist to cache decisions of
+     * @param maxEntries most decisions to cache; rounded down to a power of two, and at least 4
+     */
+    OriginDecisionCache(@Nonnull OriginMatcher matcher, int maxEntries) {
+        this.matcher = matcher;
+        int size = Integer.highestOneBit(Math.max(WAYS, maxEntries));
+        slots = new AtomicReferenceArray<Entry>(size);
+        bucketMask = (size - 1) & ~(WAYS - 1);
+        sketch = new FrequencySketch(size);
+    }
+
+    @Override
+    public boolean matches(@Nonnull String origin) {
+        if (origin.length() > MAX_ORIGIN_LENGTH) {
+            counters.add(MISSES, 1);
+            return matcher.matches(origin);
+        }
+
+        int hash = origin.hashCode();
+        int bucket = spread(hash) & bucketMask;
+        for (int i = bucket; i < bucket + WAYS; i++) {
+            Entry e = slots.get(i);
+            if (e != null && e.hash == hash && e.origin.equals(origin)) {
+                sketch.increment(hash);
+                counters.add(HITS, 1);
+                return e.allowed;
+            }
+        }
+
+        counters.add(MISSES, 1);
+        boolean allowed = matcher.matches(origin);
+        sketch.increment(hash);
+        admit(bucket, new Entry(origin, hash, allowed));
+        return allowed;
+    }
+
+    /**
+     * Put the entry in a free slot in its bucket, or in place of the bucket's least frequently used entry if the new
+     * entry has been used more often. Threads racing to cache the same origin may both succeed, which only wastes a
+     * slot until one of them is evicted.
+     */
+    private void admit(int bucket, Entry entry) {
+        int victim = -1;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = bucket; i < bucket + WAYS; i++) {
+            Entry e = slots.get(i);
+            if (e == null) {
+                if (slots.compareAndSet(i, null, entry)) {
+                    return;
+                }
+                continue;
+            }
+            int frequency = sketch.frequency(e.hash);
+            if (frequency < victimFrequency) {
+                victim = i;
+                victimFrequency = frequency;
+            }
+        }
+
+        if (victim >= 0 && sketch.frequency(entry.hash) > victimFrequency) {
+            slots.set(victim, entry);
+            counters.add(EVICTIONS, 1);
+        }
+    }
+
+    /**
+     * @param counter {@link #HITS}, {@link #MISSES} or {@link #EVICTIONS}
+     * @return the counter's value
+     */
+    long getCount(int counter) {
+        return counters.sum(counter);
+    }
+
+    /**
+     * @return number of decisions currently cached; counted by scanning the cache, so not for use per request
+     */
+    int size() {
+        int size = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return number of slots
+     */
+    int capacity() {
+        return slots.length();
+    }
+
+    /**
+     * Spread String.hashCode()'s mostly low-order entropy over the bits used to pick a bucket.
+     */
+    static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Immutable
+    private static final class Entry {
+        private final String origin;
+        private final int hash;
+        private final boolean allowed;
+
+        private Entry(String origin, int hash, boolean allowed) {
+            this.origin = origin;
+            this.hash = hash;
+            this.allowed = allowed;
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Compiled form of an origin allowlist, as configured by {@link CorsConfig#ALLOWED_ORIGINS} or the allowedOrigins
+ * element of {@link Cors} and {@link CorsPreflight}.
+ *
+ * Exact origins (e.g. "https://foo.com") are kept in a hash set, lowercased, since browsers send the scheme and host of
+ * an origin in lowercase. Wildcard subdomain origins (e.g.
+ * "https://*.foo.com:8443") are grouped by scheme and port, and the host suffix of each is stored in a trie keyed by
+ * host labels in reverse order ("com", then "foo"). Matching walks the incoming origin from the end of its host towards
+ * the scheme, comparing labels in place, so no regexes are evaluated and no substrings are created per request.
+ */
+@Immutable
+final class OriginMatcher implements OriginAllowlist {
+
+    private static final String SCHEME_SEPARATOR = "://";
+
+    private static final String WILDCARD_PREFIX = "*.";
+
+    private final Set<String> exactOrigins;
+
+    private final WildcardRoot[] wildcardRoots;
+
+    private OriginMatcher(Set<String> exactOrigins, WildcardRoot[] wildcardRoots) {
+        this.exactOrigins = exactOrigins;
+        this.wildcardRoots = wildcardRoots;
+    }
+
+    /**
+     * @param allowedOrigins comma-separated list of origins, each either exact or of the form scheme://*.suffix[:port]
+     * @return a matcher for the list
+     * @throws IllegalArgumentException if an entry is not a valid origin or wildcard origin
+     */
+    @Nonnull
+    static OriginMatcher compile(@Nonnull String allowedOrigins) {
+        ImmutableSet.Builder<String> exact = ImmutableSet.builder();
+        List<WildcardRootBuilder> roots = newArrayList();
+
+        for (String origin : Splitter.on(',').trimResults().omitEmptyStrings().split(allowedOrigins)) {
+            int schemeEnd = origin.indexOf(SCHEME_SEPARATOR);
+            if (schemeEnd <= 0) {
+                throw new IllegalArgumentException("Could not parse " + origin + " as an origin");
+            }
+
+            int hostStart = schemeEnd + SCHEME_SEPARATOR.length();
+            if (!origin.startsWith(WILDCARD_PREFIX, hostStart)) {
+                if (origin.indexOf('*') >= 0) {
+                    throw new IllegalArgumentException("Wildcard must be the first host label in " + origin);
+                }
+                // an origin has no path, so this only lowercases the scheme and host
+                exact.add(origin.toLowerCase(Locale.ROOT));
+                continue;
+            }
+
+            String scheme = origin.substring(0, hostStart);
+            int suffixStart = hostStart + WILDCARD_PREFIX.length();
+            int hostEnd = hostEnd(origin, suffixStart);
+            String port = origin.substring(hostEnd);
+            String suffix = origin.substring(suffixStart, hostEnd);
+            if (suffix.isEmpty() || suffix.indexOf('*') >= 0 || suffix.startsWith(".") || suffix.endsWith(".")) {
+                throw new IllegalArgumentException("Could not parse " + origin + " as a wildcard origin");
+            }
+
+            getRootBuilder(roots, scheme, port).add(suffix);
+        }
+
+        WildcardRoot[] wildcardRoots = new WildcardRoot[roots.size()];
+        for (int i = 0; i < wildcardRoots.length; i++) {
+            wildcardRoots[i] = roots.get(i).build();
+        }
+
+        return new OriginMatcher(exact.build(), wildcardRoots);
+    }
+
+    @Override
+    public boolean matches(@Nonnull String origin) {
+        if (exactOrigins.contains(origin)) {
+            return true;
+        }
+
+        if (wildcardRoots.length == 0) {
+            return false;
+        }
+
+        int schemeEnd = origin.indexOf(SCHEME_SEPARATOR);
+        if (schemeEnd <= 0) {
+            return false;
+        }
+        int hostStart = schemeEnd + SCHEME_SEPARATOR.length();
+        int hostEnd = hostEnd(origin, hostStart);
+
+        for (WildcardRoot root : wildcardRoots) {
+            if (root.matches(origin, hostStart, hostEnd)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return true if the allowlist has wildcard entries; without them, matching is a single hash lookup
+     */
+    boolean hasWildcards() {
+        return wildcardRoots.length > 0;
+    }
+
+    /**
+     * @param origin    origin
+     * @param hostStart index of the first character of the host
+     * @return index just past the last character of the host, i.e. the start of the ":port" part if any
+     */
+    static int hostEnd(@Nonnull String origin, int hostStart) {
+        int portSearchStart = hostStart;
+        if (origin.startsWith("[", hostStart)) {
+            // an IPv6 literal has colons of its own, so the port can only follow the closing bracket
+            int bracketEnd = origin.indexOf(']', hostStart);
+            if (bracketEnd >= 0) {
+                portSearchStart = bracketEnd;
+            }
+        }
+        int portStart = origin.indexOf(':', portSearchStart);
+        return portStart >= 0 ? portStart : origin.length();
+    }
+
+    private static WildcardRootBuilder getRootBuilder(List<WildcardRootBuilder> roots, String scheme, String port) {
+        for (WildcardRootBuilder root : roots) {
+            if (root.scheme.equals(scheme) && root.port.equals(port)) {
+                return root;
+            }
+        }
+
+        WildcardRootBuilder root = new WildcardRootBuilder(scheme, port);
+        roots.add(root);
+        return root;
+    }
+
+    /**
+     * Trie of reversed host suffixes for wildcard origins sharing a scheme and port.
+     */
+    @Immutable
+    private static final class WildcardRoot {
+        /**
+         * Scheme including the "://" separator
+         */
+        private final String scheme;
+        /**
+         * Port including the ":" separator, or "" for no port
+         */
+        private final String port;
+        private final Node root;
+
+        private WildcardRoot(String scheme, String port, Node root) {
+            this.scheme = scheme;
+            this.port = port;
+            this.root = root;
+        }
+
+        boolean matches(String origin, int hostStart, int hostEnd) {
+            if (hostStart != scheme.length() || !origin.regionMatches(true, 0, scheme, 0, scheme.length())) {
+                return false;
+            }
+            int portLength = origin.length() - hostEnd;
+            if (portLength != port.length() || !origin.regionMatches(hostEnd, port, 0, portLength)) {
+                return false;
+            }
+
+            Node node = root;
+            int labelEnd = hostEnd;
+            while (labelEnd > hostStart) {
+                int labelStart = origin.lastIndexOf('.', labelEnd - 1) + 1;
+                if (labelStart <= hostStart) {
+                    // ran out of labels before reaching a complete suffix; the wildcard needs at least one more label
+                    return false;
+                }
+
+                node = node.child(origin, labelStart, labelEnd - labelStart);
+                if (node == null) {
+                    return false;
+                }
+                if (node.terminal) {
+                    // everything to the left of the matched suffix is covered by the wildcard
+                    return labelStart - 1 > hostStart;
+                }
+                labelEnd = labelStart - 1;
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * A host label in the reversed suffix trie.
+     */
+    @Immutable
+    private static final class Node {
+        private final String label;
+        private final Node[] children;
+        /**
+         * true if the labels from the root to this node form a complete wildcard suffix
+         */
+        private final boolean terminal;
+
+        private Node(String label, Node[] children, boolean terminal) {
+            this.label = label;
+            this.children = children;
+            this.terminal = terminal;
+        }
+
+        Node child(String origin, int start, int length) {
+            for (Node child : children) {
+                if (child.label.length() == length && origin.regionMatches(true, start, child.label, 0, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+    }
+
+    @NotThreadSafe
+    private static final class WildcardRootBuilder {
+        private final String scheme;
+        private final String port;
+        private final NodeBuilder root = new NodeBuilder("");
+
+        private WildcardRootBuilder(String scheme, String port) {
+            this.scheme = scheme;
+            this.port = port;
+        }
+
+        void add(String suffix) {
+            NodeBuilder node = root;
+            List<String> labels = newArrayList(Splitter.on('.').split(suffix));
+            for (int i = labels.size() - 1; i >= 0; i--) {
+                node = node.getOrAddChild(labels.get(i));
+            }
+            node.terminal = true;
+        }
+
+        WildcardRoot build() {
+            return new WildcardRoot(scheme, port, root.build());
+        }
+    }
+
+    @NotThreadSafe
+    private static final class NodeBuilder {
+        private final String label;
+        private final List<NodeBuilder> children = newArrayList();
+        private boolean terminal;
+
+        private NodeBuilder(String label) {
+            this.label = label;
+        }
+
+        NodeBuilder getOrAddChild(String childLabel) {
+            for (NodeBuilder child : children) {
+                if (child.label.equalsIgnoreCase(childLabel)) {
+                    return child;
+                }
+            }
+            NodeBuilder child = new NodeBuilder(childLabel);
+            children.add(child);
+            return child;
+        }
+
+        Node build() {
+            Node[] built = new Node[children.size()];
+            for (int i = 0; i < built.length; i++) {
+                built[i] = children.get(i).build();
+            }
+            return new Node(label, built, terminal);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Values keyed by path pattern, stored in a trie of path segments. A pattern's segments are literals, "*" or "{name}"
+ * for any one segment, or, as the last segment, "**" for any number of segments, including none.
+ *
+ * Paths are resource paths as declared in @Path, so they may contain template variables themselves; a variable
+ * segment in a path is matched only by a pattern's wildcards, since it could stand for anything. When several patterns
+ * match, the most specific wins: segment by segment from the left, a literal beats a single segment wildcard, which
+ * beats "**".
+ *
+ * @param <T> value type
+ */
+@Immutable
+final class PathPatternTrie<T> {
+
+    private static final String ANY_SEGMENT = "*";
+
+    private static final String ANY_SEGMENTS = "**";
+
+    private final Node<T> root;
+
+    private PathPatternTrie(Node<T> root) {
+        this.root = root;
+    }
+
+    /**
+     * @param path resource path
+     * @return the value of the most specific pattern matching the path, or null if none does
+     */
+    @Nullable
+    T get(@Nonnull String path) {
+        return root.get(split(path), 0);
+    }
+
+    /**
+     * @param path path or pattern, with or without leading and trailing slashes
+     * @return its segments; slashes inside template variables (which may hold regular expressions) don't split
+     */
+    @Nonnull
+    static List<String> split(@Nonnull String path) {
+        String normalized = normalize(path);
+        List<String> segments = newArrayList();
+        if (normalized.isEmpty()) {
+            return segments;
+        }
+
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                depth--;
+            } else if (c == '/' && depth == 0) {
+                segments.add(normalized.substring(start, i));
+                start = i + 1;
+            }
+        }
+        segments.add(normalized.substring(start));
+        return segments;
+    }
+
+    /**
+     * @param path a path
+     * @return the path without leading or trailing slashes
+     */
+    @Nonnull
+    static String normalize(@Nonnull String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end - 1) == '/') {
+            end--;
+        }
+        return path.substring(start, end);
+    }
+
+    private static boolean isVariable(String segment) {
+        return segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    @Immutable
+    private static final class Node<T> {
+        private final Map<String, Node<T>> literals;
+
+        @Nullable
+        private final Node<T> anySegment;
+
+        /**
+         * Value of the pattern ending here with "**"
+         */
+        @Nullable
+        private final T anySegments;
+
+        /**
+         * Value of the pattern ending here
+         */
+        @Nullable
+        private final T value;
+
+        private Node(Map<String, Node<T>> literals, @Nullable Node<T> anySegment, @Nullable T anySegments,
+            @Nullable T value) {
+            this.literals = literals;
+            this.anySegment = anySegment;
+            this.anySegments = anySegments;
+            this.value = value;
+        }
+
+        @Nullable
+        T get(List<String> segments, int index) {
+            if (index == segments.size()) {
+                return value != null ? value : anySegments;
+            }
+
+            String segment = segments.get(index);
+            // variables in the path never equal a literal, since patterns can't have braces in literals
+            Node<T> literal = literals.get(segment);
+            if (literal != null) {
+                T found = literal.get(segments, index + 1);
+                if (found != null) {
+                    return found;
+                }
+            }
+
+            if (anySegment != null) {
+                T found = anySegment.get(segments, index + 1);
+                if (found != null) {
+                    return found;
+                }
+            }
+
+            return anySegments;
+        }
+    }
+
+    /**
+     * Collects patterns, then builds the immutable trie.
+     *
+     * @param <T> value type
+     */
+    @NotThreadSafe
+    static final class Builder<T> {
+        private final MutableNode<T> root = new MutableNode<T>();
+
+        /**
+         * @param pattern path pattern, with or without leading and trailing slashes
+         * @param value   value for the pattern
+         * @return this
+         * @throws IllegalArgumentException if the pattern is malformed or has already been added
+         */
+        @Nonnull
+        Builder<T> put(@Nonnull String pattern, @Nonnull T value) {
+            List<String> segments = split(pattern);
+            MutableNode<T> node = root;
+            for (int i = 0; i < segments.size(); i++) {
+                String segment = segments.get(i);
+                if (segment.equals(ANY_SEGMENTS)) {
+                    if (i != segments.size() - 1) {
+                        throw new IllegalArgumentException("'**' must be the last segment of path pattern " + pattern);
+                    }
+                    if (node.anySegments != null) {
+                        throw new IllegalArgumentException("Duplicate path pattern " + pattern);
+                    }
+                    node.anySegments = value;
+                    return this;
+                }
+
+                if (segment.isEmpty() || (segment.contains(ANY_SEGMENT) && !segment.equals(ANY_SEGMENT))) {
+                    throw new IllegalArgumentException("Invalid segment '" + segment + "' in path pattern " + pattern);
+                }
+
+                if (segment.equals(ANY_SEGMENT) || isVariable(segment)) {
+                    if (segment.indexOf(':') >= 0) {
+                        throw new IllegalArgumentException(
+                            "Template variables in path patterns can't have regular expressions: " + pattern);
+                    }
+                    if (node.anySegment == null) {
+                        node.anySegment = new MutableNode<T>();
+                    }
+                    node = node.anySegment;
+                } else if (segment.indexOf('{') >= 0 || segment.indexOf('}') >= 0) {
+                    throw new IllegalArgumentException("Invalid segment '" + segment + "' in path pattern " + pattern);
+                } else {
+                    MutableNode<T> child = node.literals.get(segment);
+                    if (child == null) {
+                        child = new MutableNode<T>();
+                        node.literals.put(segment, child);
+                    }
+                    node = child;
+                }
+            }
+
+            if (node.value != null) {
+                throw new IllegalArgumentException("Duplicate path pattern " + pattern);
+            }
+            node.value = value;
+            return this;
+        }
+
+        @Nonnull
+        PathPatternTrie<T> build() {
+            return new PathPatternTrie<T>(root.build());
+        }
+    }
+
+    @NotThreadSafe
+    private static final class MutableNode<T> {
+        final Map<String, MutableNode<T>> literals = newHashMap();
+        MutableNode<T> anySegment;
+        T anySegments;
+        T value;
+
+        Node<T> build() {
+            ImmutableMap.Builder<String, Node<T>> built = ImmutableMap.builder();
+            for (Map.Entry<String, MutableNode<T>> e : literals.entrySet()) {
+                built.put(e.getKey(), e.getValue().build());
+            }
+            return new Node<T>(built.build(), anySegment == null ? null : anySegment.build(), anySegments, value);
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Objects;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Map;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.palominolabs.jersey.cors.ConfigProps.getBooleanProp;
+import static com.palominolabs.jersey.cors.ConfigProps.getIntProp;
+import static com.palominolabs.jersey.cors.ConfigProps.getStringProp;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOW_CREDENTIALS;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOW_HEADERS;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOW_METHODS;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOW_ORIGIN;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOWED_ORIGINS;
+import static com.palominolabs.jersey.cors.CorsConfig.EXPOSE_HEADERS;
+import static com.palominolabs.jersey.cors.CorsConfig.MAX_AGE;
+import static com.palominolabs.jersey.cors.CorsConfig.REJECT_DISALLOWED_ORIGINS;
+import static com.palominolabs.jersey.cors.CorsPreflight.UNSET_MAX_AGE;
+import static com.palominolabs.jersey.cors.Ternary.FALSE;
+import static com.palominolabs.jersey.cors.Ternary.NEUTRAL;
+import static com.palominolabs.jersey.cors.Ternary.TRUE;
+
+/**
+ * Resolves a resource method's effective CORS configuration from a set of defaults and the {@link Cors} and
+ * {@link CorsPreflight} annotations of the method and its class: the class's annotation is applied over the defaults,
+ * and the method's over that. The class-level part is done once per class.
+ *
+ * This is shared by every container integration, so they all send the same headers for the same annotations; they
+ * only differ in how they find a method's annotations and what filters they build from the result. The resolved
+ * configs are values, so methods that resolve to equal configs can share a filter.
+ */
+@NotThreadSafe
+final class PolicyResolver {
+
+    private final Defaults defaults;
+
+    /**
+     * Defaults merged with each resource class's annotations
+     */
+    private final Map<Class<?>, ClassConfig> classConfigs = newHashMap();
+
+    PolicyResolver(@Nonnull Defaults defaults) {
+        this.defaults = defaults;
+    }
+
+    @Nonnull
+    Defaults getDefaults() {
+        return defaults;
+    }
+
+    /**
+     * @param klass  resource class
+     * @param ann    the method's annotation, if any
+     * @param merged true if the class's annotation has already been merged into ann, or must not be applied
+     * @return the effective config, which must not be modified, or null if neither the method nor its class is
+     *         annotated
+     */
+    @Nullable
+    CorsResourceConfig resolveCors(@Nonnull Class<?> klass, @Nullable CorsOverrides ann, boolean merged) {
+        CorsResourceConfig classConfig = merged ? null : getClassConfig(klass).resource;
+        if (ann == null) {
+            return classConfig;
+        }
+
+        CorsResourceConfig config = classConfig == null ? getDefaultResourceConfig(defaults) : classConfig.copy();
+        applyCorsAnnotation(config, ann);
+        return config;
+    }
+
+    /**
+     * @param klass  resource class
+     * @param ann    the method's annotation, if any
+     * @param merged true if the class's annotation has already been merged into ann, or must not be applied
+     * @return the effective config, which must not be modified, or null if neither the method nor its class is
+     *         annotated
+     */
+    @Nullable
+    CorsPreflightConfig resolvePreflight(@Nonnull Class<?> klass, @Nullable CorsPreflightOverrides ann,
+        boolean merged) {
+        CorsPreflightConfig classConfig = merged ? null : getClassConfig(klass).preflight;
+        if (ann == null) {
+            return classConfig;
+        }
+
+        CorsPreflightConfig config = classConfig == null ? getDefaultPreflightConfig(defaults) : classConfig.copy();
+        applyCorsPreflightAnnotation(config, ann);
+        return config;
+    }
+
+    /**
+     * @param classPreflight the class's annotation, if any
+     * @param allowMethods   methods to allow unless the class's annotation specifies them
+     * @return the effective config for preflights to a path without an @OPTIONS method, which must not be modified
+     */
+    @Nonnull
+    CorsPreflightConfig resolveAutoPreflight(@Nullable CorsPreflightOverrides classPreflight,
+        @Nonnull String allowMethods) {
+        CorsPreflightConfig config = getDefaultPreflightConfig(defaults);
+        config.allowMethods = allowMethods;
+
+        if (classPreflight != null) {
+            applyCorsPreflightAnnotation(config, classPreflight);
+        }
+        return config;
+    }
+
+    /**
+     * @param klass resource class
+     * @return the defaults merged with the class's annotations
+     */
+    @Nonnull
+    private ClassConfig getClassConfig(Class<?> klass) {
+        ClassConfig classConfig = classConfigs.get(klass);
+        if (classConfig != null) {
+            return classConfig;
+        }
+
+        CorsResourceConfig resource = null;
+        Cors cors = klass.getAnnotation(Cors.class);
+        if (cors != null) {
+            resource = getDefaultResourceConfig(defaults);
+            applyCorsAnnotation(resource, CorsOverrides.of(cors));
+        }
+
+        CorsPreflightConfig preflight = null;
+        CorsPreflight corsPreflight = klass.getAnnotation(CorsPreflight.class);
+        if (corsPreflight != null) {
+            preflight = getDefaultPreflightConfig(defaults);
+            applyCorsPreflightAnnotation(preflight, CorsPreflightOverrides.of(corsPreflight));
+        }
+
+        classConfig = new ClassConfig(resource, preflight);
+        classConfigs.put(klass, classConfig);
+        return classConfig;
+    }
+
+    /**
+     * Write non-default values in the annotation to the config.
+     *
+     * @param config config to write to
+     * @param ann    annotation to read from
+     */
+    private static void applyCorsAnnotation(CorsResourceConfig config, CorsOverrides ann) {
+        if (!ann.allowOrigin.isEmpty()) {
+            config.allowOrigin = ann.allowOrigin;
+            // a fixed origin on a more specific annotation replaces a less specific allowlist
+            config.allowedOrigins = "";
+        }
+
+        if (!ann.allowedOrigins.isEmpty()) {
+            config.allowedOrigins = ann.allowedOrigins;
+        }
+
+        if (!ann.exposeHeaders.isEmpty()) {
+            config.exposeHeaders = ann.exposeHeaders;
+        }
+
+        if (ann.allowCredentials != NEUTRAL) {
+            config.allowCredentials = ann.allowCredentials;
+        }
+
+        if (ann.rejectDisallowedOrigins != NEUTRAL) {
+            config.rejectDisallowedOrigins = ann.rejectDisallowedOrigins;
+        }
+    }
+
+    /**
+     * Write non-default values in the annotation to the config.
+     *
+     * @param config config to write to
+     * @param ann    annotation to read from
+     */
+    private static void applyCorsPreflightAnnotation(CorsPreflightConfig config, CorsPreflightOverrides ann) {
+        if (ann.maxAge != UNSET_MAX_AGE) {
+            config.maxAge = ann.maxAge;
+        }
+
+        if (!ann.allowMethods.isEmpty()) {
+            config.allowMethods = ann.allowMethods;
+        }
+
+        if (!ann.allowHeaders.isEmpty()) {
+            config.allowHeaders = ann.allowHeaders;
+        }
+
+        if (ann.allowCredentials != NEUTRAL) {
+            config.allowCredentials = ann.allowCredentials;
+        }
+
+        if (!ann.allowOrigin.isEmpty()) {
+            config.allowOrigin = ann.allowOrigin;
+            config.allowedOrigins = "";
+        }
+
+        if (!ann.allowedOrigins.isEmpty()) {
+            config.allowedOrigins = ann.allowedOrigins;
+        }
+    }
+
+    /**
+     * @param d defaults
+     * @return a CorsResourceConfig filled in based on the defaults.
+     */
+    @Nonnull
+    private static CorsResourceConfig getDefaultResourceConfig(Defaults d) {
+        CorsResourceConfig c = new CorsResourceConfig();
+        c.allowOrigin = d.allowOrigin;
+        c.exposeHeaders = d.exposeHeaders;
+        c.allowCredentials = d.allowCredentials;
+        c.allowedOrigins = d.allowedOrigins;
+        c.rejectDisallowedOrigins = d.rejectDisallowedOrigins;
+        return c;
+    }
+
+    /**
+     * @param d defaults
+     * @return a CorsPreflightConfig filled in based on the defaults.
+     */
+    @Nonnull
+    private static CorsPreflightConfig getDefaultPreflightConfig(Defaults d) {
+        CorsPreflightConfig c = new CorsPreflightConfig();
+        c.maxAge = d.maxAge;
+        c.allowMethods = d.allowMethods;
+        c.allowHeaders = d.allowHeaders;
+        c.allowCredentials = d.allowCredentials;
+        c.allowOrigin = d.allowOrigin;
+        c.allowedOrigins = d.allowedOrigins;
+        return c;
+    }
+
+    /**
+     * @param ternary a resolved Ternary
+     * @return true for TRUE, false for FALSE
+     * @throws IllegalStateException on NEUTRAL
+     */
+    static boolean getBooleanFromTernary(@Nonnull Ternary ternary) {
+        switch (ternary) {
+            case TRUE:
+                return true;
+            case FALSE:
+                return false;
+            case NEUTRAL:
+            default: // default unnecessary but helps javac understand that all cases are covered
+                throw new IllegalStateException("Neutral ternary; impossible");
+        }
+    }
+
+    /**
+     * Default header values.
+     */
+    @Immutable
+    static final class Defaults {
+        final int maxAge;
+        final String allowOrigin;
+        final String exposeHeaders;
+        final Ternary allowCredentials;
+        final String allowMethods;
+        final String allowHeaders;
+        final String allowedOrigins;
+        final Ternary rejectDisallowedOrigins;
+
+        /**
+         * @param props {@link CorsConfig} properties
+         */
+        Defaults(@Nonnull Map<String, Object> props) {
+            // load properties, if they are set, otherwise use hardcoded defaults.
+            allowOrigin = getStringProp(props, ALLOW_ORIGIN, "*");
+            exposeHeaders = getStringProp(props, EXPOSE_HEADERS, "");
+            allowCredentials = getBooleanProp(props, ALLOW_CREDENTIALS, false) ? TRUE : FALSE;
+            maxAge = getIntProp(props, MAX_AGE, 24 * 3600);
+            allowMethods = getStringProp(props, ALLOW_METHODS, "GET");
+            allowHeaders = getStringProp(props, ALLOW_HEADERS, "");
+            allowedOrigins = getStringProp(props, ALLOWED_ORIGINS, "");
+            rejectDisallowedOrigins = getBooleanProp(props, REJECT_DISALLOWED_ORIGINS, false) ? TRUE : FALSE;
+        }
+    }
+
+    /**
+     * Mutable bundle of config data for resource cors headers. Once fully resolved, it is used as the key for interning
+     * filters and is no longer modified.
+     */
+    @NotThreadSafe
+    static final class CorsResourceConfig {
+        String allowOrigin;
+        String exposeHeaders;
+        Ternary allowCredentials;
+        String allowedOrigins;
+        Ternary rejectDisallowedOrigins;
+
+        CorsResourceConfig copy() {
+            CorsResourceConfig c = new CorsResourceConfig();
+            c.allowOrigin = allowOrigin;
+            c.exposeHeaders = exposeHeaders;
+            c.allowCredentials = allowCredentials;
+            c.allowedOrigins = allowedOrigins;
+            c.rejectDisallowedOrigins = rejectDisallowedOrigins;
+            return c;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CorsResourceConfig)) {
+                return false;
+            }
+            CorsResourceConfig that = (CorsResourceConfig) o;
+            return allowOrigin.equals(that.allowOrigin) && exposeHeaders.equals(that.exposeHeaders) &&
+                allowCredentials == that.allowCredentials && allowedOrigins.equals(that.allowedOrigins) &&
+                rejectDisallowedOrigins == that.rejectDisallowedOrigins;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(allowOrigin, exposeHeaders, allowCredentials, allowedOrigins,
+                rejectDisallowedOrigins);
+        }
+    }
+
+    /**
+     * Mutable bundle of config data for preflight cors headers. Once fully resolved, it is used as the key for
+     * interning filters and is no longer modified.
+     */
+    @NotThreadSafe
+    static final class CorsPreflightConfig {
+        int maxAge;
+        String allowMethods;
+        String allowHeaders;
+        Ternary allowCredentials;
+        String allowOrigin;
+        String allowedOrigins;
+
+        CorsPreflightConfig copy() {
+            CorsPreflightConfig c = new CorsPreflightConfig();
+            c.maxAge = maxAge;
+            c.allowMethods = allowMethods;
+            c.allowHeaders = allowHeaders;
+            c.allowCredentials = allowCredentials;
+            c.allowOrigin = allowOrigin;
+            c.allowedOrigins = allowedOrigins;
+            return c;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof CorsPreflightConfig)) {
+                return false;
+            }
+            CorsPreflightConfig that = (CorsPreflightConfig) o;
+            return maxAge == that.maxAge && allowMethods.equals(that.allowMethods) &&
+                allowHeaders.equals(that.allowHeaders) && allowCredentials == that.allowCredentials &&
+                allowOrigin.equals(that.allowOrigin) && allowedOrigins.equals(that.allowedOrigins);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(maxAge, allowMethods, allowHeaders, allowCredentials, allowOrigin,
+                allowedOrigins);
+        }
+    }
+
+    /**
+     * The defaults merged with a resource class's annotations. The configs are never modified; they are copied before
+     * a method annotation is applied.
+     */
+    @Immutable
+    private static final class ClassConfig {
+        /**
+         * null if the class does not have {@link Cors}
+         */
+        @Nullable
+        final CorsResourceConfig resource;
+
+        /**
+         * null if the class does not have {@link CorsPreflight}
+         */
+        @Nullable
+        final CorsPreflightConfig preflight;
+
+        private ClassConfig(@Nullable CorsResourceConfig resource, @Nullable CorsPreflightConfig preflight) {
+            this.resource = resource;
+            this.preflight = preflight;
+        }
+    }
+}
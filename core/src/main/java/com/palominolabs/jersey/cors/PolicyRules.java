@@ -0,0 +1,189 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Map;
+import java.util.Properties;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.palominolabs.jersey.cors.CorsPreflight.UNSET_MAX_AGE;
+import static com.palominolabs.jersey.cors.Ternary.FALSE;
+import static com.palominolabs.jersey.cors.Ternary.NEUTRAL;
+import static com.palominolabs.jersey.cors.Ternary.TRUE;
+
+/**
+ * CORS policies for root resource methods by path, for resources that can't be annotated, such as those in
+ * third-party jars. Loaded at startup from the file named by {@link CorsConfig#POLICY_RULES_FILE}.
+ *
+ * The file is a properties file. Each key is a path pattern, as understood by {@link PathPatternTrie}, and each value
+ * lists the elements of {@link Cors} and {@link CorsPreflight} to override, as semicolon-separated name=value pairs,
+ * e.g.
+ *
+ * <pre>
+ * /vendor/** = allowedOrigins=https://*.partner.com; allowCredentials=true
+ * /vendor/reports/{id} = allowMethods=GET,DELETE; maxAge=600
+ * </pre>
+ *
+ * A method matched by a rule gets a filter as if it were annotated with the rule's elements: {@link CorsPreflight} for
+ * an @OPTIONS method and {@link Cors} for any other, ignoring the elements that only apply to the other one. An empty
+ * value applies the defaults. Rules only apply to methods that get no filter from their annotations, so annotations
+ * always take precedence.
+ */
+@Immutable
+final class PolicyRules {
+
+    private static final Logger logger = LoggerFactory.getLogger(PolicyRules.class);
+
+    static final PolicyRules EMPTY = new PolicyRules(new PathPatternTrie.Builder<Rule>().build(), 0);
+
+    private static final Splitter ELEMENT_SPLITTER = Splitter.on(';').trimResults().omitEmptyStrings();
+
+    private final PathPatternTrie<Rule> rules;
+
+    private final int size;
+
+    private PolicyRules(PathPatternTrie<Rule> rules, int size) {
+        this.rules = rules;
+        this.size = size;
+    }
+
+    /**
+     * @param file rules file
+     * @return the file's rules
+     * @throws IllegalArgumentException if the file can't be read or has an invalid rule
+     */
+    @Nonnull
+    static PolicyRules load(@Nonnull File file) {
+        Properties properties = new Properties();
+        try {
+            Reader reader = Files.newReader(file, Charsets.UTF_8);
+            try {
+                properties.load(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not read CORS policy rules file " + file, e);
+        }
+
+        Map<String, String> rules = newHashMap();
+        for (String pattern : properties.stringPropertyNames()) {
+            rules.put(pattern, properties.getProperty(pattern));
+        }
+
+        PolicyRules policyRules = compile(rules);
+        logger.info("Loaded " + policyRules.size + " CORS policy rules from " + file);
+        return policyRules;
+    }
+
+    /**
+     * @param rules rules keyed by path pattern
+     * @return the compiled rules
+     * @throws IllegalArgumentException if a rule is invalid
+     */
+    @Nonnull
+    static PolicyRules compile(@Nonnull Map<String, String> rules) {
+        PathPatternTrie.Builder<Rule> builder = new PathPatternTrie.Builder<Rule>();
+        for (Map.Entry<String, String> e : rules.entrySet()) {
+            try {
+                builder.put(e.getKey(), parse(e.getValue()));
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException(
+                    "Invalid CORS policy rule " + e.getKey() + ": " + ex.getMessage(), ex);
+            }
+        }
+        return new PolicyRules(builder.build(), rules.size());
+    }
+
+    /**
+     * @param path path of a root resource method, or null if it isn't one
+     * @return the rule for the path, or null if no rule matches it
+     */
+    @Nullable
+    Rule get(@Nullable String path) {
+        return path == null || size == 0 ? null : rules.get(path);
+    }
+
+    @Nonnull
+    private static Rule parse(String value) {
+        int maxAge = UNSET_MAX_AGE;
+        String allowMethods = "";
+        String allowHeaders = "";
+        String exposeHeaders = "";
+        Ternary allowCredentials = NEUTRAL;
+        Ternary rejectDisallowedOrigins = NEUTRAL;
+        String allowOrigin = "";
+        String allowedOrigins = "";
+
+        for (String element : ELEMENT_SPLITTER.split(value)) {
+            int eq = element.indexOf('=');
+            if (eq < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + element);
+            }
+            String name = element.substring(0, eq).trim();
+            String v = element.substring(eq + 1).trim();
+
+            if (name.equals("maxAge")) {
+                maxAge = Integer.parseInt(v);
+            } else if (name.equals("allowMethods")) {
+                allowMethods = v;
+            } else if (name.equals("allowHeaders")) {
+                allowHeaders = v;
+            } else if (name.equals("exposeHeaders")) {
+                exposeHeaders = v;
+            } else if (name.equals("allowCredentials")) {
+                allowCredentials = parseTernary(v);
+            } else if (name.equals("rejectDisallowedOrigins")) {
+                rejectDisallowedOrigins = parseTernary(v);
+            } else if (name.equals("allowOrigin")) {
+                allowOrigin = v;
+            } else if (name.equals("allowedOrigins")) {
+                // fail at startup rather than when the first matching method is seen
+                OriginMatcher.compile(v);
+                allowedOrigins = v;
+            } else {
+                throw new IllegalArgumentException("Unknown element " + name);
+            }
+        }
+
+        return new Rule(
+            new CorsOverrides(allowOrigin, allowedOrigins, exposeHeaders, allowCredentials, rejectDisallowedOrigins),
+            new CorsPreflightOverrides(maxAge, allowMethods, allowHeaders, allowCredentials, allowOrigin,
+                allowedOrigins));
+    }
+
+    private static Ternary parseTernary(String v) {
+        if (v.equals("true")) {
+            return TRUE;
+        } else if (v.equals("false")) {
+            return FALSE;
+        }
+        throw new IllegalArgumentException("Expected true or false: " + v);
+    }
+
+    /**
+     * The policy one rule gives, as the annotations a method matched by it is treated as having.
+     */
+    @Immutable
+    static final class Rule {
+        @Nonnull
+        final CorsOverrides cors;
+        @Nonnull
+        final CorsPreflightOverrides preflight;
+
+        private Rule(@Nonnull CorsOverrides cors, @Nonnull CorsPreflightOverrides preflight) {
+            this.cors = cors;
+            this.preflight = preflight;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+
+/**
+ * Every {@link CorsPolicyTable} on the classpath, combined. Methods of classes that no table covers have to be read
+ * reflectively.
+ */
+@Immutable
+final class PolicyTables {
+
+    private static final Logger logger = LoggerFactory.getLogger(PolicyTables.class);
+
+    static final PolicyTables EMPTY = new PolicyTables(
+        ImmutableSet.<String>of(), ImmutableMap.<String, CorsPreflightOverrides>of(),
+        ImmutableMap.<String, CorsOverrides>of(), ImmutableMap.<String, CorsPreflightOverrides>of());
+
+    private final Set<String> classes;
+
+    private final Map<String, CorsPreflightOverrides> classPreflights;
+
+    private final Map<String, CorsOverrides> corsMethods;
+
+    private final Map<String, CorsPreflightOverrides> preflightMethods;
+
+    private PolicyTables(Set<String> classes, Map<String, CorsPreflightOverrides> classPreflights,
+        Map<String, CorsOverrides> corsMethods, Map<String, CorsPreflightOverrides> preflightMethods) {
+        this.classes = classes;
+        this.classPreflights = classPreflights;
+        this.corsMethods = corsMethods;
+        this.preflightMethods = preflightMethods;
+    }
+
+    /**
+     * @param classLoader class loader to look for tables with
+     * @return the tables registered with the class loader
+     */
+    @Nonnull
+    static PolicyTables load(@Nonnull ClassLoader classLoader) {
+        Set<String> classes = newHashSet();
+        Map<String, CorsPreflightOverrides> classPreflights = newHashMap();
+        Map<String, CorsOverrides> corsMethods = newHashMap();
+        Map<String, CorsPreflightOverrides> preflightMethods = newHashMap();
+
+        int count = 0;
+        for (CorsPolicyTable table : ServiceLoader.load(CorsPolicyTable.class, classLoader)) {
+            classes.addAll(table.getClasses());
+            classPreflights.putAll(table.getClassPreflights());
+            corsMethods.putAll(table.getCorsMethods());
+            preflightMethods.putAll(table.getPreflightMethods());
+            count++;
+        }
+
+        if (count == 0) {
+            return EMPTY;
+        }
+
+        logger.info("Loaded " + count + " CORS policy tables covering " + classes.size() + " resource classes");
+        return new PolicyTables(ImmutableSet.copyOf(classes), ImmutableMap.copyOf(classPreflights),
+            ImmutableMap.copyOf(corsMethods), ImmutableMap.copyOf(preflightMethods));
+    }
+
+    /**
+     * @param klass resource class
+     * @return true if the tables list every method of the class that gets a filter
+     */
+    boolean covers(@Nonnull Class<?> klass) {
+        return classes.contains(klass.getName());
+    }
+
+    /**
+     * @param klass covered resource class
+     * @return the class's own {@link CorsPreflight}, if it has one
+     */
+    @Nullable
+    CorsPreflightOverrides getClassPreflight(@Nonnull Class<?> klass) {
+        return classPreflights.get(klass.getName());
+    }
+
+    /**
+     * @param method method of a covered class
+     * @return the method's {@link Cors} merged with its class's, if either is annotated and the method isn't @OPTIONS
+     */
+    @Nullable
+    CorsOverrides getCors(@Nonnull Method method) {
+        return corsMethods.isEmpty() ? null : corsMethods.get(CorsPolicyTable.methodKey(method));
+    }
+
+    /**
+     * @param method method of a covered class
+     * @return the method's {@link CorsPreflight} merged with its class's, if either is annotated and the method is
+     *         {@code @OPTIONS}
+     */
+    @Nullable
+    CorsPreflightOverrides getPreflight(@Nonnull Method method) {
+        return preflightMethods.isEmpty() ? null : preflightMethods.get(CorsPolicyTable.methodKey(method));
+    }
+}
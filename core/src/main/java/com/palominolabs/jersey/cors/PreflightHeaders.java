@@ -0,0 +1,132 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.MultivaluedMap;
+
+import static com.palominolabs.jersey.cors.CorsOutcomes.ALLOWED;
+import static com.palominolabs.jersey.cors.CorsOutcomes.DISALLOWED_ORIGIN;
+import static com.palominolabs.jersey.cors.CorsOutcomes.HEADER_PRESENT;
+import static com.palominolabs.jersey.cors.CorsOutcomes.NO_ORIGIN;
+import static com.palominolabs.jersey.cors.CorsOutcomes.REJECTED_PREFLIGHT;
+import static com.palominolabs.jersey.cors.ResourceHeaders.getResponseOrigin;
+import static com.palominolabs.jersey.cors.ResourceHeaders.putIfNotPresent;
+
+/**
+ * The CORS headers for an @OPTIONS method with {@link CorsPreflight}, resolved from its effective config, and the
+ * per-request decisions about them, including {@link CorsConfig#VALIDATE_PREFLIGHT}. The Jersey 1 and JAX-RS 2 filters
+ * both delegate to this, so they answer preflights alike for the same config.
+ */
+@Immutable
+final class PreflightHeaders {
+
+    private final String allowOrigin;
+
+    /**
+     * null to send allowOrigin to every origin
+     */
+    @Nullable
+    private final OriginAllowlist originMatcher;
+
+    /**
+     * Headers other than Access-Control-Allow-Origin, which may depend on the request
+     */
+    private final HeaderBlock headers;
+
+    private final VaryHeader vary;
+
+    /**
+     * null if preflights are answered with the configured methods and headers without checking them
+     */
+    @Nullable
+    private final PreflightValidator validator;
+
+    /**
+     * Headers other than Access-Control-Allow-(Origin|Methods|Headers) for validated preflights
+     */
+    private final HeaderBlock validatedHeaders;
+
+    PreflightHeaders(int maxAge, @Nonnull String allowMethods, @Nonnull String allowHeaders, boolean allowCredentials,
+        @Nonnull String allowOrigin, @Nullable OriginAllowlist originMatcher, boolean validate) {
+        this.allowOrigin = allowOrigin;
+        this.originMatcher = originMatcher;
+        String credentials = allowCredentials ? Boolean.TRUE.toString() : "";
+        headers = new HeaderBlock.Builder()
+            .add(CorsHeaders.MAX_AGE, Integer.toString(maxAge))
+            .addIfNotEmpty(CorsHeaders.ALLOW_METHODS, allowMethods)
+            .addIfNotEmpty(CorsHeaders.ALLOW_HEADERS, allowHeaders)
+            .addIfNotEmpty(CorsHeaders.ALLOW_CREDENTIALS, credentials)
+            .build();
+        // with validation, allowed methods and headers are taken from the request once it has been checked
+        validatedHeaders = new HeaderBlock.Builder()
+            .add(CorsHeaders.MAX_AGE, Integer.toString(maxAge))
+            .addIfNotEmpty(CorsHeaders.ALLOW_CREDENTIALS, credentials)
+            .build();
+        vary = originMatcher == null ?
+            new VaryHeader(CorsHeaders.REQUEST_METHOD, CorsHeaders.REQUEST_HEADERS) :
+            new VaryHeader(CorsHeaders.ORIGIN, CorsHeaders.REQUEST_METHOD, CorsHeaders.REQUEST_HEADERS);
+        validator = validate ? PreflightValidator.compile(allowMethods, allowHeaders) : null;
+    }
+
+    /**
+     * Add just the Vary header, for a preflight that is turned away before its CORS headers are decided.
+     *
+     * @param h headers to add to
+     */
+    void addVary(@Nonnull MultivaluedMap<String, Object> h) {
+        vary.merge(h);
+    }
+
+    /**
+     * @param incomingOrigin the request's Origin, or null if it has none
+     * @param requestMethod  the request's Access-Control-Request-Method, or null if it isn't a real preflight
+     * @param requestHeaders the request's Access-Control-Request-Headers, or null if it has none
+     * @param h              headers to add to
+     * @return a combination of the {@link CorsOutcomes} flags
+     */
+    int addHeaders(@Nullable String incomingOrigin, @Nullable String requestMethod, @Nullable String requestHeaders,
+        @Nonnull MultivaluedMap<String, Object> h) {
+        vary.merge(h);
+
+        if (incomingOrigin == null) {
+            return NO_ORIGIN;
+        }
+
+        String responseOrigin = getResponseOrigin(allowOrigin, originMatcher, incomingOrigin);
+        if (responseOrigin == null) {
+            return DISALLOWED_ORIGIN;
+        }
+
+        if (validator != null && requestMethod != null) {
+            return addValidatedHeaders(h, responseOrigin, requestMethod, requestHeaders);
+        }
+
+        boolean allAdded = putIfNotPresent(h, CorsHeaders.ALLOW_ORIGIN, responseOrigin);
+        allAdded &= headers.putIfNotPresent(h);
+        return allAdded ? ALLOWED : ALLOWED | HEADER_PRESENT;
+    }
+
+    /**
+     * Answer a real preflight with just the requested method and headers, or not at all if any of them is not allowed.
+     */
+    private int addValidatedHeaders(MultivaluedMap<String, Object> h, String responseOrigin, String requestMethod,
+        @Nullable String requestHeaders) {
+        String allowedMethod = validator.getAllowedMethod(requestMethod);
+        if (allowedMethod == null) {
+            return REJECTED_PREFLIGHT;
+        }
+
+        if (requestHeaders != null && !validator.allowsHeaders(requestHeaders)) {
+            return REJECTED_PREFLIGHT;
+        }
+
+        boolean allAdded = putIfNotPresent(h, CorsHeaders.ALLOW_ORIGIN, responseOrigin);
+        allAdded &= putIfNotPresent(h, CorsHeaders.ALLOW_METHODS, allowedMethod);
+        if (requestHeaders != null && !requestHeaders.isEmpty()) {
+            allAdded &= putIfNotPresent(h, CorsHeaders.ALLOW_HEADERS, requestHeaders);
+        }
+        allAdded &= validatedHeaders.putIfNotPresent(h);
+        return allAdded ? ALLOWED : ALLOWED | HEADER_PRESENT;
+    }
+}
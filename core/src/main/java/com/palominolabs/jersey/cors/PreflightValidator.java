@@ -0,0 +1,211 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Splitter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+import java.util.Locale;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Checks a preflight's Access-Control-Request-Method and Access-Control-Request-Headers against the configured allowed
+ * methods and headers, as enabled by {@link CorsConfig#VALIDATE_PREFLIGHT}.
+ *
+ * Allowed methods are compiled into a bitmask over a small table of method names, and allowed headers into a
+ * case-insensitive perfect hash set, so that checking a preflight only involves scanning the request header values in
+ * place, without splitting them or creating any strings.
+ */
+@Immutable
+final class PreflightValidator {
+
+    /**
+     * Methods with well known bit positions. Configured methods not in this list are appended to it.
+     */
+    private static final String[] KNOWN_METHODS =
+        {"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH", "TRACE", "CONNECT"};
+
+    /**
+     * GET, HEAD and POST are CORS-safelisted methods, which user agents accept whether or not they are listed.
+     */
+    private static final long SAFELISTED_METHODS = 0x7L;
+
+    /**
+     * Method names by bit position
+     */
+    private final String[] methods;
+
+    private final long allowedMethods;
+
+    private final HeaderNameSet allowedHeaders;
+
+    private PreflightValidator(String[] methods, long allowedMethods, HeaderNameSet allowedHeaders) {
+        this.methods = methods;
+        this.allowedMethods = allowedMethods;
+        this.allowedHeaders = allowedHeaders;
+    }
+
+    /**
+     * @param allowMethods comma-separated list of allowed methods
+     * @param allowHeaders comma-separated list of allowed headers
+     * @return a validator for the given methods and headers
+     * @throws IllegalArgumentException if more than 64 distinct methods are listed
+     */
+    @Nonnull
+    static PreflightValidator compile(@Nonnull String allowMethods, @Nonnull String allowHeaders) {
+        List<String> methods = newArrayList(KNOWN_METHODS);
+        long allowed = SAFELISTED_METHODS;
+        for (String method : split(allowMethods)) {
+            int bit = methods.indexOf(method);
+            if (bit < 0) {
+                bit = methods.size();
+                methods.add(method);
+            }
+            if (bit >= Long.SIZE) {
+                throw new IllegalArgumentException("Too many distinct methods in " + allowMethods);
+            }
+            allowed |= 1L << bit;
+        }
+
+        return new PreflightValidator(methods.toArray(new String[methods.size()]), allowed,
+            HeaderNameSet.compile(split(allowHeaders)));
+    }
+
+    /**
+     * @param requestMethod the preflight's Access-Control-Request-Method
+     * @return the method to send as Access-Control-Allow-Methods, or null if the method is not allowed
+     */
+    @Nullable
+    String getAllowedMethod(@Nonnull String requestMethod) {
+        String[] m = methods;
+        for (int i = 0; i < m.length; i++) {
+            if (m[i].equals(requestMethod)) {
+                return (allowedMethods & (1L << i)) != 0 ? m[i] : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param requestHeaders the preflight's Access-Control-Request-Headers
+     * @return true if every header listed is allowed
+     */
+    boolean allowsHeaders(@Nonnull String requestHeaders) {
+        int length = requestHeaders.length();
+        int start = 0;
+        while (start < length) {
+            int end = requestHeaders.indexOf(',', start);
+            if (end < 0) {
+                end = length;
+            }
+
+            int tokenStart = start;
+            int tokenEnd = end;
+            while (tokenStart < tokenEnd && isWhitespace(requestHeaders.charAt(tokenStart))) {
+                tokenStart++;
+            }
+            while (tokenEnd > tokenStart && isWhitespace(requestHeaders.charAt(tokenEnd - 1))) {
+                tokenEnd--;
+            }
+
+            if (tokenEnd > tokenStart && !allowedHeaders.contains(requestHeaders, tokenStart, tokenEnd)) {
+                return false;
+            }
+
+            start = end + 1;
+        }
+
+        return true;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t';
+    }
+
+    private static List<String> split(String commaSeparated) {
+        return newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(commaSeparated));
+    }
+
+    /**
+     * Perfect hash set of lower-cased header names: the seed is chosen when the set is compiled so that no two names
+     * land in the same slot, so a lookup is one hash computation and at most one comparison.
+     */
+    @Immutable
+    static final class HeaderNameSet {
+
+        private final String[] slots;
+
+        private final int seed;
+
+        private HeaderNameSet(String[] slots, int seed) {
+            this.slots = slots;
+            this.seed = seed;
+        }
+
+        static HeaderNameSet compile(List<String> names) {
+            List<String> lowerCased = newArrayList();
+            for (String name : names) {
+                String lower = name.toLowerCase(Locale.ENGLISH);
+                if (!lowerCased.contains(lower)) {
+                    lowerCased.add(lower);
+                }
+            }
+
+            int size = Integer.highestOneBit(Math.max(1, lowerCased.size() * 2 - 1)) << 1;
+            while (true) {
+                // a handful of seeds is enough at load factor <= 1/2; if they all collide, grow the table
+                for (int seed = 0; seed < 64; seed++) {
+                    String[] slots = tryPlace(lowerCased, size, seed);
+                    if (slots != null) {
+                        return new HeaderNameSet(slots, seed);
+                    }
+                }
+                size <<= 1;
+            }
+        }
+
+        private static String[] tryPlace(List<String> names, int size, int seed) {
+            String[] slots = new String[size];
+            for (String name : names) {
+                int slot = hash(name, 0, name.length(), seed) & (size - 1);
+                if (slots[slot] != null) {
+                    return null;
+                }
+                slots[slot] = name;
+            }
+            return slots;
+        }
+
+        /**
+         * @param s     string containing the header name
+         * @param start index of the first character of the name
+         * @param end   index just past the last character of the name
+         * @return true if the name, compared case-insensitively, is in the set
+         */
+        boolean contains(String s, int start, int end) {
+            String candidate = slots[hash(s, start, end, seed) & (slots.length - 1)];
+            return candidate != null && candidate.length() == end - start &&
+                s.regionMatches(true, start, candidate, 0, end - start);
+        }
+
+        /**
+         * Case-insensitive (for ASCII) hash of a region of a string.
+         */
+        private static int hash(String s, int start, int end, int seed) {
+            int h = seed * 0x9E3779B9;
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+                h = 31 * h + c;
+            }
+            h ^= h >>> 16;
+            h *= 0x85EBCA6B;
+            h ^= h >>> 13;
+            return h;
+        }
+    }
+}
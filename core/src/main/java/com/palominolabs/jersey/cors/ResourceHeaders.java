@@ -0,0 +1,136 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.MultivaluedMap;
+
+import static com.palominolabs.jersey.cors.CorsOutcomes.ALLOWED;
+import static com.palominolabs.jersey.cors.CorsOutcomes.DISALLOWED_ORIGIN;
+import static com.palominolabs.jersey.cors.CorsOutcomes.HEADER_PRESENT;
+import static com.palominolabs.jersey.cors.CorsOutcomes.NO_ORIGIN;
+import static com.palominolabs.jersey.cors.CorsOutcomes.REJECTED_ORIGIN;
+
+/**
+ * The CORS headers for a method with {@link Cors}, resolved from its effective config, and the per-request decisions
+ * about them. The Jersey 1 and JAX-RS 2 filters both delegate to this, so they send the same headers for the same
+ * config.
+ */
+@Immutable
+final class ResourceHeaders {
+
+    private final String allowOrigin;
+
+    /**
+     * null to send allowOrigin to every origin
+     */
+    @Nullable
+    private final OriginAllowlist originMatcher;
+
+    /**
+     * Headers other than Access-Control-Allow-Origin, which may depend on the request
+     */
+    private final HeaderBlock headers;
+
+    /**
+     * null if the response doesn't depend on request headers
+     */
+    @Nullable
+    private final VaryHeader vary;
+
+    private final boolean reject;
+
+    /**
+     * @param allowOrigin             fixed Access-Control-Allow-Origin value, used if originMatcher is null
+     * @param originMatcher           allowlist to check the request's Origin against; matching origins are echoed back
+     * @param exposeHeaders           Access-Control-Expose-Headers value, or "" to not send it
+     * @param allowCredentials        true to send Access-Control-Allow-Credentials
+     * @param rejectDisallowedOrigins true to answer requests from origins not in the allowlist with a 403 instead of
+     *                                invoking the resource method
+     */
+    ResourceHeaders(@Nonnull String allowOrigin, @Nullable OriginAllowlist originMatcher,
+        @Nonnull String exposeHeaders, boolean allowCredentials, boolean rejectDisallowedOrigins) {
+        this.allowOrigin = allowOrigin;
+        this.originMatcher = originMatcher;
+        // with a fixed origin, every origin gets CORS headers, so there is nothing to reject
+        reject = rejectDisallowedOrigins && originMatcher != null;
+        headers = new HeaderBlock.Builder()
+            .addIfNotEmpty(CorsHeaders.EXPOSE_HEADERS, exposeHeaders)
+            .addIfNotEmpty(CorsHeaders.ALLOW_CREDENTIALS, allowCredentials ? Boolean.TRUE.toString() : "")
+            .build();
+        // the response only depends on the Origin if there is an allowlist to check it against
+        vary = originMatcher == null ? null : new VaryHeader(CorsHeaders.ORIGIN);
+    }
+
+    /**
+     * @return true if some requests are to be rejected before the resource method is invoked
+     */
+    boolean isRejecting() {
+        return reject;
+    }
+
+    /**
+     * @param incomingOrigin the request's Origin, or null if it has none
+     * @return true if the request is to be answered with a 403 instead of invoking the resource method
+     */
+    boolean rejects(@Nullable String incomingOrigin) {
+        return reject && incomingOrigin != null && !originMatcher.matches(incomingOrigin);
+    }
+
+    /**
+     * @param incomingOrigin the request's Origin, or null if it has none
+     * @param h              headers to add to
+     * @return a combination of the {@link CorsOutcomes} flags
+     */
+    int addHeaders(@Nullable String incomingOrigin, @Nonnull MultivaluedMap<String, Object> h) {
+        if (vary != null) {
+            // even responses without CORS headers must vary, or a cache could serve them to an allowed origin
+            vary.merge(h);
+        }
+
+        if (incomingOrigin == null) {
+            return NO_ORIGIN;
+        }
+
+        String responseOrigin = getResponseOrigin(allowOrigin, originMatcher, incomingOrigin);
+        if (responseOrigin == null) {
+            return reject ? DISALLOWED_ORIGIN | REJECTED_ORIGIN : DISALLOWED_ORIGIN;
+        }
+
+        boolean allAdded = putIfNotPresent(h, CorsHeaders.ALLOW_ORIGIN, responseOrigin);
+        allAdded &= headers.putIfNotPresent(h);
+        return allAdded ? ALLOWED : ALLOWED | HEADER_PRESENT;
+    }
+
+    /**
+     * @param allowOrigin    fixed allowed origin
+     * @param originMatcher  allowlist, or null to use the fixed origin
+     * @param incomingOrigin the request's Origin
+     * @return the Access-Control-Allow-Origin value to send, or null if the origin is not allowed and no CORS headers
+     *         should be sent
+     */
+    @Nullable
+    static String getResponseOrigin(@Nonnull String allowOrigin, @Nullable OriginAllowlist originMatcher,
+        @Nonnull String incomingOrigin) {
+        if (originMatcher == null) {
+            return allowOrigin;
+        }
+
+        return originMatcher.matches(incomingOrigin) ? incomingOrigin : null;
+    }
+
+    /**
+     * @param h      headers to add to
+     * @param header header name
+     * @param value  header value
+     * @return false if the header was already present
+     */
+    static boolean putIfNotPresent(@Nonnull MultivaluedMap<String, Object> h, @Nonnull String header,
+        @Nonnull String value) {
+        if (h.containsKey(header)) {
+            return false;
+        }
+        h.putSingle(header, value);
+        return true;
+    }
+}
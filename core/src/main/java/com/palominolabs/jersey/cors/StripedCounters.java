@@ -0,0 +1,54 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A small group of counters that many threads update and few read, spread over several stripes so that threads
+ * updating them at the same time usually don't contend for the same cache line. This is the same idea as Java 8's
+ * LongAdder, but a whole group of counters shares each stripe, so a group costs one array rather than one object per
+ * counter and stripe.
+ *
+ * Threads are assigned to stripes by thread id, which is stable and, for the threads of a server's pool, sequential.
+ */
+@ThreadSafe
+final class StripedCounters {
+
+    /**
+     * Counters per stripe: 8 longs fill a 64 byte cache line
+     */
+    static final int MAX_COUNTERS = 8;
+
+    private static final int STRIPES = stripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicLongArray values = new AtomicLongArray(STRIPES * MAX_COUNTERS);
+
+    /**
+     * @param counter index of the counter, less than {@link #MAX_COUNTERS}
+     * @param delta   amount to add
+     */
+    void add(int counter, long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        values.getAndAdd(stripe * MAX_COUNTERS + counter, delta);
+    }
+
+    /**
+     * @param counter index of the counter, less than {@link #MAX_COUNTERS}
+     * @return the counter's value; not an atomic snapshot if it is being updated concurrently
+     */
+    long sum(int counter) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            sum += values.get(stripe * MAX_COUNTERS + counter);
+        }
+        return sum;
+    }
+
+    /**
+     * @param processors available processors
+     * @return the smallest power of two at least as large as processors, up to 16
+     */
+    private static int stripes(int processors) {
+        return Integer.highestOneBit(Math.max(1, Math.min(processors, 16)) * 2 - 1);
+    }
+}
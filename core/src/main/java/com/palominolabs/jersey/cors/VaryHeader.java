@@ -0,0 +1,100 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Joiner;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.List;
+
+/**
+ * The request headers a filter's output depends on, to be merged into the response's Vary header so that shared caches
+ * (CDNs, proxies) don't serve a response computed for one request to a request that would get different CORS headers.
+ */
+@Immutable
+final class VaryHeader {
+
+    private final String[] tokens;
+
+    /**
+     * All tokens, pre-joined for the common case of a response with no Vary header yet
+     */
+    private final String value;
+
+    VaryHeader(@Nonnull String... tokens) {
+        this.tokens = tokens.clone();
+        this.value = Joiner.on(", ").join(tokens);
+    }
+
+    /**
+     * Add this header's tokens to the Vary header, keeping whatever is already there and not repeating tokens.
+     *
+     * @param h headers to add to
+     */
+    void merge(@Nonnull MultivaluedMap<String, Object> h) {
+        List<Object> existing = h.get(HttpHeaders.VARY);
+        if (existing == null || existing.isEmpty()) {
+            h.putSingle(HttpHeaders.VARY, value);
+            return;
+        }
+
+        StringBuilder merged = null;
+        for (String token : tokens) {
+            if (containsToken(existing, token)) {
+                continue;
+            }
+            if (merged == null) {
+                merged = new StringBuilder();
+                for (Object v : existing) {
+                    String s = v.toString().trim();
+                    if (!s.isEmpty()) {
+                        merged.append(merged.length() == 0 ? "" : ", ").append(s);
+                    }
+                }
+            }
+            merged.append(merged.length() == 0 ? "" : ", ").append(token);
+        }
+
+        if (merged != null) {
+            h.putSingle(HttpHeaders.VARY, merged.toString());
+        }
+    }
+
+    /**
+     * @param values header values, each a comma-separated list of tokens
+     * @param token  token to look for
+     * @return true if the token, or "*", is present in any of the values
+     */
+    private static boolean containsToken(List<Object> values, String token) {
+        for (Object v : values) {
+            String s = v.toString();
+            int start = 0;
+            while (start <= s.length()) {
+                int end = s.indexOf(',', start);
+                if (end < 0) {
+                    end = s.length();
+                }
+
+                int tokenStart = start;
+                int tokenEnd = end;
+                while (tokenStart < tokenEnd && s.charAt(tokenStart) == ' ') {
+                    tokenStart++;
+                }
+                while (tokenEnd > tokenStart && s.charAt(tokenEnd - 1) == ' ') {
+                    tokenEnd--;
+                }
+
+                int length = tokenEnd - tokenStart;
+                if ((length == 1 && s.charAt(tokenStart) == '*') ||
+                    (length == token.length() && s.regionMatches(true, tokenStart, token, 0, length))) {
+                    return true;
+                }
+
+                start = end + 1;
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,33 @@
+package com.palominolabs.jersey.cors
+
+import org.junit.Test
+
+class FrequencySketchTest {
+
+  @Test
+  public void testCountsAndSaturates() {
+    FrequencySketch sketch = new FrequencySketch(512)
+    int hash = 'https://a.foo.com'.hashCode()
+    assert 0 == sketch.frequency(hash)
+
+    5.times { sketch.increment(hash) }
+    assert 5 == sketch.frequency(hash)
+
+    20.times { sketch.increment(hash) }
+    assert 15 == sketch.frequency(hash)
+  }
+
+  @Test
+  public void testAges() {
+    FrequencySketch sketch = new FrequencySketch(64)
+    int hot = 'https://hot.foo.com'.hashCode()
+    15.times { sketch.increment(hot) }
+
+    // enough other keys to trigger a reset
+    for (int i = 0; i < 64 * 10; i++) {
+      sketch.increment("https://other${i}.foo.com".toString().hashCode())
+    }
+
+    assert sketch.frequency(hot) <= 7
+  }
+}
@@ -0,0 +1,118 @@
+package com.palominolabs.jersey.cors
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicReference
+import org.junit.Test
+
+import static com.palominolabs.jersey.cors.OriginDecisionCache.EVICTIONS
+import static com.palominolabs.jersey.cors.OriginDecisionCache.HITS
+import static com.palominolabs.jersey.cors.OriginDecisionCache.MISSES
+
+class OriginDecisionCacheTest {
+
+  static final OriginMatcher matcher = OriginMatcher.compile('https://*.partner.com,https://foo.com')
+
+  @Test
+  public void testCachesAllowedAndDisallowed() {
+    OriginDecisionCache cache = new OriginDecisionCache(matcher, 64)
+
+    2.times {
+      assert cache.matches('https://a.partner.com')
+      assert cache.matches('https://foo.com')
+      assert !cache.matches('https://evil.com')
+      assert !cache.matches('https://partner.com')
+    }
+
+    assert 4 == cache.getCount(MISSES)
+    assert 4 == cache.getCount(HITS)
+    assert 4 == cache.size()
+  }
+
+  @Test
+  public void testLongOriginsAreNotCached() {
+    OriginDecisionCache cache = new OriginDecisionCache(matcher, 64)
+    String origin = 'https://' + ('a' * OriginDecisionCache.MAX_ORIGIN_LENGTH) + '.partner.com'
+
+    2.times {
+      assert cache.matches(origin)
+    }
+
+    assert 2 == cache.getCount(MISSES)
+    assert 0 == cache.size()
+  }
+
+  @Test
+  public void testCapacityIsRoundedDown() {
+    assert 64 == new OriginDecisionCache(matcher, 100).capacity()
+    assert 4 == new OriginDecisionCache(matcher, 1).capacity()
+  }
+
+  @Test
+  public void testFloodOfOneOffOriginsKeepsHotOrigins() {
+    OriginDecisionCache cache = new OriginDecisionCache(matcher, 256)
+    List<String> hot = (0..<32).collect { "https://app${it}.partner.com".toString() }
+    hot.each { origin -> 3.times { cache.matches(origin) } }
+
+    for (int i = 0; i < 200000; i++) {
+      cache.matches("https://junk${i}.example.com".toString())
+      if (i % 100 == 0) {
+        hot.each { cache.matches(it) }
+      }
+    }
+    assert cache.size() <= cache.capacity()
+    assert cache.getCount(EVICTIONS) > 0
+
+    long hitsBefore = cache.getCount(HITS)
+    hot.each { assert cache.matches(it) }
+    assert hot.size() == cache.getCount(HITS) - hitsBefore
+  }
+
+  @Test
+  public void testNewHotOriginIsAdmitted() {
+    OriginDecisionCache cache = new OriginDecisionCache(matcher, 16)
+    for (int i = 0; i < 1000; i++) {
+      cache.matches("https://junk${i}.example.com".toString())
+    }
+
+    String partner = 'https://new.partner.com'
+    5.times { cache.matches(partner) }
+
+    long hitsBefore = cache.getCount(HITS)
+    cache.matches(partner)
+    assert 1 == cache.getCount(HITS) - hitsBefore
+  }
+
+  @Test
+  public void testConcurrentLookups() {
+    OriginDecisionCache cache = new OriginDecisionCache(matcher, 64)
+    int threads = 8
+    AtomicInteger wrong = new AtomicInteger()
+    AtomicReference<Throwable> error = new AtomicReference<Throwable>()
+    CountDownLatch done = new CountDownLatch(threads)
+    threads.times { int t ->
+      Thread.start {
+        try {
+          for (int i = 0; i < 20000; i++) {
+            int n = (i * 7 + t) % 500
+            boolean allowed = n % 2 == 0
+            String origin = allowed ? "https://a${n}.partner.com" : "https://a${n}.evil.com"
+            if (cache.matches(origin) != allowed) {
+              wrong.incrementAndGet()
+            }
+          }
+        } catch (Throwable e) {
+          error.set(e)
+        } finally {
+          done.countDown()
+        }
+      }
+    }
+    done.await()
+
+    assert null == error.get()
+    assert 0 == wrong.get()
+    assert threads * 20000 == cache.getCount(HITS) + cache.getCount(MISSES)
+    assert cache.size() <= 64
+  }
+}
@@ -0,0 +1,83 @@
+package com.palominolabs.jersey.cors
+
+import org.junit.Test
+
+class OriginMatcherTest {
+
+  @Test
+  public void testExactOrigins() {
+    OriginMatcher m = OriginMatcher.compile('http://foo.com, https://bar.com:8443')
+
+    assert m.matches('http://foo.com')
+    assert m.matches('https://bar.com:8443')
+    assert !m.matches('https://foo.com')
+    assert !m.matches('https://bar.com')
+    assert !m.matches('http://foo.com.evil.com')
+    assert !m.matches('null')
+  }
+
+  @Test
+  public void testExactOriginsAreLowercased() {
+    OriginMatcher m = OriginMatcher.compile('HTTPS://App.Example.com, http://[::ABCD]:8080')
+
+    assert m.matches('https://app.example.com')
+    assert m.matches('http://[::abcd]:8080')
+  }
+
+  @Test
+  public void testIpv6Origins() {
+    assert 'http://[::1]'.length() == OriginMatcher.hostEnd('http://[::1]', 'http://'.length())
+    assert 'http://[::1]'.length() == OriginMatcher.hostEnd('http://[::1]:8080', 'http://'.length())
+    assert 'http://foo.com'.length() == OriginMatcher.hostEnd('http://foo.com:8080', 'http://'.length())
+
+    OriginMatcher m = OriginMatcher.compile('http://[::1]:8080, http://*.foo.com, http://*.bar.com:8080')
+    assert m.matches('http://[::1]:8080')
+    assert !m.matches('http://[::1]')
+    assert !m.matches('http://[::1]:8081')
+    assert m.matches('http://a.bar.com:8080')
+  }
+
+  @Test
+  public void testWildcardSubdomains() {
+    OriginMatcher m = OriginMatcher.compile('https://*.foo.com,https://*.bar.foo.com,http://*.baz.com:8080')
+
+    assert m.matches('https://a.foo.com')
+    assert m.matches('https://a.b.foo.com')
+    assert m.matches('https://A.FOO.COM')
+    assert m.matches('https://x.bar.foo.com')
+    assert m.matches('http://a.baz.com:8080')
+
+    assert !m.matches('https://foo.com')
+    assert !m.matches('https://.foo.com')
+    assert !m.matches('http://a.foo.com')
+    assert !m.matches('https://a.foo.com:443')
+    assert !m.matches('https://afoo.com')
+    assert !m.matches('https://a.foo.com.evil.com')
+    assert !m.matches('http://a.baz.com')
+    assert !m.matches('http://a.baz.com:80')
+    assert !m.matches('foo.com')
+  }
+
+  @Test
+  public void testMixed() {
+    OriginMatcher m = OriginMatcher.compile('https://foo.com,https://*.foo.com')
+
+    assert m.matches('https://foo.com')
+    assert m.matches('https://www.foo.com')
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testRejectsMissingScheme() {
+    OriginMatcher.compile('foo.com')
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testRejectsWildcardInsideHost() {
+    OriginMatcher.compile('https://a.*.foo.com')
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testRejectsBareWildcard() {
+    OriginMatcher.compile('https://*.')
+  }
+}
@@ -0,0 +1,87 @@
+package com.palominolabs.jersey.cors
+
+import org.junit.Test
+
+class PathPatternTrieTest {
+
+  @Test
+  public void testLiteralPatterns() {
+    PathPatternTrie<String> trie = build(['/foo': 'foo', 'foo/bar/': 'bar', '': 'root'])
+
+    assert 'foo' == trie.get('foo')
+    assert 'bar' == trie.get('/foo/bar')
+    assert 'root' == trie.get('/')
+    assert null == trie.get('foo/baz')
+    assert null == trie.get('foo/bar/baz')
+  }
+
+  @Test
+  public void testSingleSegmentWildcards() {
+    PathPatternTrie<String> trie = build(['items/*': 'item', 'items/{id}/parts': 'parts'])
+
+    assert 'item' == trie.get('items/123')
+    assert 'item' == trie.get('items/{id}')
+    assert 'parts' == trie.get('items/{itemId: [0-9]+}/parts')
+    assert null == trie.get('items')
+    assert null == trie.get('items/123/other')
+  }
+
+  @Test
+  public void testAnySegments() {
+    PathPatternTrie<String> trie = build(['vendor/**': 'vendor', '**': 'all'])
+
+    assert 'vendor' == trie.get('vendor')
+    assert 'vendor' == trie.get('vendor/a/b/{c}')
+    assert 'all' == trie.get('')
+    assert 'all' == trie.get('other/path')
+  }
+
+  @Test
+  public void testMostSpecificPatternWins() {
+    PathPatternTrie<String> trie = build(['a/**': 'any', 'a/*/c': 'wildcard', 'a/b/c': 'literal', 'a/b/**': 'b'])
+
+    assert 'literal' == trie.get('a/b/c')
+    assert 'wildcard' == trie.get('a/x/c')
+    assert 'b' == trie.get('a/b/d')
+    assert 'any' == trie.get('a/x/d')
+    // a variable in the path only matches wildcards
+    assert 'wildcard' == trie.get('a/{b}/c')
+  }
+
+  @Test
+  public void testBacktracksFromDeadEndLiterals() {
+    PathPatternTrie<String> trie = build(['a/b/x': 'literal', 'a/*/c': 'wildcard'])
+
+    assert 'wildcard' == trie.get('a/b/c')
+    assert 'literal' == trie.get('a/b/x')
+  }
+
+  @Test
+  public void testSplitKeepsVariablesWhole() {
+    assert ['a', '{id: [0-9]+/[0-9]+}', 'b'] == PathPatternTrie.split('/a/{id: [0-9]+/[0-9]+}/b/')
+    assert [] == PathPatternTrie.split('/')
+  }
+
+  @Test
+  public void testInvalidPatterns() {
+    ['a/**/b', 'a//b', 'a/b*', 'a/{id: [0-9]+}', 'a/b{c}'].each { String pattern ->
+      try {
+        build([(pattern): 'x'])
+        assert false, pattern
+      } catch (IllegalArgumentException expected) {
+        assert expected.message.contains(pattern)
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testDuplicatePatterns() {
+    new PathPatternTrie.Builder<String>().put('/a/b', 'x').put('a/b/', 'y')
+  }
+
+  private static PathPatternTrie<String> build(Map<String, String> patterns) {
+    PathPatternTrie.Builder<String> builder = new PathPatternTrie.Builder<String>()
+    patterns.each { String pattern, String value -> builder.put(pattern, value) }
+    return builder.build()
+  }
+}
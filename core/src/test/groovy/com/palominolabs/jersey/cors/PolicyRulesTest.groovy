@@ -0,0 +1,69 @@
+package com.palominolabs.jersey.cors
+
+import org.junit.Test
+
+import static com.palominolabs.jersey.cors.CorsPreflight.UNSET_MAX_AGE
+import static com.palominolabs.jersey.cors.Ternary.FALSE
+import static com.palominolabs.jersey.cors.Ternary.NEUTRAL
+import static com.palominolabs.jersey.cors.Ternary.TRUE
+
+class PolicyRulesTest {
+
+  @Test
+  public void testParsesElements() {
+    PolicyRules rules = PolicyRules.compile([
+        'vendor/**': 'allowedOrigins=https://*.partner.com; allowCredentials=true; exposeHeaders=x-foo',
+        'vendor/reports/{id}': ' maxAge = 600 ;allowMethods=GET,DELETE;allowHeaders=x-bar;' +
+            'rejectDisallowedOrigins=false;',
+        'public': ''])
+
+    PolicyRules.Rule vendor = rules.get('vendor/things')
+    assert 'https://*.partner.com' == vendor.cors.allowedOrigins
+    assert TRUE == vendor.cors.allowCredentials
+    assert 'x-foo' == vendor.cors.exposeHeaders
+    assert 'https://*.partner.com' == vendor.preflight.allowedOrigins
+    assert TRUE == vendor.preflight.allowCredentials
+
+    PolicyRules.Rule report = rules.get('vendor/reports/{reportId}')
+    assert 600 == report.preflight.maxAge
+    assert 'GET,DELETE' == report.preflight.allowMethods
+    assert 'x-bar' == report.preflight.allowHeaders
+    assert FALSE == report.cors.rejectDisallowedOrigins
+    assert '' == report.cors.allowedOrigins
+
+    PolicyRules.Rule defaults = rules.get('/public/')
+    assert UNSET_MAX_AGE == defaults.preflight.maxAge
+    assert NEUTRAL == defaults.cors.allowCredentials
+    assert '' == defaults.cors.allowOrigin
+
+    assert null == rules.get('other')
+    assert null == rules.get(null)
+  }
+
+  @Test
+  public void testInvalidRules() {
+    ['maxAge', 'maxAge=ten', 'allowCredentials=yes', 'allowOrigins=*', 'allowedOrigins=partner.com'].each {
+      String value ->
+      try {
+        PolicyRules.compile(['vendor/**': value])
+        assert false, value
+      } catch (IllegalArgumentException expected) {
+        assert expected.message.startsWith('Invalid CORS policy rule vendor/**: ')
+      }
+    }
+  }
+
+  @Test
+  public void testLoad() {
+    File rulesFile = File.createTempFile('cors-rules', '.properties')
+    rulesFile.deleteOnExit()
+    rulesFile.setText('# partners\n/vendor/** = allowOrigin=https://caf\u00e9.com\n', 'UTF-8')
+
+    assert 'https://caf\u00e9.com' == PolicyRules.load(rulesFile).get('vendor').cors.allowOrigin
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testLoadMissingFile() {
+    PolicyRules.load(new File('/nonexistent/cors-rules.properties'))
+  }
+}
@@ -0,0 +1,77 @@
+package com.palominolabs.jersey.cors
+
+import org.junit.Test
+
+class PreflightValidatorTest {
+
+  @Test
+  public void testConfiguredMethods() {
+    PreflightValidator v = PreflightValidator.compile('PUT, DELETE', '')
+
+    assert 'PUT' == v.getAllowedMethod('PUT')
+    assert 'DELETE' == v.getAllowedMethod('DELETE')
+    assert null == v.getAllowedMethod('PATCH')
+    assert null == v.getAllowedMethod('put')
+    assert null == v.getAllowedMethod('')
+  }
+
+  @Test
+  public void testSafelistedMethodsAlwaysAllowed() {
+    PreflightValidator v = PreflightValidator.compile('PUT', '')
+
+    assert 'GET' == v.getAllowedMethod('GET')
+    assert 'HEAD' == v.getAllowedMethod('HEAD')
+    assert 'POST' == v.getAllowedMethod('POST')
+  }
+
+  @Test
+  public void testUnknownMethods() {
+    PreflightValidator v = PreflightValidator.compile('PROPFIND,MKCOL', '')
+
+    assert 'PROPFIND' == v.getAllowedMethod('PROPFIND')
+    assert 'MKCOL' == v.getAllowedMethod('MKCOL')
+    assert null == v.getAllowedMethod('LOCK')
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testTooManyMethods() {
+    PreflightValidator.compile((1..60).collect { 'M' + it }.join(','), '')
+  }
+
+  @Test
+  public void testHeaders() {
+    PreflightValidator v = PreflightValidator.compile('GET', 'X-Foo, x-bar,Content-Type')
+
+    assert v.allowsHeaders('')
+    assert v.allowsHeaders('x-foo')
+    assert v.allowsHeaders('X-FOO,X-BAR')
+    assert v.allowsHeaders(' x-foo ,\tcontent-type, ')
+    assert v.allowsHeaders('x-foo,,x-bar')
+
+    assert !v.allowsHeaders('x-baz')
+    assert !v.allowsHeaders('x-foo,x-baz')
+    assert !v.allowsHeaders('x-fo')
+    assert !v.allowsHeaders('x-foo-bar')
+    assert !v.allowsHeaders('x foo')
+  }
+
+  @Test
+  public void testNoHeadersAllowed() {
+    PreflightValidator v = PreflightValidator.compile('GET', '')
+
+    assert v.allowsHeaders('')
+    assert v.allowsHeaders(' , ')
+    assert !v.allowsHeaders('x-foo')
+  }
+
+  @Test
+  public void testManyHeaders() {
+    List<String> names = (1..200).collect { 'X-Header-' + it }
+    PreflightValidator v = PreflightValidator.compile('GET', names.join(','))
+
+    names.each { assert v.allowsHeaders(it.toLowerCase()) }
+    assert v.allowsHeaders(names.join(', '))
+    assert !v.allowsHeaders('x-header-201')
+    assert !v.allowsHeaders('x-header-0')
+  }
+}
@@ -0,0 +1,296 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.palominolabs.jersey.cors.PolicyResolver.CorsPreflightConfig;
+import com.palominolabs.jersey.cors.PolicyResolver.CorsResourceConfig;
+import com.palominolabs.jersey.cors.PolicyResolver.Defaults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.OPTIONS;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.palominolabs.jersey.cors.ConfigProps.getBooleanProp;
+import static com.palominolabs.jersey.cors.ConfigProps.getIntProp;
+import static com.palominolabs.jersey.cors.CorsConfig.FALLBACK;
+import static com.palominolabs.jersey.cors.CorsConfig.METRICS;
+import static com.palominolabs.jersey.cors.CorsConfig.METRICS_LATENCY;
+import static com.palominolabs.jersey.cors.CorsConfig.METRICS_NAME;
+import static com.palominolabs.jersey.cors.CorsConfig.ORIGIN_CACHE_SIZE;
+import static com.palominolabs.jersey.cors.CorsConfig.POLICY_FILE;
+import static com.palominolabs.jersey.cors.CorsConfig.POLICY_FILE_POLL_INTERVAL;
+import static com.palominolabs.jersey.cors.CorsConfig.POLICY_RULES_FILE;
+import static com.palominolabs.jersey.cors.CorsConfig.POLICY_TABLES;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_ANALYZER;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_ANALYZER_MAX_SOURCES;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_ANALYZER_SAMPLE_RATE;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_RATE_LIMIT;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_RATE_LIMIT_BURST;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_RATE_LIMIT_ORIGINS;
+import static com.palominolabs.jersey.cors.CorsConfig.SERVLET_FILTER;
+import static com.palominolabs.jersey.cors.CorsConfig.SERVLET_FILTER_NAME;
+import static com.palominolabs.jersey.cors.CorsConfig.SHORT_CIRCUIT_PREFLIGHT;
+import static com.palominolabs.jersey.cors.CorsConfig.TENANTS;
+import static com.palominolabs.jersey.cors.CorsConfig.TENANT_PREFIX;
+import static com.palominolabs.jersey.cors.CorsConfig.VALIDATE_PREFLIGHT;
+import static com.palominolabs.jersey.cors.PolicyResolver.getBooleanFromTernary;
+
+/**
+ * JAX-RS 2 counterpart of CorsResourceFilterFactory. Register it with the application, e.g.
+ * {@code resourceConfig.register(CorsFeature.class)}, and configure it with the same {@link CorsConfig} properties.
+ *
+ * Each resource method's {@link Cors} or {@link CorsPreflight} configuration is resolved by the same
+ * {@link PolicyResolver} as with Jersey 1, when the application is deployed, and the method is bound to a filter built
+ * for the result, with every header value already rendered. Methods with equal configurations share a filter, so the
+ * per-request work is the same as with Jersey 1: a header lookup or two and copying the pre-rendered headers.
+ *
+ * This supports the defaults, the annotations (read reflectively, or from the tables generated by the annotation
+ * processor), origin allowlists, {@link CorsConfig#REJECT_DISALLOWED_ORIGINS}, {@link CorsConfig#ORIGIN_CACHE_SIZE},
+ * {@link CorsConfig#SHORT_CIRCUIT_PREFLIGHT} and {@link CorsConfig#VALIDATE_PREFLIGHT}. The other properties are
+ * specific to the Jersey 1 integration, and binding the first method fails with an IllegalArgumentException if any of
+ * them is set.
+ *
+ * An instance belongs to a single application: it is configured by the properties of the first application it binds
+ * methods for.
+ */
+@ThreadSafe
+public final class CorsFeature implements DynamicFeature {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorsFeature.class);
+
+    /**
+     * Contracts and priority of a filter that only has a response part
+     */
+    private static final Map<Class<?>, Integer> RESPONSE_CONTRACTS =
+        ImmutableMap.<Class<?>, Integer>of(ContainerResponseFilter.class, Priorities.HEADER_DECORATOR);
+
+    /**
+     * Contracts and priority of a filter that also has a request part
+     */
+    private static final Map<Class<?>, Integer> REQUEST_RESPONSE_CONTRACTS =
+        ImmutableMap.<Class<?>, Integer>of(ContainerRequestFilter.class, Priorities.HEADER_DECORATOR,
+            ContainerResponseFilter.class, Priorities.HEADER_DECORATOR);
+
+    /**
+     * Properties that only the Jersey 1 integration acts on, besides the ones starting with
+     * {@link CorsConfig#TENANT_PREFIX}
+     */
+    private static final Set<String> JERSEY1_PROPERTIES = ImmutableSet.of(POLICY_FILE, POLICY_FILE_POLL_INTERVAL,
+        POLICY_RULES_FILE, TENANTS, PREFLIGHT_RATE_LIMIT, PREFLIGHT_RATE_LIMIT_BURST, PREFLIGHT_RATE_LIMIT_ORIGINS,
+        FALLBACK, SERVLET_FILTER, SERVLET_FILTER_NAME, METRICS, METRICS_LATENCY, METRICS_NAME, PREFLIGHT_ANALYZER,
+        PREFLIGHT_ANALYZER_SAMPLE_RATE, PREFLIGHT_ANALYZER_MAX_SOURCES);
+
+    /**
+     * null until the first method is bound
+     */
+    @GuardedBy("this")
+    private PolicyResolver resolver;
+
+    @GuardedBy("this")
+    private PolicyTables policyTables;
+
+    @GuardedBy("this")
+    private boolean shortCircuitPreflight;
+
+    @GuardedBy("this")
+    private boolean validatePreflight;
+
+    @GuardedBy("this")
+    private int originCacheSize;
+
+    /**
+     * Filters handed out so far, keyed by the config they were built for
+     */
+    @GuardedBy("this")
+    private final Map<CorsResourceConfig, CorsResourceContainerFilter> resourceFilters = newHashMap();
+
+    @GuardedBy("this")
+    private final Map<CorsPreflightConfig, CorsPreflightContainerFilter> preflightFilters = newHashMap();
+
+    /**
+     * Compiled allowlists, keyed by their comma-separated form
+     */
+    @GuardedBy("this")
+    private final Map<String, OriginAllowlist> originMatchers = newHashMap();
+
+    @Override
+    public synchronized void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        Method method = resourceInfo.getResourceMethod();
+        if (method == null) {
+            return;
+        }
+        if (resolver == null) {
+            init(context.getConfiguration().getProperties());
+        }
+
+        if (method.isAnnotationPresent(OPTIONS.class)) {
+            CorsPreflightConfig config = resolvePreflight(method);
+            if (config != null) {
+                CorsPreflightContainerFilter filter = getPreflightFilter(config);
+                context.register(filter, filter.hasRequestFilter() ? REQUEST_RESPONSE_CONTRACTS : RESPONSE_CONTRACTS);
+            }
+        } else {
+            CorsResourceConfig config = resolveCors(method);
+            if (config != null) {
+                CorsResourceContainerFilter filter = getResourceFilter(config);
+                context.register(filter, filter.hasRequestFilter() ? REQUEST_RESPONSE_CONTRACTS : RESPONSE_CONTRACTS);
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void init(Map<String, Object> props) {
+        checkUnsupported(props);
+        Defaults defaults = new Defaults(props);
+        shortCircuitPreflight = getBooleanProp(props, SHORT_CIRCUIT_PREFLIGHT, false);
+        validatePreflight = getBooleanProp(props, VALIDATE_PREFLIGHT, false);
+        originCacheSize = getIntProp(props, ORIGIN_CACHE_SIZE, 1024);
+        if (originCacheSize < 0) {
+            throw new IllegalArgumentException("Origin cache size must not be negative: " + originCacheSize);
+        }
+        policyTables = getBooleanProp(props, POLICY_TABLES, true) ? PolicyTables.load(getClassLoader()) :
+            PolicyTables.EMPTY;
+
+        // fail fast on a malformed default allowlist rather than on the first annotated method
+        getOriginMatcher(defaults.allowedOrigins);
+        resolver = new PolicyResolver(defaults);
+    }
+
+    /**
+     * Silently ignoring these would serve different headers than the same config does on Jersey 1, e.g. without the
+     * policy file's or a tenant's allowlist, so fail instead.
+     *
+     * @param props application properties
+     * @throws IllegalArgumentException if a property that only the Jersey 1 integration supports is set
+     */
+    private static void checkUnsupported(Map<String, Object> props) {
+        for (String name : props.keySet()) {
+            if (JERSEY1_PROPERTIES.contains(name) || name.startsWith(TENANT_PREFIX)) {
+                throw new IllegalArgumentException(
+                    "Property " + name + " is only supported by the Jersey 1 integration, not by CorsFeature");
+            }
+        }
+    }
+
+    /**
+     * @param method a non-OPTIONS resource method
+     * @return the method's effective config, or null if it gets no CORS headers
+     */
+    @GuardedBy("this")
+    @Nullable
+    private CorsResourceConfig resolveCors(Method method) {
+        Class<?> klass = method.getDeclaringClass();
+        if (policyTables.covers(klass)) {
+            // the annotation processor has already merged in the class's annotation
+            CorsOverrides cors = policyTables.getCors(method);
+            return cors == null ? null : resolver.resolveCors(klass, cors, true);
+        }
+
+        if (method.isAnnotationPresent(CorsPreflight.class)) {
+            logger.error("Resource method " + method +
+                " is annotated with @CorsPreflight, which is only applicable for methods annotated with @OPTIONS");
+            return null;
+        }
+        Cors cors = method.getAnnotation(Cors.class);
+        return resolver.resolveCors(klass, cors == null ? null : CorsOverrides.of(cors), false);
+    }
+
+    /**
+     * @param method an OPTIONS resource method
+     * @return the method's effective config, or null if it gets no CORS headers
+     */
+    @GuardedBy("this")
+    @Nullable
+    private CorsPreflightConfig resolvePreflight(Method method) {
+        Class<?> klass = method.getDeclaringClass();
+        if (policyTables.covers(klass)) {
+            CorsPreflightOverrides corsPreflight = policyTables.getPreflight(method);
+            return corsPreflight == null ? null : resolver.resolvePreflight(klass, corsPreflight, true);
+        }
+
+        if (method.isAnnotationPresent(Cors.class)) {
+            logger.error("Resource method " + method +
+                " is annotated with @Cors, which is not applicable for methods annotated with @OPTIONS");
+            return null;
+        }
+        CorsPreflight corsPreflight = method.getAnnotation(CorsPreflight.class);
+        return resolver.resolvePreflight(klass, corsPreflight == null ? null : CorsPreflightOverrides.of(corsPreflight),
+            false);
+    }
+
+    /**
+     * @param config effective config, which must not be modified afterwards
+     * @return the filter for the config, shared with every other method with an equal config
+     */
+    @GuardedBy("this")
+    @Nonnull
+    private CorsResourceContainerFilter getResourceFilter(CorsResourceConfig config) {
+        CorsResourceContainerFilter filter = resourceFilters.get(config);
+        if (filter == null) {
+            filter = new CorsResourceContainerFilter(config.allowOrigin, getOriginMatcher(config.allowedOrigins),
+                config.exposeHeaders, getBooleanFromTernary(config.allowCredentials),
+                getBooleanFromTernary(config.rejectDisallowedOrigins));
+            resourceFilters.put(config, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * @param config effective config, which must not be modified afterwards
+     * @return the filter for the config, shared with every other method with an equal config
+     */
+    @GuardedBy("this")
+    @Nonnull
+    private CorsPreflightContainerFilter getPreflightFilter(CorsPreflightConfig config) {
+        CorsPreflightContainerFilter filter = preflightFilters.get(config);
+        if (filter == null) {
+            filter = new CorsPreflightContainerFilter(config.maxAge, config.allowMethods, config.allowHeaders,
+                getBooleanFromTernary(config.allowCredentials), config.allowOrigin,
+                getOriginMatcher(config.allowedOrigins), shortCircuitPreflight, validatePreflight);
+            preflightFilters.put(config, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * @param allowedOrigins comma-separated allowlist
+     * @return the compiled allowlist, or null if the allowlist is empty and the fixed allowOrigin should be used
+     */
+    @GuardedBy("this")
+    @Nullable
+    private OriginAllowlist getOriginMatcher(String allowedOrigins) {
+        if (allowedOrigins.isEmpty()) {
+            return null;
+        }
+
+        OriginAllowlist allowlist = originMatchers.get(allowedOrigins);
+        if (allowlist == null) {
+            OriginMatcher matcher = OriginMatcher.compile(allowedOrigins);
+            // without wildcards, matching is already a single hash lookup, so a cache wouldn't save anything
+            allowlist = originCacheSize == 0 || !matcher.hasWildcards() ? matcher :
+                new OriginDecisionCache(matcher, originCacheSize);
+            originMatchers.put(allowedOrigins, allowlist);
+        }
+        return allowlist;
+    }
+
+    private static ClassLoader getClassLoader() {
+        // resource classes, and so the tables generated for them, may belong to a web app rather than to this library
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader == null ? CorsFeature.class.getClassLoader() : classLoader;
+    }
+}
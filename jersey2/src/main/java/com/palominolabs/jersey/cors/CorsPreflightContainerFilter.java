@@ -0,0 +1,57 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Response;
+
+/**
+ * JAX-RS 2 filter for @OPTIONS methods with {@link CorsPreflight}, bound by {@link CorsFeature}. The headers are
+ * decided by the same {@link PreflightHeaders} as the Jersey 1 CorsPreflightResponseResourceFilter uses, so both
+ * answer preflights alike for the same config.
+ */
+@Immutable
+final class CorsPreflightContainerFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    private final PreflightHeaders headers;
+
+    private final boolean shortCircuit;
+
+    CorsPreflightContainerFilter(int maxAge, @Nonnull String allowMethods, @Nonnull String allowHeaders,
+        boolean allowCredentials, @Nonnull String allowOrigin, @Nullable OriginAllowlist originMatcher,
+        boolean shortCircuit, boolean validate) {
+        this.shortCircuit = shortCircuit;
+        headers = new PreflightHeaders(maxAge, allowMethods, allowHeaders, allowCredentials, allowOrigin,
+            originMatcher, validate);
+    }
+
+    /**
+     * @return true if the filter needs to see requests before the resource method is invoked
+     */
+    boolean hasRequestFilter() {
+        return shortCircuit;
+    }
+
+    /**
+     * Aborts real preflight requests before the resource method is invoked, if configured to. The response filter
+     * still runs on the resulting 204, so it adds the CORS headers as usual.
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        if (shortCircuit && requestContext.getHeaderString(CorsHeaders.ORIGIN) != null &&
+            requestContext.getHeaderString(CorsHeaders.REQUEST_METHOD) != null) {
+            requestContext.abortWith(Response.noContent().build());
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        headers.addHeaders(requestContext.getHeaderString(CorsHeaders.ORIGIN),
+            requestContext.getHeaderString(CorsHeaders.REQUEST_METHOD),
+            requestContext.getHeaderString(CorsHeaders.REQUEST_HEADERS), responseContext.getHeaders());
+    }
+}
@@ -0,0 +1,68 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * JAX-RS 2 filter for methods with {@link Cors}, bound by {@link CorsFeature}. The headers are decided by the same
+ * {@link ResourceHeaders} as the Jersey 1 CorsResourceResponseResourceFilter uses, so both send the same headers for
+ * the same config.
+ */
+@Immutable
+final class CorsResourceContainerFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+    /**
+     * Body of the 403 sent to requests from disallowed origins
+     */
+    static final String ORIGIN_REJECTED_BODY = "Origin not allowed\n";
+
+    private final ResourceHeaders headers;
+
+    /**
+     * @param allowOrigin             fixed Access-Control-Allow-Origin value, used if originMatcher is null
+     * @param originMatcher           allowlist to check the request's Origin against; matching origins are echoed back
+     * @param exposeHeaders           Access-Control-Expose-Headers value, or "" to not send it
+     * @param allowCredentials        true to send Access-Control-Allow-Credentials
+     * @param rejectDisallowedOrigins true to answer requests from origins not in the allowlist with a 403 instead of
+     *                                invoking the resource method
+     */
+    CorsResourceContainerFilter(@Nonnull String allowOrigin, @Nullable OriginAllowlist originMatcher,
+        @Nonnull String exposeHeaders, boolean allowCredentials, boolean rejectDisallowedOrigins) {
+        headers = new ResourceHeaders(allowOrigin, originMatcher, exposeHeaders, allowCredentials,
+            rejectDisallowedOrigins);
+    }
+
+    /**
+     * @return true if the filter needs to see requests before the resource method is invoked
+     */
+    boolean hasRequestFilter() {
+        return headers.isRejecting();
+    }
+
+    /**
+     * Rejects cross-origin requests from origins not in the allowlist before the resource method is invoked. The
+     * response filter still runs on the resulting 403, so it gets its Vary header as usual.
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        if (headers.rejects(requestContext.getHeaderString(CorsHeaders.ORIGIN))) {
+            // responses are mutable, so unlike with Jersey 1 this can't be a shared instance
+            requestContext.abortWith(Response.status(Response.Status.FORBIDDEN)
+                .entity(ORIGIN_REJECTED_BODY)
+                .type(MediaType.TEXT_PLAIN_TYPE)
+                .build());
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        headers.addHeaders(requestContext.getHeaderString(CorsHeaders.ORIGIN), responseContext.getHeaders());
+    }
+}
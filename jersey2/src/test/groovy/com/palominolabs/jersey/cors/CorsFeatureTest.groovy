@@ -0,0 +1,255 @@
+package com.palominolabs.jersey.cors
+
+import com.ning.http.client.AsyncHttpClient
+import com.ning.http.client.Response
+import java.lang.reflect.Method
+import javax.ws.rs.GET
+import javax.ws.rs.OPTIONS
+import javax.ws.rs.PUT
+import javax.ws.rs.Path
+import javax.ws.rs.container.ResourceInfo
+import javax.ws.rs.core.Configuration
+import javax.ws.rs.core.FeatureContext
+import org.eclipse.jetty.server.Server
+import org.eclipse.jetty.servlet.ServletContextHandler
+import org.eclipse.jetty.servlet.ServletHolder
+import org.glassfish.jersey.server.ResourceConfig
+import org.glassfish.jersey.servlet.ServletContainer
+import org.junit.After
+import org.junit.Test
+
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_CREDENTIALS
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_HEADERS
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_METHODS
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_ORIGIN
+import static com.palominolabs.jersey.cors.CorsHeaders.EXPOSE_HEADERS
+import static com.palominolabs.jersey.cors.CorsHeaders.MAX_AGE
+import static com.palominolabs.jersey.cors.Ternary.TRUE
+
+class CorsFeatureTest {
+  Server server
+
+  AsyncHttpClient http = new AsyncHttpClient()
+
+  @After
+  public void tearDown() {
+    server?.stop()
+  }
+
+  /**
+   * Start a Jersey 2 app with the feature and the test resources, configured by the given CorsConfig properties.
+   */
+  private void startServer(Map<String, Object> props) {
+    ResourceConfig resourceConfig = new ResourceConfig(DefaultsResource, ClassAnnotatedResource)
+        .register(CorsFeature)
+        .addProperties(props)
+
+    ServletContextHandler handler = new ServletContextHandler()
+    handler.addServlet(new ServletHolder(new ServletContainer(resourceConfig)), '/*')
+
+    server = new Server(8080)
+    server.setHandler(handler)
+    server.start()
+  }
+
+  @Test
+  public void testDefaults() {
+    startServer([:])
+
+    Response get = doGet('defaults', 'http://foo.com')
+    assert 200 == get.statusCode
+    assert 'get' == get.responseBody
+    assert ['*'] == get.headers.get(ALLOW_ORIGIN)
+    assert !get.headers.containsKey(EXPOSE_HEADERS)
+    assert !get.headers.containsKey(ALLOW_CREDENTIALS)
+
+    assert !doGet('defaults', null).headers.containsKey(ALLOW_ORIGIN)
+    assert !doGet('defaults/plain', 'http://foo.com').headers.containsKey(ALLOW_ORIGIN)
+
+    Response preflight = doPreflight('defaults', 'http://foo.com', 'GET')
+    assert 'options' == preflight.responseBody
+    assert ['*'] == preflight.headers.get(ALLOW_ORIGIN)
+    assert [(24 * 3600).toString()] == preflight.headers.get(MAX_AGE)
+    assert ['GET'] == preflight.headers.get(ALLOW_METHODS)
+    assert !preflight.headers.containsKey(ALLOW_HEADERS)
+  }
+
+  @Test
+  public void testPropertyDefaultsAndAnnotations() {
+    startServer([(CorsConfig.EXPOSE_HEADERS): 'x-default', (CorsConfig.ALLOW_METHODS): 'GET,PUT',
+        (CorsConfig.MAX_AGE): '600'])
+
+    assert ['x-default'] == doGet('defaults', 'http://foo.com').headers.get(EXPOSE_HEADERS)
+
+    // the class's annotation applies to methods without their own, and methods override it
+    Response classGet = doGet('classAnnotated', 'http://foo.com')
+    assert ['http://foo.com'] == classGet.headers.get(ALLOW_ORIGIN)
+    assert ['x-class'] == classGet.headers.get(EXPOSE_HEADERS)
+    assert !classGet.headers.containsKey(ALLOW_CREDENTIALS)
+
+    Response methodGet = doGet('classAnnotated/method', 'http://foo.com')
+    assert ['http://foo.com'] == methodGet.headers.get(ALLOW_ORIGIN)
+    assert ['x-method'] == methodGet.headers.get(EXPOSE_HEADERS)
+    assert ['true'] == methodGet.headers.get(ALLOW_CREDENTIALS)
+
+    Response preflight = doPreflight('classAnnotated', 'http://foo.com', 'PUT')
+    assert ['http://foo.com'] == preflight.headers.get(ALLOW_ORIGIN)
+    assert ['600'] == preflight.headers.get(MAX_AGE)
+    assert ['GET,PUT'] == preflight.headers.get(ALLOW_METHODS)
+    assert ['x-bar'] == preflight.headers.get(ALLOW_HEADERS)
+  }
+
+  @Test
+  public void testAllowlistWithRejection() {
+    startServer([(CorsConfig.ALLOWED_ORIGINS): 'https://*.partner.com', (CorsConfig.REJECT_DISALLOWED_ORIGINS): 'true'])
+
+    Response allowed = doGet('defaults', 'https://a.partner.com')
+    assert 200 == allowed.statusCode
+    assert ['https://a.partner.com'] == allowed.headers.get(ALLOW_ORIGIN)
+    assert ['Origin'] == allowed.headers.get('Vary')
+
+    Response rejected = doGet('defaults', 'https://evil.com')
+    assert 403 == rejected.statusCode
+    assert CorsResourceContainerFilter.ORIGIN_REJECTED_BODY == rejected.responseBody
+    assert !rejected.headers.containsKey(ALLOW_ORIGIN)
+    assert ['Origin'] == rejected.headers.get('Vary')
+
+    // same-origin requests have no Origin, and aren't rejected
+    assert 200 == doGet('defaults', null).statusCode
+  }
+
+  @Test
+  public void testShortCircuitAndValidatePreflight() {
+    startServer([(CorsConfig.SHORT_CIRCUIT_PREFLIGHT): true, (CorsConfig.VALIDATE_PREFLIGHT): true,
+        (CorsConfig.ALLOW_METHODS): 'GET,PUT', (CorsConfig.ALLOW_HEADERS): 'x-foo'])
+
+    Response preflight = doPreflight('defaults', 'http://foo.com', 'PUT')
+    assert 204 == preflight.statusCode
+    assert '' == preflight.responseBody
+    assert ['*'] == preflight.headers.get(ALLOW_ORIGIN)
+    assert ['PUT'] == preflight.headers.get(ALLOW_METHODS)
+
+    Response disallowed = doPreflight('defaults', 'http://foo.com', 'DELETE')
+    assert 204 == disallowed.statusCode
+    assert !disallowed.headers.containsKey(ALLOW_ORIGIN)
+
+    // plain OPTIONS requests still reach the method
+    assert 'options' == http.prepareOptions('http://localhost:8080/defaults').execute().get().responseBody
+  }
+
+  @Test
+  public void testMethodsWithEqualConfigsShareFilters() {
+    CorsFeature feature = new CorsFeature()
+    List<Object> registered = []
+
+    [DefaultsResource.getMethod('get'), DefaultsResource.getMethod('put'), DefaultsResource.getMethod('plain'),
+        ClassAnnotatedResource.getMethod('get'), ClassAnnotatedResource.getMethod('method')].each { Method method ->
+      ResourceInfo resourceInfo = [getResourceMethod: { method }, getResourceClass: { method.declaringClass }] as
+          ResourceInfo
+      Configuration configuration = [getProperties: { [:] }] as Configuration
+      FeatureContext context = [getConfiguration: { configuration },
+          register: { Object component, Map contracts -> registered.add(component); null }] as FeatureContext
+      feature.configure(resourceInfo, context)
+    }
+
+    assert 4 == registered.size()
+    assert registered[0].is(registered[1])
+    assert !registered[0].is(registered[2])
+    assert !registered[2].is(registered[3])
+  }
+
+  @Test
+  public void testJersey1OnlyPropertiesAreRejected() {
+    [(CorsConfig.POLICY_FILE): '/etc/cors.properties', (CorsConfig.METRICS): 'false',
+        (CorsConfig.PREFLIGHT_RATE_LIMIT): 10, (CorsConfig.TENANT_PREFIX + 'foo.com.allowOrigin'): 'http://foo.com']
+        .each { String name, Object value ->
+      try {
+        configure(new CorsFeature(), DefaultsResource.getMethod('get'), [(name): value])
+        assert false
+      } catch (IllegalArgumentException e) {
+        assert e.message.contains(name)
+      }
+    }
+
+    // the supported subset is accepted
+    configure(new CorsFeature(), DefaultsResource.getMethod('get'),
+        [(CorsConfig.ALLOWED_ORIGINS): 'https://*.partner.com', (CorsConfig.ORIGIN_CACHE_SIZE): 16,
+            (CorsConfig.POLICY_TABLES): false])
+  }
+
+  /**
+   * Bind a single method with a feature, as Jersey would, outside of an application.
+   */
+  private static void configure(CorsFeature feature, Method method, Map<String, Object> props) {
+    ResourceInfo resourceInfo = [getResourceMethod: { method }, getResourceClass: { method.declaringClass }] as
+        ResourceInfo
+    Configuration configuration = [getProperties: { props }] as Configuration
+    FeatureContext context = [getConfiguration: { configuration },
+        register: { Object component, Map contracts -> null }] as FeatureContext
+    feature.configure(resourceInfo, context)
+  }
+
+  private Response doGet(String path, String origin) {
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareGet("http://localhost:8080/$path")
+    if (origin != null) {
+      req.addHeader('Origin', origin)
+    }
+    return req.execute().get()
+  }
+
+  private Response doPreflight(String path, String origin, String method) {
+    return http.prepareOptions("http://localhost:8080/$path")
+        .addHeader('Origin', origin)
+        .addHeader('Access-Control-Request-Method', method)
+        .execute().get()
+  }
+
+  @Path('defaults')
+  public static class DefaultsResource {
+    @GET
+    @Cors
+    public String get() {
+      return 'get'
+    }
+
+    @PUT
+    @Cors
+    public String put() {
+      return 'put'
+    }
+
+    @GET
+    @Path('plain')
+    public String plain() {
+      return 'plain'
+    }
+
+    @OPTIONS
+    @CorsPreflight
+    public String options() {
+      return 'options'
+    }
+  }
+
+  @Path('classAnnotated')
+  @Cors(allowOrigin = 'http://foo.com', exposeHeaders = 'x-class')
+  @CorsPreflight(allowOrigin = 'http://foo.com', allowHeaders = 'x-bar')
+  public static class ClassAnnotatedResource {
+    @GET
+    public String get() {
+      return 'get'
+    }
+
+    @GET
+    @Path('method')
+    @Cors(exposeHeaders = 'x-method', allowCredentials = TRUE)
+    public String method() {
+      return 'method'
+    }
+
+    @OPTIONS
+    public String options() {
+      return 'options'
+    }
+  }
+}
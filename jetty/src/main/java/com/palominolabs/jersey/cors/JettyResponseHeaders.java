@@ -0,0 +1,134 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.server.Response;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * A Jetty response's header fields as the header map that filters add to. Headers can only be changed with
+ * {@link #putIfNotPresent}, putSingle and add, which is all the filters use; reading them works as for any map.
+ *
+ * Header blocks are added as pre-encoded fields shared by every response, and other headers the filters set get a
+ * field with a pre-encoded name.
+ */
+@NotThreadSafe
+final class JettyResponseHeaders extends AbstractMap<String, List<Object>> implements HeaderBlock.Target {
+
+    /**
+     * Uses the header fields of Jetty's own responses, and the servlet API for anything else
+     */
+    static final CorsServletFilter.HeaderAdapter ADAPTER = new CorsServletFilter.HeaderAdapter() {
+        @Nonnull
+        @Override
+        public MultivaluedMap<String, Object> getHeaders(@Nonnull HttpServletResponse response) {
+            return response instanceof Response ? new JettyResponseHeaders(((Response) response).getHttpFields()) :
+                CorsServletFilter.SERVLET_HEADERS.getHeaders(response);
+        }
+    };
+
+    /**
+     * Encodes header blocks into fields to be shared by every response
+     */
+    static final HeaderBlock.Encoder<HttpField[]> ENCODER = new HeaderBlock.Encoder<HttpField[]>() {
+        @Nonnull
+        @Override
+        public HttpField[] encode(@Nonnull String[] names, @Nonnull String[] values) {
+            HttpField[] fields = new HttpField[names.length];
+            for (int i = 0; i < names.length; i++) {
+                fields[i] = new PreEncodedHttpField(names[i], values[i]);
+            }
+            return fields;
+        }
+    };
+
+    /**
+     * Encoded names of the headers filters set outside of header blocks
+     */
+    private static final Map<String, byte[]> NAMES = ImmutableMap.<String, byte[]>builder()
+        .put(CorsHeaders.ALLOW_ORIGIN, PreEncodedHttpField.encodeName(CorsHeaders.ALLOW_ORIGIN))
+        .put(CorsHeaders.ALLOW_METHODS, PreEncodedHttpField.encodeName(CorsHeaders.ALLOW_METHODS))
+        .put(CorsHeaders.ALLOW_HEADERS, PreEncodedHttpField.encodeName(CorsHeaders.ALLOW_HEADERS))
+        .put(HttpHeaders.VARY, PreEncodedHttpField.encodeName(HttpHeaders.VARY))
+        .build();
+
+    private final HttpFields fields;
+
+    JettyResponseHeaders(@Nonnull HttpFields fields) {
+        this.fields = fields;
+    }
+
+    @Override
+    public boolean putIfNotPresent(@Nonnull HeaderBlock block) {
+        HttpField[] encoded = block.getEncoded(ENCODER);
+        boolean allAdded = true;
+        for (HttpField field : encoded) {
+            if (fields.containsKey(field.getName())) {
+                allAdded = false;
+            } else {
+                fields.add(field);
+            }
+        }
+        return allAdded;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return fields.containsKey((String) key);
+    }
+
+    @Override
+    public List<Object> get(Object key) {
+        Collection<String> values = fields.getValuesCollection((String) key);
+        return values == null || values.isEmpty() ? null : Lists.<Object>newArrayList(values);
+    }
+
+    @Override
+    public void putSingle(String key, Object value) {
+        fields.put(newField(key, value.toString()));
+    }
+
+    @Override
+    public void add(String key, Object value) {
+        fields.add(newField(key, value.toString()));
+    }
+
+    @Override
+    public Object getFirst(String key) {
+        return fields.getStringField(key);
+    }
+
+    /**
+     * @return a read-only snapshot of the fields, which AbstractMap's size, equals, toString and so on are built on
+     */
+    @Override
+    public Set<Map.Entry<String, List<Object>>> entrySet() {
+        Map<String, List<Object>> headers = newLinkedHashMap();
+        for (String name : fields.getFieldNamesCollection()) {
+            headers.put(name, Lists.<Object>newArrayList(fields.getValuesCollection(name)));
+        }
+        return Collections.unmodifiableMap(headers).entrySet();
+    }
+
+    @Nonnull
+    private static HttpField newField(String name, String value) {
+        byte[] encodedName = NAMES.get(name);
+        return encodedName == null ? new HttpField(name, value) :
+            new PreEncodedHttpField.NamePreEncoded(name, encodedName, value);
+    }
+}
@@ -0,0 +1,125 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Charsets;
+import org.eclipse.jetty.http.HttpField;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.nio.ByteBuffer;
+
+/**
+ * A header field encoded to bytes once, so that Jetty copies it into the header buffer as is instead of encoding the
+ * name and value every time it is sent. The bytes are what {@link HttpField#putTo(ByteBuffer)} would write.
+ */
+@Immutable
+final class PreEncodedHttpField extends HttpField {
+
+    private static final byte[] COLON_SPACE = {':', ' '};
+
+    private static final byte[] CRLF = {'\r', '\n'};
+
+    /**
+     * "Name: value\r\n"
+     */
+    private final byte[] bytes;
+
+    /**
+     * Offset of the value in {@link #bytes}
+     */
+    private final int valueOffset;
+
+    PreEncodedHttpField(@Nonnull String name, @Nonnull String value) {
+        super(name, value);
+        byte[] encodedName = encodeName(name);
+        byte[] encodedValue = encode(value, false);
+        bytes = new byte[encodedName.length + encodedValue.length + CRLF.length];
+        System.arraycopy(encodedName, 0, bytes, 0, encodedName.length);
+        System.arraycopy(encodedValue, 0, bytes, encodedName.length, encodedValue.length);
+        System.arraycopy(CRLF, 0, bytes, encodedName.length + encodedValue.length, CRLF.length);
+        valueOffset = encodedName.length;
+    }
+
+    @Override
+    public void putTo(ByteBuffer buffer) {
+        buffer.put(bytes);
+    }
+
+    @Override
+    public void putValueTo(ByteBuffer buffer) {
+        buffer.put(bytes, valueOffset, bytes.length - valueOffset - CRLF.length);
+    }
+
+    /**
+     * @param name header name
+     * @return "Name: " as Jetty encodes it
+     */
+    @Nonnull
+    static byte[] encodeName(@Nonnull String name) {
+        byte[] encodedName = encode(name, true);
+        byte[] b = new byte[encodedName.length + COLON_SPACE.length];
+        System.arraycopy(encodedName, 0, b, 0, encodedName.length);
+        System.arraycopy(COLON_SPACE, 0, b, encodedName.length, COLON_SPACE.length);
+        return b;
+    }
+
+    /**
+     * Encode to ISO-8859-1, with characters that would break the header (CR, LF, and in names ':') replaced by '?', as
+     * Jetty does.
+     */
+    private static byte[] encode(String s, boolean isName) {
+        byte[] b = s.getBytes(Charsets.ISO_8859_1);
+        for (int i = 0; i < b.length; i++) {
+            if (isUnsafe(b[i], isName)) {
+                b[i] = '?';
+            }
+        }
+        return b;
+    }
+
+    private static boolean isUnsafe(int b, boolean isName) {
+        return b == '\r' || b == '\n' || (isName && b == ':');
+    }
+
+    /**
+     * A field whose name is encoded ahead of time and whose value is written to the buffer character by character, for
+     * headers that depend on the request. Unlike {@link HttpField}, this encodes without an intermediate byte array.
+     */
+    @Immutable
+    static final class NamePreEncoded extends HttpField {
+
+        /**
+         * "Name: "
+         */
+        private final byte[] encodedName;
+
+        NamePreEncoded(@Nonnull String name, @Nonnull byte[] encodedName, @Nonnull String value) {
+            super(name, value);
+            this.encodedName = encodedName;
+        }
+
+        @Override
+        public void putTo(ByteBuffer buffer) {
+            buffer.put(encodedName);
+            putValueTo(buffer);
+            buffer.put(CRLF);
+        }
+
+        @Override
+        public void putValueTo(ByteBuffer buffer) {
+            String value = getValue();
+            int length = value.length();
+            for (int i = 0; i < length; i++) {
+                char c = value.charAt(i);
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    // a whole code point outside ISO-8859-1, which the charset encoder turns into a single '?'
+                    i++;
+                    buffer.put((byte) '?');
+                } else if (c > 0xFF || isUnsafe(c, false)) {
+                    buffer.put((byte) '?');
+                } else {
+                    buffer.put((byte) c);
+                }
+            }
+        }
+    }
+}
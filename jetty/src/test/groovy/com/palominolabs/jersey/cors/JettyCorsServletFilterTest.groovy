@@ -0,0 +1,212 @@
+package com.palominolabs.jersey.cors
+
+import com.ning.http.client.AsyncHttpClient
+import com.ning.http.client.Response
+import com.sun.jersey.api.core.PackagesResourceConfig
+import com.sun.jersey.api.core.ResourceConfig
+import com.sun.jersey.spi.container.servlet.ServletContainer
+import java.nio.ByteBuffer
+import javax.servlet.DispatcherType
+import javax.servlet.Filter
+import javax.ws.rs.GET
+import javax.ws.rs.OPTIONS
+import javax.ws.rs.Path
+import org.eclipse.jetty.http.HttpField
+import org.eclipse.jetty.http.HttpFields
+import org.eclipse.jetty.server.Server
+import org.eclipse.jetty.servlet.FilterHolder
+import org.eclipse.jetty.servlet.ServletContextHandler
+import org.eclipse.jetty.servlet.ServletHolder
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static com.palominolabs.jersey.cors.Ternary.TRUE
+
+class JettyCorsServletFilterTest {
+
+  /**
+   * One server with each filter, to compare what they send
+   */
+  Server jettyServer
+  Server servletServer
+
+  AsyncHttpClient http = new AsyncHttpClient()
+
+  @Before
+  public void setUp() {
+    jettyServer = startServer(8080, new JettyCorsServletFilter(), 'jettyHeaders')
+    servletServer = startServer(8081, new CorsServletFilter(), 'servletHeaders')
+  }
+
+  @After
+  public void tearDown() {
+    jettyServer.stop()
+    servletServer.stop()
+  }
+
+  private static Server startServer(int port, Filter filter, String policyName) {
+    Server server = new Server(port)
+
+    ServletHolder servletHolder = new ServletHolder(new ServletContainer())
+    servletHolder.initParameters.put(ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES,
+        CorsResourceFilterFactory.canonicalName)
+    servletHolder.initParameters.put(PackagesResourceConfig.PROPERTY_PACKAGES,
+        JettyCorsServletFilterTest.package.name)
+    servletHolder.initParameters.put(CorsConfig.SERVLET_FILTER, 'true')
+    servletHolder.initParameters.put(CorsConfig.SERVLET_FILTER_NAME, policyName)
+    servletHolder.initParameters.put(CorsConfig.ALLOWED_ORIGINS, 'https://*.partner.com')
+    servletHolder.initParameters.put(CorsConfig.EXPOSE_HEADERS, 'x-foo')
+    servletHolder.initOrder = 1
+
+    FilterHolder filterHolder = new FilterHolder(filter)
+    filterHolder.initParameters.put(CorsServletFilter.POLICY_NAME_PARAM, policyName)
+
+    ServletContextHandler handler = new ServletContextHandler()
+    handler.addServlet(servletHolder, '/api/*')
+    handler.addFilter(filterHolder, '/api/*', EnumSet.of(DispatcherType.REQUEST))
+    server.setHandler(handler)
+
+    server.start()
+    return server
+  }
+
+  @Test
+  public void testSendsSameHeadersAsServletApi() {
+    List<Map<String, String>> requests = [
+        [method: 'OPTIONS', path: 'jettyHeaders', Origin: 'https://a.partner.com',
+            'Access-Control-Request-Method': 'PUT', 'Access-Control-Request-Headers': 'x-bar'],
+        [method: 'OPTIONS', path: 'jettyHeaders', Origin: 'https://evil.com',
+            'Access-Control-Request-Method': 'PUT'],
+        [method: 'OPTIONS', path: 'jettyHeaders/auto', Origin: 'https://a.partner.com',
+            'Access-Control-Request-Method': 'GET'],
+        [method: 'GET', path: 'jettyHeaders', Origin: 'https://a.partner.com'],
+        [method: 'GET', path: 'jettyHeaders', Origin: 'https://evil.com'],
+        [method: 'GET', path: 'jettyHeaders'],
+        [method: 'GET', path: 'jettyHeaders/auto', Origin: 'https://b.partner.com'],
+    ]
+
+    requests.each { Map<String, String> request ->
+      Response jetty = send(8080, request)
+      Response servlet = send(8081, request)
+
+      assert servlet.statusCode == jetty.statusCode
+      assert servlet.responseBody == jetty.responseBody
+      assert corsHeaders(servlet) == corsHeaders(jetty)
+    }
+
+    Response preflight = send(8080, requests[0])
+    assert ['https://a.partner.com'] == preflight.headers.get('Access-Control-Allow-Origin')
+    assert ['12345'] == preflight.headers.get('Access-Control-Max-Age')
+    assert ['GET,PUT'] == preflight.headers.get('Access-Control-Allow-Methods')
+    assert ['x-foo,x-bar'] == preflight.headers.get('Access-Control-Allow-Headers')
+    assert ['true'] == preflight.headers.get('Access-Control-Allow-Credentials')
+
+    Response get = send(8080, requests[3])
+    assert ['https://a.partner.com'] == get.headers.get('Access-Control-Allow-Origin')
+    assert ['x-foo'] == get.headers.get('Access-Control-Expose-Headers')
+    assert ['Origin'] == get.headers.get('Vary')
+  }
+
+  @Test
+  public void testPreEncodedFieldsWriteWhatJettyWould() {
+    ['Access-Control-Max-Age': '86400',
+        'Access-Control-Allow-Headers': 'x-foo, x-bar',
+        'X-Odd:Name': 'caf\u00e9\r\n\u20ac \ud83d\ude00 end',
+        'Vary': 'Origin'].each { String name, String value ->
+      assert encode(new HttpField(name, value)) == encode(new PreEncodedHttpField(name, value))
+      assert encode(new HttpField(name, value)) ==
+          encode(new PreEncodedHttpField.NamePreEncoded(name, PreEncodedHttpField.encodeName(name), value))
+      assert encodeValue(new HttpField(name, value)) == encodeValue(new PreEncodedHttpField(name, value))
+    }
+  }
+
+  @Test
+  public void testBlockFieldsAreSharedBetweenResponses() {
+    HeaderBlock block = new HeaderBlock.Builder()
+        .add('Access-Control-Max-Age', '86400')
+        .add('Access-Control-Allow-Credentials', 'true')
+        .build()
+
+    HttpFields first = new HttpFields()
+    HttpFields second = new HttpFields()
+    second.put('Access-Control-Max-Age', '10')
+
+    assert block.putIfNotPresent(new JettyResponseHeaders(first))
+    assert !block.putIfNotPresent(new JettyResponseHeaders(second))
+
+    assert 2 == first.size()
+    assert first.getField('Access-Control-Allow-Credentials').is(second.getField('Access-Control-Allow-Credentials'))
+    // present headers are left alone
+    assert '10' == second.getStringField('Access-Control-Max-Age')
+    assert block.getEncoded(JettyResponseHeaders.ENCODER).is(block.getEncoded(JettyResponseHeaders.ENCODER))
+  }
+
+  @Test
+  public void testHeadersReadAsMap() {
+    HttpFields fields = new HttpFields()
+    fields.add('Vary', 'Origin')
+    JettyResponseHeaders headers = new JettyResponseHeaders(fields)
+    headers.putSingle('Access-Control-Allow-Origin', 'http://foo.com')
+    headers.add('Vary', 'Accept')
+
+    assert 2 == headers.size()
+    assert !headers.isEmpty()
+    assert [Vary: ['Origin', 'Accept'], 'Access-Control-Allow-Origin': ['http://foo.com']] == headers
+    assert String.valueOf(headers).contains('Access-Control-Allow-Origin=[http://foo.com]')
+    assert 0 == new JettyResponseHeaders(new HttpFields()).size()
+  }
+
+  private Response send(int port, Map<String, String> request) {
+    String url = "http://localhost:$port/api/${request.path}"
+    AsyncHttpClient.BoundRequestBuilder req =
+        request.method == 'OPTIONS' ? http.prepareOptions(url) : http.prepareGet(url)
+    request.findAll { it.key != 'method' && it.key != 'path' }.each { req.addHeader(it.key, it.value) }
+    return req.execute().get()
+  }
+
+  private static Map<String, List<String>> corsHeaders(Response r) {
+    return r.headers.findAll { it.key.startsWith('Access-Control-') || it.key == 'Vary' }
+        .collectEntries { [(it.key): it.value] } as Map<String, List<String>>
+  }
+
+  private static List<Byte> encode(HttpField field) {
+    ByteBuffer buffer = ByteBuffer.allocate(256)
+    field.putTo(buffer)
+    buffer.flip()
+    byte[] b = new byte[buffer.remaining()]
+    buffer.get(b)
+    return b as List<Byte>
+  }
+
+  private static List<Byte> encodeValue(HttpField field) {
+    ByteBuffer buffer = ByteBuffer.allocate(256)
+    field.putValueTo(buffer)
+    buffer.flip()
+    byte[] b = new byte[buffer.remaining()]
+    buffer.get(b)
+    return b as List<Byte>
+  }
+
+  @Path("jettyHeaders")
+  static class JettyHeadersResource {
+    @GET
+    @Cors
+    String get() {
+      return 'get'
+    }
+
+    @OPTIONS
+    @CorsPreflight(allowMethods = 'GET,PUT', allowHeaders = 'x-foo,x-bar', maxAge = 12345, allowCredentials = TRUE)
+    String options() {
+      return 'options'
+    }
+
+    @GET
+    @Path("auto")
+    @Cors(allowCredentials = TRUE)
+    String getAuto() {
+      return 'auto'
+    }
+  }
+}
@@ -0,0 +1,425 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedOptions;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import javax.ws.rs.OPTIONS;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newTreeMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.palominolabs.jersey.cors.CorsPreflight.UNSET_MAX_AGE;
+import static com.palominolabs.jersey.cors.Ternary.TRUE;
+
+/**
+ * Annotation processor that checks {@link Cors} and {@link CorsPreflight} at compile time and generates a
+ * {@link CorsPolicyTable} for the resource classes being compiled, so that {@link CorsResourceFilterFactory} doesn't
+ * have to read and merge the annotations reflectively at startup.
+ *
+ * The build fails on annotations that the factory would otherwise only log and ignore, or reject at startup:
+ *
+ * <ul>
+ * <li>{@link Cors} on an @OPTIONS method, or {@link CorsPreflight} on a method that isn't @OPTIONS;</li>
+ * <li>an allowedOrigins element that isn't a valid allowlist;</li>
+ * <li>a negative maxAge;</li>
+ * <li>a wildcard allowOrigin with allowCredentials = TRUE, which browsers refuse.</li>
+ * </ul>
+ *
+ * The generated class is named by the {@value #TABLE_CLASS_OPTION} option (e.g.
+ * -AcorsPolicyTable=com.foo.CorsPolicies), and defaults to GeneratedCorsPolicyTable in the package of the first
+ * resource class. It is registered in META-INF/services, so just having it on the classpath is enough.
+ */
+@SupportedAnnotationTypes({"javax.ws.rs.Path", "javax.ws.rs.GET", "javax.ws.rs.POST", "javax.ws.rs.PUT",
+    "javax.ws.rs.DELETE", "javax.ws.rs.HEAD", "javax.ws.rs.OPTIONS", "com.palominolabs.jersey.cors.Cors",
+    "com.palominolabs.jersey.cors.CorsPreflight"})
+@SupportedOptions(CorsAnnotationProcessor.TABLE_CLASS_OPTION)
+public final class CorsAnnotationProcessor extends AbstractProcessor {
+
+    /**
+     * Processor option naming the generated table class
+     */
+    public static final String TABLE_CLASS_OPTION = "corsPolicyTable";
+
+    static final String SERVICE_FILE = "META-INF/services/" + CorsPolicyTable.class.getName();
+
+    /**
+     * Registration calls per generated method, to stay well clear of the 64k bytecode limit for large applications
+     */
+    private static final int STATEMENTS_PER_METHOD = 200;
+
+    /**
+     * Binary names of the classes covered by tables generated in earlier rounds
+     */
+    private final Set<String> processedClasses = newHashSet();
+
+    /**
+     * Names of the tables generated so far
+     */
+    private final List<String> tableClasses = newArrayList();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        if (roundEnv.processingOver()) {
+            if (!tableClasses.isEmpty()) {
+                writeServiceFile();
+            }
+            return false;
+        }
+
+        // sorted by binary name so that the generated source is the same from one build to the next
+        Map<String, TypeElement> classes = newTreeMap();
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                TypeElement klass = getResourceClass(element);
+                if (klass != null) {
+                    String name = processingEnv.getElementUtils().getBinaryName(klass).toString();
+                    if (!processedClasses.contains(name)) {
+                        classes.put(name, klass);
+                    }
+                }
+            }
+        }
+
+        if (classes.isEmpty()) {
+            return false;
+        }
+
+        List<String> statements = newArrayList();
+        boolean valid = true;
+        for (Map.Entry<String, TypeElement> e : classes.entrySet()) {
+            valid &= addClass(statements, e.getKey(), e.getValue());
+        }
+        processedClasses.addAll(classes.keySet());
+
+        // there's no point in a table for code that won't compile
+        if (valid) {
+            writeTable(getTableClassName(classes.values().iterator().next()), statements);
+        }
+
+        // the JAX-RS annotations are left for other processors
+        return false;
+    }
+
+    /**
+     * @param element annotated element
+     * @return the class whose methods the element affects, or null if it is not one that the factory sees
+     */
+    @Nullable
+    private static TypeElement getResourceClass(Element element) {
+        Element type = element.getKind() == ElementKind.METHOD ? element.getEnclosingElement() : element;
+        if (type.getKind() != ElementKind.CLASS) {
+            // annotations on interfaces aren't visible on the implementing methods Jersey gives the factory
+            return null;
+        }
+
+        TypeElement klass = (TypeElement) type;
+        NestingKind nesting = klass.getNestingKind();
+        return nesting == NestingKind.TOP_LEVEL || nesting == NestingKind.MEMBER ? klass : null;
+    }
+
+    /**
+     * Check a class's annotations and add the registration calls for it and its methods.
+     *
+     * @param statements where to add the calls
+     * @param className  binary name of the class
+     * @param klass      the class
+     * @return false if any annotation is invalid
+     */
+    private boolean addClass(List<String> statements, String className, TypeElement klass) {
+        boolean valid = true;
+
+        Cors classCors = klass.getAnnotation(Cors.class);
+        CorsOverrides classCorsOverrides = null;
+        if (classCors != null) {
+            classCorsOverrides = CorsOverrides.of(classCors);
+            valid &= checkAllowedOrigins(klass, Cors.class, classCorsOverrides.allowedOrigins);
+        }
+
+        CorsPreflight classPreflight = klass.getAnnotation(CorsPreflight.class);
+        CorsPreflightOverrides classPreflightOverrides = null;
+        if (classPreflight != null) {
+            classPreflightOverrides = CorsPreflightOverrides.of(classPreflight);
+            valid &= checkAllowedOrigins(klass, CorsPreflight.class, classPreflightOverrides.allowedOrigins);
+            valid &= checkMaxAge(klass, classPreflightOverrides.maxAge);
+        }
+
+        statements.add("resourceClass(" + literal(className) + ");");
+        if (classPreflightOverrides != null) {
+            valid &= checkCredentials(klass, CorsPreflight.class, classPreflightOverrides.allowOrigin,
+                classPreflightOverrides.allowedOrigins, classPreflightOverrides.allowCredentials);
+            statements.add("classPreflight(" + literal(className) + ", " + args(classPreflightOverrides) + ");");
+        }
+
+        for (ExecutableElement method : ElementFilter.methodsIn(klass.getEnclosedElements())) {
+            boolean isOptions = method.getAnnotation(OPTIONS.class) != null;
+            Cors cors = method.getAnnotation(Cors.class);
+            CorsPreflight corsPreflight = method.getAnnotation(CorsPreflight.class);
+
+            if (isOptions && cors != null) {
+                error(method, Cors.class, "@Cors is not applicable to @OPTIONS methods; use @CorsPreflight");
+                valid = false;
+                continue;
+            } else if (!isOptions && corsPreflight != null) {
+                error(method, CorsPreflight.class,
+                    "@CorsPreflight is only applicable to @OPTIONS methods; use @Cors");
+                valid = false;
+                continue;
+            }
+
+            String key = CorsPolicyTable.methodKey(className, method.getSimpleName().toString(),
+                getParameterTypeNames(method));
+            if (isOptions) {
+                CorsPreflightOverrides merged = classPreflightOverrides;
+                if (corsPreflight != null) {
+                    CorsPreflightOverrides own = CorsPreflightOverrides.of(corsPreflight);
+                    valid &= checkAllowedOrigins(method, CorsPreflight.class, own.allowedOrigins);
+                    valid &= checkMaxAge(method, own.maxAge);
+                    merged = own.over(classPreflightOverrides);
+                }
+                if (merged != null) {
+                    valid &= checkCredentials(method, CorsPreflight.class, merged.allowOrigin,
+                        merged.allowedOrigins, merged.allowCredentials);
+                    statements.add("preflight(" + literal(key) + ", " + args(merged) + ");");
+                }
+            } else {
+                CorsOverrides merged = classCorsOverrides;
+                if (cors != null) {
+                    CorsOverrides own = CorsOverrides.of(cors);
+                    valid &= checkAllowedOrigins(method, Cors.class, own.allowedOrigins);
+                    merged = own.over(classCorsOverrides);
+                }
+                if (merged != null) {
+                    valid &= checkCredentials(method, Cors.class, merged.allowOrigin, merged.allowedOrigins,
+                        merged.allowCredentials);
+                    statements.add("cors(" + literal(key) + ", " + args(merged) + ");");
+                }
+            }
+        }
+
+        return valid;
+    }
+
+    private boolean checkAllowedOrigins(Element element, Class<? extends Annotation> annotation,
+        String allowedOrigins) {
+        if (allowedOrigins.isEmpty()) {
+            return true;
+        }
+
+        try {
+            OriginMatcher.compile(allowedOrigins);
+            return true;
+        } catch (IllegalArgumentException e) {
+            error(element, annotation, "Invalid allowedOrigins: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private boolean checkMaxAge(Element element, int maxAge) {
+        if (maxAge < 0 && maxAge != UNSET_MAX_AGE) {
+            error(element, CorsPreflight.class, "maxAge must not be negative: " + maxAge);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Only explicit values are checked, since the defaults aren't known until runtime.
+     */
+    private boolean checkCredentials(Element element, Class<? extends Annotation> annotation, String allowOrigin,
+        String allowedOrigins, Ternary allowCredentials) {
+        if ("*".equals(allowOrigin) && allowedOrigins.isEmpty() && allowCredentials == TRUE) {
+            error(element, annotation, "allowCredentials = TRUE cannot be combined with allowOrigin = \"*\"; " +
+                "browsers reject credentialed responses that allow any origin");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Report an error at the element's annotation of the given type, or at the element if the annotation is inherited
+     * from its class.
+     */
+    private void error(Element element, Class<? extends Annotation> annotation, String message) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            TypeElement type = (TypeElement) mirror.getAnnotationType().asElement();
+            if (type.getQualifiedName().contentEquals(annotation.getName())) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element, mirror);
+                return;
+            }
+        }
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    /**
+     * @param method method
+     * @return the names of the erased parameter types, as {@link CorsPolicyTable#methodKey(java.lang.reflect.Method)}
+     *         gets them from the loaded class
+     */
+    @Nonnull
+    private List<String> getParameterTypeNames(ExecutableElement method) {
+        List<String> names = newArrayList();
+        for (VariableElement param : method.getParameters()) {
+            names.add(getTypeName(processingEnv.getTypeUtils().erasure(param.asType())));
+        }
+        return names;
+    }
+
+    @Nonnull
+    private static String getTypeName(TypeMirror type) {
+        switch (type.getKind()) {
+            case ARRAY:
+                return getTypeName(((ArrayType) type).getComponentType()) + "[]";
+            case DECLARED:
+                return ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+            default:
+                return type.getKind().isPrimitive() ? type.getKind().name().toLowerCase(Locale.ROOT) : type.toString();
+        }
+    }
+
+    @Nonnull
+    private String getTableClassName(TypeElement firstClass) {
+        String name = processingEnv.getOptions().get(TABLE_CLASS_OPTION);
+        if (name == null) {
+            PackageElement pkg = processingEnv.getElementUtils().getPackageOf(firstClass);
+            name = pkg.isUnnamed() ? "GeneratedCorsPolicyTable" :
+                pkg.getQualifiedName() + ".GeneratedCorsPolicyTable";
+        }
+        // classes generated by other processors show up in later rounds, and get a table of their own
+        return tableClasses.isEmpty() ? name : name + (tableClasses.size() + 1);
+    }
+
+    private void writeTable(String className, List<String> statements) {
+        int dot = className.lastIndexOf('.');
+        String simpleName = className.substring(dot + 1);
+
+        try {
+            JavaFileObject file = processingEnv.getFiler().createSourceFile(className);
+            PrintWriter out = new PrintWriter(file.openWriter());
+            try {
+                if (dot > 0) {
+                    out.println("package " + className.substring(0, dot) + ";");
+                    out.println();
+                }
+                out.println("import com.palominolabs.jersey.cors.CorsPolicyTable;");
+                out.println();
+                out.println("import static com.palominolabs.jersey.cors.Ternary.FALSE;");
+                out.println("import static com.palominolabs.jersey.cors.Ternary.NEUTRAL;");
+                out.println("import static com.palominolabs.jersey.cors.Ternary.TRUE;");
+                out.println();
+                out.println("@javax.annotation.Generated(\"" + CorsAnnotationProcessor.class.getName() + "\")");
+                out.println("public final class " + simpleName + " extends CorsPolicyTable {");
+                out.println();
+                out.println("    public " + simpleName + "() {");
+                int methods = (statements.size() + STATEMENTS_PER_METHOD - 1) / STATEMENTS_PER_METHOD;
+                for (int i = 0; i < methods; i++) {
+                    out.println("        add" + i + "();");
+                }
+                out.println("    }");
+                for (int i = 0; i < methods; i++) {
+                    out.println();
+                    out.println("    private void add" + i + "() {");
+                    int end = Math.min(statements.size(), (i + 1) * STATEMENTS_PER_METHOD);
+                    for (String statement : statements.subList(i * STATEMENTS_PER_METHOD, end)) {
+                        out.println("        " + statement);
+                    }
+                    out.println("    }");
+                }
+                out.println("}");
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                "Could not write " + className + ": " + e.getMessage());
+            return;
+        }
+
+        tableClasses.add(className);
+    }
+
+    private void writeServiceFile() {
+        try {
+            FileObject file =
+                processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", SERVICE_FILE);
+            Writer out = file.openWriter();
+            try {
+                for (String tableClass : tableClasses) {
+                    out.write(tableClass + "\n");
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+                "Could not write " + SERVICE_FILE + ": " + e.getMessage());
+        }
+    }
+
+    @Nonnull
+    private static String args(CorsOverrides o) {
+        return literal(o.allowOrigin) + ", " + literal(o.allowedOrigins) + ", " + literal(o.exposeHeaders) + ", " +
+            o.allowCredentials + ", " + o.rejectDisallowedOrigins;
+    }
+
+    @Nonnull
+    private static String args(CorsPreflightOverrides o) {
+        return o.maxAge + ", " + literal(o.allowMethods) + ", " + literal(o.allowHeaders) + ", " +
+            o.allowCredentials + ", " + literal(o.allowOrigin) + ", " + literal(o.allowedOrigins);
+    }
+
+    /**
+     * @param s string
+     * @return a Java string literal for the string
+     */
+    @Nonnull
+    static String literal(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                // not a unicode escape, which javac would turn back into a line break before parsing the literal
+                sb.append(String.format("\\%03o", (int) c));
+            } else if (c > 0x7e) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
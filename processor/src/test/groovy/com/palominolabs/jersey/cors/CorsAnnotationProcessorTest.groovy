@@ -0,0 +1,356 @@
+package com.palominolabs.jersey.cors
+
+import com.sun.jersey.api.core.DefaultResourceConfig
+import com.sun.jersey.api.model.AbstractResourceMethod
+import com.sun.jersey.core.util.MultivaluedMapImpl
+import com.sun.jersey.server.impl.modelapi.annotation.IntrospectionModeller
+import javax.tools.Diagnostic
+import javax.tools.DiagnosticCollector
+import javax.tools.JavaCompiler
+import javax.tools.JavaFileObject
+import javax.tools.StandardJavaFileManager
+import javax.tools.ToolProvider
+import javax.ws.rs.core.MultivaluedMap
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_CREDENTIALS
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_HEADERS
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_METHODS
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_ORIGIN
+import static com.palominolabs.jersey.cors.CorsHeaders.EXPOSE_HEADERS
+import static com.palominolabs.jersey.cors.CorsHeaders.MAX_AGE
+import static com.palominolabs.jersey.cors.Ternary.NEUTRAL
+import static com.palominolabs.jersey.cors.Ternary.TRUE
+
+class CorsAnnotationProcessorTest {
+
+  static final String MERGING_RESOURCE = '''
+package com.foo;
+
+import com.palominolabs.jersey.cors.Cors;
+import com.palominolabs.jersey.cors.CorsPreflight;
+import com.palominolabs.jersey.cors.Ternary;
+import javax.ws.rs.*;
+
+@Path("merging")
+@Cors(allowedOrigins = "https://*.foo.com", exposeHeaders = "x-class")
+@CorsPreflight(maxAge = 600, allowHeaders = "x-class")
+public class MergingResource {
+    @GET
+    public String get() { return "get"; }
+
+    @POST
+    @Cors(allowOrigin = "https://fixed.com", allowCredentials = Ternary.TRUE)
+    public String post(String body) { return body; }
+
+    @PUT
+    @Path("{id}")
+    @Cors(exposeHeaders = "x-method")
+    public String put(@PathParam("id") String id, String[] body) { return id; }
+
+    @OPTIONS
+    @CorsPreflight(allowMethods = "GET,POST,PUT")
+    public String options() { return "options"; }
+
+    public static class Inner {
+        @GET
+        @Cors
+        public String get(int i, Inner[] others) { return "inner"; }
+
+        @DELETE
+        public void delete() { }
+    }
+}
+'''
+
+  static final String UNANNOTATED_RESOURCE = '''
+package com.foo;
+
+import javax.ws.rs.*;
+
+@Path("plain")
+public class PlainResource {
+    @GET
+    public String get() { return "get"; }
+}
+'''
+
+  final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler()
+
+  File dir
+
+  File classes
+
+  @Before
+  public void setUp() {
+    dir = File.createTempFile('cors-processor', '')
+    dir.delete()
+    classes = new File(dir, 'classes')
+    classes.mkdirs()
+  }
+
+  @After
+  public void tearDown() {
+    dir.deleteDir()
+  }
+
+  @Test
+  public void testCorsOnOptionsFailsBuild() {
+    List<Diagnostic> errors = compile(['com/foo/Bad.java': '''
+package com.foo;
+@javax.ws.rs.Path("bad")
+public class Bad {
+    @javax.ws.rs.OPTIONS
+    @com.palominolabs.jersey.cors.Cors
+    public String options() { return ""; }
+}
+'''])
+
+    assert 1 == errors.size()
+    assert errors[0].getMessage(Locale.ROOT).contains('@Cors is not applicable to @OPTIONS methods')
+    assert 6 == errors[0].lineNumber
+    assert !new File(classes, CorsAnnotationProcessor.SERVICE_FILE).exists()
+  }
+
+  @Test
+  public void testCorsPreflightOnGetFailsBuild() {
+    List<Diagnostic> errors = compile(['com/foo/Bad.java': '''
+package com.foo;
+@javax.ws.rs.Path("bad")
+public class Bad {
+    @javax.ws.rs.GET
+    @com.palominolabs.jersey.cors.CorsPreflight
+    public String get() { return ""; }
+}
+'''])
+
+    assert 1 == errors.size()
+    assert errors[0].getMessage(Locale.ROOT).contains('@CorsPreflight is only applicable to @OPTIONS methods')
+  }
+
+  @Test
+  public void testInvalidAllowedOriginsFailsBuild() {
+    List<Diagnostic> errors = compile(['com/foo/Bad.java': '''
+package com.foo;
+@javax.ws.rs.Path("bad")
+@com.palominolabs.jersey.cors.Cors(allowedOrigins = "https://*.foo.com,not an origin")
+public class Bad {
+    @javax.ws.rs.GET
+    public String get() { return ""; }
+}
+'''])
+
+    assert 1 == errors.size()
+    assert errors[0].getMessage(Locale.ROOT).startsWith('Invalid allowedOrigins')
+    assert 4 == errors[0].lineNumber
+  }
+
+  @Test
+  public void testNegativeMaxAgeFailsBuild() {
+    List<Diagnostic> errors = compile(['com/foo/Bad.java': '''
+package com.foo;
+@javax.ws.rs.Path("bad")
+public class Bad {
+    @javax.ws.rs.OPTIONS
+    @com.palominolabs.jersey.cors.CorsPreflight(maxAge = -5)
+    public String options() { return ""; }
+}
+'''])
+
+    assert 1 == errors.size()
+    assert errors[0].getMessage(Locale.ROOT).contains('maxAge must not be negative: -5')
+    assert 6 == errors[0].lineNumber
+  }
+
+  @Test
+  public void testWildcardOriginWithCredentialsFailsBuildAfterMerging() {
+    List<Diagnostic> errors = compile(['com/foo/Bad.java': '''
+package com.foo;
+import com.palominolabs.jersey.cors.*;
+@javax.ws.rs.Path("bad")
+@Cors(allowOrigin = "*")
+public class Bad {
+    @javax.ws.rs.GET
+    @Cors(allowCredentials = Ternary.TRUE)
+    public String get() { return ""; }
+
+    @javax.ws.rs.POST
+    @Cors(allowCredentials = Ternary.TRUE, allowedOrigins = "https://foo.com")
+    public String post() { return ""; }
+}
+'''])
+
+    assert 1 == errors.size()
+    assert errors[0].getMessage(Locale.ROOT).contains('allowCredentials = TRUE cannot be combined')
+    assert 8 == errors[0].lineNumber
+  }
+
+  @Test
+  public void testGeneratesMergedTable() {
+    assert [] == compile(['com/foo/MergingResource.java': MERGING_RESOURCE,
+        'com/foo/PlainResource.java': UNANNOTATED_RESOURCE])
+
+    assert ['com.foo.GeneratedCorsPolicyTable'] ==
+        new File(classes, CorsAnnotationProcessor.SERVICE_FILE).readLines()
+
+    ClassLoader loader = newClassLoader()
+    PolicyTables tables = PolicyTables.load(loader)
+    Class<?> resource = loader.loadClass('com.foo.MergingResource')
+    Class<?> inner = loader.loadClass('com.foo.MergingResource$Inner')
+    Class<?> plain = loader.loadClass('com.foo.PlainResource')
+
+    assert tables.covers(resource)
+    assert tables.covers(inner)
+    assert tables.covers(plain)
+
+    assert new CorsOverrides('', 'https://*.foo.com', 'x-class', NEUTRAL, NEUTRAL) ==
+        tables.getCors(resource.getMethod('get'))
+    // the method's fixed origin replaces the class's allowlist
+    assert new CorsOverrides('https://fixed.com', '', 'x-class', TRUE, NEUTRAL) ==
+        tables.getCors(resource.getMethod('post', String))
+    assert new CorsOverrides('', 'https://*.foo.com', 'x-method', NEUTRAL, NEUTRAL) ==
+        tables.getCors(resource.getMethod('put', String, String[]))
+    assert null == tables.getCors(resource.getMethod('options'))
+    assert new CorsPreflightOverrides(600, 'GET,POST,PUT', 'x-class', NEUTRAL, '', '') ==
+        tables.getPreflight(resource.getMethod('options'))
+    assert new CorsPreflightOverrides(600, '', 'x-class', NEUTRAL, '', '') == tables.getClassPreflight(resource)
+
+    assert new CorsOverrides('', '', '', NEUTRAL, NEUTRAL) ==
+        tables.getCors(inner.getMethod('get', int, java.lang.reflect.Array.newInstance(inner, 0).getClass()))
+    assert null == tables.getCors(inner.getMethod('delete'))
+    assert null == tables.getCors(plain.getMethod('get'))
+  }
+
+  @Test
+  public void testTableClassNameOption() {
+    assert [] == compile(['com/foo/MergingResource.java': MERGING_RESOURCE], ['-AcorsPolicyTable=com.bar.Policies'])
+
+    assert ['com.bar.Policies'] == new File(classes, CorsAnnotationProcessor.SERVICE_FILE).readLines()
+    assert newClassLoader().loadClass('com.bar.Policies').newInstance() instanceof CorsPolicyTable
+  }
+
+  @Test
+  public void testFactoryResolvesTableLikeAnnotations() {
+    assert [] == compile(['com/foo/MergingResource.java': MERGING_RESOURCE])
+    ClassLoader loader = newClassLoader()
+
+    Class<?> resource = loader.loadClass('com.foo.MergingResource')
+
+    Map<String, Map<String, List<Object>>> fromTable = getHeadersByMethod(loader, resource, [:])
+    Map<String, Map<String, List<Object>>> reflected =
+        getHeadersByMethod(loader, resource, [(CorsConfig.POLICY_TABLES): 'false'])
+
+    assert reflected == fromTable
+    assert ['https://a.foo.com'] == fromTable.get('get').get(ALLOW_ORIGIN)
+    assert ['x-class'] == fromTable.get('get').get(EXPOSE_HEADERS)
+    assert ['https://fixed.com'] == fromTable.get('post').get(ALLOW_ORIGIN)
+    assert ['true'] == fromTable.get('post').get(ALLOW_CREDENTIALS)
+    assert ['x-method'] == fromTable.get('put').get(EXPOSE_HEADERS)
+    assert ['GET,POST,PUT'] == fromTable.get('options').get(ALLOW_METHODS)
+    assert ['x-class'] == fromTable.get('options').get(ALLOW_HEADERS)
+    assert ['600'] == fromTable.get('options').get(MAX_AGE)
+  }
+
+  @Test
+  public void testFactoryUsesTableInsteadOfAnnotations() {
+    assert [] == compile(['com/foo/MergingResource.java': MERGING_RESOURCE])
+    // recompile without the processor, so that the class's annotations no longer match the table
+    assert [] == compile(['com/foo/MergingResource.java': MERGING_RESOURCE.replace('x-class', 'x-recompiled')],
+        ['-proc:none'])
+    ClassLoader loader = newClassLoader()
+    Class<?> resource = loader.loadClass('com.foo.MergingResource')
+
+    assert ['x-class'] == getHeadersByMethod(loader, resource, [:]).get('get').get(EXPOSE_HEADERS)
+    assert ['x-recompiled'] == getHeadersByMethod(loader, resource, [(CorsConfig.POLICY_TABLES): 'false'])
+        .get('get').get(EXPOSE_HEADERS)
+  }
+
+  @Test
+  public void testLiteralEscapes() {
+    assert '"a\\"b\\\\c\\012\\u00e9"' == CorsAnnotationProcessor.literal('a"b\\c\n\u00e9')
+  }
+
+  /**
+   * @return the headers that the filter the factory creates for each of the class's resource methods adds to a
+   *         response for a request from https://a.foo.com, keyed by method name
+   */
+  private static Map<String, Map<String, List<Object>>> getHeadersByMethod(ClassLoader loader, Class<?> klass,
+      Map<String, Object> props) {
+    Thread thread = Thread.currentThread()
+    ClassLoader original = thread.contextClassLoader
+    thread.contextClassLoader = loader
+    try {
+      DefaultResourceConfig config = new DefaultResourceConfig()
+      config.properties.putAll(props)
+      CorsResourceFilterFactory factory = new CorsResourceFilterFactory(config)
+
+      Map<String, Map<String, List<Object>>> headersByMethod = [:]
+      List<AbstractResourceMethod> methods = []
+      methods.addAll(IntrospectionModeller.createResource(klass).resourceMethods)
+      methods.addAll(IntrospectionModeller.createResource(klass).subResourceMethods)
+      for (AbstractResourceMethod method : methods) {
+        CorsHeaderFilter filter = (CorsHeaderFilter) factory.create(method)?.get(0)
+        MultivaluedMap<String, Object> headers = new MultivaluedMapImpl()
+        filter?.addHeaders(new Object(), NO_HEADERS, 'https://a.foo.com', headers)
+        headersByMethod.put(method.method.name, headers)
+      }
+      return headersByMethod
+    } finally {
+      thread.contextClassLoader = original
+    }
+  }
+
+  static final HeaderReader<Object> NO_HEADERS = new HeaderReader<Object>() {
+    @Override
+    String getHeader(Object request, String name) {
+      return null
+    }
+
+    @Override
+    String getPath(Object request) {
+      return ''
+    }
+
+    @Override
+    Object getProperty(Object request, String name) {
+      return null
+    }
+  }
+
+  private ClassLoader newClassLoader() {
+    return new URLClassLoader([classes.toURI().toURL()] as URL[], getClass().classLoader)
+  }
+
+  /**
+   * @param sources source code keyed by path
+   * @param options extra javac options
+   * @return the errors reported
+   */
+  private List<Diagnostic> compile(Map<String, String> sources, List<String> options = []) {
+    List<File> files = []
+    sources.each { path, source ->
+      File file = new File(dir, "src/${path}")
+      file.parentFile.mkdirs()
+      file.text = source
+      files.add(file)
+    }
+
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>()
+    StandardJavaFileManager fileManager = compiler.getStandardFileManager(diagnostics, Locale.ROOT, null)
+    try {
+      List<String> args = ['-classpath', System.getProperty('java.class.path'), '-d', classes.path,
+          '-processor', CorsAnnotationProcessor.name] + options
+      if (options.contains('-proc:none')) {
+        args.removeAll(['-processor', CorsAnnotationProcessor.name])
+      }
+      compiler.getTask(null, fileManager, diagnostics, args, null, fileManager.getJavaFileObjectsFromFiles(files))
+          .call()
+    } finally {
+      fileManager.close()
+    }
+
+    return diagnostics.diagnostics.findAll { it.kind == Diagnostic.Kind.ERROR }
+  }
+}
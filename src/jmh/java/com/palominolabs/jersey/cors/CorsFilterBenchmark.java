@@ -0,0 +1,191 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.api.core.DefaultResourceConfig;
+import com.sun.jersey.api.model.AbstractResource;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.server.impl.modelapi.annotation.IntrospectionModeller;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ResourceFilter;
+import com.sun.jersey.spi.container.WebApplication;
+import com.sun.jersey.spi.container.WebApplicationFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.OPTIONS;
+import javax.ws.rs.Path;
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-request cost of the response filters built by {@link CorsResourceFilterFactory}.
+ *
+ * Filters are obtained from the factory for an annotated resource class, exactly as Jersey would, so the benchmarks
+ * track whatever the factory builds. Requests and responses are real Jersey objects; each response's header map is
+ * cleared before use (except in the "headers present" cases) so every invocation does the same work as a fresh
+ * response would.
+ *
+ * The {@code metrics} parameter runs each benchmark with metrics off, with counters only, and with counters and
+ * latency ({@link CorsConfig#METRICS}, {@link CorsConfig#METRICS_LATENCY}), to show what recording them costs. The
+ * {@code originCacheSize} parameter compares matching the wildcard allowlist with and without
+ * {@link OriginDecisionCache}.
+ *
+ * Run with {@code gradle jmh}, which enables the gc profiler to report allocated bytes per op.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CorsFilterBenchmark {
+
+    private static final URI BASE_URI = URI.create("http://localhost:8080/");
+
+    @Param({"off", "counters", "latency"})
+    public String metrics;
+
+    @Param({"1024", "0"})
+    public String originCacheSize;
+
+    private ContainerResponseFilter resourceFilter;
+    private ContainerResponseFilter preflightFilter;
+
+    private ContainerRequest getNoOrigin;
+    private ContainerRequest get;
+    private ContainerRequest preflight;
+    private ContainerRequest optionsNoOrigin;
+
+    private ContainerResponse getNoOriginResponse;
+    private ContainerResponse getResponse;
+    private ContainerResponse getPresentResponse;
+    private ContainerResponse preflightResponse;
+    private ContainerResponse preflightPresentResponse;
+    private ContainerResponse optionsNoOriginResponse;
+
+    @Setup
+    public void setUp() {
+        DefaultResourceConfig resourceConfig = new DefaultResourceConfig();
+        resourceConfig.getProperties().put(CorsConfig.ORIGIN_CACHE_SIZE, originCacheSize);
+        if (!"off".equals(metrics)) {
+            resourceConfig.getProperties().put(CorsConfig.METRICS, "true");
+            resourceConfig.getProperties().put(CorsConfig.METRICS_LATENCY, String.valueOf("latency".equals(metrics)));
+            resourceConfig.getProperties().put(CorsConfig.METRICS_NAME, "benchmark");
+        }
+        CorsResourceFilterFactory factory = new CorsResourceFilterFactory(resourceConfig);
+        AbstractResource resource = IntrospectionModeller.createResource(BenchmarkResource.class);
+        for (AbstractResourceMethod method : resource.getResourceMethods()) {
+            ContainerResponseFilter filter = getResponseFilter(factory, method);
+            if ("GET".equals(method.getHttpMethod())) {
+                resourceFilter = filter;
+            } else {
+                preflightFilter = filter;
+            }
+        }
+
+        WebApplication wa = WebApplicationFactory.createWebApplication();
+
+        getNoOrigin = request(wa, "GET");
+        get = request(wa, "GET", CorsHeaders.ORIGIN, "https://www.foo.com");
+        preflight = request(wa, "OPTIONS", CorsHeaders.ORIGIN, "https://www.foo.com",
+            "Access-Control-Request-Method", "GET", "Access-Control-Request-Headers", "x-foo");
+        optionsNoOrigin = request(wa, "OPTIONS");
+
+        getNoOriginResponse = new ContainerResponse(wa, getNoOrigin, null);
+        getResponse = new ContainerResponse(wa, get, null);
+        getPresentResponse = new ContainerResponse(wa, get, null);
+        resourceFilter.filter(get, getPresentResponse);
+        preflightResponse = new ContainerResponse(wa, preflight, null);
+        preflightPresentResponse = new ContainerResponse(wa, preflight, null);
+        preflightFilter.filter(preflight, preflightPresentResponse);
+        optionsNoOriginResponse = new ContainerResponse(wa, optionsNoOrigin, null);
+    }
+
+    @Benchmark
+    public ContainerResponse resourceNoOrigin() {
+        return resourceFilter.filter(getNoOrigin, getNoOriginResponse);
+    }
+
+    @Benchmark
+    public ContainerResponse resourceSimple() {
+        getResponse.getHttpHeaders().clear();
+        return resourceFilter.filter(get, getResponse);
+    }
+
+    @Benchmark
+    public ContainerResponse resourceHeadersPresent() {
+        return resourceFilter.filter(get, getPresentResponse);
+    }
+
+    @Benchmark
+    public ContainerResponse preflightNoOrigin() {
+        return preflightFilter.filter(optionsNoOrigin, optionsNoOriginResponse);
+    }
+
+    @Benchmark
+    public ContainerResponse preflight() {
+        preflightResponse.getHttpHeaders().clear();
+        return preflightFilter.filter(preflight, preflightResponse);
+    }
+
+    @Benchmark
+    public ContainerResponse preflightHeadersPresent() {
+        return preflightFilter.filter(preflight, preflightPresentResponse);
+    }
+
+    private static ContainerResponseFilter getResponseFilter(CorsResourceFilterFactory factory,
+        AbstractResourceMethod method) {
+        List<ResourceFilter> filters = factory.create(method);
+        if (filters == null || filters.size() != 1) {
+            throw new IllegalStateException("Expected exactly one filter for " + method + ", got " + filters);
+        }
+        return filters.get(0).getResponseFilter();
+    }
+
+    /**
+     * @param wa            web application
+     * @param method        HTTP method
+     * @param headerPairs   alternating header names and values
+     * @return a request for /bench with the given headers
+     */
+    private static ContainerRequest request(WebApplication wa, String method, String... headerPairs) {
+        InBoundHeaders headers = new InBoundHeaders();
+        headers.add("Host", "localhost:8080");
+        headers.add("Accept", "application/json");
+        for (int i = 0; i < headerPairs.length; i += 2) {
+            headers.add(headerPairs[i], headerPairs[i + 1]);
+        }
+        return new ContainerRequest(wa, method, BASE_URI, BASE_URI.resolve("bench"), headers,
+            new ByteArrayInputStream(new byte[0]));
+    }
+
+    @Path("bench")
+    @Cors(allowedOrigins = "https://foo.com,https://*.foo.com", exposeHeaders = "x-foo")
+    @CorsPreflight(allowedOrigins = "https://foo.com,https://*.foo.com", allowHeaders = "x-foo",
+        allowMethods = "GET,POST", allowCredentials = Ternary.TRUE)
+    public static class BenchmarkResource {
+        @GET
+        public String get() {
+            return "x";
+        }
+
+        @OPTIONS
+        public String options() {
+            return "x";
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.api.core.DefaultResourceConfig;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.spi.container.servlet.ServletContainer;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.DispatcherType;
+import javax.ws.rs.GET;
+import javax.ws.rs.OPTIONS;
+import javax.ws.rs.Path;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of preflights and simple requests through an embedded Jetty server, with CORS handled either
+ * by the Jersey filters or by {@link CorsServletFilter} in front of Jersey.
+ *
+ * The Jersey path uses {@link CorsConfig#SHORT_CIRCUIT_PREFLIGHT}, so in both modes preflights are answered without
+ * invoking the resource method, and the difference is what Jersey does before and after its filters run. Requests go
+ * over a keep-alive HttpURLConnection on localhost, so the numbers include the client and the loopback round trip,
+ * which are the same in both modes.
+ *
+ * Run with {@code gradle jmh -PjmhInclude=ServletFilter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+// HttpURLConnection otherwise drops Origin and Access-Control-Request-Method
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.http.allowRestrictedHeaders=true")
+@State(Scope.Benchmark)
+public class ServletFilterBenchmark {
+
+    @Param({"jersey", "servletFilter"})
+    public String mode;
+
+    private Server server;
+
+    private URL url;
+
+    private final byte[] buffer = new byte[4096];
+
+    @Setup
+    public void setUp() throws Exception {
+        ResourceConfig resourceConfig = new DefaultResourceConfig(BenchmarkResource.class);
+        resourceConfig.getProperties().put(ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES,
+            CorsResourceFilterFactory.class.getName());
+        resourceConfig.getProperties().put(CorsConfig.ALLOWED_ORIGINS, "https://*.foo.com");
+        resourceConfig.getProperties().put(CorsConfig.ALLOW_METHODS, "GET,POST");
+
+        ServletContextHandler handler = new ServletContextHandler();
+        ServletHolder servletHolder = new ServletHolder(new ServletContainer(resourceConfig));
+        servletHolder.setInitOrder(1);
+        handler.addServlet(servletHolder, "/*");
+
+        if ("servletFilter".equals(mode)) {
+            resourceConfig.getProperties().put(CorsConfig.SERVLET_FILTER, "true");
+            resourceConfig.getProperties().put(CorsConfig.SERVLET_FILTER_NAME, "benchmark");
+            FilterHolder filterHolder = new FilterHolder(new CorsServletFilter());
+            filterHolder.setInitParameter(CorsServletFilter.POLICY_NAME_PARAM, "benchmark");
+            handler.addFilter(filterHolder, "/*", EnumSet.of(DispatcherType.REQUEST));
+        } else {
+            resourceConfig.getProperties().put(CorsConfig.SHORT_CIRCUIT_PREFLIGHT, "true");
+        }
+
+        server = new Server(0);
+        server.setHandler(handler);
+        server.start();
+
+        int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+        url = new URL("http://localhost:" + port + "/benchmark");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        server.stop();
+    }
+
+    @Benchmark
+    public int preflight() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("OPTIONS");
+        connection.setRequestProperty(CorsHeaders.ORIGIN, "https://a.foo.com");
+        connection.setRequestProperty(CorsHeaders.REQUEST_METHOD, "POST");
+        return complete(connection);
+    }
+
+    @Benchmark
+    public int get() throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty(CorsHeaders.ORIGIN, "https://a.foo.com");
+        return complete(connection);
+    }
+
+    /**
+     * Read the whole response, so that the connection goes back to the keep-alive pool.
+     */
+    private int complete(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        InputStream in = connection.getInputStream();
+        try {
+            while (in.read(buffer) >= 0) {
+                // discard
+            }
+        } finally {
+            in.close();
+        }
+        if (connection.getHeaderField(CorsHeaders.ALLOW_ORIGIN) == null) {
+            throw new IllegalStateException("No CORS headers in response to " + connection.getRequestMethod());
+        }
+        return status;
+    }
+
+    @Path("benchmark")
+    @Cors
+    @CorsPreflight
+    public static class BenchmarkResource {
+        @GET
+        public String get() {
+            return "x";
+        }
+
+        @OPTIONS
+        public String options() {
+            return "x";
+        }
+    }
+}
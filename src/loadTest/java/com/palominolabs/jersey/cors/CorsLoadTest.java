@@ -0,0 +1,357 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.io.Files;
+import com.sun.jersey.api.core.DefaultResourceConfig;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.spi.container.servlet.ServletContainer;
+import org.HdrHistogram.Histogram;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.servlet.DispatcherType;
+import javax.ws.rs.GET;
+import javax.ws.rs.OPTIONS;
+import javax.ws.rs.Path;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Load test for the CORS filters in a real server: starts embedded Jetty with Jersey and {@link
+ * CorsResourceFilterFactory}, drives it from a fixed number of client threads, and writes the throughput and the
+ * HdrHistogram latency percentiles for each request mix to a JSON report.
+ *
+ * The request mixes are:
+ *
+ * <ul>
+ * <li>none: GET with an Origin to a resource without CORS annotations, as a baseline</li>
+ * <li>cors: GET with an Origin to a {@link Cors} resource</li>
+ * <li>preflight: preflights to the same resource's {@link CorsPreflight} @OPTIONS method</li>
+ * <li>mixed: preflights and GETs to the {@link Cors} resource, in the ratio set by loadTest.preflightRatio</li>
+ * </ul>
+ *
+ * Settings are system properties, which the Gradle task takes from project properties of the same name, e.g.
+ * {@code gradle loadTest -PloadTest.concurrency=64 -PloadTest.modes=cors,mixed}:
+ *
+ * <ul>
+ * <li>loadTest.modes: comma-separated request mixes to run, in order (default: all four)</li>
+ * <li>loadTest.concurrency: client threads, each with one request in flight (default 16)</li>
+ * <li>loadTest.warmupSeconds: time to run each mix before measuring (default 5)</li>
+ * <li>loadTest.durationSeconds: time to measure each mix for (default 10)</li>
+ * <li>loadTest.preflightRatio: fraction of preflights in the mixed mode (default 0.2)</li>
+ * <li>loadTest.shortCircuitPreflight: set {@link CorsConfig#SHORT_CIRCUIT_PREFLIGHT} (default false)</li>
+ * <li>loadTest.servletFilter: handle CORS in {@link CorsServletFilter} instead (default false)</li>
+ * <li>loadTest.report: file to write the JSON report to</li>
+ * </ul>
+ *
+ * Each client thread sends its next request as soon as the previous one completes, so latencies are service times at
+ * the given concurrency, not response times at a fixed arrival rate. The mixed mode picks requests with a
+ * fixed-seed random number generator per thread, so runs send the same sequence of requests.
+ */
+public final class CorsLoadTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorsLoadTest.class);
+
+    private static final String ORIGIN = "https://app.foo.com";
+
+    /**
+     * Highest latency the histograms track, in microseconds
+     */
+    private static final long MAX_LATENCY_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    private final int concurrency;
+
+    private final int warmupSeconds;
+
+    private final int durationSeconds;
+
+    private final double preflightRatio;
+
+    private final String baseUrl;
+
+    private CorsLoadTest(int concurrency, int warmupSeconds, int durationSeconds, double preflightRatio,
+        String baseUrl) {
+        this.concurrency = concurrency;
+        this.warmupSeconds = warmupSeconds;
+        this.durationSeconds = durationSeconds;
+        this.preflightRatio = preflightRatio;
+        this.baseUrl = baseUrl;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int concurrency = Integer.getInteger("loadTest.concurrency", 16);
+        // must be set before HttpURLConnection is first used: Origin and Access-Control-Request-Method are otherwise
+        // dropped, and only 5 idle connections per host are kept alive
+        System.setProperty("sun.net.http.allowRestrictedHeaders", "true");
+        System.setProperty("http.maxConnections", Integer.toString(concurrency));
+
+        List<String> modes = newArrayList(Splitter.on(',').trimResults().omitEmptyStrings()
+            .split(System.getProperty("loadTest.modes", "none,cors,preflight,mixed")));
+        int warmupSeconds = Integer.getInteger("loadTest.warmupSeconds", 5);
+        int durationSeconds = Integer.getInteger("loadTest.durationSeconds", 10);
+        double preflightRatio = Double.parseDouble(System.getProperty("loadTest.preflightRatio", "0.2"));
+        boolean shortCircuit = Boolean.getBoolean("loadTest.shortCircuitPreflight");
+        boolean servletFilter = Boolean.getBoolean("loadTest.servletFilter");
+        File report = new File(System.getProperty("loadTest.report", "build/reports/loadTest/results.json"));
+
+        Server server = startServer(shortCircuit, servletFilter);
+        StringBuilder json = new StringBuilder();
+        try {
+            int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+            CorsLoadTest loadTest = new CorsLoadTest(concurrency, warmupSeconds, durationSeconds, preflightRatio,
+                "http://localhost:" + port + "/");
+
+            json.append("{\n")
+                .append("  \"concurrency\": ").append(concurrency).append(",\n")
+                .append("  \"warmupSeconds\": ").append(warmupSeconds).append(",\n")
+                .append("  \"durationSeconds\": ").append(durationSeconds).append(",\n")
+                .append("  \"preflightRatio\": ").append(preflightRatio).append(",\n")
+                .append("  \"shortCircuitPreflight\": ").append(shortCircuit).append(",\n")
+                .append("  \"servletFilter\": ").append(servletFilter).append(",\n")
+                .append("  \"results\": [");
+            for (int i = 0; i < modes.size(); i++) {
+                Result result = loadTest.run(modes.get(i));
+                logger.info(result.toString());
+                json.append(i == 0 ? "\n" : ",\n");
+                result.appendJson(json);
+            }
+            json.append("\n  ]\n}\n");
+        } finally {
+            server.stop();
+        }
+
+        Files.createParentDirs(report);
+        Files.write(json, report, Charsets.UTF_8);
+        logger.info("Wrote " + report.getPath());
+    }
+
+    private static Server startServer(boolean shortCircuit, boolean servletFilter) throws Exception {
+        ResourceConfig resourceConfig = new DefaultResourceConfig(PlainResource.class, CorsResource.class);
+        resourceConfig.getProperties().put(ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES,
+            CorsResourceFilterFactory.class.getName());
+        resourceConfig.getProperties().put(CorsConfig.ALLOWED_ORIGINS, "https://*.foo.com");
+        resourceConfig.getProperties().put(CorsConfig.ALLOW_METHODS, "GET,POST");
+        resourceConfig.getProperties().put(CorsConfig.SHORT_CIRCUIT_PREFLIGHT, Boolean.toString(shortCircuit));
+
+        ServletContextHandler handler = new ServletContextHandler();
+        ServletHolder servletHolder = new ServletHolder(new ServletContainer(resourceConfig));
+        servletHolder.setInitOrder(1);
+        handler.addServlet(servletHolder, "/*");
+
+        if (servletFilter) {
+            resourceConfig.getProperties().put(CorsConfig.SERVLET_FILTER, "true");
+            resourceConfig.getProperties().put(CorsConfig.SERVLET_FILTER_NAME, "loadTest");
+            FilterHolder filterHolder = new FilterHolder(new CorsServletFilter());
+            filterHolder.setInitParameter(CorsServletFilter.POLICY_NAME_PARAM, "loadTest");
+            handler.addFilter(filterHolder, "/*", EnumSet.of(DispatcherType.REQUEST));
+        }
+
+        Server server = new Server(0);
+        server.setHandler(handler);
+        server.start();
+        return server;
+    }
+
+    /**
+     * Warm up, then measure one request mix.
+     *
+     * @param mode request mix
+     * @return throughput and latencies measured
+     */
+    private Result run(String mode) throws Exception {
+        logger.info("Running " + mode + ": " + warmupSeconds + " s warmup, " + durationSeconds + " s measurement");
+        drive(mode, TimeUnit.SECONDS.toNanos(warmupSeconds));
+
+        long start = System.nanoTime();
+        List<Worker> workers = drive(mode, TimeUnit.SECONDS.toNanos(durationSeconds));
+        long elapsedNanos = System.nanoTime() - start;
+
+        Histogram histogram = new Histogram(MAX_LATENCY_MICROS, 3);
+        long errors = 0;
+        for (Worker worker : workers) {
+            histogram.add(worker.histogram);
+            errors += worker.errors;
+        }
+        return new Result(mode, histogram, errors, elapsedNanos);
+    }
+
+    /**
+     * @param mode          request mix
+     * @param durationNanos how long to send requests for
+     * @return the workers, once they have all finished
+     */
+    private List<Worker> drive(String mode, long durationNanos) throws Exception {
+        long deadline = System.nanoTime() + durationNanos;
+        List<Worker> workers = newArrayList();
+        for (int i = 0; i < concurrency; i++) {
+            workers.add(new Worker(mode, i, deadline));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        try {
+            for (Future<Void> future : executor.invokeAll(workers)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return workers;
+    }
+
+    /**
+     * One client thread's requests and measurements.
+     */
+    @NotThreadSafe
+    private final class Worker implements Callable<Void> {
+        final Histogram histogram = new Histogram(MAX_LATENCY_MICROS, 3);
+        final Random random;
+        final String mode;
+        final long deadline;
+        final byte[] buffer = new byte[4096];
+        long errors;
+
+        private Worker(String mode, int index, long deadline) {
+            this.mode = mode;
+            this.random = new Random(index);
+            this.deadline = deadline;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            while (System.nanoTime() < deadline) {
+                boolean preflight = "preflight".equals(mode) ||
+                    ("mixed".equals(mode) && random.nextDouble() < preflightRatio);
+
+                long start = System.nanoTime();
+                boolean ok = send(preflight);
+                histogram.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start),
+                    MAX_LATENCY_MICROS));
+                if (!ok) {
+                    errors++;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param preflight true to send a preflight, false to send a GET
+         * @return true if the response was as expected
+         */
+        private boolean send(boolean preflight) throws IOException {
+            String path = "none".equals(mode) ? "plain" : "cors";
+            HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            connection.setRequestProperty("Origin", ORIGIN);
+            if (preflight) {
+                connection.setRequestMethod("OPTIONS");
+                connection.setRequestProperty("Access-Control-Request-Method", "POST");
+            }
+
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                try {
+                    // read to the end so the connection is reused
+                    while (in.read(buffer) >= 0) {
+                        // discard
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+
+            boolean corsExpected = !"none".equals(mode);
+            return status < 300 && corsExpected == (connection.getHeaderField("Access-Control-Allow-Origin") != null);
+        }
+    }
+
+    /**
+     * What was measured for one request mix.
+     */
+    private static final class Result {
+        final String mode;
+        final Histogram histogram;
+        final long errors;
+        final double requestsPerSecond;
+
+        private Result(String mode, Histogram histogram, long errors, long elapsedNanos) {
+            this.mode = mode;
+            this.histogram = histogram;
+            this.errors = errors;
+            this.requestsPerSecond = histogram.getTotalCount() / (elapsedNanos / 1e9);
+        }
+
+        void appendJson(StringBuilder json) {
+            json.append("    {\"mode\": \"").append(mode).append('"')
+                .append(", \"requests\": ").append(histogram.getTotalCount())
+                .append(", \"errors\": ").append(errors)
+                .append(", \"requestsPerSecond\": ").append(format(requestsPerSecond))
+                .append(", \"latencyMicros\": {")
+                .append("\"p50\": ").append(histogram.getValueAtPercentile(50))
+                .append(", \"p99\": ").append(histogram.getValueAtPercentile(99))
+                .append(", \"p99.9\": ").append(histogram.getValueAtPercentile(99.9))
+                .append(", \"max\": ").append(histogram.getMaxValue())
+                .append(", \"mean\": ").append(format(histogram.getMean()))
+                .append("}}");
+        }
+
+        @Override
+        public String toString() {
+            return mode + ": " + format(requestsPerSecond) + " req/s, p50 " + histogram.getValueAtPercentile(50) +
+                " us, p99 " + histogram.getValueAtPercentile(99) + " us, p99.9 " +
+                histogram.getValueAtPercentile(99.9) + " us, " + errors + " errors";
+        }
+
+        private static String format(double d) {
+            return String.format(Locale.ROOT, "%.1f", d);
+        }
+    }
+
+    @Path("plain")
+    public static class PlainResource {
+        @GET
+        public String get() {
+            return "x";
+        }
+
+        @OPTIONS
+        public String options() {
+            return "x";
+        }
+    }
+
+    @Path("cors")
+    @Cors
+    @CorsPreflight
+    public static class CorsResource {
+        @GET
+        public String get() {
+            return "x";
+        }
+
+        @OPTIONS
+        public String options() {
+            return "x";
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+
+/**
+ * Stackless carrier for a response that a CORS request filter answers with instead of dispatching to the resource
+ * method. Filling in a stack trace every time would cost more than the resource method we are trying to skip, and
+ * instances holding a shareable response (see {@link PrebuiltResponse}) can be thrown over and over.
+ */
+class CorsAbortException extends WebApplicationException {
+
+    private static final long serialVersionUID = 1L;
+
+    CorsAbortException(@Nonnull Response response) {
+        super(response);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
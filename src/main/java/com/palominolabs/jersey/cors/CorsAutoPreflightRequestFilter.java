@@ -0,0 +1,96 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Joiner;
+import com.palominolabs.jersey.cors.ResourcePaths.PathMethods;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Response;
+import java.util.Map;
+
+import static com.google.common.collect.Maps.newHashMap;
+import static com.palominolabs.jersey.cors.PathPatternTrie.normalize;
+
+/**
+ * Jersey ContainerRequestFilter that answers preflight requests for resources that use {@link Cors} but do not declare
+ * an @OPTIONS method, so that you don't need to write an @OPTIONS method for every such resource.
+ *
+ * At startup, the filter walks the model of every root resource known to the ResourceConfig and, for each path that
+ * has at least one method with {@link Cors} but no @OPTIONS method, precomputes the preflight headers. Every other
+ * root resource path is kept too, without headers, so that a preflight to a literal path such as items/special is left
+ * to its own resource even if a template path such as items/{id} that matches it is answered here. The allowed
+ * methods are the @Cors methods declared for that path; everything else comes from the {@link CorsConfig} properties
+ * and the resource class's {@link CorsPreflight}, if any, just as for an @OPTIONS method. The filters come from the
+ * same {@link CorsFilterRegistry} as those of {@link CorsResourceFilterFactory}, so they follow the same policy file.
+ *
+ * Preflights (OPTIONS requests with Origin and Access-Control-Request-Method) to such paths are answered with a 204
+ * before Jersey matches a resource method, which also avoids generating the WADL that Jersey would otherwise send in
+ * response to OPTIONS, or with a 429 if their origin is over {@link CorsConfig#PREFLIGHT_RATE_LIMIT}. All other
+ * requests pass through untouched.
+ *
+ * Register it by setting ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS to this class's name, in addition to
+ * registering {@link CorsResourceFilterFactory}.
+ */
+@Immutable
+public final class CorsAutoPreflightRequestFilter implements ContainerRequestFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorsAutoPreflightRequestFilter.class);
+
+    private final PathTable<CorsHeaderFilter> preflightPaths;
+
+    public CorsAutoPreflightRequestFilter(@Context ResourceConfig resourceConfig) {
+        CorsFilterRegistry registry = CorsFilterRegistry.getOrCreate(resourceConfig);
+
+        Map<String, PathMethods> paths = ResourcePaths.collect(resourceConfig, registry);
+        Map<String, CorsHeaderFilter> filters = newHashMap();
+        for (Map.Entry<String, PathMethods> e : paths.entrySet()) {
+            PathMethods pathMethods = e.getValue();
+            if (pathMethods.hasOptions || pathMethods.corsMethods.isEmpty()) {
+                filters.put(e.getKey(), null);
+                continue;
+            }
+
+            CorsHeaderFilter filter = registry.createAutoPreflightFilter(pathMethods.klass, e.getKey(),
+                Joiner.on(',').join(pathMethods.corsMethods));
+
+            filters.put(e.getKey(), filter);
+            logger.debug(
+                "Answering preflights for /" + e.getKey() + " with allowed methods " + pathMethods.corsMethods);
+        }
+
+        preflightPaths = new PathTable<CorsHeaderFilter>(filters);
+    }
+
+    @Override
+    public ContainerRequest filter(ContainerRequest request) {
+        if (!HttpMethod.OPTIONS.equals(request.getMethod())) {
+            return request;
+        }
+
+        String incomingOrigin = request.getHeaderValue(CorsHeaders.ORIGIN);
+        if (incomingOrigin == null || request.getHeaderValue(CorsHeaders.REQUEST_METHOD) == null) {
+            return request;
+        }
+
+        CorsHeaderFilter filter = preflightPaths.get(normalize(request.getPath(false)));
+        if (filter == null) {
+            return request;
+        }
+
+        // the response already has its CORS headers, or deliberately none if it's a 429
+        CorsFallbackResponseFilter.markHandled(request);
+        Response response = Response.noContent().build();
+        int outcome =
+            filter.addHeaders(request, HeaderReader.CONTAINER_REQUEST, incomingOrigin, response.getMetadata());
+        if ((outcome & CorsHeaderFilter.RATE_LIMITED) != 0) {
+            throw CorsPreflightResponseResourceFilter.PREFLIGHT_RATE_LIMITED;
+        }
+        throw new CorsAbortException(response);
+    }
+}
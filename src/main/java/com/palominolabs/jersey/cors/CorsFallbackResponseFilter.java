@@ -0,0 +1,99 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+import com.sun.jersey.spi.container.ResourceFilter;
+
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.Context;
+
+/**
+ * Jersey ContainerResponseFilter that adds CORS headers to responses that no resource method's filters saw: 404s for
+ * unknown paths, 405s, and errors from request filters that ran before a method was matched. Without CORS headers, a
+ * browser hides such a response from the page, which only sees an opaque network error and can't tell it from an
+ * outage.
+ *
+ * The headers are those of a bare {@link Cors}, so they follow the {@link CorsConfig} defaults (and tenants and policy
+ * file, if configured). They are resolved into a filter once, at startup, by the same {@link CorsFilterRegistry} that
+ * {@link CorsResourceFilterFactory} uses, so a reloaded policy file applies to them too.
+ *
+ * Jersey runs the resource method's response filters before the global ones, so with {@link CorsConfig#FALLBACK} set,
+ * every resource method, with or without CORS headers of its own, gets a filter that sets a request property, and this
+ * filter only has to check for it. A method's response filters also run for responses from exception mappers, so those
+ * already have the method's headers.
+ *
+ * Register it by setting ResourceConfig.PROPERTY_CONTAINER_RESPONSE_FILTERS to this class's name, in addition to
+ * registering {@link CorsResourceFilterFactory} and setting {@link CorsConfig#FALLBACK}.
+ */
+@Immutable
+public final class CorsFallbackResponseFilter implements ContainerResponseFilter {
+
+    /**
+     * Request property set once a resource method's filters have run
+     */
+    static final String HANDLED = CorsFallbackResponseFilter.class.getName() + ".handled";
+
+    /**
+     * The resource filter that flags requests, which the registry gives to every resource method
+     */
+    static final ResourceFilter MARKER = new Marker();
+
+    private final CorsHeaderFilter filter;
+
+    /**
+     * @param resourceConfig resource config
+     * @throws IllegalArgumentException if {@link CorsConfig#FALLBACK} isn't set
+     */
+    public CorsFallbackResponseFilter(@Context ResourceConfig resourceConfig) {
+        CorsFilterRegistry registry = CorsFilterRegistry.getOrCreate(resourceConfig);
+        if (!registry.fallback) {
+            // without it, responses from resource methods aren't flagged and would all get the default headers
+            throw new IllegalArgumentException(
+                CorsFallbackResponseFilter.class.getSimpleName() + " requires " + CorsConfig.FALLBACK + " to be set");
+        }
+        filter = registry.createFallbackFilter();
+    }
+
+    @Override
+    public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+        if (request.getProperties().containsKey(HANDLED)) {
+            return response;
+        }
+
+        filter.addHeaders(request, HeaderReader.CONTAINER_REQUEST, request.getHeaderValue(CorsHeaders.ORIGIN),
+            response.getHttpHeaders());
+        return response;
+    }
+
+    /**
+     * @param request request that a resource method's filters or the auto-preflight filter have handled
+     */
+    static void markHandled(ContainerRequest request) {
+        request.getProperties().put(HANDLED, Boolean.TRUE);
+    }
+
+    /**
+     * Flags the requests that reach a resource method.
+     */
+    @Immutable
+    private static class Marker implements ResourceFilter, ContainerResponseFilter {
+        @Override
+        public ContainerRequestFilter getRequestFilter() {
+            return null;
+        }
+
+        @Override
+        public ContainerResponseFilter getResponseFilter() {
+            return this;
+        }
+
+        @Override
+        public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+            markHandled(request);
+            return response;
+        }
+    }
+}
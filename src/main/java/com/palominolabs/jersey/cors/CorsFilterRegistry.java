@@ -0,0 +1,896 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Objects;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
+import com.palominolabs.jersey.cors.PolicyResolver.CorsPreflightConfig;
+import com.palominolabs.jersey.cors.PolicyResolver.CorsResourceConfig;
+import com.palominolabs.jersey.cors.PolicyResolver.Defaults;
+import com.palominolabs.jersey.cors.ResourcePaths.PathMethods;
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.api.model.AbstractMethod;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.spi.container.ResourceFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.OPTIONS;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.palominolabs.jersey.cors.ConfigProps.getBooleanProp;
+import static com.palominolabs.jersey.cors.ConfigProps.getIntProp;
+import static com.palominolabs.jersey.cors.ConfigProps.getStringProp;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOW_CREDENTIALS;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOW_HEADERS;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOW_METHODS;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOW_ORIGIN;
+import static com.palominolabs.jersey.cors.CorsConfig.ALLOWED_ORIGINS;
+import static com.palominolabs.jersey.cors.CorsConfig.EXPOSE_HEADERS;
+import static com.palominolabs.jersey.cors.CorsConfig.FALLBACK;
+import static com.palominolabs.jersey.cors.CorsConfig.MAX_AGE;
+import static com.palominolabs.jersey.cors.CorsConfig.METRICS;
+import static com.palominolabs.jersey.cors.CorsConfig.METRICS_LATENCY;
+import static com.palominolabs.jersey.cors.CorsConfig.METRICS_NAME;
+import static com.palominolabs.jersey.cors.CorsConfig.ORIGIN_CACHE_SIZE;
+import static com.palominolabs.jersey.cors.CorsConfig.POLICY_FILE;
+import static com.palominolabs.jersey.cors.CorsConfig.POLICY_FILE_POLL_INTERVAL;
+import static com.palominolabs.jersey.cors.CorsConfig.POLICY_RULES_FILE;
+import static com.palominolabs.jersey.cors.CorsConfig.POLICY_TABLES;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_ANALYZER;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_ANALYZER_MAX_SOURCES;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_ANALYZER_SAMPLE_RATE;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_RATE_LIMIT;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_RATE_LIMIT_BURST;
+import static com.palominolabs.jersey.cors.CorsConfig.PREFLIGHT_RATE_LIMIT_ORIGINS;
+import static com.palominolabs.jersey.cors.CorsConfig.REJECT_DISALLOWED_ORIGINS;
+import static com.palominolabs.jersey.cors.CorsConfig.SERVLET_FILTER;
+import static com.palominolabs.jersey.cors.CorsConfig.SERVLET_FILTER_NAME;
+import static com.palominolabs.jersey.cors.CorsConfig.SHORT_CIRCUIT_PREFLIGHT;
+import static com.palominolabs.jersey.cors.CorsConfig.TENANTS;
+import static com.palominolabs.jersey.cors.CorsConfig.TENANT_PREFIX;
+import static com.palominolabs.jersey.cors.CorsConfig.VALIDATE_PREFLIGHT;
+import static com.palominolabs.jersey.cors.PolicyResolver.getBooleanFromTernary;
+
+/**
+ * Creates, interns and reloads the CORS filters of one Jersey application. There is one per ResourceConfig, shared by
+ * {@link CorsResourceFilterFactory}, {@link CorsAutoPreflightRequestFilter} and {@link CorsFallbackResponseFilter}, so
+ * that they resolve against the same policy, hand out the same filters, and only start one policy file watcher and
+ * export one set of servlet routes between them. See {@link CorsResourceFilterFactory} for what it can be configured to
+ * do.
+ */
+@ThreadSafe
+final class CorsFilterRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorsFilterRegistry.class);
+
+    /**
+     * ResourceConfig property holding the registry
+     */
+    private static final String PROPERTY = CorsFilterRegistry.class.getName();
+
+    /**
+     * A {@link Cors} without any elements, which resolves to the defaults
+     */
+    private static final CorsOverrides NO_OVERRIDES = new CorsOverrides("", "", "", Ternary.NEUTRAL, Ternary.NEUTRAL);
+
+    private static final Splitter TENANT_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+    /**
+     * The properties a tenant can override, keyed by the last part of their names
+     */
+    private static final Map<String, String> TENANT_PROPERTIES;
+
+    static {
+        Map<String, String> tenantProperties = newHashMap();
+        for (String name : new String[]{MAX_AGE, ALLOW_METHODS, ALLOW_HEADERS, ALLOW_CREDENTIALS, ALLOW_ORIGIN,
+            ALLOWED_ORIGINS, EXPOSE_HEADERS, REJECT_DISALLOWED_ORIGINS}) {
+            tenantProperties.put(name.substring(name.lastIndexOf('.') + 1), name);
+        }
+        TENANT_PROPERTIES = ImmutableMap.copyOf(tenantProperties);
+    }
+
+    @VisibleForTesting
+    final int defMaxAge;
+    @VisibleForTesting
+    final String defAllowOrigin;
+    @VisibleForTesting
+    final String defExposeHeaders;
+    @VisibleForTesting
+    final Ternary defAllowCredentials;
+    @VisibleForTesting
+    final String defAllowMethods;
+    @VisibleForTesting
+    final String defAllowHeaders;
+    @VisibleForTesting
+    final String defAllowedOrigins;
+    @VisibleForTesting
+    final boolean shortCircuitPreflight;
+    @VisibleForTesting
+    final boolean validatePreflight;
+
+    /**
+     * Most decisions to cache per allowlist, or 0 for no caching
+     */
+    private final int originCacheSize;
+
+    /**
+     * Compiled allowlists, keyed by the comma-separated list they were compiled from
+     */
+    private final ConcurrentMap<String, OriginAllowlist> originMatchers = newConcurrentMap();
+
+    private final Object policyLock = new Object();
+
+    /**
+     * The current defaults and what has been resolved from them
+     */
+    @GuardedBy("policyLock")
+    private Resolution resolution;
+
+    /**
+     * Lowercase hosts with defaults of their own
+     */
+    private final List<String> tenants;
+
+    /**
+     * Each tenant's defaults and what has been resolved from them, keyed by host; empty if there are no tenants
+     */
+    @GuardedBy("policyLock")
+    private ImmutableMap<String, Resolution> tenantResolutions;
+
+    /**
+     * Jersey properties, which a policy file's properties are layered over
+     */
+    private final Map<String, Object> configProps;
+
+    /**
+     * Current filters for {@link ReloadableResourceFilter}s; null if there is no policy file
+     */
+    @Nullable
+    private final AtomicReference<PolicySnapshot> snapshot;
+
+    /**
+     * The filters handed out when there is a policy file, in the order of their indexes in the snapshot
+     */
+    @GuardedBy("policyLock")
+    private final Map<FilterSource, ReloadableResourceFilter> reloadableFilters = newLinkedHashMap();
+
+    /**
+     * null if metrics are not enabled
+     */
+    @Nullable
+    private final CorsMetrics metrics;
+
+    /**
+     * null if the preflight analyzer is not enabled
+     */
+    @Nullable
+    private final PreflightAnalyzer preflightAnalyzer;
+
+    /**
+     * null if preflights are not rate limited
+     */
+    @Nullable
+    private final PreflightRateLimiter preflightRateLimiter;
+
+    /**
+     * Resource methods whose filters have been exported to {@link CorsServletFilter}, so that Jersey doesn't apply them
+     * a second time
+     */
+    private final Set<Method> exportedMethods;
+
+    /**
+     * True if requests that reach a resource method are flagged for {@link CorsFallbackResponseFilter}
+     */
+    final boolean fallback;
+
+    /**
+     * null if there is no policy file
+     */
+    @Nullable
+    private final PolicyFileWatcher watcher;
+
+    /**
+     * Annotations resolved at compile time
+     */
+    private final PolicyTables policyTables;
+
+    /**
+     * Policies for unannotated methods, by path
+     */
+    private final PolicyRules policyRules;
+
+    private CorsFilterRegistry(ResourceConfig resourceConfig) {
+        Map<String, Object> props = resourceConfig.getProperties();
+        configProps = ImmutableMap.copyOf(props);
+        Defaults defaults = new Defaults(props);
+        defAllowOrigin = defaults.allowOrigin;
+        defExposeHeaders = defaults.exposeHeaders;
+        defAllowCredentials = defaults.allowCredentials;
+        defMaxAge = defaults.maxAge;
+        defAllowMethods = defaults.allowMethods;
+        defAllowHeaders = defaults.allowHeaders;
+        defAllowedOrigins = defaults.allowedOrigins;
+        shortCircuitPreflight = getBooleanProp(props, SHORT_CIRCUIT_PREFLIGHT, false);
+        validatePreflight = getBooleanProp(props, VALIDATE_PREFLIGHT, false);
+        originCacheSize = getIntProp(props, ORIGIN_CACHE_SIZE, 1024);
+        if (originCacheSize < 0) {
+            throw new IllegalArgumentException("Origin cache size must not be negative: " + originCacheSize);
+        }
+
+        metrics = getBooleanProp(props, METRICS, false) ? CorsMetrics.getOrCreate(resourceConfig,
+            getBooleanProp(props, METRICS_LATENCY, false), getStringProp(props, METRICS_NAME, "default")) : null;
+        preflightAnalyzer = getBooleanProp(props, PREFLIGHT_ANALYZER, false) ?
+            PreflightAnalyzer.getOrCreate(resourceConfig, getIntProp(props, PREFLIGHT_ANALYZER_SAMPLE_RATE, 1),
+                getIntProp(props, PREFLIGHT_ANALYZER_MAX_SOURCES, 1000),
+                getStringProp(props, METRICS_NAME, "default")) : null;
+        int preflightRateLimit = getIntProp(props, PREFLIGHT_RATE_LIMIT, 0);
+        if (preflightRateLimit < 0) {
+            throw new IllegalArgumentException("Preflight rate limit must not be negative: " + preflightRateLimit);
+        }
+        preflightRateLimiter = preflightRateLimit == 0 ? null : PreflightRateLimiter.getOrCreate(resourceConfig,
+            preflightRateLimit, getIntProp(props, PREFLIGHT_RATE_LIMIT_BURST, preflightRateLimit),
+            getIntProp(props, PREFLIGHT_RATE_LIMIT_ORIGINS, 4096));
+
+        ImmutableList.Builder<String> tenantHosts = ImmutableList.builder();
+        for (String host : TENANT_SPLITTER.split(getStringProp(props, TENANTS, ""))) {
+            tenantHosts.add(host.toLowerCase(Locale.ROOT));
+        }
+        tenants = tenantHosts.build();
+
+        // fail fast on a malformed default allowlist rather than on the first annotated method
+        getOriginMatcher(defAllowedOrigins);
+        synchronized (policyLock) {
+            resolution = new Resolution(defaults);
+            tenantResolutions = getTenantResolutions(props);
+        }
+
+        String policyFile = getStringProp(props, POLICY_FILE, "");
+        snapshot = policyFile.isEmpty() ? null :
+            new AtomicReference<PolicySnapshot>(new PolicySnapshot(new CorsHeaderFilter[0]));
+
+        policyTables = getBooleanProp(props, POLICY_TABLES, true) ? PolicyTables.load(getClassLoader()) :
+            PolicyTables.EMPTY;
+
+        String policyRulesFile = getStringProp(props, POLICY_RULES_FILE, "");
+        policyRules = policyRulesFile.isEmpty() ? PolicyRules.EMPTY : PolicyRules.load(new File(policyRulesFile));
+
+        fallback = getBooleanProp(props, FALLBACK, false);
+        if (fallback && getBooleanProp(props, SERVLET_FILTER, false)) {
+            // methods handled by the servlet filter get no Jersey filters, so their responses couldn't be flagged
+            throw new IllegalArgumentException(FALLBACK + " can't be combined with " + SERVLET_FILTER);
+        }
+        exportedMethods = getBooleanProp(props, SERVLET_FILTER, false) ?
+            exportServletRoutes(resourceConfig, getStringProp(props, SERVLET_FILTER_NAME, "default")) :
+            Collections.<Method>emptySet();
+
+        if (snapshot == null) {
+            watcher = null;
+            return;
+        }
+
+        watcher = new PolicyFileWatcher(new File(policyFile), new PolicyFileWatcher.Listener() {
+            @Override
+            public void policyChanged(@Nonnull Map<String, Object> policyProps) {
+                reload(policyProps);
+            }
+        });
+        watcher.start(getIntProp(props, POLICY_FILE_POLL_INTERVAL, 5000));
+    }
+
+    /**
+     * @param resourceConfig resource config
+     * @return the registry for the resource config, which is created the first time it is asked for
+     * @throws IllegalArgumentException if the {@link CorsConfig} properties are invalid
+     */
+    @Nonnull
+    static CorsFilterRegistry getOrCreate(@Nonnull ResourceConfig resourceConfig) {
+        synchronized (CorsFilterRegistry.class) {
+            CorsFilterRegistry registry = (CorsFilterRegistry) resourceConfig.getProperty(PROPERTY);
+            if (registry == null) {
+                registry = new CorsFilterRegistry(resourceConfig);
+                resourceConfig.getProperties().put(PROPERTY, registry);
+            }
+            return registry;
+        }
+    }
+
+    /**
+     * Stop watching the policy file, if there is one. Filters that have been handed out keep the policy they have.
+     */
+    void close() {
+        if (watcher != null) {
+            watcher.stop();
+        }
+    }
+
+    /**
+     * Resolve the annotations of every method a filter has been handed out for against new defaults, then publish the
+     * result as a new snapshot.
+     *
+     * @param policyProps properties from the policy file, overriding the Jersey properties
+     * @throws IllegalArgumentException if the properties are invalid, in which case the current snapshot is kept
+     */
+    @VisibleForTesting
+    void reload(@Nonnull Map<String, Object> policyProps) {
+        Map<String, Object> props = newHashMap(configProps);
+        props.putAll(policyProps);
+
+        synchronized (policyLock) {
+            Resolution r = new Resolution(new Defaults(props));
+            getOriginMatcher(r.defaults.allowedOrigins);
+            ImmutableMap<String, Resolution> tenantRs = getTenantResolutions(props);
+
+            CorsHeaderFilter[] filters = new CorsHeaderFilter[reloadableFilters.size()];
+            int i = 0;
+            for (FilterSource source : reloadableFilters.keySet()) {
+                filters[i++] = resolveForTenants(r, tenantRs, source);
+            }
+
+            resolution = r;
+            tenantResolutions = tenantRs;
+            snapshot.set(new PolicySnapshot(filters));
+        }
+    }
+
+    /**
+     * @param abstractMethod method Jersey is building filters for
+     * @return the method's filters, or null if it gets none
+     */
+    @Nullable
+    List<ResourceFilter> getFilters(AbstractMethod abstractMethod) {
+        if (!(abstractMethod instanceof AbstractResourceMethod) ||
+            exportedMethods.contains(abstractMethod.getMethod())) {
+            return null;
+        }
+
+        CorsHeaderFilter filter = createFilter((AbstractResourceMethod) abstractMethod);
+        if (fallback) {
+            return filter == null ? Collections.singletonList(CorsFallbackResponseFilter.MARKER) :
+                ImmutableList.<ResourceFilter>of(CorsFallbackResponseFilter.MARKER, filter);
+        }
+        return filter == null ? null : Collections.<ResourceFilter>singletonList(filter);
+    }
+
+    /**
+     * @param abstractMethod resource method
+     * @return the filter to apply to the method, or null if it gets none
+     */
+    @Nullable
+    private CorsHeaderFilter createFilter(AbstractResourceMethod abstractMethod) {
+        Method method = abstractMethod.getMethod();
+        FilterSource source = getSource(abstractMethod);
+        if (source == null) {
+            return null;
+        }
+
+        synchronized (policyLock) {
+            CorsHeaderFilter filter = resolveForTenants(resolution, tenantResolutions, source);
+            if (filter == null) {
+                return null;
+            }
+
+            String name = method.getDeclaringClass().getName() + "#" + method.getName();
+            return getHandedOutFilter(source, filter, name);
+        }
+    }
+
+    /**
+     * @param abstractMethod resource method
+     * @return the source of the method's filter, from its annotations or else from a policy rule, or null if it gets
+     *         none
+     */
+    @Nullable
+    private FilterSource getSource(AbstractResourceMethod abstractMethod) {
+        Method method = abstractMethod.getMethod();
+        FilterSource source;
+        if (policyTables.covers(method.getDeclaringClass())) {
+            source = getTableSource(method);
+            if (source != null) {
+                return source;
+            }
+        } else {
+            source = getReflectedSource(abstractMethod);
+            if (source == null || isAnnotated(source)) {
+                return source;
+            }
+        }
+
+        PolicyRules.Rule rule = policyRules.get(ResourcePaths.getPath(abstractMethod));
+        if (rule == null) {
+            return source;
+        }
+        boolean isOptions = HttpMethod.OPTIONS.equals(abstractMethod.getHttpMethod());
+        return new FilterSource(method.getDeclaringClass(), isOptions, isOptions ? null : rule.cors,
+            isOptions ? rule.preflight : null, true, null);
+    }
+
+    /**
+     * @param source source read from a method's annotations
+     * @return true if the method or its class has the annotation that applies to the method
+     */
+    private static boolean isAnnotated(FilterSource source) {
+        if (source.preflight) {
+            return source.corsPreflight != null || source.klass.isAnnotationPresent(CorsPreflight.class);
+        }
+        return source.cors != null || source.klass.isAnnotationPresent(Cors.class);
+    }
+
+    /**
+     * @param method method of a class covered by the policy tables
+     * @return the source of the method's filter, or null if it gets none
+     */
+    @Nullable
+    private FilterSource getTableSource(Method method) {
+        // the annotation processor has already rejected impossible combinations and merged in the class's annotations
+        CorsPreflightOverrides corsPreflight = policyTables.getPreflight(method);
+        if (corsPreflight != null) {
+            return new FilterSource(method.getDeclaringClass(), true, null, corsPreflight, true, null);
+        }
+
+        CorsOverrides cors = policyTables.getCors(method);
+        return cors == null ? null : new FilterSource(method.getDeclaringClass(), false, cors, null, true, null);
+    }
+
+    /**
+     * @param abstractMethod resource method
+     * @return the source of the method's filter, read from its annotations, or null if the annotations are invalid
+     */
+    @Nullable
+    private static FilterSource getReflectedSource(AbstractResourceMethod abstractMethod) {
+        Method method = abstractMethod.getMethod();
+        boolean isOptions = method.isAnnotationPresent(OPTIONS.class);
+        Cors cors = method.getAnnotation(Cors.class);
+        CorsPreflight corsPreflight = method.getAnnotation(CorsPreflight.class);
+
+        // check for impossible combinations
+        if (isOptions && cors != null) {
+            logger.error("Resource method " + abstractMethod +
+                " is annotated with @Cors, which is not applicable for methods annotated with @OPTIONS");
+            return null;
+        } else if (!isOptions && corsPreflight != null) {
+            logger.error("Resource method " + abstractMethod +
+                " is annotated with @CorsPreflight, which is only applicable for methods annotated with @OPTIONS");
+            return null;
+        }
+
+        // @Cors only applies to non-OPTIONS methods and @CorsPreflight only to OPTIONS methods, so there is at most one
+        return new FilterSource(method.getDeclaringClass(), isOptions,
+            isOptions || cors == null ? null : CorsOverrides.of(cors),
+            !isOptions || corsPreflight == null ? null : CorsPreflightOverrides.of(corsPreflight), false, null);
+    }
+
+    /**
+     * Create the filters for every root resource method, and for preflights to paths without an @OPTIONS method, and
+     * publish them for {@link CorsServletFilter}. Every root resource path gets a route, even if it has no filters.
+     *
+     * A path with more than one method for the same HTTP method (say, for different media types) is left to Jersey
+     * for that HTTP method, since which of them gets the request depends on more than the path.
+     *
+     * @param resourceConfig resource config listing the root resources
+     * @param name           name to export under
+     * @return the resource methods whose filters were exported
+     */
+    @Nonnull
+    private Set<Method> exportServletRoutes(ResourceConfig resourceConfig, String name) {
+        Set<Method> exported = newHashSet();
+        Map<String, ServletRoutes.Route> routes = newHashMap();
+        for (Map.Entry<String, PathMethods> e : ResourcePaths.collect(resourceConfig, this).entrySet()) {
+            PathMethods pathMethods = e.getValue();
+
+            Multiset<String> httpMethods = HashMultiset.create();
+            for (AbstractResourceMethod method : pathMethods.methods) {
+                httpMethods.add(method.getHttpMethod());
+            }
+
+            Map<String, CorsHeaderFilter> filters = newHashMap();
+            for (AbstractResourceMethod method : pathMethods.methods) {
+                if (httpMethods.count(method.getHttpMethod()) > 1) {
+                    continue;
+                }
+                CorsHeaderFilter filter = createFilter(method);
+                if (filter != null) {
+                    filters.put(method.getHttpMethod(), filter);
+                    exported.add(method.getMethod());
+                }
+            }
+
+            CorsHeaderFilter autoPreflight = pathMethods.hasOptions || pathMethods.corsMethods.isEmpty() ? null :
+                createAutoPreflightFilter(pathMethods.klass, e.getKey(), Joiner.on(',').join(pathMethods.corsMethods));
+            // paths without filters get an empty route, so their requests aren't matched to a template path's route
+            routes.put(e.getKey(), new ServletRoutes.Route(filters, autoPreflight,
+                !httpMethods.contains(HttpMethod.HEAD)));
+        }
+
+        ServletRoutes.getExport(name).set(new ServletRoutes(routes));
+        logger.info("Exported CORS filters for " + routes.size() + " paths to servlet filter policy '" + name + "'");
+        return exported;
+    }
+
+    /**
+     * @param source source of a filter
+     * @param filter the filter for the source under the current policy
+     * @param name   name to record metrics under
+     * @return the filter to give to Jersey: the filter itself, or a wrapper for reloading or metrics
+     */
+    @GuardedBy("policyLock")
+    @Nonnull
+    private CorsHeaderFilter getHandedOutFilter(FilterSource source, CorsHeaderFilter filter, String name) {
+        if (snapshot != null) {
+            filter = getReloadableFilter(source, filter);
+        }
+        return metrics == null ? filter : new InstrumentedResourceFilter(filter, metrics, name);
+    }
+
+    /**
+     * @param props properties, including any for tenants
+     * @return a resolution against each tenant's defaults, keyed by host
+     * @throws IllegalArgumentException if a tenant property is invalid, or isn't for a known tenant and property
+     */
+    @Nonnull
+    private ImmutableMap<String, Resolution> getTenantResolutions(Map<String, Object> props) {
+        Map<String, Map<String, Object>> tenantProps = newLinkedHashMap();
+        for (String host : tenants) {
+            tenantProps.put(host, newHashMap(props));
+        }
+
+        for (Map.Entry<String, Object> e : props.entrySet()) {
+            if (!e.getKey().startsWith(TENANT_PREFIX)) {
+                continue;
+            }
+            // hosts contain dots but property names don't, so the name is whatever follows the last one
+            String hostAndName = e.getKey().substring(TENANT_PREFIX.length());
+            int dot = hostAndName.lastIndexOf('.');
+            Map<String, Object> hostProps =
+                dot < 0 ? null : tenantProps.get(hostAndName.substring(0, dot).toLowerCase(Locale.ROOT));
+            String name = dot < 0 ? null : TENANT_PROPERTIES.get(hostAndName.substring(dot + 1));
+            if (hostProps == null || name == null) {
+                throw new IllegalArgumentException(
+                    "Unknown tenant property " + e.getKey() + "; tenants are " + tenants);
+            }
+            hostProps.put(name, e.getValue());
+        }
+
+        ImmutableMap.Builder<String, Resolution> resolutions = ImmutableMap.builder();
+        for (Map.Entry<String, Map<String, Object>> e : tenantProps.entrySet()) {
+            Resolution r = new Resolution(new Defaults(e.getValue()));
+            getOriginMatcher(r.defaults.allowedOrigins);
+            resolutions.put(e.getKey(), r);
+        }
+        return resolutions.build();
+    }
+
+    /**
+     * @param r                 defaults to resolve against
+     * @param tenantResolutions each tenant's defaults to resolve against as well
+     * @param source            what to resolve
+     * @return the filter for the source, picking among tenants' filters if there are any, or null if neither the
+     *         method nor its class is annotated
+     */
+    @GuardedBy("policyLock")
+    @Nullable
+    private CorsHeaderFilter resolveForTenants(Resolution r, ImmutableMap<String, Resolution> tenantResolutions,
+        FilterSource source) {
+        CorsHeaderFilter filter = resolve(r, source);
+        if (filter == null || tenantResolutions.isEmpty()) {
+            return filter;
+        }
+
+        // annotations decide whether there is a filter at all, so every tenant has one too
+        List<CorsHeaderFilter> filters = newArrayList(filter);
+        ImmutableMap.Builder<String, CorsHeaderFilter> byHost = ImmutableMap.builder();
+        for (Map.Entry<String, Resolution> e : tenantResolutions.entrySet()) {
+            CorsHeaderFilter tenantFilter = resolve(e.getValue(), source);
+            byHost.put(e.getKey(), tenantFilter);
+            filters.add(tenantFilter);
+        }
+
+        // filters are interned per resolution, so methods that resolve alike for every tenant share one of these too
+        TenantResourceFilter tenantFilter = r.tenantFilters.get(filters);
+        if (tenantFilter == null) {
+            tenantFilter = new TenantResourceFilter(byHost.build(), filter);
+            r.tenantFilters.put(filters, tenantFilter);
+        }
+        return tenantFilter;
+    }
+
+    /**
+     * @param r      defaults to resolve against
+     * @param source what to resolve
+     * @return the filter for the source, or null if neither the method nor its class is annotated
+     */
+    @GuardedBy("policyLock")
+    @Nullable
+    private CorsHeaderFilter resolve(Resolution r, FilterSource source) {
+        if (source.autoAllowMethods != null) {
+            return getPreflightResponseFilter(r,
+                r.resolver.resolveAutoPreflight(source.corsPreflight, source.autoAllowMethods));
+        }
+
+        if (source.preflight) {
+            CorsPreflightConfig config = r.resolver.resolvePreflight(source.klass, source.corsPreflight, source.merged);
+            return config == null ? null : getPreflightResponseFilter(r, config);
+        }
+
+        CorsResourceConfig config = r.resolver.resolveCors(source.klass, source.cors, source.merged);
+        return config == null ? null : getResourceResponseFilter(r, config);
+    }
+
+    /**
+     * @param source source of a filter
+     * @param filter the filter for the source under the current policy
+     * @return the reloadable filter for the source, creating it and adding the filter to the snapshot if necessary
+     */
+    @GuardedBy("policyLock")
+    @Nonnull
+    private ReloadableResourceFilter getReloadableFilter(FilterSource source, CorsHeaderFilter filter) {
+        ReloadableResourceFilter reloadable = reloadableFilters.get(source);
+        if (reloadable != null) {
+            return reloadable;
+        }
+
+        PolicySnapshot current = snapshot.get();
+        CorsHeaderFilter[] filters = new CorsHeaderFilter[current.size() + 1];
+        for (int i = 0; i < current.size(); i++) {
+            filters[i] = current.get(i);
+        }
+        filters[current.size()] = filter;
+
+        reloadable = new ReloadableResourceFilter(snapshot, current.size());
+        reloadableFilters.put(source, reloadable);
+        snapshot.set(new PolicySnapshot(filters));
+        return reloadable;
+    }
+
+    /**
+     * @param r      defaults the config was resolved against
+     * @param config effective config, which must not be modified afterwards
+     * @return the filter for the config, shared with every other method with an equal config
+     */
+    @Nonnull
+    private CorsResourceResponseResourceFilter getResourceResponseFilter(Resolution r, CorsResourceConfig config) {
+        CorsResourceResponseResourceFilter filter = r.resourceFilters.get(config);
+        if (filter == null) {
+            filter = new CorsResourceResponseResourceFilter(config.allowOrigin,
+                getOriginMatcher(config.allowedOrigins), config.exposeHeaders,
+                getBooleanFromTernary(config.allowCredentials), getBooleanFromTernary(config.rejectDisallowedOrigins));
+            r.resourceFilters.put(config, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * Build the preflight filter that {@link CorsAutoPreflightRequestFilter} uses for a path of a resource class that
+     * has no @OPTIONS method of its own. The configuration is resolved as if the class had an @OPTIONS method, except
+     * that unless the class's {@link CorsPreflight} specifies allowMethods, the given methods are used instead of the
+     * default.
+     *
+     * @param klass        resource class
+     * @param path         the path, without leading or trailing slashes
+     * @param allowMethods comma-separated list of the @Cors methods declared for the path
+     * @return a preflight filter
+     */
+    @Nonnull
+    CorsHeaderFilter createAutoPreflightFilter(Class<?> klass, String path, String allowMethods) {
+        CorsPreflightOverrides classPreflight;
+        if (policyTables.covers(klass)) {
+            classPreflight = policyTables.getClassPreflight(klass);
+        } else {
+            CorsPreflight ann = klass.getAnnotation(CorsPreflight.class);
+            classPreflight = ann == null ? null : CorsPreflightOverrides.of(ann);
+        }
+        if (classPreflight == null) {
+            PolicyRules.Rule rule = policyRules.get(path);
+            classPreflight = rule == null ? null : rule.preflight;
+        }
+
+        FilterSource source = new FilterSource(klass, true, null, classPreflight, true, allowMethods);
+        synchronized (policyLock) {
+            return getHandedOutFilter(source, resolveForTenants(resolution, tenantResolutions, source),
+                "OPTIONS /" + path);
+        }
+    }
+
+    /**
+     * Build the filter that {@link CorsFallbackResponseFilter} applies to responses no resource method's filters saw:
+     * the one a method with a bare {@link Cors} would get.
+     *
+     * @return a filter for the defaults
+     */
+    @Nonnull
+    CorsHeaderFilter createFallbackFilter() {
+        FilterSource source = new FilterSource(CorsFallbackResponseFilter.class, false, NO_OVERRIDES, null, true, null);
+        synchronized (policyLock) {
+            return getHandedOutFilter(source, resolveForTenants(resolution, tenantResolutions, source), "fallback");
+        }
+    }
+
+    /**
+     * @param method resource method
+     * @param path   the method's path, without leading or trailing slashes
+     * @return true if the registry will add a {@link Cors} filter to the method
+     */
+    boolean isCorsMethod(Method method, String path) {
+        if (method.isAnnotationPresent(OPTIONS.class)) {
+            return false;
+        }
+
+        boolean annotated = policyTables.covers(method.getDeclaringClass()) ? policyTables.getCors(method) != null :
+            method.isAnnotationPresent(Cors.class) || method.getDeclaringClass().isAnnotationPresent(Cors.class);
+        return annotated || policyRules.get(path) != null;
+    }
+
+    /**
+     * @param r      defaults the config was resolved against
+     * @param config effective config, which must not be modified afterwards
+     * @return the filter for the config, shared with every other method with an equal config
+     */
+    @Nonnull
+    private CorsPreflightResponseResourceFilter getPreflightResponseFilter(Resolution r, CorsPreflightConfig config) {
+        CorsPreflightResponseResourceFilter filter = r.preflightFilters.get(config);
+        if (filter == null) {
+            filter = new CorsPreflightResponseResourceFilter(config.maxAge, config.allowMethods, config.allowHeaders,
+                getBooleanFromTernary(config.allowCredentials), config.allowOrigin,
+                getOriginMatcher(config.allowedOrigins), shortCircuitPreflight, validatePreflight, preflightAnalyzer,
+                preflightRateLimiter);
+            r.preflightFilters.put(config, filter);
+        }
+        return filter;
+    }
+
+    /**
+     * @param allowedOrigins comma-separated allowlist
+     * @return the compiled allowlist, or null if the allowlist is empty and the fixed allowOrigin should be used
+     */
+    @Nullable
+    private OriginAllowlist getOriginMatcher(String allowedOrigins) {
+        if (allowedOrigins.isEmpty()) {
+            return null;
+        }
+
+        OriginAllowlist allowlist = originMatchers.get(allowedOrigins);
+        if (allowlist != null) {
+            return allowlist;
+        }
+
+        OriginMatcher matcher = OriginMatcher.compile(allowedOrigins);
+        // without wildcards, matching is already a single hash lookup, so a cache wouldn't save anything
+        OriginDecisionCache cache = originCacheSize == 0 || !matcher.hasWildcards() ? null :
+            new OriginDecisionCache(matcher, originCacheSize);
+        allowlist = cache == null ? matcher : cache;
+
+        OriginAllowlist existing = originMatchers.putIfAbsent(allowedOrigins, allowlist);
+        if (existing != null) {
+            return existing;
+        }
+        if (cache != null && metrics != null) {
+            metrics.addOriginCache(cache);
+        }
+        return allowlist;
+    }
+
+    private static ClassLoader getClassLoader() {
+        // resource classes, and so the tables generated for them, may belong to a web app rather than to this library
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return classLoader == null ? CorsFilterRegistry.class.getClassLoader() : classLoader;
+    }
+
+    /**
+     * A set of defaults and everything resolved against them so far. When the defaults change, this is replaced as a
+     * whole rather than updated.
+     */
+    @NotThreadSafe
+    private static class Resolution {
+        final Defaults defaults;
+
+        final PolicyResolver resolver;
+
+        /**
+         * Filters keyed by their effective config
+         */
+        final Map<CorsResourceConfig, CorsResourceResponseResourceFilter> resourceFilters = newHashMap();
+
+        /**
+         * Filters keyed by their effective config
+         */
+        final Map<CorsPreflightConfig, CorsPreflightResponseResourceFilter> preflightFilters = newHashMap();
+
+        /**
+         * Tenant filters keyed by the filters for these defaults and then each tenant's, in order
+         */
+        final Map<List<CorsHeaderFilter>, TenantResourceFilter> tenantFilters = newHashMap();
+
+        private Resolution(Defaults defaults) {
+            this.defaults = defaults;
+            this.resolver = new PolicyResolver(defaults);
+        }
+    }
+
+    /**
+     * Everything other than the defaults that a filter is resolved from.
+     */
+    @Immutable
+    private static class FilterSource {
+        final Class<?> klass;
+
+        final boolean preflight;
+
+        /**
+         * The method's {@link Cors}, if any
+         */
+        @Nullable
+        final CorsOverrides cors;
+
+        /**
+         * The method's {@link CorsPreflight} or, for automatic preflights, the class's, if any
+         */
+        @Nullable
+        final CorsPreflightOverrides corsPreflight;
+
+        /**
+         * True if the class's annotations have already been merged in (or must not be applied, for automatic
+         * preflights)
+         */
+        final boolean merged;
+
+        /**
+         * For preflights answered by {@link CorsAutoPreflightRequestFilter}, the methods to allow unless the class's
+         * {@link CorsPreflight} specifies them; null otherwise
+         */
+        @Nullable
+        final String autoAllowMethods;
+
+        private FilterSource(Class<?> klass, boolean preflight, @Nullable CorsOverrides cors,
+            @Nullable CorsPreflightOverrides corsPreflight, boolean merged, @Nullable String autoAllowMethods) {
+            this.klass = klass;
+            this.preflight = preflight;
+            this.cors = cors;
+            this.corsPreflight = corsPreflight;
+            this.merged = merged;
+            this.autoAllowMethods = autoAllowMethods;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FilterSource)) {
+                return false;
+            }
+            FilterSource that = (FilterSource) o;
+            return klass == that.klass && preflight == that.preflight && Objects.equal(cors, that.cors) &&
+                Objects.equal(corsPreflight, that.corsPreflight) && merged == that.merged &&
+                Objects.equal(autoAllowMethods, that.autoAllowMethods);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(klass, preflight, cors, corsPreflight, merged, autoAllowMethods);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.spi.container.ResourceFilter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * A resource filter whose CORS headers can also be added straight to a header map, for preflights that are answered
+ * before Jersey dispatches them to a resource method (see {@link CorsAutoPreflightRequestFilter}) and for requests
+ * handled by {@link CorsServletFilter}, and which reports what it did for {@link CorsMetrics}.
+ */
+interface CorsHeaderFilter extends ResourceFilter, CorsOutcomes {
+
+    /**
+     * Add CORS headers for a request, as the response filter would.
+     *
+     * @param request        request
+     * @param reader         reader for the request's headers
+     * @param incomingOrigin the request's Origin, or null if it has none
+     * @param h              headers to add to
+     * @param <R>            request type
+     * @return a combination of the {@link CorsOutcomes} flags
+     */
+    <R> int addHeaders(@Nonnull R request, @Nonnull HeaderReader<? super R> reader, @Nullable String incomingOrigin,
+        @Nonnull MultivaluedMap<String, Object> h);
+}
@@ -0,0 +1,115 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.beans.ConstructorProperties;
+
+/**
+ * Counts of what the CORS filter did for one resource method (or for all of them), as of when the stats were taken.
+ * See {@link CorsMetrics}.
+ */
+@Immutable
+public final class CorsMethodStats {
+
+    private final String name;
+    private final long requests;
+    private final long requestsWithOrigin;
+    private final long allowed;
+    private final long disallowedOrigins;
+    private final long rejectedPreflights;
+    private final long rejectedOrigins;
+    private final long headersAlreadyPresent;
+    private final long latencyNanos;
+
+    @ConstructorProperties({"name", "requests", "requestsWithOrigin", "allowed", "disallowedOrigins",
+        "rejectedPreflights", "rejectedOrigins", "headersAlreadyPresent", "latencyNanos"})
+    public CorsMethodStats(@Nonnull String name, long requests, long requestsWithOrigin, long allowed,
+        long disallowedOrigins, long rejectedPreflights, long rejectedOrigins, long headersAlreadyPresent,
+        long latencyNanos) {
+        this.name = name;
+        this.requests = requests;
+        this.requestsWithOrigin = requestsWithOrigin;
+        this.allowed = allowed;
+        this.disallowedOrigins = disallowedOrigins;
+        this.rejectedPreflights = rejectedPreflights;
+        this.rejectedOrigins = rejectedOrigins;
+        this.headersAlreadyPresent = headersAlreadyPresent;
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * @return the resource method, as class#method, "OPTIONS /path" for preflights answered by
+     *         {@link CorsAutoPreflightRequestFilter}, or "*" for the total over all methods
+     */
+    @Nonnull
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return requests the filter ran for
+     */
+    public long getRequests() {
+        return requests;
+    }
+
+    /**
+     * @return requests with an Origin header
+     */
+    public long getRequestsWithOrigin() {
+        return requestsWithOrigin;
+    }
+
+    /**
+     * @return requests CORS headers were added to; for preflight methods, the preflights answered
+     */
+    public long getAllowed() {
+        return allowed;
+    }
+
+    /**
+     * @return requests whose Origin was not in the allowlist
+     */
+    public long getDisallowedOrigins() {
+        return disallowedOrigins;
+    }
+
+    /**
+     * @return preflights rejected because of the method or headers they asked for (see
+     *         {@link CorsConfig#VALIDATE_PREFLIGHT})
+     */
+    public long getRejectedPreflights() {
+        return rejectedPreflights;
+    }
+
+    /**
+     * @return requests from disallowed origins answered with a 403 without invoking the resource method (see
+     *         {@link CorsConfig#REJECT_DISALLOWED_ORIGINS}); these are also counted in {@link #getDisallowedOrigins()}
+     */
+    public long getRejectedOrigins() {
+        return rejectedOrigins;
+    }
+
+    /**
+     * @return allowed requests for which at least one CORS header was already set, e.g. by the resource method, and was
+     *         left alone
+     */
+    public long getHeadersAlreadyPresent() {
+        return headersAlreadyPresent;
+    }
+
+    /**
+     * @return total time spent in the filter, or 0 if {@link CorsConfig#METRICS_LATENCY} is not enabled
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return name + "{requests=" + requests + ", requestsWithOrigin=" + requestsWithOrigin + ", allowed=" + allowed +
+            ", disallowedOrigins=" + disallowedOrigins + ", rejectedPreflights=" + rejectedPreflights +
+            ", rejectedOrigins=" + rejectedOrigins + ", headersAlreadyPresent=" + headersAlreadyPresent +
+            ", latencyNanos=" + latencyNanos + "}";
+    }
+}
@@ -0,0 +1,247 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.api.core.ResourceConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * Counts of what the CORS filters do, per resource method, enabled with {@link CorsConfig#METRICS}.
+ *
+ * Counters are striped ({@link StripedCounters}) so that request threads rarely contend, distinct origins are estimated
+ * in fixed memory ({@link HyperLogLog}), and time spent in the filters is only measured if
+ * {@link CorsConfig#METRICS_LATENCY} is also enabled. Recording allocates nothing. Hit and miss counts of the
+ * application's {@link OriginDecisionCache}s are included too.
+ *
+ * Read the metrics with {@link #getSnapshot()} (get the instance with {@link #get(ResourceConfig)}) or over JMX via
+ * {@link CorsMetricsMXBean}.
+ */
+@ThreadSafe
+public final class CorsMetrics implements CorsMetricsMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorsMetrics.class);
+
+    /**
+     * ResourceConfig property the instance is kept in, so that every filter created for the same Jersey application
+     * shares it
+     */
+    private static final String PROPERTY = CorsMetrics.class.getName();
+
+    private final boolean recordLatency;
+
+    private final ConcurrentMap<String, MethodMetrics> methods = newConcurrentMap();
+
+    private final HyperLogLog origins = new HyperLogLog();
+
+    private final List<OriginDecisionCache> originCaches = new CopyOnWriteArrayList<OriginDecisionCache>();
+
+    private CorsMetrics(boolean recordLatency) {
+        this.recordLatency = recordLatency;
+    }
+
+    /**
+     * @param resourceConfig the Jersey application's ResourceConfig
+     * @return the application's metrics, or null if {@link CorsConfig#METRICS} is not enabled
+     */
+    @Nullable
+    public static CorsMetrics get(@Nonnull ResourceConfig resourceConfig) {
+        Object metrics = resourceConfig.getProperties().get(PROPERTY);
+        return metrics instanceof CorsMetrics ? (CorsMetrics) metrics : null;
+    }
+
+    /**
+     * @param resourceConfig the Jersey application's ResourceConfig
+     * @param recordLatency  true to measure time spent in the filters
+     * @param name           name to register the MBean under
+     * @return the application's metrics, created and registered with JMX if necessary
+     */
+    @Nonnull
+    static CorsMetrics getOrCreate(@Nonnull ResourceConfig resourceConfig, boolean recordLatency,
+        @Nonnull String name) {
+        synchronized (CorsMetrics.class) {
+            CorsMetrics metrics = get(resourceConfig);
+            if (metrics == null) {
+                metrics = new CorsMetrics(recordLatency);
+                resourceConfig.getProperties().put(PROPERTY, metrics);
+                metrics.register(name);
+            }
+            return metrics;
+        }
+    }
+
+    @Nonnull
+    public CorsMetricsSnapshot getSnapshot() {
+        List<CorsMethodStats> stats = newArrayList();
+        long[] total = new long[MethodMetrics.COUNTERS];
+        for (Map.Entry<String, MethodMetrics> e : methods.entrySet()) {
+            MethodMetrics m = e.getValue();
+            long[] counts = new long[MethodMetrics.COUNTERS];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = m.counters.sum(i);
+                total[i] += counts[i];
+            }
+            stats.add(toStats(e.getKey(), counts));
+        }
+
+        Collections.sort(stats, new Comparator<CorsMethodStats>() {
+            @Override
+            public int compare(CorsMethodStats o1, CorsMethodStats o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+
+        return new CorsMetricsSnapshot(toStats("*", total), stats, origins.estimate(), getOriginCache());
+    }
+
+    @Override
+    public CorsMethodStats getTotal() {
+        return getSnapshot().getTotal();
+    }
+
+    @Override
+    public List<CorsMethodStats> getMethods() {
+        return getSnapshot().getMethods();
+    }
+
+    @Override
+    public long getDistinctOrigins() {
+        return origins.estimate();
+    }
+
+    @Override
+    public OriginCacheStats getOriginCache() {
+        long hits = 0;
+        long misses = 0;
+        long evictions = 0;
+        long size = 0;
+        long capacity = 0;
+        for (OriginDecisionCache cache : originCaches) {
+            hits += cache.getCount(OriginDecisionCache.HITS);
+            misses += cache.getCount(OriginDecisionCache.MISSES);
+            evictions += cache.getCount(OriginDecisionCache.EVICTIONS);
+            size += cache.size();
+            capacity += cache.capacity();
+        }
+        return new OriginCacheStats(hits, misses, evictions, size, capacity);
+    }
+
+    /**
+     * @param name resource method name
+     * @return the method's counters
+     */
+    @Nonnull
+    MethodMetrics getMethodMetrics(@Nonnull String name) {
+        MethodMetrics m = methods.get(name);
+        if (m == null) {
+            m = new MethodMetrics();
+            MethodMetrics existing = methods.putIfAbsent(name, m);
+            if (existing != null) {
+                m = existing;
+            }
+        }
+        return m;
+    }
+
+    boolean isRecordingLatency() {
+        return recordLatency;
+    }
+
+    void recordOrigin(@Nonnull String origin) {
+        origins.add(origin);
+    }
+
+    /**
+     * @param cache cache to include in {@link #getOriginCache()}
+     */
+    void addOriginCache(@Nonnull OriginDecisionCache cache) {
+        originCaches.add(cache);
+    }
+
+    private static CorsMethodStats toStats(String name, long[] c) {
+        return new CorsMethodStats(name, c[MethodMetrics.REQUESTS], c[MethodMetrics.WITH_ORIGIN],
+            c[MethodMetrics.ALLOWED], c[MethodMetrics.DISALLOWED_ORIGIN], c[MethodMetrics.REJECTED_PREFLIGHT],
+            c[MethodMetrics.REJECTED_ORIGIN], c[MethodMetrics.HEADER_PRESENT], c[MethodMetrics.LATENCY_NANOS]);
+    }
+
+    private void register(String name) {
+        try {
+            Hashtable<String, String> properties = new Hashtable<String, String>();
+            properties.put("type", "CorsMetrics");
+            properties.put("name", name);
+            ObjectName objectName = new ObjectName(getClass().getPackage().getName(), properties);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                // most likely left behind by an earlier instance of the same application
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            logger.warn("Could not register CORS metrics MBean", e);
+        }
+    }
+
+    /**
+     * Counters for one resource method.
+     */
+    @ThreadSafe
+    static final class MethodMetrics {
+        static final int REQUESTS = 0;
+        static final int WITH_ORIGIN = 1;
+        static final int ALLOWED = 2;
+        static final int DISALLOWED_ORIGIN = 3;
+        static final int REJECTED_PREFLIGHT = 4;
+        static final int HEADER_PRESENT = 5;
+        static final int LATENCY_NANOS = 6;
+        static final int REJECTED_ORIGIN = 7;
+        static final int COUNTERS = 8;
+
+        private final StripedCounters counters = new StripedCounters();
+
+        /**
+         * @param outcome      outcome flags from {@link CorsHeaderFilter#addHeaders}
+         * @param latencyNanos time spent in the filter, or 0 if not measured
+         */
+        void record(int outcome, long latencyNanos) {
+            counters.add(REQUESTS, 1);
+            if ((outcome & CorsHeaderFilter.NO_ORIGIN) == 0) {
+                counters.add(WITH_ORIGIN, 1);
+            }
+            if ((outcome & CorsHeaderFilter.ALLOWED) != 0) {
+                counters.add(ALLOWED, 1);
+            }
+            if ((outcome & CorsHeaderFilter.DISALLOWED_ORIGIN) != 0) {
+                counters.add(DISALLOWED_ORIGIN, 1);
+            }
+            if ((outcome & CorsHeaderFilter.REJECTED_PREFLIGHT) != 0) {
+                counters.add(REJECTED_PREFLIGHT, 1);
+            }
+            if ((outcome & CorsHeaderFilter.HEADER_PRESENT) != 0) {
+                counters.add(HEADER_PRESENT, 1);
+            }
+            if ((outcome & CorsHeaderFilter.REJECTED_ORIGIN) != 0) {
+                counters.add(REJECTED_ORIGIN, 1);
+            }
+            if (latencyNanos != 0) {
+                counters.add(LATENCY_NANOS, latencyNanos);
+            }
+        }
+    }
+}
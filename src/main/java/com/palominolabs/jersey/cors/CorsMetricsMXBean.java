@@ -0,0 +1,30 @@
+package com.palominolabs.jersey.cors;
+
+import java.util.List;
+
+/**
+ * JMX view of {@link CorsMetrics}, registered as com.palominolabs.jersey.cors:type=CorsMetrics,name=(the value of
+ * {@link CorsConfig#METRICS_NAME}).
+ */
+public interface CorsMetricsMXBean {
+
+    /**
+     * @return stats summed over all resource methods
+     */
+    CorsMethodStats getTotal();
+
+    /**
+     * @return stats for each resource method that has a CORS filter
+     */
+    List<CorsMethodStats> getMethods();
+
+    /**
+     * @return estimated number of distinct Origin values seen
+     */
+    long getDistinctOrigins();
+
+    /**
+     * @return origin decision cache counts, summed over all allowlists
+     */
+    OriginCacheStats getOriginCache();
+}
@@ -0,0 +1,61 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+
+/**
+ * {@link CorsMetrics} as of one point in time.
+ */
+@Immutable
+public final class CorsMetricsSnapshot {
+
+    private final CorsMethodStats total;
+
+    private final List<CorsMethodStats> methods;
+
+    private final long distinctOrigins;
+
+    private final OriginCacheStats originCache;
+
+    CorsMetricsSnapshot(@Nonnull CorsMethodStats total, @Nonnull List<CorsMethodStats> methods, long distinctOrigins,
+        @Nonnull OriginCacheStats originCache) {
+        this.total = total;
+        this.methods = ImmutableList.copyOf(methods);
+        this.distinctOrigins = distinctOrigins;
+        this.originCache = originCache;
+    }
+
+    /**
+     * @return stats summed over all resource methods
+     */
+    @Nonnull
+    public CorsMethodStats getTotal() {
+        return total;
+    }
+
+    /**
+     * @return stats for each resource method that has a CORS filter, sorted by name
+     */
+    @Nonnull
+    public List<CorsMethodStats> getMethods() {
+        return methods;
+    }
+
+    /**
+     * @return estimated number of distinct Origin values seen
+     */
+    public long getDistinctOrigins() {
+        return distinctOrigins;
+    }
+
+    /**
+     * @return origin decision cache counts, summed over all allowlists
+     */
+    @Nonnull
+    public OriginCacheStats getOriginCache() {
+        return originCache;
+    }
+}
@@ -4,29 +4,66 @@ import com.sun.jersey.spi.container.ContainerRequest;
 import com.sun.jersey.spi.container.ContainerRequestFilter;
 import com.sun.jersey.spi.container.ContainerResponse;
 import com.sun.jersey.spi.container.ContainerResponseFilter;
-import com.sun.jersey.spi.container.ResourceFilter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
 
-import static com.palominolabs.jersey.cors.CorsResourceResponseResourceFilter.putIfNotPresent;
-
+/**
+ * The filter for @OPTIONS methods with {@link CorsPreflight}. Which headers to send is decided by
+ * {@link PreflightHeaders}, which the JAX-RS 2 filters share. Rate limiting and the preflight analyzer are Jersey 1
+ * only.
+ */
 @Immutable
-final class CorsPreflightResponseResourceFilter implements ResourceFilter {
+final class CorsPreflightResponseResourceFilter implements CorsHeaderFilter {
 
-    private final ContainerResponseFilter responseFilter;
+    /**
+     * Too Many Requests, which JAX-RS 1.1 has no constant for
+     */
+    static final int TOO_MANY_REQUESTS = 429;
 
-    CorsPreflightResponseResourceFilter(int maxAge, @Nonnull String allowMethods, @Nonnull String allowHeaders,
-        boolean allowCredentials, String allowOrigin) {
+    /**
+     * Body of the 429 sent to preflights over the rate limit
+     */
+    static final String RATE_LIMITED_BODY = "Too many preflight requests\n";
+
+    /**
+     * Shared instance carrying the 429 for preflights over the rate limit
+     */
+    static final CorsAbortException PREFLIGHT_RATE_LIMITED =
+        new CorsAbortException(PrebuiltResponse.text(TOO_MANY_REQUESTS, RATE_LIMITED_BODY));
+
+    /**
+     * Request property holding the {@link RateLimitRequestFilter}'s decision: Boolean.TRUE if the preflight is over the
+     * rate limit, Boolean.FALSE if it has taken a token
+     */
+    static final String RATE_LIMITED_PROPERTY = CorsPreflightResponseResourceFilter.class.getName() + ".rateLimited";
 
-        responseFilter = new CorsPreflightContainerResponseFilter(maxAge, allowMethods, allowHeaders, allowCredentials,
-            allowOrigin);
+    private final ContainerRequestFilter requestFilter;
+
+    private final CorsPreflightContainerResponseFilter responseFilter;
+
+    CorsPreflightResponseResourceFilter(int maxAge, @Nonnull String allowMethods, @Nonnull String allowHeaders,
+        boolean allowCredentials, @Nonnull String allowOrigin, @Nullable OriginAllowlist originMatcher,
+        boolean shortCircuit, boolean validate, @Nullable PreflightAnalyzer analyzer,
+        @Nullable PreflightRateLimiter limiter) {
+
+        if (limiter != null) {
+            requestFilter = new RateLimitRequestFilter(limiter, shortCircuit);
+        } else {
+            requestFilter = shortCircuit ? PreflightShortCircuitRequestFilter.INSTANCE : null;
+        }
+        PreflightHeaders headers = new PreflightHeaders(maxAge, allowMethods, allowHeaders, allowCredentials,
+            allowOrigin, originMatcher, validate);
+        responseFilter = new CorsPreflightContainerResponseFilter(headers,
+            analyzer == null ? null : new AnalyzerHook(analyzer, maxAge, allowMethods, allowHeaders), limiter);
     }
 
     @Override
     public ContainerRequestFilter getRequestFilter() {
-        return null;
+        return requestFilter;
     }
 
     @Override
@@ -34,48 +71,173 @@ final class CorsPreflightResponseResourceFilter implements ResourceFilter {
         return responseFilter;
     }
 
+    @Override
+    public <R> int addHeaders(@Nonnull R request, @Nonnull HeaderReader<? super R> reader,
+        @Nullable String incomingOrigin, @Nonnull MultivaluedMap<String, Object> h) {
+        return responseFilter.addHeaders(request, reader, incomingOrigin, h);
+    }
+
     @Immutable
     private static class CorsPreflightContainerResponseFilter implements ContainerResponseFilter {
 
+        private final PreflightHeaders headers;
+
+        /**
+         * null if the preflight analyzer is not enabled
+         */
+        private final AnalyzerHook analyzerHook;
+
+        /**
+         * null if preflights are not rate limited
+         */
+        private final PreflightRateLimiter limiter;
+
+        private CorsPreflightContainerResponseFilter(PreflightHeaders headers, AnalyzerHook analyzerHook,
+            PreflightRateLimiter limiter) {
+            this.headers = headers;
+            this.analyzerHook = analyzerHook;
+            this.limiter = limiter;
+        }
+
+        @Override
+        public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+            addHeaders(request, HeaderReader.CONTAINER_REQUEST, request.getHeaderValue(CorsHeaders.ORIGIN),
+                response.getHttpHeaders());
+            return response;
+        }
+
+        <R> int addHeaders(R request, HeaderReader<? super R> reader, String incomingOrigin,
+            MultivaluedMap<String, Object> h) {
+            int outcome = addHeadersUnrecorded(request, reader, incomingOrigin, h);
+            if (analyzerHook != null && incomingOrigin != null) {
+                analyzerHook.record(request, reader, incomingOrigin, outcome);
+            }
+            return outcome;
+        }
+
+        private <R> int addHeadersUnrecorded(R request, HeaderReader<? super R> reader, String incomingOrigin,
+            MultivaluedMap<String, Object> h) {
+            String requestMethod = reader.getHeader(request, CorsHeaders.REQUEST_METHOD);
+            if (limiter != null && incomingOrigin != null && requestMethod != null &&
+                isRateLimited(request, reader, incomingOrigin)) {
+                headers.addVary(h);
+                return RATE_LIMITED;
+            }
+
+            return headers.addHeaders(incomingOrigin, requestMethod,
+                requestMethod == null ? null : reader.getHeader(request, CorsHeaders.REQUEST_HEADERS), h);
+        }
+
+        /**
+         * Jersey preflights to a resource method have already been counted by {@link RateLimitRequestFilter}, and that
+         * decision stands. Preflights answered without a resource method, by CorsAutoPreflightRequestFilter or
+         * CorsServletFilter, take their token here.
+         *
+         * @return true if the real preflight is over the rate limit
+         */
+        private <R> boolean isRateLimited(R request, HeaderReader<? super R> reader, String incomingOrigin) {
+            Object limited = reader.getProperty(request, RATE_LIMITED_PROPERTY);
+            if (limited != null) {
+                return (Boolean) limited;
+            }
+            return !limiter.tryAcquire(incomingOrigin);
+        }
+    }
+
+    /**
+     * Reports real preflights to the {@link PreflightAnalyzer}, along with what the filter answers them with.
+     */
+    @Immutable
+    private static class AnalyzerHook {
+
+        private final PreflightAnalyzer analyzer;
+
         private final int maxAge;
 
         private final String allowMethods;
 
         private final String allowHeaders;
 
-        private final boolean allowCredentials;
-
-        private final String allowOrigin;
-
-        private CorsPreflightContainerResponseFilter(int maxAge, String allowMethods, String allowHeaders,
-            boolean allowCredentials, String allowOrigin) {
+        private AnalyzerHook(PreflightAnalyzer analyzer, int maxAge, String allowMethods, String allowHeaders) {
+            this.analyzer = analyzer;
             this.maxAge = maxAge;
             this.allowMethods = allowMethods;
             this.allowHeaders = allowHeaders;
-            this.allowCredentials = allowCredentials;
-            this.allowOrigin = allowOrigin;
+        }
+
+        <R> void record(R request, HeaderReader<? super R> reader, String origin, int outcome) {
+            String requestMethod = reader.getHeader(request, CorsHeaders.REQUEST_METHOD);
+            if (requestMethod == null) {
+                return;
+            }
+            String requestHeaders = reader.getHeader(request, CorsHeaders.REQUEST_HEADERS);
+            if (analyzer.isSampled(origin, requestMethod, requestHeaders)) {
+                analyzer.record(reader.getPath(request), origin, requestMethod, requestHeaders,
+                    outcome == REJECTED_PREFLIGHT, maxAge, allowMethods, allowHeaders);
+            }
+        }
+    }
+
+    /**
+     * Takes a token for each real preflight before the resource method is dispatched, turns away those from origins
+     * that are over the rate limit, and short circuits the others if configured to. The decision is left in a request
+     * property for the response filter, which Jersey runs on the resulting 429 too, so each preflight is counted once
+     * and gets no CORS headers if it is over the limit. Checking the bucket here and taking the token in the response
+     * filter instead would let concurrent preflights all pass the check for the same last token.
+     */
+    @Immutable
+    private static class RateLimitRequestFilter implements ContainerRequestFilter {
+
+        private final PreflightRateLimiter limiter;
+
+        private final boolean shortCircuit;
+
+        private RateLimitRequestFilter(PreflightRateLimiter limiter, boolean shortCircuit) {
+            this.limiter = limiter;
+            this.shortCircuit = shortCircuit;
         }
 
         @Override
-        public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+        public ContainerRequest filter(ContainerRequest request) {
             String incomingOrigin = request.getHeaderValue(CorsHeaders.ORIGIN);
-            if (incomingOrigin == null) {
-                return response;
+            if (incomingOrigin == null || request.getHeaderValue(CorsHeaders.REQUEST_METHOD) == null) {
+                return request;
             }
-
-            MultivaluedMap<String, Object> h = response.getHttpHeaders();
-            putIfNotPresent(h, CorsHeaders.ALLOW_ORIGIN, allowOrigin);
-            putIfNotPresent(h, CorsHeaders.MAX_AGE, Integer.toString(maxAge));
-            if (!allowMethods.isEmpty()) {
-                putIfNotPresent(h, CorsHeaders.ALLOW_METHODS, allowMethods);
+            boolean limited = !limiter.tryAcquire(incomingOrigin);
+            request.getProperties().put(RATE_LIMITED_PROPERTY, limited);
+            if (limited) {
+                throw PREFLIGHT_RATE_LIMITED;
             }
-            if (!allowHeaders.isEmpty()) {
-                putIfNotPresent(h, CorsHeaders.ALLOW_HEADERS, allowHeaders);
+            if (shortCircuit) {
+                throw PreflightShortCircuitRequestFilter.ABORT;
             }
-            if (allowCredentials) {
-                putIfNotPresent(h, CorsHeaders.ALLOW_CREDENTIALS, Boolean.toString(allowCredentials));
+            return request;
+        }
+    }
+
+    /**
+     * Aborts real preflight requests before the resource method is dispatched. Jersey still runs the resource method's
+     * response filters on the resulting 204, so {@link CorsPreflightContainerResponseFilter} adds the CORS headers as
+     * usual.
+     */
+    @Immutable
+    private static class PreflightShortCircuitRequestFilter implements ContainerRequestFilter {
+
+        private static final PreflightShortCircuitRequestFilter INSTANCE = new PreflightShortCircuitRequestFilter();
+
+        /**
+         * Shared instance carrying an empty 204 for response filters to add headers to
+         */
+        private static final CorsAbortException ABORT =
+            new CorsAbortException(PrebuiltResponse.empty(Response.Status.NO_CONTENT));
+
+        @Override
+        public ContainerRequest filter(ContainerRequest request) {
+            if (request.getHeaderValue(CorsHeaders.ORIGIN) != null &&
+                request.getHeaderValue(CorsHeaders.REQUEST_METHOD) != null) {
+                throw ABORT;
             }
-            return response;
+            return request;
         }
     }
 }
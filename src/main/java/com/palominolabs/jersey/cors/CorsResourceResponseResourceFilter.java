@@ -4,25 +4,61 @@ import com.sun.jersey.spi.container.ContainerRequest;
 import com.sun.jersey.spi.container.ContainerRequestFilter;
 import com.sun.jersey.spi.container.ContainerResponse;
 import com.sun.jersey.spi.container.ContainerResponseFilter;
-import com.sun.jersey.spi.container.ResourceFilter;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.Immutable;
 import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
 
+/**
+ * The filter for methods with {@link Cors}.
+ *
+ * The headers are added to the ContainerResponse by its response filter, and Jersey runs every response filter before
+ * it hands the response to the ContainerResponseWriter, which writes the status and headers before the first byte of
+ * the entity. So streamed entities (StreamingOutput, InputStream, File and the like) get their CORS headers without
+ * having to be buffered, however large they are. The one thing the filter can't cover is a method that writes to the
+ * servlet response itself, which commits it before any response filter runs; use {@link CorsServletFilter} for those.
+ *
+ * Which headers to send is decided by {@link ResourceHeaders}, which the JAX-RS 2 filters share.
+ */
 @Immutable
-final class CorsResourceResponseResourceFilter implements ResourceFilter {
+final class CorsResourceResponseResourceFilter implements CorsHeaderFilter {
 
-    private final ContainerResponseFilter responseFilter;
+    /**
+     * Body of the 403 sent to requests from disallowed origins
+     */
+    static final String ORIGIN_REJECTED_BODY = "Origin not allowed\n";
 
-    CorsResourceResponseResourceFilter(@Nonnull String allowOrigin, @Nonnull String exposeHeaders,
-        boolean allowCredentials) {
-        responseFilter = new CorsResponseContainerResponseFilter(allowOrigin, exposeHeaders, allowCredentials);
+    /**
+     * Shared instance carrying the 403 for requests from disallowed origins
+     */
+    static final CorsAbortException ORIGIN_REJECTED =
+        new CorsAbortException(PrebuiltResponse.text(Response.Status.FORBIDDEN, ORIGIN_REJECTED_BODY));
+
+    private final ContainerRequestFilter requestFilter;
+
+    private final CorsResponseContainerResponseFilter responseFilter;
+
+    /**
+     * @param allowOrigin             fixed Access-Control-Allow-Origin value, used if originMatcher is null
+     * @param originMatcher           allowlist to check the request's Origin against; matching origins are echoed back
+     * @param exposeHeaders           Access-Control-Expose-Headers value, or "" to not send it
+     * @param allowCredentials        true to send Access-Control-Allow-Credentials
+     * @param rejectDisallowedOrigins true to answer requests from origins not in the allowlist with a 403 instead of
+     *                                invoking the resource method
+     */
+    CorsResourceResponseResourceFilter(@Nonnull String allowOrigin, @Nullable OriginAllowlist originMatcher,
+        @Nonnull String exposeHeaders, boolean allowCredentials, boolean rejectDisallowedOrigins) {
+        ResourceHeaders headers = new ResourceHeaders(allowOrigin, originMatcher, exposeHeaders, allowCredentials,
+            rejectDisallowedOrigins);
+        requestFilter = headers.isRejecting() ? new DisallowedOriginRequestFilter(headers) : null;
+        responseFilter = new CorsResponseContainerResponseFilter(headers);
     }
 
     @Override
     public ContainerRequestFilter getRequestFilter() {
-        return null;
+        return requestFilter;
     }
 
     @Override
@@ -30,44 +66,52 @@ final class CorsResourceResponseResourceFilter implements ResourceFilter {
         return responseFilter;
     }
 
+    @Override
+    public <R> int addHeaders(@Nonnull R request, @Nonnull HeaderReader<? super R> reader,
+        @Nullable String incomingOrigin, @Nonnull MultivaluedMap<String, Object> h) {
+        return responseFilter.addHeaders(incomingOrigin, h);
+    }
+
     @Immutable
     private static class CorsResponseContainerResponseFilter implements ContainerResponseFilter {
 
-        private final String allowOrigin;
+        private final ResourceHeaders headers;
 
-        private final String exposeHeaders;
-
-        private final boolean allowCredentials;
-
-        private CorsResponseContainerResponseFilter(String allowOrigin, String exposeHeaders,
-            boolean allowCredentials) {
-            this.allowOrigin = allowOrigin;
-            this.exposeHeaders = exposeHeaders;
-            this.allowCredentials = allowCredentials;
+        private CorsResponseContainerResponseFilter(ResourceHeaders headers) {
+            this.headers = headers;
         }
 
         @Override
         public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
-            String incomingOrigin = request.getHeaderValue(CorsHeaders.ORIGIN);
-            if (incomingOrigin == null) {
-                return response;
-            }
-
-            MultivaluedMap<String, Object> h = response.getHttpHeaders();
-            putIfNotPresent(h, CorsHeaders.ALLOW_ORIGIN, allowOrigin);
-            if (!exposeHeaders.isEmpty()) {
-                putIfNotPresent(h, CorsHeaders.EXPOSE_HEADERS, exposeHeaders);
-            }
-            if (allowCredentials) {
-                putIfNotPresent(h, CorsHeaders.ALLOW_CREDENTIALS, Boolean.toString(allowCredentials));
-            }
+            headers.addHeaders(request.getHeaderValue(CorsHeaders.ORIGIN), response.getHttpHeaders());
             return response;
         }
+
+        int addHeaders(String incomingOrigin, MultivaluedMap<String, Object> h) {
+            return headers.addHeaders(incomingOrigin, h);
+        }
     }
 
-    static void putIfNotPresent(MultivaluedMap<String, Object> h, String header, String value) {
-        if (!h.containsKey(header)) {
-            h.putSingle(header, value);
+    /**
+     * Rejects cross-origin requests from origins not in the allowlist before the resource method is dispatched, so a
+     * state-changing or expensive method does no work for a response the browser would discard. Jersey still runs the
+     * resource method's response filters on the resulting 403, so it gets its Vary header as usual.
+     */
+    @Immutable
+    private static class DisallowedOriginRequestFilter implements ContainerRequestFilter {
+
+        private final ResourceHeaders headers;
+
+        private DisallowedOriginRequestFilter(ResourceHeaders headers) {
+            this.headers = headers;
+        }
+
+        @Override
+        public ContainerRequest filter(ContainerRequest request) {
+            if (headers.rejects(request.getHeaderValue(CorsHeaders.ORIGIN))) {
+                throw ORIGIN_REJECTED;
+            }
+            return request;
         }
     }
 }
@@ -0,0 +1,274 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Lists;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.MultivaluedMap;
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.collect.Maps.newLinkedHashMap;
+import static com.palominolabs.jersey.cors.PathPatternTrie.normalize;
+
+/**
+ * Servlet filter that applies the CORS policy of a Jersey application before the request reaches Jersey. Preflights
+ * are answered with a 204 straight from the filter, and CORS headers for other requests are set on the servlet response
+ * before it is passed on, so Jersey never sees preflights and does no CORS work of its own.
+ *
+ * The policy is the one {@link CorsResourceFilterFactory} resolves from the {@link CorsConfig} properties and the
+ * {@link Cors} and {@link CorsPreflight} annotations, exported by the factory at startup when
+ * {@link CorsConfig#SERVLET_FILTER} is set. To use it:
+ *
+ * <ul>
+ * <li>register {@link CorsResourceFilterFactory} with Jersey as usual, and set {@link CorsConfig#SERVLET_FILTER} to
+ * true;</li>
+ * <li>map this filter to the same URL pattern as the Jersey servlet;</li>
+ * <li>load the Jersey servlet on startup (load-on-startup in web.xml), since the policy is only exported once Jersey
+ * has initialized, and requests that arrive before then pass through untouched.</li>
+ * </ul>
+ *
+ * If {@link CorsConfig#SERVLET_FILTER_NAME} is set, set the filter's {@link #POLICY_NAME_PARAM} init parameter to the
+ * same name.
+ *
+ * Requests are matched to resource methods by path and HTTP method, the way Jersey matches root resources. Preflights
+ * to paths with an @OPTIONS method are answered from its {@link CorsPreflight} config without invoking it, as with
+ * {@link CorsConfig#SHORT_CIRCUIT_PREFLIGHT}; preflights to paths with {@link Cors} methods but no @OPTIONS method are
+ * answered as {@link CorsAutoPreflightRequestFilter} would. Methods of sub-resources returned by sub-resource locators
+ * have no fixed path, so their CORS headers are still added by Jersey.
+ *
+ * Headers set on the servlet response before the resource method runs can't see the headers the method sets itself,
+ * so unlike the Jersey filters, a method that sets its own CORS headers doesn't stop these from being sent.
+ */
+@ThreadSafe
+public final class CorsServletFilter implements Filter {
+
+    /**
+     * Filter init parameter naming the exported policy to use. The default is "default".
+     */
+    public static final String POLICY_NAME_PARAM = "policyName";
+
+    private static final HeaderReader<HttpServletRequest> SERVLET_REQUEST = new HeaderReader<HttpServletRequest>() {
+        @Nullable
+        @Override
+        public String getHeader(@Nonnull HttpServletRequest request, @Nonnull String name) {
+            return request.getHeader(name);
+        }
+
+        @Nonnull
+        @Override
+        public String getPath(@Nonnull HttpServletRequest request) {
+            return CorsServletFilter.getPath(request);
+        }
+
+        @Nullable
+        @Override
+        public Object getProperty(@Nonnull HttpServletRequest request, @Nonnull String name) {
+            return request.getAttribute(name);
+        }
+    };
+
+    private static final byte[] ORIGIN_REJECTED_BODY =
+        CorsResourceResponseResourceFilter.ORIGIN_REJECTED_BODY.getBytes(Charsets.UTF_8);
+
+    private static final byte[] RATE_LIMITED_BODY =
+        CorsPreflightResponseResourceFilter.RATE_LIMITED_BODY.getBytes(Charsets.UTF_8);
+
+    /**
+     * Sets headers through the servlet API, which works in any container
+     */
+    static final HeaderAdapter SERVLET_HEADERS = new HeaderAdapter() {
+        @Nonnull
+        @Override
+        public MultivaluedMap<String, Object> getHeaders(@Nonnull HttpServletResponse response) {
+            return new ServletResponseHeaders(response);
+        }
+    };
+
+    private final HeaderAdapter headerAdapter;
+
+    /**
+     * Where the routes for the configured policy name are exported to
+     */
+    private volatile AtomicReference<ServletRoutes> export;
+
+    public CorsServletFilter() {
+        this(SERVLET_HEADERS);
+    }
+
+    /**
+     * @param headerAdapter how to get at the response's headers, for container adapters that can set them more cheaply
+     *                      than the servlet API
+     */
+    CorsServletFilter(@Nonnull HeaderAdapter headerAdapter) {
+        this.headerAdapter = headerAdapter;
+    }
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+        String name = filterConfig.getInitParameter(POLICY_NAME_PARAM);
+        export = ServletRoutes.getExport(name == null ? "default" : name);
+    }
+
+    @Override
+    public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain)
+        throws IOException, ServletException {
+        ServletRoutes routes = export.get();
+        if (routes == null || !(servletRequest instanceof HttpServletRequest) ||
+            !(servletResponse instanceof HttpServletResponse)) {
+            chain.doFilter(servletRequest, servletResponse);
+            return;
+        }
+
+        HttpServletRequest request = (HttpServletRequest) servletRequest;
+        HttpServletResponse response = (HttpServletResponse) servletResponse;
+        ServletRoutes.Route route = routes.get(SERVLET_REQUEST.getPath(request));
+        if (route == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        String method = request.getMethod();
+        String incomingOrigin = request.getHeader(CorsHeaders.ORIGIN);
+        if (HttpMethod.OPTIONS.equals(method) && incomingOrigin != null &&
+            request.getHeader(CorsHeaders.REQUEST_METHOD) != null) {
+            CorsHeaderFilter filter = route.getPreflightFilter();
+            if (filter != null) {
+                int outcome =
+                    filter.addHeaders(request, SERVLET_REQUEST, incomingOrigin, headerAdapter.getHeaders(response));
+                if ((outcome & CorsHeaderFilter.RATE_LIMITED) != 0) {
+                    sendText(response, CorsPreflightResponseResourceFilter.TOO_MANY_REQUESTS, RATE_LIMITED_BODY);
+                } else {
+                    response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                }
+                return;
+            }
+        } else {
+            CorsHeaderFilter filter = route.getFilter(method);
+            if (filter != null) {
+                int outcome =
+                    filter.addHeaders(request, SERVLET_REQUEST, incomingOrigin, headerAdapter.getHeaders(response));
+                if ((outcome & CorsHeaderFilter.REJECTED_ORIGIN) != 0) {
+                    sendText(response, HttpServletResponse.SC_FORBIDDEN, ORIGIN_REJECTED_BODY);
+                    return;
+                }
+            }
+        }
+
+        chain.doFilter(request, response);
+    }
+
+    @Override
+    public void destroy() {
+        // nothing to release
+    }
+
+    /**
+     * Answer the request with a plain text body instead of passing it on.
+     */
+    private static void sendText(HttpServletResponse response, int status, byte[] body) throws IOException {
+        response.setStatus(status);
+        response.setContentType("text/plain; charset=UTF-8");
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * @param request request
+     * @return the request path relative to the Jersey servlet's base URI, computed as Jersey does, without leading or
+     *         trailing slashes
+     */
+    @Nonnull
+    private static String getPath(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        int base = request.getContextPath().length();
+        if (request.getPathInfo() != null) {
+            base += request.getServletPath().length();
+        }
+        return normalize(uri.substring(Math.min(base, uri.length())));
+    }
+
+    /**
+     * Gives filters a servlet response's headers to add to.
+     */
+    interface HeaderAdapter {
+        /**
+         * @param response response the filter is handling
+         * @return the response's headers as the header map that filters add to
+         */
+        @Nonnull
+        MultivaluedMap<String, Object> getHeaders(@Nonnull HttpServletResponse response);
+    }
+
+    /**
+     * A servlet response's headers as the header map that filters add to. Headers can only be changed with putSingle
+     * and add, which is all the filters use; reading them works as for any map.
+     */
+    @NotThreadSafe
+    private static final class ServletResponseHeaders extends AbstractMap<String, List<Object>>
+        implements MultivaluedMap<String, Object> {
+
+        private final HttpServletResponse response;
+
+        private ServletResponseHeaders(HttpServletResponse response) {
+            this.response = response;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return response.containsHeader((String) key);
+        }
+
+        @Override
+        public List<Object> get(Object key) {
+            Collection<String> values = response.getHeaders((String) key);
+            return values.isEmpty() ? null : Lists.<Object>newArrayList(values);
+        }
+
+        @Override
+        public void putSingle(String key, Object value) {
+            response.setHeader(key, value.toString());
+        }
+
+        @Override
+        public void add(String key, Object value) {
+            response.addHeader(key, value.toString());
+        }
+
+        @Override
+        public Object getFirst(String key) {
+            return response.getHeader(key);
+        }
+
+        /**
+         * @return a read-only snapshot of the headers, which AbstractMap's size, equals, toString and so on are built
+         *         on
+         */
+        @Override
+        public Set<Map.Entry<String, List<Object>>> entrySet() {
+            Map<String, List<Object>> headers = newLinkedHashMap();
+            for (String name : response.getHeaderNames()) {
+                headers.put(name, Lists.<Object>newArrayList(response.getHeaders(name)));
+            }
+            return Collections.unmodifiableMap(headers).entrySet();
+        }
+    }
+}
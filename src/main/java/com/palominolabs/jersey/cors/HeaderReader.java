@@ -0,0 +1,61 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.spi.container.ContainerRequest;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Reads a header, or the path, from some kind of request. Filters take the request and a reader for it, rather than
+ * the request wrapped in an adapter, so the same filter can serve Jersey requests and, for {@link CorsServletFilter},
+ * servlet requests without allocating anything per request on either path.
+ *
+ * @param <R> request type
+ */
+interface HeaderReader<R> {
+
+    HeaderReader<ContainerRequest> CONTAINER_REQUEST = new HeaderReader<ContainerRequest>() {
+        @Nullable
+        @Override
+        public String getHeader(@Nonnull ContainerRequest request, @Nonnull String name) {
+            return request.getHeaderValue(name);
+        }
+
+        @Nonnull
+        @Override
+        public String getPath(@Nonnull ContainerRequest request) {
+            return PathPatternTrie.normalize(request.getPath(false));
+        }
+
+        @Nullable
+        @Override
+        public Object getProperty(@Nonnull ContainerRequest request, @Nonnull String name) {
+            return request.getProperties().get(name);
+        }
+    };
+
+    /**
+     * @param request request
+     * @param name    header name
+     * @return the header's value, or null if the request doesn't have it
+     */
+    @Nullable
+    String getHeader(@Nonnull R request, @Nonnull String name);
+
+    /**
+     * Unlike headers, the path is computed on every call, so this is only for the occasional request.
+     *
+     * @param request request
+     * @return the request path relative to the application's base URI, without leading or trailing slashes
+     */
+    @Nonnull
+    String getPath(@Nonnull R request);
+
+    /**
+     * @param request request
+     * @param name    property name
+     * @return the value that a filter earlier in the request's processing stored under the name, or null if none did
+     */
+    @Nullable
+    Object getProperty(@Nonnull R request, @Nonnull String name);
+}
@@ -0,0 +1,76 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Fixed-size estimator of the number of distinct strings seen (Flajolet et al., "HyperLogLog: the analysis of a
+ * near-optimal cardinality estimation algorithm"), with 2^12 registers: 16 KB, and a standard error of about 1.6%.
+ *
+ * Adding a string already seen only reads a register, so once the set of origins is stable, adding costs a hash and a
+ * volatile read. Strings are hashed from their cached String.hashCode(), so there is no per-add hashing of characters
+ * either; with only 32 bits of input, estimates are good up to a few hundred million distinct strings, which is far
+ * more origins than a server will see.
+ */
+@ThreadSafe
+final class HyperLogLog {
+
+    private static final int PRECISION = 12;
+
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTERS);
+
+    private final AtomicIntegerArray registers = new AtomicIntegerArray(REGISTERS);
+
+    void add(@Nonnull String s) {
+        long hash = mix(s.hashCode());
+        int index = (int) (hash >>> (Long.SIZE - PRECISION));
+        // position of the first 1 bit after the index bits, with a sentinel so it is at most 64 - PRECISION + 1
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+
+        int current = registers.get(index);
+        while (rank > current) {
+            if (registers.compareAndSet(index, current, rank)) {
+                return;
+            }
+            current = registers.get(index);
+        }
+    }
+
+    /**
+     * @return estimated number of distinct strings added
+     */
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < REGISTERS; i++) {
+            int r = registers.get(i);
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+
+        double estimate = ALPHA * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Spread a 32 bit hash over 64 bits (the MurmurHash3 64 bit finalizer).
+     */
+    private static long mix(int h) {
+        long k = h;
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,80 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.MultivaluedMap;
+
+/**
+ * Wraps the filter for one resource method to record what it does in {@link CorsMetrics}. Filters are shared between
+ * methods with the same config, so it is these wrappers, one per method, that keep counts apart.
+ */
+@Immutable
+final class InstrumentedResourceFilter implements CorsHeaderFilter {
+
+    private final CorsHeaderFilter delegate;
+
+    private final CorsMetrics metrics;
+
+    private final CorsMetrics.MethodMetrics methodMetrics;
+
+    private final boolean recordLatency;
+
+    private final ContainerResponseFilter responseFilter = new ContainerResponseFilter() {
+        @Override
+        public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+            addHeaders(request, HeaderReader.CONTAINER_REQUEST, request.getHeaderValue(CorsHeaders.ORIGIN),
+                response.getHttpHeaders());
+            return response;
+        }
+    };
+
+    /**
+     * @param delegate filter to instrument
+     * @param metrics  metrics to record to
+     * @param name     resource method name
+     */
+    InstrumentedResourceFilter(@Nonnull CorsHeaderFilter delegate, @Nonnull CorsMetrics metrics,
+        @Nonnull String name) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.methodMetrics = metrics.getMethodMetrics(name);
+        this.recordLatency = metrics.isRecordingLatency();
+    }
+
+    @Override
+    public ContainerRequestFilter getRequestFilter() {
+        // a request rejected by the delegate's request filter still goes through the response filter, which records it
+        return delegate.getRequestFilter();
+    }
+
+    @Override
+    public ContainerResponseFilter getResponseFilter() {
+        return responseFilter;
+    }
+
+    @Override
+    public <R> int addHeaders(@Nonnull R request, @Nonnull HeaderReader<? super R> reader,
+        @Nullable String incomingOrigin, @Nonnull MultivaluedMap<String, Object> h) {
+        int outcome;
+        long latencyNanos = 0;
+        if (recordLatency) {
+            long start = System.nanoTime();
+            outcome = delegate.addHeaders(request, reader, incomingOrigin, h);
+            latencyNanos = System.nanoTime() - start;
+        } else {
+            outcome = delegate.addHeaders(request, reader, incomingOrigin, h);
+        }
+
+        if (incomingOrigin != null) {
+            metrics.recordOrigin(incomingOrigin);
+        }
+        methodMetrics.record(outcome, latencyNanos);
+        return outcome;
+    }
+}
@@ -0,0 +1,104 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.api.uri.UriTemplate;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Values keyed by resource path, looked up by request path the way Jersey matches root resources: paths without
+ * template variables by a hash lookup, then the others in Jersey's order, most specific first.
+ *
+ * Values may be null. A path with a null value still takes part in matching, so a request path that Jersey would
+ * dispatch to it isn't taken by a less specific template path that also matches.
+ *
+ * @param <T> value type
+ */
+@Immutable
+final class PathTable<T> {
+
+    /**
+     * Values for paths without template variables, keyed by path without leading or trailing slashes. Not modified
+     * after construction.
+     */
+    private final Map<String, T> literalPaths;
+
+    /**
+     * Values for paths with template variables, most specific first
+     */
+    private final List<TemplatePath<T>> templatePaths;
+
+    /**
+     * @param paths values, possibly null, keyed by path without leading or trailing slashes
+     */
+    PathTable(@Nonnull Map<String, T> paths) {
+        // not an ImmutableMap, which can't hold the null values
+        Map<String, T> literal = newHashMap();
+        List<TemplatePath<T>> templated = newArrayList();
+        for (Map.Entry<String, T> e : paths.entrySet()) {
+            UriTemplate template = new UriTemplate(e.getKey());
+            if (template.getNumberOfTemplateVariables() == 0) {
+                literal.put(e.getKey(), e.getValue());
+            } else {
+                templated.add(new TemplatePath<T>(template, e.getValue()));
+            }
+        }
+
+        Collections.sort(templated, new Comparator<TemplatePath<T>>() {
+            @Override
+            public int compare(TemplatePath<T> o1, TemplatePath<T> o2) {
+                return UriTemplate.COMPARATOR.compare(o1.template, o2.template);
+            }
+        });
+
+        literalPaths = literal;
+        templatePaths = templated;
+    }
+
+    /**
+     * @param path request path, without leading or trailing slashes
+     * @return the value for the first path that matches, or null if none does or its value is null
+     */
+    @Nullable
+    T get(@Nonnull String path) {
+        if (literalPaths.containsKey(path)) {
+            return literalPaths.get(path);
+        }
+
+        for (int i = 0; i < templatePaths.size(); i++) {
+            TemplatePath<T> templatePath = templatePaths.get(i);
+            if (templatePath.pattern.matcher(path).matches()) {
+                return templatePath.value;
+            }
+        }
+
+        return null;
+    }
+
+    boolean isEmpty() {
+        return literalPaths.isEmpty() && templatePaths.isEmpty();
+    }
+
+    @Immutable
+    private static class TemplatePath<T> {
+        final UriTemplate template;
+        final Pattern pattern;
+        @Nullable
+        final T value;
+
+        private TemplatePath(UriTemplate template, T value) {
+            this.template = template;
+            this.pattern = Pattern.compile(template.getPattern().getRegex());
+            this.value = value;
+        }
+    }
+}
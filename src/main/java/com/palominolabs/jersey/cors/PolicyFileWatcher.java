@@ -0,0 +1,157 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Polls a properties file and hands its contents to a listener whenever they change.
+ *
+ * The file is re-read on every poll and compared with what was last seen, rather than relying on its modification
+ * time, which on many filesystems has a resolution of a second or more. Policy files are small, so this is cheap.
+ *
+ * A poll can catch the file in the middle of a save, truncated or half written, and a policy with entries missing can
+ * fall back to more permissive defaults. So new contents are only passed on once two polls in a row have read them,
+ * and an empty file is treated as an error. Saving the file by renaming a complete copy into place avoids the window
+ * altogether.
+ */
+@ThreadSafe
+final class PolicyFileWatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(PolicyFileWatcher.class);
+
+    private final File file;
+
+    private final Listener listener;
+
+    /**
+     * Contents last passed to the listener, or rejected
+     */
+    @GuardedBy("this")
+    private String lastContents;
+
+    /**
+     * New contents read by the previous poll, which are passed on if the next poll reads them too
+     */
+    @GuardedBy("this")
+    private String pendingContents;
+
+    /**
+     * null until started and once stopped
+     */
+    @GuardedBy("this")
+    private ScheduledExecutorService executor;
+
+    PolicyFileWatcher(@Nonnull File file, @Nonnull Listener listener) {
+        this.file = file;
+        this.listener = listener;
+    }
+
+    /**
+     * Poll now, twice so the file's current contents are applied before the first request, then every intervalMillis
+     * on a daemon thread.
+     *
+     * @param intervalMillis time between polls
+     */
+    synchronized void start(long intervalMillis) {
+        poll();
+        poll();
+
+        executor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("cors-policy-watcher-%d").build());
+        executor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    poll();
+                } catch (RuntimeException e) {
+                    // an exception escaping would cancel all further polls
+                    logger.error("Could not reload CORS policy from " + file, e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop polling and let the thread exit. A poll in progress is finished first.
+     */
+    synchronized void stop() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    /**
+     * Read the file, and if it has changed to what the previous poll read too, pass its properties to the listener. If
+     * the file can't be read, is empty or the listener rejects it, the error is logged and the listener keeps whatever
+     * policy it had.
+     */
+    synchronized void poll() {
+        String contents;
+        try {
+            contents = Files.toString(file, Charsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("Could not read CORS policy file " + file + ": " + e);
+            return;
+        }
+
+        if (contents.equals(lastContents)) {
+            pendingContents = null;
+            return;
+        }
+        if (!contents.equals(pendingContents)) {
+            // possibly caught mid-save, so wait for the next poll to read the same
+            pendingContents = contents;
+            return;
+        }
+        pendingContents = null;
+        lastContents = contents;
+
+        if (contents.trim().isEmpty()) {
+            // most likely truncated by a save in progress, and applying it would reset the policy to the defaults
+            logger.error("CORS policy file " + file + " is empty, keeping the previous policy");
+            return;
+        }
+
+        Properties properties = new Properties();
+        try {
+            properties.load(new StringReader(contents));
+            Map<String, Object> props = newHashMap();
+            for (String name : properties.stringPropertyNames()) {
+                props.put(name, properties.getProperty(name));
+            }
+
+            listener.policyChanged(props);
+            logger.info("Loaded CORS policy from " + file);
+        } catch (IllegalArgumentException e) {
+            logger.error("Invalid CORS policy in " + file + ", keeping the previous policy", e);
+        } catch (IOException e) {
+            logger.error("Could not parse CORS policy file " + file + ", keeping the previous policy", e);
+        }
+    }
+
+    interface Listener {
+        /**
+         * @param props the file's properties
+         * @throws IllegalArgumentException if the properties are not a valid policy, which must then not be applied
+         */
+        void policyChanged(@Nonnull Map<String, Object> props);
+    }
+}
@@ -0,0 +1,28 @@
+package com.palominolabs.jersey.cors;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * The filters for one version of a reloadable policy, indexed by {@link ReloadableResourceFilter}. A new snapshot is
+ * built in full whenever the policy changes and then published in one step, so a request sees either the old policy or
+ * the new one, never a mix.
+ */
+@Immutable
+final class PolicySnapshot {
+
+    private final CorsHeaderFilter[] filters;
+
+    PolicySnapshot(@Nonnull CorsHeaderFilter[] filters) {
+        this.filters = filters.clone();
+    }
+
+    @Nonnull
+    CorsHeaderFilter get(int index) {
+        return filters[index];
+    }
+
+    int size() {
+        return filters.length;
+    }
+}
@@ -0,0 +1,85 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Charsets;
+import com.sun.jersey.core.header.OutBoundHeaders;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+
+/**
+ * Response with a fixed status and body, built once and thrown with a {@link CorsAbortException} as often as needed.
+ * Jersey adopts a response's metadata map as the live header map of the outgoing response, so unlike a Response built
+ * with Response.status() this can be shared: every call to getMetadata() returns a new map.
+ */
+@Immutable
+final class PrebuiltResponse extends Response {
+
+    private final int status;
+
+    /**
+     * null for no body
+     */
+    private final byte[] body;
+
+    /**
+     * @param status status
+     * @return a response with no body
+     */
+    @Nonnull
+    static PrebuiltResponse empty(@Nonnull Status status) {
+        return new PrebuiltResponse(status.getStatusCode(), null);
+    }
+
+    /**
+     * Error responses need a body: without one, Jersey's servlet container calls sendError(), and most servlet
+     * containers then replace the response with an HTML error page.
+     *
+     * @param status status
+     * @param text   plain text body
+     * @return a response with the given body
+     */
+    @Nonnull
+    static PrebuiltResponse text(@Nonnull Status status, @Nonnull String text) {
+        return text(status.getStatusCode(), text);
+    }
+
+    /**
+     * @param status status code, for statuses that {@link Status} doesn't define
+     * @param text   plain text body
+     * @return a response with the given body
+     */
+    @Nonnull
+    static PrebuiltResponse text(int status, @Nonnull String text) {
+        return new PrebuiltResponse(status, text.getBytes(Charsets.UTF_8));
+    }
+
+    private PrebuiltResponse(int status, @Nullable byte[] body) {
+        this.status = status;
+        this.body = body;
+    }
+
+    @Override
+    public Object getEntity() {
+        // a byte[] is written as is, so it's safe to share as long as it isn't modified
+        return body;
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public MultivaluedMap<String, Object> getMetadata() {
+        OutBoundHeaders headers = new OutBoundHeaders();
+        if (body != null) {
+            headers.putSingle(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN_TYPE);
+        }
+        return headers;
+    }
+}
@@ -0,0 +1,472 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Splitter;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.sun.jersey.api.core.ResourceConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newConcurrentMap;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newTreeSet;
+
+/**
+ * Records which preflights an application answers, to find the ones that could be avoided, enabled with
+ * {@link CorsConfig#PREFLIGHT_ANALYZER}.
+ *
+ * Every preflight filter reports the preflights it answers. Each distinct (path, origin, requested method, requested
+ * headers) tuple is a source, and for each source the analyzer counts preflights, preflights rejected for asking for
+ * something not allowed, and repeats: preflights that came within maxAge of the previous one for the same source, which
+ * a browser that already had the answer cached would not have sent.
+ *
+ * To bound the cost, preflights are sampled by source rather than individually: a hash of the origin, method and
+ * headers picks one in {@link CorsConfig#PREFLIGHT_ANALYZER_SAMPLE_RATE} of them, and every preflight of a picked
+ * source is recorded, so repeats are counted exactly. Preflights of sources that aren't picked cost a few hash
+ * computations and allocate nothing. At most {@link CorsConfig#PREFLIGHT_ANALYZER_MAX_SOURCES} sources are tracked;
+ * preflights of further sources are only counted.
+ *
+ * Get the instance with {@link #get(ResourceConfig)} and read the top sources, with suggestions, from
+ * {@link #getReport(int)}, or over JMX via {@link PreflightAnalyzerMXBean}.
+ */
+@ThreadSafe
+public final class PreflightAnalyzer implements PreflightAnalyzerMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(PreflightAnalyzer.class);
+
+    /**
+     * ResourceConfig property the instance is kept in, so that every filter created for the same Jersey application
+     * shares it
+     */
+    private static final String PROPERTY = PreflightAnalyzer.class.getName();
+
+    /**
+     * Chromium-based browsers cache preflights for at most this many seconds, whatever maxAge says
+     */
+    static final int BROWSER_MAX_AGE_CAP = 7200;
+
+    /**
+     * Sources reported over JMX
+     */
+    private static final int JMX_REPORT_SOURCES = 20;
+
+    /**
+     * Distinct paths with the same origin, method and headers from which to point out that preflights are cached per
+     * URL
+     */
+    private static final int MANY_PATHS = 10;
+
+    /**
+     * Methods that don't need a preflight when only safelisted headers are sent
+     */
+    private static final Set<String> SIMPLE_METHODS = ImmutableSet.of("GET", "HEAD", "POST");
+
+    private final int sampleRate;
+
+    private final int maxSources;
+
+    private final Ticker ticker;
+
+    private final ConcurrentMap<Source, SourceStats> sources = newConcurrentMap();
+
+    private final AtomicInteger sourceCount = new AtomicInteger();
+
+    private final AtomicLong sampled = new AtomicLong();
+
+    private final AtomicLong untracked = new AtomicLong();
+
+    PreflightAnalyzer(int sampleRate, int maxSources, @Nonnull Ticker ticker) {
+        if (sampleRate < 1) {
+            throw new IllegalArgumentException("Preflight analyzer sample rate must be at least 1: " + sampleRate);
+        }
+        if (maxSources < 1) {
+            throw new IllegalArgumentException("Preflight analyzer max sources must be at least 1: " + maxSources);
+        }
+        this.sampleRate = sampleRate;
+        this.maxSources = maxSources;
+        this.ticker = ticker;
+    }
+
+    /**
+     * @param resourceConfig the Jersey application's ResourceConfig
+     * @return the application's analyzer, or null if {@link CorsConfig#PREFLIGHT_ANALYZER} is not enabled
+     */
+    @Nullable
+    public static PreflightAnalyzer get(@Nonnull ResourceConfig resourceConfig) {
+        Object analyzer = resourceConfig.getProperties().get(PROPERTY);
+        return analyzer instanceof PreflightAnalyzer ? (PreflightAnalyzer) analyzer : null;
+    }
+
+    /**
+     * @param resourceConfig the Jersey application's ResourceConfig
+     * @param sampleRate     track one in this many sources
+     * @param maxSources     most sources to track
+     * @param name           name to register the MBean under
+     * @return the application's analyzer, created and registered with JMX if necessary
+     */
+    @Nonnull
+    static PreflightAnalyzer getOrCreate(@Nonnull ResourceConfig resourceConfig, int sampleRate, int maxSources,
+        @Nonnull String name) {
+        synchronized (PreflightAnalyzer.class) {
+            PreflightAnalyzer analyzer = get(resourceConfig);
+            if (analyzer == null) {
+                analyzer = new PreflightAnalyzer(sampleRate, maxSources, Ticker.systemTicker());
+                resourceConfig.getProperties().put(PROPERTY, analyzer);
+                analyzer.register(name);
+            }
+            return analyzer;
+        }
+    }
+
+    /**
+     * @param origin         the preflight's Origin
+     * @param requestMethod  its Access-Control-Request-Method
+     * @param requestHeaders its Access-Control-Request-Headers, if any
+     * @return true if preflights like this one are to be recorded
+     */
+    boolean isSampled(@Nonnull String origin, @Nonnull String requestMethod, @Nullable String requestHeaders) {
+        if (sampleRate == 1) {
+            return true;
+        }
+
+        int h = origin.hashCode();
+        h = 31 * h + requestMethod.hashCode();
+        h = 31 * h + (requestHeaders == null ? 0 : requestHeaders.hashCode());
+        // spread the bits, as the low bits of string hash codes of similar strings are much alike
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % sampleRate == 0;
+    }
+
+    /**
+     * Record a sampled preflight.
+     *
+     * @param path           request path
+     * @param origin         the preflight's Origin
+     * @param requestMethod  its Access-Control-Request-Method
+     * @param requestHeaders its Access-Control-Request-Headers, if any
+     * @param rejected       true if it was refused for asking for a method or headers that aren't allowed
+     * @param maxAge         the maxAge it was answered with
+     * @param allowMethods   the allowed methods of the filter that answered it
+     * @param allowHeaders   the allowed headers of the filter that answered it
+     */
+    void record(@Nonnull String path, @Nonnull String origin, @Nonnull String requestMethod,
+        @Nullable String requestHeaders, boolean rejected, int maxAge, @Nonnull String allowMethods,
+        @Nonnull String allowHeaders) {
+        sampled.incrementAndGet();
+
+        Source source = new Source(path, origin, requestMethod, normalizeHeaders(requestHeaders));
+        SourceStats stats = sources.get(source);
+        if (stats == null) {
+            if (sourceCount.incrementAndGet() > maxSources) {
+                sourceCount.decrementAndGet();
+                untracked.incrementAndGet();
+                return;
+            }
+            stats = new SourceStats();
+            SourceStats existing = sources.putIfAbsent(source, stats);
+            if (existing != null) {
+                sourceCount.decrementAndGet();
+                stats = existing;
+            }
+        }
+
+        stats.record(ticker.read(), rejected, maxAge, allowMethods, allowHeaders);
+    }
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset() {
+        sources.clear();
+        sourceCount.set(0);
+        sampled.set(0);
+        untracked.set(0);
+    }
+
+    @Override
+    public PreflightReport getReport() {
+        return getReport(JMX_REPORT_SOURCES);
+    }
+
+    /**
+     * @param limit most sources to include
+     * @return the sources with the most preflights, with suggestions for avoiding them
+     */
+    @Nonnull
+    public PreflightReport getReport(int limit) {
+        List<Map.Entry<Source, SourceSnapshot>> all = newArrayList();
+        for (Map.Entry<Source, SourceStats> e : sources.entrySet()) {
+            all.add(new AbstractMap.SimpleImmutableEntry<Source, SourceSnapshot>(e.getKey(), e.getValue().snapshot()));
+        }
+        Collections.sort(all, new Comparator<Map.Entry<Source, SourceSnapshot>>() {
+            @Override
+            public int compare(Map.Entry<Source, SourceSnapshot> o1, Map.Entry<Source, SourceSnapshot> o2) {
+                long c1 = o1.getValue().preflights;
+                long c2 = o2.getValue().preflights;
+                return c1 < c2 ? 1 : c1 > c2 ? -1 : o1.getKey().compareTo(o2.getKey());
+            }
+        });
+
+        List<PreflightSource> top = newArrayList();
+        for (Map.Entry<Source, SourceSnapshot> e : all.subList(0, Math.min(limit, all.size()))) {
+            top.add(toReport(e.getKey(), e.getValue()));
+        }
+
+        long sampledCount = sampled.get();
+        long untrackedCount = untracked.get();
+        return new PreflightReport(sampleRate, sampledCount * sampleRate, untrackedCount * sampleRate, top,
+            getGeneralSuggestions(all, untrackedCount));
+    }
+
+    @Nonnull
+    private PreflightSource toReport(Source source, SourceSnapshot s) {
+        List<String> suggestions = newArrayList();
+
+        SortedSet<String> missingHeaders = newTreeSet();
+        Set<String> allowed = newTreeSet(String.CASE_INSENSITIVE_ORDER);
+        allowed.addAll(splitHeaders(s.allowHeaders));
+        for (String header : splitHeaders(source.requestHeaders)) {
+            if (!allowed.contains(header)) {
+                missingHeaders.add(header);
+            }
+        }
+        if (!missingHeaders.isEmpty()) {
+            suggestions.add("Add " + Joiner.on(',').join(missingHeaders) +
+                " to allowHeaders, or stop sending them: browsers refuse the request after this preflight");
+        }
+
+        if (!splitHeaders(s.allowMethods).contains(source.requestMethod)) {
+            suggestions.add("Add " + source.requestMethod +
+                " to allowMethods: browsers refuse the request after this preflight");
+        }
+
+        if (s.maxAge < BROWSER_MAX_AGE_CAP && s.preflights > 1) {
+            suggestions.add("Raise maxAge from " + s.maxAge + " to " + BROWSER_MAX_AGE_CAP +
+                ": each browser sends this preflight again every " + s.maxAge + " seconds");
+        }
+
+        if (s.repeats * 2 > s.preflights && s.preflights >= 10) {
+            suggestions.add(s.repeats + " of " + s.preflights + " sampled preflights came within maxAge of the " +
+                "previous one. That is expected if many clients share the origin; otherwise the clients' preflight " +
+                "cache isn't being used (e.g. it is disabled, or responses differ between requests)");
+        }
+
+        if (SIMPLE_METHODS.contains(source.requestMethod) && !source.requestHeaders.isEmpty()) {
+            suggestions.add(source.requestMethod + " requests need no preflight if they send only safelisted headers " +
+                "(and for POST, a form or text/plain Content-Type); sending " + source.requestHeaders +
+                " is what causes this one");
+        }
+
+        return new PreflightSource(source.path, source.origin, source.requestMethod, source.requestHeaders,
+            s.preflights * sampleRate, s.repeats * sampleRate, s.rejected * sampleRate, s.maxAge, suggestions);
+    }
+
+    @Nonnull
+    private List<String> getGeneralSuggestions(List<Map.Entry<Source, SourceSnapshot>> all, long untrackedCount) {
+        List<String> suggestions = newArrayList();
+
+        // group by everything but the path
+        Map<Source, Integer> paths = newHashMap();
+        for (Map.Entry<Source, SourceSnapshot> e : all) {
+            Source source = e.getKey();
+            Source group = new Source("", source.origin, source.requestMethod, source.requestHeaders);
+            Integer count = paths.get(group);
+            paths.put(group, count == null ? 1 : count + 1);
+        }
+        List<Source> groups = newArrayList(paths.keySet());
+        Collections.sort(groups);
+        for (Source group : groups) {
+            int count = paths.get(group);
+            if (count >= MANY_PATHS) {
+                suggestions.add(group.origin + " sent " + group.requestMethod + " preflights" +
+                    (group.requestHeaders.isEmpty() ? "" : " with " + group.requestHeaders) + " for " + count +
+                    " distinct paths. Browsers cache preflights per URL, so maxAge can't help much here; only " +
+                    "avoiding the preflight altogether can");
+            }
+        }
+
+        if (untrackedCount > 0) {
+            suggestions.add(untrackedCount * sampleRate + " preflights were not tracked because " + maxSources +
+                " sources already were; raise " + CorsConfig.PREFLIGHT_ANALYZER_MAX_SOURCES +
+                " or the sample rate to see them");
+        }
+        return suggestions;
+    }
+
+    /**
+     * @param headers comma-separated header names, if any
+     * @return the names in lower case, sorted and comma-separated, as browsers send them
+     */
+    @Nonnull
+    static String normalizeHeaders(@Nullable String headers) {
+        if (headers == null) {
+            return "";
+        }
+        SortedSet<String> names = newTreeSet();
+        for (String header : splitHeaders(headers)) {
+            names.add(header.toLowerCase(Locale.ROOT));
+        }
+        return Joiner.on(',').join(names);
+    }
+
+    @Nonnull
+    private static List<String> splitHeaders(String headers) {
+        return newArrayList(Splitter.on(',').trimResults().omitEmptyStrings().split(headers));
+    }
+
+    private void register(String name) {
+        try {
+            Hashtable<String, String> properties = new Hashtable<String, String>();
+            properties.put("type", "PreflightAnalyzer");
+            properties.put("name", name);
+            ObjectName objectName = new ObjectName(getClass().getPackage().getName(), properties);
+
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(objectName)) {
+                // most likely left behind by an earlier instance of the same application
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            logger.warn("Could not register preflight analyzer MBean", e);
+        }
+    }
+
+    /**
+     * What a preflight came from and asked for.
+     */
+    @Immutable
+    private static final class Source implements Comparable<Source> {
+        final String path;
+        final String origin;
+        final String requestMethod;
+        /**
+         * Normalized with {@link #normalizeHeaders(String)}
+         */
+        final String requestHeaders;
+
+        private Source(String path, String origin, String requestMethod, String requestHeaders) {
+            this.path = path;
+            this.origin = origin;
+            this.requestMethod = requestMethod;
+            this.requestHeaders = requestHeaders;
+        }
+
+        @Override
+        public int compareTo(Source o) {
+            int c = path.compareTo(o.path);
+            if (c == 0) {
+                c = origin.compareTo(o.origin);
+            }
+            if (c == 0) {
+                c = requestMethod.compareTo(o.requestMethod);
+            }
+            return c == 0 ? requestHeaders.compareTo(o.requestHeaders) : c;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Source)) {
+                return false;
+            }
+            Source that = (Source) o;
+            return path.equals(that.path) && origin.equals(that.origin) && requestMethod.equals(that.requestMethod) &&
+                requestHeaders.equals(that.requestHeaders);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(path, origin, requestMethod, requestHeaders);
+        }
+    }
+
+    /**
+     * Counts for one source.
+     */
+    @ThreadSafe
+    private static final class SourceStats {
+        final AtomicLong preflights = new AtomicLong();
+        final AtomicLong repeats = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        /**
+         * Ticker time of the last preflight
+         */
+        final AtomicLong lastNanos = new AtomicLong(Long.MIN_VALUE);
+
+        /**
+         * What the last preflight was answered with; the policy only changes if it is reloaded
+         */
+        volatile int maxAge;
+        volatile String allowMethods = "";
+        volatile String allowHeaders = "";
+
+        void record(long nowNanos, boolean rejected, int maxAge, String allowMethods, String allowHeaders) {
+            preflights.incrementAndGet();
+            long last = lastNanos.getAndSet(nowNanos);
+            if (last != Long.MIN_VALUE && nowNanos - last < TimeUnit.SECONDS.toNanos(maxAge)) {
+                repeats.incrementAndGet();
+            }
+            if (rejected) {
+                this.rejected.incrementAndGet();
+            }
+            this.maxAge = maxAge;
+            this.allowMethods = allowMethods;
+            this.allowHeaders = allowHeaders;
+        }
+
+        SourceSnapshot snapshot() {
+            return new SourceSnapshot(preflights.get(), repeats.get(), rejected.get(), maxAge, allowMethods,
+                allowHeaders);
+        }
+    }
+
+    @Immutable
+    private static final class SourceSnapshot {
+        final long preflights;
+        final long repeats;
+        final long rejected;
+        final int maxAge;
+        final String allowMethods;
+        final String allowHeaders;
+
+        private SourceSnapshot(long preflights, long repeats, long rejected, int maxAge, String allowMethods,
+            String allowHeaders) {
+            this.preflights = preflights;
+            this.repeats = repeats;
+            this.rejected = rejected;
+            this.maxAge = maxAge;
+            this.allowMethods = allowMethods;
+            this.allowHeaders = allowHeaders;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.palominolabs.jersey.cors;
+
+/**
+ * JMX view of {@link PreflightAnalyzer}, registered as com.palominolabs.jersey.cors:type=PreflightAnalyzer,name=(the
+ * value of {@link CorsConfig#METRICS_NAME}).
+ */
+public interface PreflightAnalyzerMXBean {
+
+    /**
+     * @return the top 20 preflight sources, with suggestions
+     */
+    PreflightReport getReport();
+
+    /**
+     * Forget everything recorded so far.
+     */
+    void reset();
+}
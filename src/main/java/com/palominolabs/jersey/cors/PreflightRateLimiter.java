@@ -0,0 +1,248 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.base.Ticker;
+import com.sun.jersey.api.core.ResourceConfig;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Per-origin token buckets for preflights, enabled with {@link CorsConfig#PREFLIGHT_RATE_LIMIT}, so that a client
+ * ignoring Access-Control-Max-Age can't tie up the server answering the same preflight over and over. Preflights over
+ * the limit are answered with a 429.
+ *
+ * Each origin may send {@link CorsConfig#PREFLIGHT_RATE_LIMIT_BURST} preflights at once, and one more every 1/rate
+ * seconds after that. A bucket is kept as the single time at which it will be full again (the generic cell rate
+ * algorithm), so taking a token is one compare-and-set and neither locks nor allocates.
+ *
+ * Buckets live in a fixed number of slots, grouped by origin hash into buckets of 4 as in {@link OriginDecisionCache}.
+ * A bucket that has filled up again is idle: dropping it changes nothing, since a new bucket starts full, so a new
+ * origin takes the slot of an idle one. Origins that send a single preflight are idle again after 1/rate seconds, so
+ * junk origins don't stay around. Origins that find every slot of their bucket busy, and origins longer than
+ * {@link OriginDecisionCache#MAX_ORIGIN_LENGTH}, share one overflow bucket, which errs on the side of limiting them
+ * when the table is full of origins that are all sending preflights.
+ */
+@ThreadSafe
+final class PreflightRateLimiter {
+
+    /**
+     * ResourceConfig property the instance is kept in, so that every filter created for the same Jersey application
+     * shares it
+     */
+    private static final String PROPERTY = PreflightRateLimiter.class.getName();
+
+    private static final int WAYS = 4;
+
+    static final int LIMITED = 0;
+    static final int OVERFLOWS = 1;
+    static final int EVICTIONS = 2;
+
+    /**
+     * Nanoseconds it takes to earn a token
+     */
+    private final long interval;
+
+    /**
+     * Nanoseconds it takes to fill an empty bucket
+     */
+    private final long capacity;
+
+    private final Ticker ticker;
+
+    private final AtomicReferenceArray<Bucket> slots;
+
+    /**
+     * Mask giving the first slot of the bucket for a hash
+     */
+    private final int bucketMask;
+
+    /**
+     * Shared by the origins that don't get a slot of their own
+     */
+    private final Bucket overflow;
+
+    private final StripedCounters counters = new StripedCounters();
+
+    /**
+     * @param rate       preflights per second each origin may send
+     * @param burst      preflights each origin may send at once
+     * @param maxOrigins most origins to keep buckets for; rounded down to a power of two, and at least 4
+     * @param ticker     time source
+     */
+    PreflightRateLimiter(int rate, int burst, int maxOrigins, @Nonnull Ticker ticker) {
+        if (rate < 1) {
+            throw new IllegalArgumentException("Preflight rate limit must be at least 1: " + rate);
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Preflight rate limit burst must be at least 1: " + burst);
+        }
+        if (maxOrigins < 0) {
+            throw new IllegalArgumentException("Preflight rate limit origins must not be negative: " + maxOrigins);
+        }
+        this.ticker = ticker;
+        interval = TimeUnit.SECONDS.toNanos(1) / rate;
+        capacity = interval * burst;
+        int size = Integer.highestOneBit(Math.max(WAYS, maxOrigins));
+        slots = new AtomicReferenceArray<Bucket>(size);
+        bucketMask = (size - 1) & ~(WAYS - 1);
+        overflow = new Bucket("", 0, ticker.read());
+    }
+
+    /**
+     * @param resourceConfig the Jersey application's ResourceConfig
+     * @param rate           preflights per second each origin may send
+     * @param burst          preflights each origin may send at once
+     * @param maxOrigins     most origins to keep buckets for
+     * @return the application's limiter, created if necessary
+     */
+    @Nonnull
+    static PreflightRateLimiter getOrCreate(@Nonnull ResourceConfig resourceConfig, int rate, int burst,
+        int maxOrigins) {
+        synchronized (PreflightRateLimiter.class) {
+            Object limiter = resourceConfig.getProperties().get(PROPERTY);
+            if (limiter instanceof PreflightRateLimiter) {
+                return (PreflightRateLimiter) limiter;
+            }
+            PreflightRateLimiter created = new PreflightRateLimiter(rate, burst, maxOrigins, Ticker.systemTicker());
+            resourceConfig.getProperties().put(PROPERTY, created);
+            return created;
+        }
+    }
+
+    /**
+     * Take a token from the origin's bucket.
+     *
+     * @param origin the preflight's Origin
+     * @return true if the preflight is within the limit, false if it should be answered with a 429
+     */
+    boolean tryAcquire(@Nonnull String origin) {
+        long now = ticker.read();
+        Bucket bucket = find(origin, now);
+        if (bucket.tryAcquire(now, interval, capacity)) {
+            return true;
+        }
+        counters.add(LIMITED, 1);
+        return false;
+    }
+
+    /**
+     * @param origin origin
+     * @param now    current time
+     * @return the origin's bucket, given a slot if it has none and there is one to take, or the overflow bucket
+     */
+    @Nonnull
+    private Bucket find(String origin, long now) {
+        if (origin.length() > OriginDecisionCache.MAX_ORIGIN_LENGTH) {
+            return overflow;
+        }
+
+        int hash = origin.hashCode();
+        int first = OriginDecisionCache.spread(hash) & bucketMask;
+        int empty = -1;
+        int idle = -1;
+        Bucket idleBucket = null;
+        for (int i = first; i < first + WAYS; i++) {
+            Bucket b = slots.get(i);
+            if (b == null) {
+                empty = empty < 0 ? i : empty;
+            } else if (b.hash == hash && b.origin.equals(origin)) {
+                return b;
+            } else if (idle < 0 && b.isFull(now)) {
+                idle = i;
+                idleBucket = b;
+            }
+        }
+
+        int free = empty >= 0 ? empty : idle;
+        if (free >= 0) {
+            // a thread racing to admit the same origin may get a slot too, which costs the origin at most one burst
+            Bucket replaced = empty >= 0 ? null : idleBucket;
+            Bucket bucket = new Bucket(origin, hash, now);
+            if (slots.compareAndSet(free, replaced, bucket)) {
+                if (replaced != null) {
+                    counters.add(EVICTIONS, 1);
+                }
+                return bucket;
+            }
+        }
+
+        counters.add(OVERFLOWS, 1);
+        return overflow;
+    }
+
+    /**
+     * @param counter {@link #LIMITED}, {@link #OVERFLOWS} or {@link #EVICTIONS}
+     * @return the counter's value
+     */
+    long getCount(int counter) {
+        return counters.sum(counter);
+    }
+
+    /**
+     * @return number of origins with a bucket; counted by scanning the table, so not for use per request
+     */
+    int size() {
+        int size = 0;
+        for (int i = 0; i < slots.length(); i++) {
+            if (slots.get(i) != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return number of slots
+     */
+    int capacity() {
+        return slots.length();
+    }
+
+    @ThreadSafe
+    private static final class Bucket {
+
+        private static final AtomicLongFieldUpdater<Bucket> FULL_AT =
+            AtomicLongFieldUpdater.newUpdater(Bucket.class, "fullAt");
+
+        private final String origin;
+
+        private final int hash;
+
+        /**
+         * Ticker time at which the bucket is full again
+         */
+        private volatile long fullAt;
+
+        private Bucket(String origin, int hash, long now) {
+            this.origin = origin;
+            this.hash = hash;
+            this.fullAt = now;
+        }
+
+        /**
+         * @param now      current time
+         * @param interval nanoseconds per token
+         * @param capacity nanoseconds to fill the bucket
+         * @return true if a token was taken
+         */
+        boolean tryAcquire(long now, long interval, long capacity) {
+            while (true) {
+                long current = fullAt;
+                long next = (current - now > 0 ? current : now) + interval;
+                if (next - now > capacity) {
+                    return false;
+                }
+                if (FULL_AT.compareAndSet(this, current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean isFull(long now) {
+            return fullAt - now <= 0;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.beans.ConstructorProperties;
+import java.util.List;
+
+/**
+ * What {@link PreflightAnalyzer} has recorded, as of when the report was made. Counts are estimates: they are scaled
+ * up by the sample rate.
+ */
+@Immutable
+public final class PreflightReport {
+
+    private final int sampleRate;
+    private final long preflights;
+    private final long untrackedPreflights;
+    private final List<PreflightSource> sources;
+    private final List<String> suggestions;
+
+    @ConstructorProperties({"sampleRate", "preflights", "untrackedPreflights", "sources", "suggestions"})
+    public PreflightReport(int sampleRate, long preflights, long untrackedPreflights,
+        @Nonnull List<PreflightSource> sources, @Nonnull List<String> suggestions) {
+        this.sampleRate = sampleRate;
+        this.preflights = preflights;
+        this.untrackedPreflights = untrackedPreflights;
+        this.sources = ImmutableList.copyOf(sources);
+        this.suggestions = ImmutableList.copyOf(suggestions);
+    }
+
+    /**
+     * @return one in this many sources is recorded
+     */
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * @return preflights answered
+     */
+    public long getPreflights() {
+        return preflights;
+    }
+
+    /**
+     * @return preflights whose sources weren't tracked because the analyzer was full
+     */
+    public long getUntrackedPreflights() {
+        return untrackedPreflights;
+    }
+
+    /**
+     * @return the sources with the most preflights, most first
+     */
+    @Nonnull
+    public List<PreflightSource> getSources() {
+        return sources;
+    }
+
+    /**
+     * @return suggestions that concern more than one source
+     */
+    @Nonnull
+    public List<String> getSuggestions() {
+        return suggestions;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(preflights).append(" preflights (sampled 1 in ").append(sampleRate).append(")\n");
+        for (PreflightSource source : sources) {
+            sb.append(source).append('\n');
+            for (String suggestion : source.getSuggestions()) {
+                sb.append("    - ").append(suggestion).append('\n');
+            }
+        }
+        for (String suggestion : suggestions) {
+            sb.append("- ").append(suggestion).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,115 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import java.beans.ConstructorProperties;
+import java.util.List;
+
+/**
+ * The preflights for one (path, origin, requested method, requested headers) tuple, in a {@link PreflightReport}.
+ */
+@Immutable
+public final class PreflightSource {
+
+    private final String path;
+    private final String origin;
+    private final String requestMethod;
+    private final String requestHeaders;
+    private final long preflights;
+    private final long repeats;
+    private final long rejected;
+    private final int maxAge;
+    private final List<String> suggestions;
+
+    @ConstructorProperties({"path", "origin", "requestMethod", "requestHeaders", "preflights", "repeats", "rejected",
+        "maxAge", "suggestions"})
+    public PreflightSource(@Nonnull String path, @Nonnull String origin, @Nonnull String requestMethod,
+        @Nonnull String requestHeaders, long preflights, long repeats, long rejected, int maxAge,
+        @Nonnull List<String> suggestions) {
+        this.path = path;
+        this.origin = origin;
+        this.requestMethod = requestMethod;
+        this.requestHeaders = requestHeaders;
+        this.preflights = preflights;
+        this.repeats = repeats;
+        this.rejected = rejected;
+        this.maxAge = maxAge;
+        this.suggestions = ImmutableList.copyOf(suggestions);
+    }
+
+    /**
+     * @return request path, without leading or trailing slashes
+     */
+    @Nonnull
+    public String getPath() {
+        return path;
+    }
+
+    @Nonnull
+    public String getOrigin() {
+        return origin;
+    }
+
+    /**
+     * @return the Access-Control-Request-Method
+     */
+    @Nonnull
+    public String getRequestMethod() {
+        return requestMethod;
+    }
+
+    /**
+     * @return the Access-Control-Request-Headers in lower case and sorted, or "" if there were none
+     */
+    @Nonnull
+    public String getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    /**
+     * @return preflights answered
+     */
+    public long getPreflights() {
+        return preflights;
+    }
+
+    /**
+     * @return preflights that came within maxAge of the previous one, which a browser with the answer cached wouldn't
+     *         have sent
+     */
+    public long getRepeats() {
+        return repeats;
+    }
+
+    /**
+     * @return preflights refused for asking for a method or headers that aren't allowed (only with
+     *         {@link CorsConfig#VALIDATE_PREFLIGHT})
+     */
+    public long getRejected() {
+        return rejected;
+    }
+
+    /**
+     * @return the maxAge the last preflight was answered with
+     */
+    public int getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * @return ways to avoid these preflights
+     */
+    @Nonnull
+    public List<String> getSuggestions() {
+        return suggestions;
+    }
+
+    @Override
+    public String toString() {
+        return preflights + " x OPTIONS /" + path + " from " + origin + " for " + requestMethod +
+            (requestHeaders.isEmpty() ? "" : " with " + requestHeaders) + " (" + repeats + " within maxAge " + maxAge +
+            ", " + rejected + " rejected)";
+    }
+}
@@ -0,0 +1,76 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The filter handed to Jersey when a policy file is configured. Jersey keeps the filters it gets at startup, so this
+ * stays the same while the filter it delegates to is looked up in the current {@link PolicySnapshot} on each request:
+ * one volatile read and an array access. Request filters are delegated the same way, since whether a filter has one
+ * (to reject disallowed origins, say) can depend on the policy.
+ */
+@Immutable
+final class ReloadableResourceFilter implements CorsHeaderFilter {
+
+    private final AtomicReference<PolicySnapshot> snapshot;
+
+    private final int index;
+
+    private final ContainerRequestFilter requestFilter = new ContainerRequestFilter() {
+        @Override
+        public ContainerRequest filter(ContainerRequest request) {
+            ContainerRequestFilter current = getCurrent().getRequestFilter();
+            return current == null ? request : current.filter(request);
+        }
+    };
+
+    private final ContainerResponseFilter responseFilter = new ContainerResponseFilter() {
+        @Override
+        public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+            getCurrent().addHeaders(request, HeaderReader.CONTAINER_REQUEST, request.getHeaderValue(CorsHeaders.ORIGIN),
+                response.getHttpHeaders());
+            return response;
+        }
+    };
+
+    /**
+     * @param snapshot current snapshot
+     * @param index    index of the filter to delegate to in each snapshot
+     */
+    ReloadableResourceFilter(@Nonnull AtomicReference<PolicySnapshot> snapshot, int index) {
+        this.snapshot = snapshot;
+        this.index = index;
+    }
+
+    @Override
+    public ContainerRequestFilter getRequestFilter() {
+        return requestFilter;
+    }
+
+    @Override
+    public ContainerResponseFilter getResponseFilter() {
+        return responseFilter;
+    }
+
+    @Override
+    public <R> int addHeaders(@Nonnull R request, @Nonnull HeaderReader<? super R> reader,
+        @Nullable String incomingOrigin, @Nonnull MultivaluedMap<String, Object> h) {
+        return getCurrent().addHeaders(request, reader, incomingOrigin, h);
+    }
+
+    /**
+     * @return the filter to delegate to under the current policy
+     */
+    @Nonnull
+    CorsHeaderFilter getCurrent() {
+        return snapshot.get().get(index);
+    }
+}
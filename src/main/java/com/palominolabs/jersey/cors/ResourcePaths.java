@@ -0,0 +1,119 @@
+package com.palominolabs.jersey.cors;
+
+import com.sun.jersey.api.core.ResourceConfig;
+import com.sun.jersey.api.model.AbstractResource;
+import com.sun.jersey.api.model.AbstractResourceMethod;
+import com.sun.jersey.api.model.AbstractSubResourceMethod;
+import com.sun.jersey.server.impl.modelapi.annotation.IntrospectionModeller;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.ws.rs.HttpMethod;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newHashSet;
+import static com.google.common.collect.Sets.newTreeSet;
+import static com.palominolabs.jersey.cors.PathPatternTrie.normalize;
+
+/**
+ * Groups the resource methods of every root resource known to a ResourceConfig by path, for the features that need to
+ * know the whole application's paths at startup rather than one resource method at a time.
+ */
+final class ResourcePaths {
+
+    private ResourcePaths() {
+    }
+
+    /**
+     * @param resourceConfig resource config
+     * @param registry       registry that decides which methods get a {@link Cors} filter
+     * @return the methods for each path, keyed by path without leading or trailing slashes
+     */
+    @Nonnull
+    static Map<String, PathMethods> collect(@Nonnull ResourceConfig resourceConfig,
+        @Nonnull CorsFilterRegistry registry) {
+        Set<Class<?>> classes = newHashSet(resourceConfig.getRootResourceClasses());
+        for (Object singleton : resourceConfig.getRootResourceSingletons()) {
+            classes.add(singleton.getClass());
+        }
+
+        Map<String, PathMethods> paths = newHashMap();
+        for (Class<?> klass : classes) {
+            AbstractResource resource = IntrospectionModeller.createResource(klass);
+            for (AbstractResourceMethod method : resource.getResourceMethods()) {
+                String path = getPath(method);
+                getPathMethods(paths, path, klass).add(method, registry.isCorsMethod(method.getMethod(), path));
+            }
+
+            for (AbstractSubResourceMethod method : resource.getSubResourceMethods()) {
+                String path = getPath(method);
+                getPathMethods(paths, path, klass).add(method, registry.isCorsMethod(method.getMethod(), path));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @param method resource method
+     * @return the method's path, without leading or trailing slashes, or null if it isn't a method of a root resource
+     *         and so has no fixed path
+     */
+    @Nullable
+    static String getPath(@Nonnull AbstractResourceMethod method) {
+        AbstractResource resource = method.getResource();
+        if (!resource.isRootResource()) {
+            return null;
+        }
+
+        String rootPath = normalize(resource.getPath().getValue());
+        if (method instanceof AbstractSubResourceMethod) {
+            return normalize(rootPath + "/" + normalize(((AbstractSubResourceMethod) method).getPath().getValue()));
+        }
+        return rootPath;
+    }
+
+    private static PathMethods getPathMethods(Map<String, PathMethods> paths, String path, Class<?> klass) {
+        PathMethods pathMethods = paths.get(path);
+        if (pathMethods == null) {
+            pathMethods = new PathMethods(klass);
+            paths.put(path, pathMethods);
+        }
+        return pathMethods;
+    }
+
+    /**
+     * The resource methods declared for one path.
+     */
+    @NotThreadSafe
+    static final class PathMethods {
+        /**
+         * The first resource class seen for the path
+         */
+        final Class<?> klass;
+        final List<AbstractResourceMethod> methods = newArrayList();
+        /**
+         * HTTP methods of the methods that {@link CorsResourceFilterFactory} adds a {@link Cors} filter to
+         */
+        final SortedSet<String> corsMethods = newTreeSet();
+        boolean hasOptions;
+
+        private PathMethods(Class<?> klass) {
+            this.klass = klass;
+        }
+
+        void add(AbstractResourceMethod method, boolean isCorsMethod) {
+            methods.add(method);
+            if (HttpMethod.OPTIONS.equals(method.getHttpMethod())) {
+                hasOptions = true;
+            } else if (isCorsMethod) {
+                corsMethods.add(method.getHttpMethod());
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.HttpMethod;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.collect.Maps.newConcurrentMap;
+
+/**
+ * The filters for an application's root resource methods, keyed by path and HTTP method, as exported by
+ * {@link CorsResourceFilterFactory} for {@link CorsServletFilter} (see {@link CorsConfig#SERVLET_FILTER}).
+ *
+ * Exports are published by name in a JVM-wide registry, since the servlet filter and the Jersey servlet are set up
+ * independently by the container and have no other way to find each other. The servlet filter holds on to the
+ * reference for its name, so an application that is redeployed exports its new routes to the same filter.
+ */
+@Immutable
+final class ServletRoutes {
+
+    private static final ConcurrentMap<String, AtomicReference<ServletRoutes>> exports = newConcurrentMap();
+
+    private final PathTable<Route> routes;
+
+    /**
+     * @param routes routes keyed by path, without leading or trailing slashes
+     */
+    ServletRoutes(@Nonnull Map<String, Route> routes) {
+        this.routes = new PathTable<Route>(routes);
+    }
+
+    /**
+     * @param name export name
+     * @return the reference that routes are exported to under the name; it holds null until they are
+     */
+    @Nonnull
+    static AtomicReference<ServletRoutes> getExport(@Nonnull String name) {
+        AtomicReference<ServletRoutes> export = exports.get(name);
+        if (export == null) {
+            export = new AtomicReference<ServletRoutes>();
+            AtomicReference<ServletRoutes> existing = exports.putIfAbsent(name, export);
+            if (existing != null) {
+                export = existing;
+            }
+        }
+        return export;
+    }
+
+    /**
+     * @param path request path, without leading or trailing slashes
+     * @return the route for the path, or null if it doesn't match an exported path
+     */
+    @Nullable
+    Route get(@Nonnull String path) {
+        return routes.get(path);
+    }
+
+    /**
+     * The filters for one path.
+     */
+    @Immutable
+    static final class Route {
+
+        /**
+         * Filters keyed by HTTP method, for the methods that have one
+         */
+        private final Map<String, CorsHeaderFilter> filters;
+
+        /**
+         * Preflight filter used if there is no @OPTIONS method, or null if preflights are left to Jersey
+         */
+        private final CorsHeaderFilter autoPreflight;
+
+        /**
+         * true if a HEAD request would be dispatched to a GET method
+         */
+        private final boolean headUsesGet;
+
+        Route(@Nonnull Map<String, CorsHeaderFilter> filters, @Nullable CorsHeaderFilter autoPreflight,
+            boolean headUsesGet) {
+            this.filters = ImmutableMap.copyOf(filters);
+            this.autoPreflight = autoPreflight;
+            this.headUsesGet = headUsesGet;
+        }
+
+        /**
+         * @param httpMethod request method
+         * @return the filter for requests with the method, or null if Jersey is to handle them alone
+         */
+        @Nullable
+        CorsHeaderFilter getFilter(@Nonnull String httpMethod) {
+            CorsHeaderFilter filter = filters.get(httpMethod);
+            if (filter == null && headUsesGet && HttpMethod.HEAD.equals(httpMethod)) {
+                return filters.get(HttpMethod.GET);
+            }
+            return filter;
+        }
+
+        /**
+         * @return the filter for preflights, or null if Jersey is to handle them alone
+         */
+        @Nullable
+        CorsHeaderFilter getPreflightFilter() {
+            CorsHeaderFilter filter = filters.get(HttpMethod.OPTIONS);
+            return filter == null ? autoPreflight : filter;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.palominolabs.jersey.cors;
+
+import com.google.common.collect.ImmutableMap;
+import com.sun.jersey.spi.container.ContainerRequest;
+import com.sun.jersey.spi.container.ContainerRequestFilter;
+import com.sun.jersey.spi.container.ContainerResponse;
+import com.sun.jersey.spi.container.ContainerResponseFilter;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.Locale;
+
+/**
+ * The filter handed out when {@link CorsConfig#TENANTS} is set. It holds the method's filter resolved against each
+ * tenant's defaults, all built at startup, and delegates to the one for the request's Host header: a single lookup in
+ * an immutable map, with every header value already rendered. Requests to other hosts, or without a Host, get the
+ * filter resolved against the application's own defaults.
+ */
+@Immutable
+final class TenantResourceFilter implements CorsHeaderFilter {
+
+    /**
+     * Filters keyed by lowercase host, with the port if it isn't the default
+     */
+    private final ImmutableMap<String, CorsHeaderFilter> tenants;
+
+    private final CorsHeaderFilter defaultFilter;
+
+    /**
+     * null if none of the filters has a request filter
+     */
+    @Nullable
+    private final ContainerRequestFilter requestFilter;
+
+    private final ContainerResponseFilter responseFilter = new ContainerResponseFilter() {
+        @Override
+        public ContainerResponse filter(ContainerRequest request, ContainerResponse response) {
+            addHeaders(request, HeaderReader.CONTAINER_REQUEST, request.getHeaderValue(CorsHeaders.ORIGIN),
+                response.getHttpHeaders());
+            return response;
+        }
+    };
+
+    /**
+     * @param tenants       the filter for each tenant, keyed by lowercase host
+     * @param defaultFilter the filter for requests to any other host
+     */
+    TenantResourceFilter(@Nonnull ImmutableMap<String, CorsHeaderFilter> tenants,
+        @Nonnull CorsHeaderFilter defaultFilter) {
+        this.tenants = tenants;
+        this.defaultFilter = defaultFilter;
+
+        boolean hasRequestFilter = defaultFilter.getRequestFilter() != null;
+        for (CorsHeaderFilter filter : tenants.values()) {
+            hasRequestFilter |= filter.getRequestFilter() != null;
+        }
+        requestFilter = !hasRequestFilter ? null : new ContainerRequestFilter() {
+            @Override
+            public ContainerRequest filter(ContainerRequest request) {
+                ContainerRequestFilter current = select(request, HeaderReader.CONTAINER_REQUEST).getRequestFilter();
+                return current == null ? request : current.filter(request);
+            }
+        };
+    }
+
+    @Override
+    public ContainerRequestFilter getRequestFilter() {
+        return requestFilter;
+    }
+
+    @Override
+    public ContainerResponseFilter getResponseFilter() {
+        return responseFilter;
+    }
+
+    @Override
+    public <R> int addHeaders(@Nonnull R request, @Nonnull HeaderReader<? super R> reader,
+        @Nullable String incomingOrigin, @Nonnull MultivaluedMap<String, Object> h) {
+        return select(request, reader).addHeaders(request, reader, incomingOrigin, h);
+    }
+
+    /**
+     * @param request request
+     * @param reader  reader for the request's headers
+     * @param <R>     request type
+     * @return the filter for the request's host
+     */
+    @Nonnull
+    <R> CorsHeaderFilter select(@Nonnull R request, @Nonnull HeaderReader<? super R> reader) {
+        String host = reader.getHeader(request, CorsHeaders.HOST);
+        if (host == null) {
+            return defaultFilter;
+        }
+
+        CorsHeaderFilter filter = tenants.get(host);
+        if (filter != null) {
+            return filter;
+        }
+        // hosts are case-insensitive, but browsers send them in lowercase, so only other clients pay for converting
+        if (hasUpperCase(host)) {
+            filter = tenants.get(host.toLowerCase(Locale.ROOT));
+        }
+        return filter == null ? defaultFilter : filter;
+    }
+
+    private static boolean hasUpperCase(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,205 @@
+package com.palominolabs.jersey.cors
+
+import com.sun.jersey.core.header.InBoundHeaders
+import com.sun.jersey.spi.container.ContainerRequest
+import com.sun.jersey.spi.container.ContainerRequestFilter
+import com.sun.jersey.spi.container.ContainerResponse
+import com.sun.jersey.spi.container.ResourceFilter
+import com.sun.jersey.spi.container.WebApplication
+import com.sun.jersey.spi.container.WebApplicationFactory
+import com.sun.management.ThreadMXBean
+import groovy.transform.CompileStatic
+import java.lang.management.ManagementFactory
+import javax.ws.rs.core.MultivaluedMap
+
+/**
+ * Measures how much a resource filter allocates per request, using the per-thread allocation counter of
+ * {@link ThreadMXBean}. Jersey's own request and response header maps allocate (case-insensitive key lookups, a list
+ * per header), so the filters are run against stand-ins that don't.
+ */
+@CompileStatic
+class AllocationHarness {
+
+  /**
+   * Calls per measurement round
+   */
+  static final int ROUND = 20000
+
+  /**
+   * Rounds to run before giving up on the JIT having compiled (and escape analysis having cleaned up) the filter
+   */
+  static final int MAX_ROUNDS = 20
+
+  /**
+   * Allocated bytes per call above which a filter fails. Anything that really allocates per call, however little,
+   * allocates at least a 16 byte object each time; this leaves room for the odd allocation by the JVM itself.
+   */
+  static final double MAX_BYTES_PER_CALL = 0.1
+
+  static final WebApplication wa = WebApplicationFactory.createWebApplication()
+
+  /**
+   * @return bytes allocated per call of the filter's request filter (if any) and response filter, in the first round
+   *         that stays within {@link #MAX_BYTES_PER_CALL}, or the last round if none does
+   */
+  static double measureBytesPerCall(ResourceFilter filter, StubRequest request) {
+    ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean()
+    long threadId = Thread.currentThread().getId()
+    StubResponse response = new StubResponse(wa, request)
+
+    double bytesPerCall = Double.NaN
+    for (int round = 0; round < MAX_ROUNDS; round++) {
+      long before = threadMXBean.getThreadAllocatedBytes(threadId)
+      for (int i = 0; i < ROUND; i++) {
+        call(filter, request, response)
+      }
+      long after = threadMXBean.getThreadAllocatedBytes(threadId)
+
+      bytesPerCall = (after - before) / (double) ROUND
+      if (bytesPerCall <= MAX_BYTES_PER_CALL) {
+        break
+      }
+    }
+    return bytesPerCall
+  }
+
+  /**
+   * Fail if the filter allocates per call, once warmed up.
+   *
+   * @param description what to name the case in the failure message
+   */
+  static void assertNoAllocation(ResourceFilter filter, StubRequest request, String description) {
+    double bytesPerCall = measureBytesPerCall(filter, request)
+    if (bytesPerCall > MAX_BYTES_PER_CALL) {
+      throw new AssertionError((Object) (description + " allocates " + bytesPerCall + " bytes per call"))
+    }
+  }
+
+  /**
+   * Run a request through the filter the way Jersey would: the request filter first, and the response filter on
+   * whatever response results, including a response the request filter aborts with.
+   */
+  private static void call(ResourceFilter filter, StubRequest request, StubResponse response) {
+    response.headers.clear()
+    ContainerRequestFilter requestFilter = filter.requestFilter
+    if (requestFilter != null) {
+      try {
+        requestFilter.filter(request)
+      } catch (CorsAbortException ignored) {
+        // the response filter still runs on the aborted response
+      }
+    }
+    filter.responseFilter.filter(request, response)
+  }
+
+  /**
+   * Request whose header lookup doesn't allocate.
+   */
+  @CompileStatic
+  static class StubRequest extends ContainerRequest {
+    final String origin
+    final String preflightMethod
+    final String preflightHeaders
+    String host
+
+    StubRequest(WebApplication wa, String origin, String preflightMethod, String preflightHeaders) {
+      super(wa, 'GET', URI.create('http://localhost/'), URI.create('http://localhost/foo'), new InBoundHeaders(),
+          new ByteArrayInputStream(new byte[0]))
+      this.origin = origin
+      this.preflightMethod = preflightMethod
+      this.preflightHeaders = preflightHeaders
+    }
+
+    @Override
+    String getHeaderValue(String name) {
+      if ('Origin'.equals(name)) {
+        return origin
+      }
+      if ('Access-Control-Request-Method'.equals(name)) {
+        return preflightMethod
+      }
+      if ('Host'.equals(name)) {
+        return host
+      }
+      return 'Access-Control-Request-Headers'.equals(name) ? preflightHeaders : null
+    }
+  }
+
+  /**
+   * Response whose header map doesn't allocate.
+   */
+  @CompileStatic
+  static class StubResponse extends ContainerResponse {
+    final FixedHeaders headers = new FixedHeaders()
+
+    StubResponse(WebApplication wa, ContainerRequest request) {
+      super(wa, request, null)
+    }
+
+    @Override
+    MultivaluedMap<String, Object> getHttpHeaders() {
+      return headers
+    }
+  }
+
+  /**
+   * Array-backed, fixed-capacity header map that supports just what the filters use.
+   */
+  @CompileStatic
+  static class FixedHeaders extends AbstractMap<String, List<Object>> implements MultivaluedMap<String, Object> {
+    final String[] names = new String[16]
+    final Object[] values = new Object[16]
+    int count
+
+    @Override
+    boolean containsKey(Object key) {
+      return indexOf((String) key) >= 0
+    }
+
+    @Override
+    void putSingle(String key, Object value) {
+      int i = indexOf(key)
+      if (i < 0) {
+        i = count++
+        names[i] = key
+      }
+      values[i] = value
+    }
+
+    @Override
+    void add(String key, Object value) {
+      putSingle(key, value)
+    }
+
+    @Override
+    List<Object> get(Object key) {
+      int i = indexOf((String) key)
+      return i < 0 ? null : Collections.singletonList(values[i])
+    }
+
+    @Override
+    Object getFirst(String key) {
+      int i = indexOf(key)
+      return i < 0 ? null : values[i]
+    }
+
+    @Override
+    void clear() {
+      count = 0
+    }
+
+    @Override
+    Set<Map.Entry<String, List<Object>>> entrySet() {
+      throw new UnsupportedOperationException()
+    }
+
+    private int indexOf(String key) {
+      for (int i = 0; i < count; i++) {
+        if (names[i].equalsIgnoreCase(key)) {
+          return i
+        }
+      }
+      return -1
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package com.palominolabs.jersey.cors
+
+import com.palominolabs.jersey.cors.AllocationHarness.StubRequest
+import com.sun.jersey.api.core.DefaultResourceConfig
+import com.sun.jersey.api.model.AbstractResource
+import com.sun.jersey.api.model.AbstractResourceMethod
+import com.sun.jersey.server.impl.modelapi.annotation.IntrospectionModeller
+import com.sun.jersey.spi.container.ResourceFilter
+import javax.ws.rs.GET
+import javax.ws.rs.OPTIONS
+import javax.ws.rs.Path
+import org.junit.AfterClass
+import org.junit.BeforeClass
+import org.junit.Test
+
+import static com.palominolabs.jersey.cors.AllocationHarness.wa
+
+/**
+ * Checks that every kind of filter the factory can build allocates nothing per request, by building filters from every
+ * combination of the properties that change which filters (and which code paths in them) a method gets.
+ *
+ * Properties that only affect @Cors filters are combined with each other, and properties that only affect
+ * @CorsPreflight filters with each other, since they can't change how the other kind of filter behaves.
+ */
+class CorsFilterAllocationPermutationTest {
+
+  static final String ALLOWED = 'https://a.foo.com'
+  static final String DISALLOWED = 'https://a.bar.com'
+
+  /**
+   * Ways of configuring the origins to allow
+   */
+  static final List<Map<String, Object>> ORIGIN_MODES = [
+      [(CorsConfig.ALLOWED_ORIGINS): ''],
+      [(CorsConfig.ALLOWED_ORIGINS): 'https://a.foo.com,https://b.foo.com'],
+      [(CorsConfig.ALLOWED_ORIGINS): 'https://*.foo.com', (CorsConfig.ORIGIN_CACHE_SIZE): 64],
+      [(CorsConfig.ALLOWED_ORIGINS): 'https://*.foo.com', (CorsConfig.ORIGIN_CACHE_SIZE): 0],
+  ]
+
+  /**
+   * Ways of wrapping the filter
+   */
+  static final List<Map<String, Object>> WRAPPERS = [
+      [:],
+      [(CorsConfig.METRICS): true],
+      [(CorsConfig.METRICS): true, (CorsConfig.METRICS_LATENCY): true],
+  ]
+
+  static File policyFile
+
+  @BeforeClass
+  static void createPolicyFile() {
+    policyFile = File.createTempFile('cors-allocation', '.properties')
+  }
+
+  @AfterClass
+  static void deletePolicyFile() {
+    policyFile.delete()
+  }
+
+  @Test
+  public void testCorsFiltersDoNotAllocate() {
+    List<StubRequest> requests = [
+        new StubRequest(wa, ALLOWED, null, null),
+        new StubRequest(wa, DISALLOWED, null, null),
+        new StubRequest(wa, null, null, null),
+    ]
+
+    List<List<Map<String, Object>>> dimensions = [ORIGIN_MODES, WRAPPERS, reloadable(),
+        bool(CorsConfig.ALLOW_CREDENTIALS), bool(CorsConfig.REJECT_DISALLOWED_ORIGINS),
+        [[(CorsConfig.EXPOSE_HEADERS): ''], [(CorsConfig.EXPOSE_HEADERS): 'x-foo,x-bar']]]
+    int configs = 0
+    dimensions.combinations().each { List<Map<String, Object>> parts ->
+      assertNoAllocation(merge(parts), 'get', requests)
+      configs++
+    }
+    assert 4 * 3 * 2 * 2 * 2 * 2 == configs
+  }
+
+  @Test
+  public void testPreflightFiltersDoNotAllocate() {
+    List<StubRequest> requests = [
+        new StubRequest(wa, ALLOWED, 'PUT', 'X-Foo, x-bar'),
+        // rejected when validating
+        new StubRequest(wa, ALLOWED, 'DELETE', null),
+        new StubRequest(wa, ALLOWED, 'PUT', 'x-foo,x-qux'),
+        new StubRequest(wa, DISALLOWED, 'PUT', null),
+        // a plain OPTIONS request, not a preflight
+        new StubRequest(wa, ALLOWED, null, null),
+        new StubRequest(wa, null, null, null),
+    ]
+
+    List<List<Map<String, Object>>> dimensions = [ORIGIN_MODES, WRAPPERS, reloadable(),
+        bool(CorsConfig.ALLOW_CREDENTIALS), bool(CorsConfig.SHORT_CIRCUIT_PREFLIGHT),
+        bool(CorsConfig.VALIDATE_PREFLIGHT), analyzer(), [[:], [(CorsConfig.PREFLIGHT_RATE_LIMIT): 1]]]
+    int configs = 0
+    dimensions.combinations().each { List<Map<String, Object>> parts ->
+      assertNoAllocation(merge(parts), 'options', requests)
+      configs++
+    }
+    assert 4 * 3 * 2 * 2 * 2 * 2 * 2 * 2 == configs
+  }
+
+  private static List<Map<String, Object>> bool(String property) {
+    return [[(property): false], [(property): true]]
+  }
+
+  private static List<Map<String, Object>> reloadable() {
+    return [[:], [(CorsConfig.POLICY_FILE): policyFile.path, (CorsConfig.POLICY_FILE_POLL_INTERVAL): 3600000]]
+  }
+
+  /**
+   * Recording a sampled preflight allocates its source key, so the analyzer is only checked with a sample rate that in
+   * practice picks no source, which is the cost every other preflight pays.
+   */
+  private static List<Map<String, Object>> analyzer() {
+    return [[:], [(CorsConfig.PREFLIGHT_ANALYZER): true,
+        (CorsConfig.PREFLIGHT_ANALYZER_SAMPLE_RATE): Integer.MAX_VALUE]]
+  }
+
+  private static Map<String, Object> merge(List<Map<String, Object>> parts) {
+    Map<String, Object> props = [
+        (CorsConfig.ALLOW_METHODS): 'GET,PUT',
+        (CorsConfig.ALLOW_HEADERS): 'x-foo,x-bar',
+        (CorsConfig.METRICS_NAME): 'allocationPermutations',
+    ]
+    parts.each { props.putAll(it) }
+    return props
+  }
+
+  private static void assertNoAllocation(Map<String, Object> props, String methodName, List<StubRequest> requests) {
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.setPropertiesAndFeatures(props)
+    CorsResourceFilterFactory factory = new CorsResourceFilterFactory(config)
+
+    AbstractResource resource = IntrospectionModeller.createResource(AllocationPermutationsResource)
+    AbstractResourceMethod method = resource.resourceMethods.find { it.method.name == methodName }
+    List<ResourceFilter> filters = factory.create(method)
+    assert 1 == filters.size()
+
+    for (StubRequest request : requests) {
+      AllocationHarness.assertNoAllocation(filters[0], request, methodName + ' with ' + props + ' for Origin ' +
+          request.origin + ', preflight ' + request.preflightMethod + ' ' + request.preflightHeaders)
+    }
+  }
+
+  @Path("allocationPermutations")
+  @Cors
+  @CorsPreflight
+  static class AllocationPermutationsResource {
+    @GET
+    String get() {
+      return 'x'
+    }
+
+    @OPTIONS
+    String options() {
+      return 'x'
+    }
+  }
+}
@@ -0,0 +1,145 @@
+package com.palominolabs.jersey.cors
+
+import com.google.common.base.Ticker
+import com.google.common.collect.ImmutableMap
+import com.palominolabs.jersey.cors.AllocationHarness.StubRequest
+import com.sun.jersey.api.core.DefaultResourceConfig
+import com.sun.jersey.spi.container.ResourceFilter
+import com.sun.jersey.spi.container.WebApplication
+import java.util.concurrent.atomic.AtomicReference
+import org.junit.Test
+
+/**
+ * Checks that the filters themselves allocate nothing per request, for filters built by hand. See
+ * {@link CorsFilterAllocationPermutationTest} for the filters the factory builds.
+ */
+class CorsFilterAllocationTest {
+
+  static final WebApplication wa = AllocationHarness.wa
+
+  @Test
+  public void testResourceFilterFixedOriginDoesNotAllocate() {
+    def filter = new CorsResourceResponseResourceFilter('*', null, 'x-foo', true, false)
+
+    assertNoAllocation(filter, 'https://a.foo.com')
+  }
+
+  @Test
+  public void testResourceFilterAllowlistDoesNotAllocate() {
+    def filter = new CorsResourceResponseResourceFilter('*', OriginMatcher.compile('https://*.foo.com'), 'x-foo',
+        true, false)
+
+    assertNoAllocation(filter, 'https://a.foo.com')
+    assertNoAllocation(filter, 'https://a.bar.com')
+  }
+
+  @Test
+  public void testPreflightFilterFixedOriginDoesNotAllocate() {
+    def filter = new CorsPreflightResponseResourceFilter(12345, 'GET,POST', 'x-foo', true, '*', null, false,
+        false, null, null)
+
+    assertNoAllocation(filter, 'https://a.foo.com')
+  }
+
+  @Test
+  public void testPreflightFilterAllowlistDoesNotAllocate() {
+    def filter = new CorsPreflightResponseResourceFilter(12345, 'GET,POST', 'x-foo', true, '*',
+        OriginMatcher.compile('https://foo.com,https://*.foo.com'), false, false, null, null)
+
+    assertNoAllocation(filter, 'https://foo.com')
+    assertNoAllocation(filter, 'https://a.b.foo.com')
+    assertNoAllocation(filter, 'https://a.bar.com')
+  }
+
+  @Test
+  public void testCachedAllowlistDoesNotAllocate() {
+    OriginDecisionCache cache = new OriginDecisionCache(OriginMatcher.compile('https://*.foo.com'), 64)
+    def filter = new CorsResourceResponseResourceFilter('*', cache, 'x-foo', true, false)
+
+    assertNoAllocation(filter, 'https://a.foo.com')
+    assertNoAllocation(filter, 'https://a.bar.com')
+  }
+
+  @Test
+  public void testValidatingPreflightFilterDoesNotAllocate() {
+    def filter = new CorsPreflightResponseResourceFilter(12345, 'GET,POST,PUT', 'x-foo,X-Bar,x-baz', true, '*',
+        OriginMatcher.compile('https://*.foo.com'), false, true, null, null)
+
+    assertNoAllocation(filter, new StubRequest(wa, 'https://a.foo.com', 'PUT', 'X-Foo, x-bar'))
+    assertNoAllocation(filter, new StubRequest(wa, 'https://a.foo.com', 'PATCH', null))
+    assertNoAllocation(filter, new StubRequest(wa, 'https://a.foo.com', 'POST', 'x-foo,x-qux'))
+  }
+
+  @Test
+  public void testPreflightFilterUnsampledByAnalyzerDoesNotAllocate() {
+    // with this rate practically no source is sampled
+    PreflightAnalyzer analyzer = new PreflightAnalyzer(Integer.MAX_VALUE, 10, Ticker.systemTicker())
+    def filter = new CorsPreflightResponseResourceFilter(12345, 'GET,POST', 'x-foo', true, '*',
+        OriginMatcher.compile('https://*.foo.com'), false, false, analyzer, null)
+
+    assertNoAllocation(filter, new StubRequest(wa, 'https://a.foo.com', 'PUT', 'X-Foo, x-bar'))
+    assertNoAllocation(filter, new StubRequest(wa, 'https://a.foo.com', 'POST', null))
+    assert 0 == analyzer.report.preflights
+  }
+
+  @Test
+  public void testRateLimitedPreflightFilterDoesNotAllocate() {
+    [new PreflightRateLimiter(1000000000, 1000000000, 64, Ticker.systemTicker()),
+        new PreflightRateLimiter(1, 1, 64, Ticker.systemTicker())].each { PreflightRateLimiter limiter ->
+      def filter = new CorsPreflightResponseResourceFilter(12345, 'GET,POST', 'x-foo', true, '*',
+          OriginMatcher.compile('https://*.foo.com'), false, false, null, limiter)
+
+      assertNoAllocation(filter, new StubRequest(wa, 'https://a.foo.com', 'PUT', 'X-Foo, x-bar'))
+      assertNoAllocation(filter, new StubRequest(wa, 'https://a.bar.com', 'PUT', null))
+      // origins that don't get a bucket of their own
+      assertNoAllocation(filter, new StubRequest(wa, 'https://' + ('a' * 300) + '.foo.com', 'PUT', null))
+    }
+  }
+
+  @Test
+  public void testReloadableFilterDoesNotAllocate() {
+    CorsHeaderFilter delegate = new CorsResourceResponseResourceFilter('*', OriginMatcher.compile('https://*.foo.com'),
+        'x-foo', true, false)
+    AtomicReference<PolicySnapshot> snapshot = new AtomicReference<PolicySnapshot>(
+        new PolicySnapshot([delegate] as CorsHeaderFilter[]))
+    def filter = new ReloadableResourceFilter(snapshot, 0)
+
+    assertNoAllocation(filter, 'https://a.foo.com')
+  }
+
+  @Test
+  public void testInstrumentedFilterDoesNotAllocate() {
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    CorsMetrics metrics = CorsMetrics.getOrCreate(config, true, 'allocationTest')
+    CorsHeaderFilter delegate = new CorsPreflightResponseResourceFilter(12345, 'GET,POST', 'x-foo', true, '*',
+        OriginMatcher.compile('https://*.foo.com'), false, false, null, null)
+    def filter = new InstrumentedResourceFilter(delegate, metrics, 'test')
+
+    assertNoAllocation(filter, 'https://a.foo.com')
+    assertNoAllocation(filter, 'https://a.bar.com')
+    assertNoAllocation(filter, (String) null)
+  }
+
+  @Test
+  public void testTenantFilterDoesNotAllocate() {
+    CorsHeaderFilter tenant = new CorsResourceResponseResourceFilter('*', OriginMatcher.compile('https://*.foo.com'),
+        'x-foo', true, false)
+    CorsHeaderFilter other = new CorsResourceResponseResourceFilter('*', null, '', false, false)
+    def filter = new TenantResourceFilter(ImmutableMap.of('foo.com', tenant, 'bar.com:8443', tenant), other)
+
+    ['foo.com', 'bar.com:8443', 'baz.com', null].each { String host ->
+      StubRequest request = new StubRequest(wa, 'https://a.foo.com', null, null)
+      request.host = host
+      AllocationHarness.assertNoAllocation(filter, request, 'Host ' + host)
+    }
+  }
+
+  private static void assertNoAllocation(ResourceFilter filter, String origin) {
+    assertNoAllocation(filter, new StubRequest(wa, origin, null, null))
+  }
+
+  private static void assertNoAllocation(ResourceFilter filter, StubRequest request) {
+    AllocationHarness.assertNoAllocation(filter, request, 'Origin ' + request.origin + ', preflight ' +
+        request.preflightMethod + ' ' + request.preflightHeaders)
+  }
+}
@@ -0,0 +1,77 @@
+package com.palominolabs.jersey.cors
+
+import com.sun.jersey.api.core.DefaultResourceConfig
+import java.util.concurrent.CountDownLatch
+import org.junit.Test
+
+class CorsMetricsTest {
+
+  @Test
+  public void testHyperLogLogEstimates() {
+    HyperLogLog hll = new HyperLogLog()
+    assert 0 == hll.estimate()
+
+    int added = 0
+    [10, 1000, 10000, 100000].each { int n ->
+      for (; added < n; added++) {
+        hll.add('https://host' + added + '.example.com')
+      }
+      // ~1.6% standard error; allow a bit over 3 standard errors
+      assert Math.abs(hll.estimate() - n) <= Math.max(1d, n * 0.05d)
+    }
+  }
+
+  @Test
+  public void testHyperLogLogIgnoresRepeats() {
+    HyperLogLog hll = new HyperLogLog()
+    for (int i = 0; i < 100000; i++) {
+      hll.add('https://host' + (i % 50) + '.example.com')
+    }
+    assert 50 == hll.estimate()
+  }
+
+  @Test
+  public void testStripedCountersSumAcrossThreads() {
+    StripedCounters counters = new StripedCounters()
+    int threads = 8
+    CountDownLatch done = new CountDownLatch(threads)
+    threads.times {
+      Thread.start {
+        for (int i = 0; i < 10000; i++) {
+          counters.add(0, 1)
+          counters.add(1, 3)
+        }
+        done.countDown()
+      }
+    }
+    done.await()
+
+    assert 80000 == counters.sum(0)
+    assert 240000 == counters.sum(1)
+  }
+
+  @Test
+  public void testMethodMetricsRecordOutcomes() {
+    CorsMetrics metrics = CorsMetrics.getOrCreate(new DefaultResourceConfig(), false, 'metricsTest')
+    CorsMetrics.MethodMetrics a = metrics.getMethodMetrics('a')
+    assert a.is(metrics.getMethodMetrics('a'))
+
+    a.record(CorsHeaderFilter.ALLOWED, 0)
+    a.record(CorsHeaderFilter.ALLOWED | CorsHeaderFilter.HEADER_PRESENT, 0)
+    a.record(CorsHeaderFilter.DISALLOWED_ORIGIN, 0)
+    a.record(CorsHeaderFilter.NO_ORIGIN, 0)
+    metrics.getMethodMetrics('b').record(CorsHeaderFilter.REJECTED_PREFLIGHT, 0)
+
+    CorsMetricsSnapshot snapshot = metrics.snapshot
+    assert ['a', 'b'] == snapshot.methods*.name
+    CorsMethodStats stats = snapshot.methods[0]
+    assert 4 == stats.requests
+    assert 3 == stats.requestsWithOrigin
+    assert 2 == stats.allowed
+    assert 1 == stats.disallowedOrigins
+    assert 1 == stats.headersAlreadyPresent
+
+    assert 5 == snapshot.total.requests
+    assert 1 == snapshot.total.rejectedPreflights
+  }
+}
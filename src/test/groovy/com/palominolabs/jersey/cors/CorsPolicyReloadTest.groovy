@@ -0,0 +1,209 @@
+package com.palominolabs.jersey.cors
+
+import com.sun.jersey.api.core.DefaultResourceConfig
+import com.sun.jersey.api.model.AbstractResource
+import com.sun.jersey.api.model.AbstractResourceMethod
+import com.sun.jersey.server.impl.modelapi.annotation.IntrospectionModeller
+import com.sun.jersey.spi.container.ResourceFilter
+import javax.ws.rs.GET
+import javax.ws.rs.OPTIONS
+import javax.ws.rs.Path
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+class CorsPolicyReloadTest {
+
+  File policyFile
+  CorsResourceFilterFactory factory
+  List<AbstractResourceMethod> methods
+
+  @Before
+  public void setUp() {
+    policyFile = File.createTempFile('cors-policy', '.properties')
+    policyFile.text = ''
+
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.properties.put(CorsConfig.POLICY_FILE, policyFile.path)
+    // long enough that only explicit reloads happen during the test
+    config.properties.put(CorsConfig.POLICY_FILE_POLL_INTERVAL, '3600000')
+    config.properties.put(CorsConfig.EXPOSE_HEADERS, 'x-config')
+    factory = new CorsResourceFilterFactory(config)
+
+    AbstractResource resource = IntrospectionModeller.createResource(ReloadResource)
+    methods = resource.resourceMethods + resource.subResourceMethods
+  }
+
+  @After
+  public void tearDown() {
+    factory.destroy()
+    policyFile.delete()
+  }
+
+  @Test
+  public void testFiltersAreStableAcrossReloads() {
+    ReloadableResourceFilter get = getFilter('get')
+    ResourceFilter before = get.current
+
+    factory.registry.reload([(CorsConfig.ALLOW_ORIGIN): 'http://a.com'])
+
+    assert get.is(getFilter('get'))
+    assert !before.is(get.current)
+  }
+
+  @Test
+  public void testReloadRemergesAnnotations() {
+    ReloadableResourceFilter get = getFilter('get')
+    ReloadableResourceFilter getOverridden = getFilter('getOverridden')
+    ReloadableResourceFilter options = getFilter('options')
+    assert !get.current.is(getOverridden.current)
+
+    // with the override matching the new default, both methods resolve to the same config and share a filter
+    factory.registry.reload([(CorsConfig.ALLOW_ORIGIN): 'http://a.com'])
+    assert get.current.is(getOverridden.current)
+
+    factory.registry.reload([(CorsConfig.ALLOW_ORIGIN): 'http://b.com'])
+    assert !get.current.is(getOverridden.current)
+    assert options.current instanceof CorsPreflightResponseResourceFilter
+  }
+
+  @Test
+  public void testReloadCanEnableOriginRejection() {
+    ReloadableResourceFilter get = getFilter('get')
+    assert null == get.current.requestFilter
+
+    factory.registry.reload([(CorsConfig.ALLOWED_ORIGINS): 'https://*.foo.com',
+        (CorsConfig.REJECT_DISALLOWED_ORIGINS): 'true'])
+    def request = new AllocationHarness.StubRequest(AllocationHarness.wa, 'https://evil.com', null, null)
+    try {
+      get.requestFilter.filter(request)
+      assert false
+    } catch (CorsAbortException e) {
+      assert 403 == e.response.status
+    }
+
+    factory.registry.reload([:])
+    assert request.is(get.requestFilter.filter(request))
+  }
+
+  @Test
+  public void testInvalidPolicyKeepsSnapshot() {
+    ReloadableResourceFilter get = getFilter('get')
+    factory.registry.reload([(CorsConfig.ALLOW_ORIGIN): 'http://a.com'])
+    ResourceFilter good = get.current
+
+    try {
+      factory.registry.reload([(CorsConfig.MAX_AGE): 'soon'])
+      assert false
+    } catch (IllegalArgumentException ignored) {
+    }
+    try {
+      factory.registry.reload([(CorsConfig.ALLOWED_ORIGINS): 'a.com'])
+      assert false
+    } catch (IllegalArgumentException ignored) {
+    }
+
+    assert good.is(get.current)
+  }
+
+  @Test
+  public void testWatcherKeepsPolicyOnBadFile() {
+    List<Map<String, Object>> loaded = []
+    PolicyFileWatcher watcher = new PolicyFileWatcher(policyFile, new PolicyFileWatcher.Listener() {
+      @Override
+      void policyChanged(Map<String, Object> props) {
+        if (props.containsKey('bad')) {
+          throw new IllegalArgumentException('bad')
+        }
+        loaded.add(props)
+      }
+    })
+
+    writePolicy('a=1\n')
+    watcher.poll()
+    // not yet seen twice
+    assert [] == loaded
+    watcher.poll()
+    watcher.poll()
+    assert [[a: '1']] == loaded
+
+    writePolicy('bad=1\n')
+    watcher.poll()
+    watcher.poll()
+    assert 1 == loaded.size()
+
+    writePolicy('')
+    watcher.poll()
+    watcher.poll()
+    assert 1 == loaded.size()
+
+    policyFile.delete()
+    watcher.poll()
+    assert 1 == loaded.size()
+
+    writePolicy('a=2\n')
+    watcher.poll()
+    watcher.poll()
+    assert [[a: '1'], [a: '2']] == loaded
+  }
+
+  @Test
+  public void testWatcherWaitsForSaveToFinish() {
+    List<Map<String, Object>> loaded = []
+    PolicyFileWatcher watcher = new PolicyFileWatcher(policyFile, new PolicyFileWatcher.Listener() {
+      @Override
+      void policyChanged(Map<String, Object> props) {
+        loaded.add(props)
+      }
+    })
+
+    // a save in progress, as seen by successive polls
+    policyFile.text = 'a'
+    watcher.poll()
+    policyFile.text = 'a=3\nb'
+    watcher.poll()
+    policyFile.text = 'a=3\nb=4\n'
+    watcher.poll()
+    assert [] == loaded
+
+    watcher.poll()
+    assert [[a: '3', b: '4']] == loaded
+  }
+
+  /**
+   * Replace the policy file the way a safe save does, so no poll sees it partly written.
+   */
+  private void writePolicy(String text) {
+    File tmp = new File(policyFile.parentFile, policyFile.name + '.tmp')
+    tmp.text = text
+    assert tmp.renameTo(policyFile)
+  }
+
+  private ReloadableResourceFilter getFilter(String name) {
+    List<ResourceFilter> filters = factory.create(methods.find { it.method.name == name })
+    assert 1 == filters.size()
+    return (ReloadableResourceFilter) filters[0]
+  }
+
+  @Path("reload")
+  @Cors
+  @CorsPreflight
+  static class ReloadResource {
+    @GET
+    String get() {
+      return 'x'
+    }
+
+    @GET
+    @Path("overridden")
+    @Cors(allowOrigin = 'http://a.com', exposeHeaders = 'x-config')
+    String getOverridden() {
+      return 'x'
+    }
+
+    @OPTIONS
+    String options() {
+      return 'x'
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package com.palominolabs.jersey.cors
+
+import com.sun.jersey.api.core.DefaultResourceConfig
+import com.sun.jersey.api.model.AbstractResource
+import com.sun.jersey.api.model.AbstractResourceMethod
+import com.sun.jersey.server.impl.modelapi.annotation.IntrospectionModeller
+import com.sun.jersey.spi.container.ResourceFilter
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryMXBean
+import javax.ws.rs.GET
+import javax.ws.rs.OPTIONS
+import javax.ws.rs.POST
+import javax.ws.rs.Path
+import org.junit.Test
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+/**
+ * Checks that filters are shared between methods with the same effective config, and records how long the factory
+ * takes and how much heap it retains for a large synthetic resource model.
+ */
+class CorsResourceFilterFactoryFootprintTest {
+
+  private static final Logger logger = LoggerFactory.getLogger(CorsResourceFilterFactoryFootprintTest)
+
+  static final int CLASSES = 20
+  static final int METHODS_PER_CLASS = 500
+
+  @Test
+  public void testEqualConfigsShareFilters() {
+    CorsResourceFilterFactory factory = new CorsResourceFilterFactory(new DefaultResourceConfig())
+
+    List<AbstractResourceMethod> a = getMethods(SharingResourceA)
+    List<AbstractResourceMethod> b = getMethods(SharingResourceB)
+
+    ResourceFilter get = getFilter(factory, a, 'get')
+    assert get.is(getFilter(factory, a, 'post'))
+    assert get.is(getFilter(factory, b, 'get'))
+    assert !get.is(getFilter(factory, a, 'getExposing'))
+    assert getFilter(factory, a, 'getExposing').is(getFilter(factory, b, 'post'))
+
+    assert getFilter(factory, a, 'options').is(getFilter(factory, b, 'options'))
+    assert null == factory.create(getMethod(b, 'unannotated'))
+  }
+
+  @Test
+  public void testSyntheticModel() {
+    List<AbstractResourceMethod> methods = []
+    GroovyClassLoader loader = new GroovyClassLoader(getClass().classLoader)
+    for (int i = 0; i < CLASSES; i++) {
+      methods.addAll(getMethods(loader.parseClass(syntheticResource(i))))
+    }
+    assert CLASSES * (METHODS_PER_CLASS + 1) == methods.size()
+
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean()
+    long heapBefore = usedHeapAfterGc(memory)
+
+    long start = System.nanoTime()
+    CorsResourceFilterFactory factory = new CorsResourceFilterFactory(new DefaultResourceConfig())
+    List<List<ResourceFilter>> filters = new ArrayList<List<ResourceFilter>>(methods.size())
+    for (AbstractResourceMethod method : methods) {
+      filters.add(factory.create(method))
+    }
+    long elapsedMillis = (System.nanoTime() - start) / 1000000
+
+    long heapAfter = usedHeapAfterGc(memory)
+    double bytesPerMethod = (heapAfter - heapBefore) / (double) methods.size()
+    logger.info("Created filters for " + methods.size() + " methods in " + elapsedMillis + " ms, retaining " +
+        (heapAfter - heapBefore) + " bytes (" + bytesPerMethod + " per method)")
+
+    Set<ResourceFilter> distinct = Collections.newSetFromMap(new IdentityHashMap<ResourceFilter, Boolean>())
+    filters.each { if (it != null) distinct.addAll(it) }
+    // class-level @Cors, method-level @Cors with exposeHeaders, and a preflight filter each for classes with and
+    // without class-level @CorsPreflight
+    assert 4 == distinct.size()
+
+    // a filter per method, with its own header block and Vary header, would be well over this on its own
+    assert bytesPerMethod < 100
+    // keep the factory and its caches reachable until after the measurement
+    assert factory.registry.defMaxAge == 24 * 3600
+  }
+
+  /**
+   * Classes alternate between class-level @Cors/@CorsPreflight and method-level @Cors on every other method. Every
+   * tenth method of a class also sets exposeHeaders.
+   */
+  private static String syntheticResource(int index) {
+    boolean classAnnotated = index % 2 == 0
+    StringBuilder src = new StringBuilder()
+    src.append('import javax.ws.rs.*\n')
+    src.append('import com.palominolabs.jersey.cors.*\n')
+    if (classAnnotated) {
+      src.append('@Cors\n@CorsPreflight(maxAge = 600)\n')
+    }
+    src.append("@Path('synthetic$index') class SyntheticResource$index {\n")
+    for (int j = 0; j < METHODS_PER_CLASS; j++) {
+      if (j % 10 == 0) {
+        src.append("@Cors(exposeHeaders = 'x-foo') ")
+      } else if (!classAnnotated && j % 2 == 0) {
+        src.append('@Cors ')
+      }
+      src.append("@GET @Path('m$j') String m$j() { 'x' }\n")
+    }
+    src.append("@OPTIONS ${classAnnotated ? '' : '@CorsPreflight'} String options() { 'x' }\n")
+    src.append('}\n')
+    return src.toString()
+  }
+
+  private static long usedHeapAfterGc(MemoryMXBean memory) {
+    for (int i = 0; i < 5; i++) {
+      System.gc()
+    }
+    return memory.heapMemoryUsage.used
+  }
+
+  private static List<AbstractResourceMethod> getMethods(Class<?> klass) {
+    AbstractResource resource = IntrospectionModeller.createResource(klass)
+    List<AbstractResourceMethod> methods = []
+    methods.addAll(resource.resourceMethods)
+    methods.addAll(resource.subResourceMethods)
+    return methods
+  }
+
+  private static AbstractResourceMethod getMethod(List<AbstractResourceMethod> methods, String name) {
+    return methods.find { it.method.name == name }
+  }
+
+  private static ResourceFilter getFilter(CorsResourceFilterFactory factory, List<AbstractResourceMethod> methods,
+                                          String name) {
+    List<ResourceFilter> filters = factory.create(getMethod(methods, name))
+    assert 1 == filters.size()
+    return filters[0]
+  }
+
+  @Path("sharingA")
+  @Cors
+  @CorsPreflight(maxAge = 600)
+  static class SharingResourceA {
+    @GET
+    String get() {
+      return 'x'
+    }
+
+    @POST
+    String post() {
+      return 'x'
+    }
+
+    @GET
+    @Path("exposing")
+    @Cors(exposeHeaders = 'x-foo')
+    String getExposing() {
+      return 'x'
+    }
+
+    @OPTIONS
+    String options() {
+      return 'x'
+    }
+  }
+
+  @Path("sharingB")
+  static class SharingResourceB {
+    @GET
+    @Cors
+    String get() {
+      return 'x'
+    }
+
+    @POST
+    @Cors(exposeHeaders = 'x-foo')
+    String post() {
+      return 'x'
+    }
+
+    @GET
+    @Path("unannotated")
+    String unannotated() {
+      return 'x'
+    }
+
+    @OPTIONS
+    @CorsPreflight(maxAge = 600)
+    String options() {
+      return 'x'
+    }
+  }
+}
@@ -7,11 +7,23 @@ import com.sun.jersey.api.container.filter.LoggingFilter
 import com.sun.jersey.api.core.DefaultResourceConfig
 import com.sun.jersey.api.core.PackagesResourceConfig
 import com.sun.jersey.api.core.ResourceConfig
+import com.sun.jersey.api.model.AbstractResourceMethod
+import com.sun.jersey.server.impl.modelapi.annotation.IntrospectionModeller
+import com.sun.jersey.spi.container.ResourceFilter
 import com.sun.jersey.spi.container.servlet.ServletContainer
+import java.lang.management.ManagementFactory
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.logging.LogManager
+import javax.management.MBeanServer
+import javax.management.ObjectName
+import javax.management.openmbean.CompositeData
+import javax.ws.rs.DELETE
 import javax.ws.rs.GET
 import javax.ws.rs.OPTIONS
+import javax.ws.rs.POST
+import javax.ws.rs.PUT
 import javax.ws.rs.Path
+import javax.ws.rs.PathParam
 import org.eclipse.jetty.server.Server
 import org.eclipse.jetty.servlet.ServletContextHandler
 import org.eclipse.jetty.servlet.ServletHolder
@@ -43,6 +55,19 @@ class CorsResourceFilterFactoryTest {
 
   @Before
   public void setUp() {
+    startServer([:])
+  }
+
+  @After
+  public void tearDown() {
+    server.stop()
+  }
+
+  /**
+   * (Re)start the server with extra Jersey params, e.g. CorsConfig properties.
+   */
+  private void startServer(Map<String, String> params) {
+    server?.stop()
     server = new Server(8080)
 
     ServletHolder servletHolder = new ServletHolder(new ServletContainer())
@@ -51,6 +76,7 @@ class CorsResourceFilterFactoryTest {
     servletHolder.initParameters.put(ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS, LoggingFilter.canonicalName)
     servletHolder.initParameters.put(ResourceConfig.PROPERTY_CONTAINER_RESPONSE_FILTERS, LoggingFilter.canonicalName)
     servletHolder.initParameters.put(PackagesResourceConfig.PROPERTY_PACKAGES, getClass().package.name)
+    servletHolder.initParameters.putAll(params)
     ServletContextHandler handler = new ServletContextHandler()
     handler.addServlet(servletHolder, '/*')
 
@@ -59,21 +85,39 @@ class CorsResourceFilterFactoryTest {
     server.start()
   }
 
-  @After
-  public void tearDown() {
-    server.stop()
-  }
-
   @Test
   public void testStandardDefaults() {
     CorsResourceFilterFactory factory = new CorsResourceFilterFactory(new DefaultResourceConfig())
 
-    assert '*' == factory.defAllowOrigin
-    assert '' == factory.defExposeHeaders
-    assert 24 * 3600 == factory.defMaxAge
-    assert FALSE == factory.defAllowCredentials
-    assert 'GET' == factory.defAllowMethods
-    assert '' == factory.defAllowHeaders
+    assert '*' == factory.registry.defAllowOrigin
+    assert '' == factory.registry.defExposeHeaders
+    assert 24 * 3600 == factory.registry.defMaxAge
+    assert FALSE == factory.registry.defAllowCredentials
+    assert 'GET' == factory.registry.defAllowMethods
+    assert '' == factory.registry.defAllowHeaders
+    assert '' == factory.registry.defAllowedOrigins
+  }
+
+  @Test
+  public void testSetAllowedOriginsDefault() {
+    Map<String, Object> props = Maps.newHashMap()
+    props.put(CorsConfig.ALLOWED_ORIGINS, 'http://foo.com,https://*.foo.com')
+
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.setPropertiesAndFeatures(props)
+
+    assert 'http://foo.com,https://*.foo.com' == new CorsResourceFilterFactory(config).registry.defAllowedOrigins
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testInvalidAllowedOriginsDefault() {
+    Map<String, Object> props = Maps.newHashMap()
+    props.put(CorsConfig.ALLOWED_ORIGINS, 'https://a.*.foo.com')
+
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.setPropertiesAndFeatures(props)
+
+    new CorsResourceFilterFactory(config)
   }
 
   @Test
@@ -238,16 +282,753 @@ class CorsResourceFilterFactoryTest {
     assert !r.headers.containsKey(ALLOW_METHODS)
     assert !r.headers.containsKey(ALLOW_HEADERS)  }
 
+  @Test
+  public void testGetAllowlistEchoesMatchingOrigin() {
+    Response r = doGet('http://localhost:8080/allowlist', 'https://a.b.partner.com')
+
+    assert 200 == r.statusCode
+    assert ['https://a.b.partner.com'] == r.headers.get(ALLOW_ORIGIN)
+    assert ['x-foo'] == r.headers.get(EXPOSE_HEADERS)
+  }
+
+  @Test
+  public void testGetAllowlistRejectsOtherOrigin() {
+    Response r = doGet('http://localhost:8080/allowlist', 'https://partner.com.evil.com')
+
+    assert 200 == r.statusCode
+    assert !r.headers.containsKey(ALLOW_ORIGIN)
+    assert !r.headers.containsKey(EXPOSE_HEADERS)
+  }
+
+  @Test
+  public void testGetAllowlistVariesOnOrigin() {
+    assert ['Origin'] == doGet('http://localhost:8080/allowlist', 'https://a.partner.com').headers.get('Vary')
+    assert ['Origin'] == doGet('http://localhost:8080/allowlist', 'https://evil.com').headers.get('Vary')
+    assert ['Origin'] == http.prepareGet('http://localhost:8080/allowlist').execute().get().headers.get('Vary')
+  }
+
+  @Test
+  public void testGetAllowlistMergesExistingVary() {
+    Response r = doGet('http://localhost:8080/allowlist/vary', 'https://a.partner.com')
+
+    assert ['Accept-Encoding, Origin'] == r.headers.get('Vary')
+  }
+
+  @Test
+  public void testGetFixedOriginDoesNotVary() {
+    assert !doGet('http://localhost:8080/annotatedNoOverrides').headers.containsKey('Vary')
+  }
+
+  @Test
+  public void testOptionsVariesOnPreflightHeaders() {
+    assert ['Access-Control-Request-Method, Access-Control-Request-Headers'] ==
+        doOptions('http://localhost:8080/annotatedNoOverrides').headers.get('Vary')
+    assert ['Origin, Access-Control-Request-Method, Access-Control-Request-Headers'] ==
+        doOptions('http://localhost:8080/allowlist').headers.get('Vary')
+  }
+
+  @Test
+  public void testOptionsAllowlistEchoesMatchingOrigin() {
+    Response r = doOptions('http://localhost:8080/allowlist', 'http://foo.com')
+
+    assert 200 == r.statusCode
+    assert ['http://foo.com'] == r.headers.get(ALLOW_ORIGIN)
+    assert ['86400'] == r.headers.get(MAX_AGE)
+  }
+
+  @Test
+  public void testOptionsAllowlistRejectsOtherOrigin() {
+    Response r = doOptions('http://localhost:8080/allowlist', 'https://partner.com')
+
+    assert 200 == r.statusCode
+    assert !r.headers.containsKey(ALLOW_ORIGIN)
+    assert !r.headers.containsKey(MAX_AGE)
+  }
+
+  @Test
+  public void testGetMethodOriginOverridesClassAllowlist() {
+    Response r = doGet('http://localhost:8080/allowlist/fixed', 'https://a.partner.com')
+
+    assert ['http://bar.com'] == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testRejectDisallowedOriginsSkipsResourceMethod() {
+    startServer([(CorsConfig.REJECT_DISALLOWED_ORIGINS): 'true'])
+    RejectingResource.invocations.set(0)
+
+    Response r = doPost('http://localhost:8080/rejecting', 'https://evil.com')
+
+    assert 403 == r.statusCode
+    assert 'Origin not allowed\n' == r.responseBody
+    assert ['text/plain'] == r.headers.get('Content-Type')
+    assert !r.headers.containsKey(ALLOW_ORIGIN)
+    assert ['Origin'] == r.headers.get('Vary')
+    assert 0 == RejectingResource.invocations.get()
+  }
+
+  @Test
+  public void testRejectDisallowedOriginsAllowsMatchingAndMissingOrigins() {
+    startServer([(CorsConfig.REJECT_DISALLOWED_ORIGINS): 'true'])
+    RejectingResource.invocations.set(0)
+
+    Response r = doPost('http://localhost:8080/rejecting', 'https://a.partner.com')
+    assert 200 == r.statusCode
+    assert ['https://a.partner.com'] == r.headers.get(ALLOW_ORIGIN)
+
+    assert 200 == http.preparePost('http://localhost:8080/rejecting').execute().get().statusCode
+    assert 2 == RejectingResource.invocations.get()
+  }
+
+  @Test
+  public void testRejectDisallowedOriginsIgnoresFixedOrigin() {
+    startServer([(CorsConfig.REJECT_DISALLOWED_ORIGINS): 'true'])
+
+    Response r = doGet('http://localhost:8080/allowlist/fixed', 'https://evil.com')
+
+    assert 200 == r.statusCode
+    assert ['http://bar.com'] == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testRejectDisallowedOriginsOffByDefault() {
+    RejectingResource.invocations.set(0)
+
+    Response r = doPost('http://localhost:8080/rejecting', 'https://evil.com')
+
+    assert 200 == r.statusCode
+    assert !r.headers.containsKey(ALLOW_ORIGIN)
+    assert 1 == RejectingResource.invocations.get()
+  }
+
+  @Test
+  public void testRejectDisallowedOriginsAnnotationOverridesConfig() {
+    RejectingResource.invocations.set(0)
+
+    assert 403 == doGet('http://localhost:8080/rejecting/annotated', 'https://evil.com').statusCode
+    assert 0 == RejectingResource.invocations.get()
+
+    startServer([(CorsConfig.REJECT_DISALLOWED_ORIGINS): 'true'])
+
+    assert 200 == doGet('http://localhost:8080/rejecting/exempt', 'https://evil.com').statusCode
+    assert 1 == RejectingResource.invocations.get()
+  }
+
+  @Test
+  public void testRejectDisallowedOriginsMetrics() {
+    startServer([(CorsConfig.REJECT_DISALLOWED_ORIGINS): 'true', (CorsConfig.METRICS): 'true',
+        (CorsConfig.METRICS_NAME): 'rejectTest'])
+
+    doPost('http://localhost:8080/rejecting', 'https://evil.com')
+    doPost('http://localhost:8080/rejecting', 'https://evil2.com')
+    doPost('http://localhost:8080/rejecting', 'https://a.partner.com')
+
+    ObjectName name = new ObjectName('com.palominolabs.jersey.cors:type=CorsMetrics,name=rejectTest')
+    CompositeData[] methods = (CompositeData[]) ManagementFactory.platformMBeanServer.getAttribute(name, 'Methods')
+    CompositeData post = methods.find { it.get('name') == RejectingResource.name + '#post' }
+    assert 3L == post.get('requests')
+    assert 2L == post.get('rejectedOrigins')
+    assert 2L == post.get('disallowedOrigins')
+    assert 1L == post.get('allowed')
+  }
+
+  @Test
+  public void testShortCircuitPreflightSkipsResourceMethod() {
+    startServer([(CorsConfig.SHORT_CIRCUIT_PREFLIGHT): 'true'])
+
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareOptions('http://localhost:8080/annotatedWithOverrides')
+    req.addHeader('Origin', 'http://foo.com')
+    req.addHeader('Access-Control-Request-Method', 'POST')
+    Response r = req.execute().get()
+
+    assert 204 == r.statusCode
+    assert '' == r.responseBody
+    assert ['12345'] == r.headers.get(MAX_AGE)
+    assert ['POST'] == r.headers.get(ALLOW_METHODS)
+    assert ['true'] == r.headers.get(ALLOW_CREDENTIALS)
+    assert ['x-foo'] == r.headers.get(ALLOW_HEADERS)
+    assert ['http://bar.com'] == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testShortCircuitPreflightPassesThroughNonPreflightOptions() {
+    startServer([(CorsConfig.SHORT_CIRCUIT_PREFLIGHT): 'true'])
+
+    Response r = doOptions('http://localhost:8080/annotatedWithOverrides')
+
+    assertOverriddenOptionsResponse(r)
+    assert 'foo' == r.responseBody
+  }
+
+  @Test
+  public void testPreflightInvokesResourceMethodByDefault() {
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareOptions('http://localhost:8080/annotatedWithOverrides')
+    req.addHeader('Origin', 'http://foo.com')
+    req.addHeader('Access-Control-Request-Method', 'POST')
+    Response r = req.execute().get()
+
+    assertOverriddenOptionsResponse(r)
+    assert 'foo' == r.responseBody
+  }
+
+  @Test
+  public void testPreflightRateLimitSkipsResourceMethod() {
+    startServer([(CorsConfig.PREFLIGHT_RATE_LIMIT): '1', (CorsConfig.PREFLIGHT_RATE_LIMIT_BURST): '2'])
+    RateLimitedResource.invocations.set(0)
+
+    2.times {
+      Response r = doPreflight('http://localhost:8080/rateLimited')
+      assert 200 == r.statusCode
+      assert ['http://foo.com'] == r.headers.get(ALLOW_ORIGIN)
+    }
+
+    Response r = doPreflight('http://localhost:8080/rateLimited')
+    assert 429 == r.statusCode
+    assert 'Too many preflight requests\n' == r.responseBody
+    assertNoPreflightHeaders(r)
+    assert 2 == RateLimitedResource.invocations.get()
+
+    // other origins and plain OPTIONS requests aren't limited
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareOptions('http://localhost:8080/rateLimited')
+    req.addHeader('Origin', 'http://bar.com')
+    req.addHeader('Access-Control-Request-Method', 'GET')
+    assert 200 == req.execute().get().statusCode
+    assert 200 == doOptions('http://localhost:8080/rateLimited').statusCode
+    assert 4 == RateLimitedResource.invocations.get()
+  }
+
+  @Test
+  public void testPreflightRateLimitTakesOneTokenPerPreflight() {
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.setPropertiesAndFeatures([(CorsConfig.PREFLIGHT_RATE_LIMIT): 1] as Map<String, Object>)
+    AbstractResourceMethod options = IntrospectionModeller.createResource(RateLimitedResource).resourceMethods[0]
+    ResourceFilter filter = new CorsResourceFilterFactory(config).create(options)[0]
+    AllocationHarness.StubRequest first =
+        new AllocationHarness.StubRequest(AllocationHarness.wa, 'http://foo.com', 'GET', null)
+    AllocationHarness.StubRequest second =
+        new AllocationHarness.StubRequest(AllocationHarness.wa, 'http://foo.com', 'GET', null)
+
+    // concurrent preflights can both get through their request filters before either reaches its response filter
+    filter.requestFilter.filter(first)
+    try {
+      filter.requestFilter.filter(second)
+      assert false
+    } catch (CorsAbortException e) {
+      assert 429 == e.response.status
+    }
+
+    AllocationHarness.StubResponse firstResponse = new AllocationHarness.StubResponse(AllocationHarness.wa, first)
+    filter.responseFilter.filter(first, firstResponse)
+    assert ['http://foo.com'] == firstResponse.httpHeaders.get(ALLOW_ORIGIN)
+    AllocationHarness.StubResponse secondResponse = new AllocationHarness.StubResponse(AllocationHarness.wa, second)
+    filter.responseFilter.filter(second, secondResponse)
+    assert !secondResponse.httpHeaders.containsKey(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testPreflightRateLimitOffByDefault() {
+    RateLimitedResource.invocations.set(0)
+
+    10.times { assert 200 == doPreflight('http://localhost:8080/rateLimited').statusCode }
+    assert 10 == RateLimitedResource.invocations.get()
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testInvalidPreflightRateLimit() {
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.setPropertiesAndFeatures([(CorsConfig.PREFLIGHT_RATE_LIMIT): -1] as Map<String, Object>)
+
+    new CorsResourceFilterFactory(config)
+  }
+
+  @Test
+  public void testValidatePreflightAllowed() {
+    startServer([(CorsConfig.VALIDATE_PREFLIGHT): 'true'])
+
+    Response r = doValidatedPreflight('POST', 'X-Foo')
+
+    assert 200 == r.statusCode
+    assert ['12345'] == r.headers.get(MAX_AGE)
+    assert ['POST'] == r.headers.get(ALLOW_METHODS)
+    assert ['true'] == r.headers.get(ALLOW_CREDENTIALS)
+    assert ['X-Foo'] == r.headers.get(ALLOW_HEADERS)
+    assert ['http://bar.com'] == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testValidatePreflightSafelistedMethodWithoutHeaders() {
+    startServer([(CorsConfig.VALIDATE_PREFLIGHT): 'true'])
+
+    Response r = doValidatedPreflight('GET', null)
+
+    assert ['GET'] == r.headers.get(ALLOW_METHODS)
+    assert null == r.headers.get(ALLOW_HEADERS)
+    assert ['http://bar.com'] == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testValidatePreflightRejectsMethod() {
+    startServer([(CorsConfig.VALIDATE_PREFLIGHT): 'true'])
+
+    Response r = doValidatedPreflight('PUT', null)
+
+    assert 200 == r.statusCode
+    assertNoPreflightHeaders(r)
+  }
+
+  @Test
+  public void testValidatePreflightRejectsHeaders() {
+    startServer([(CorsConfig.VALIDATE_PREFLIGHT): 'true'])
+
+    Response r = doValidatedPreflight('POST', 'x-foo, x-bar')
+
+    assert 200 == r.statusCode
+    assertNoPreflightHeaders(r)
+  }
+
+  @Test
+  public void testPreflightNotValidatedByDefault() {
+    Response r = doValidatedPreflight('PUT', 'x-bar')
+
+    assert ['POST'] == r.headers.get(ALLOW_METHODS)
+    assert ['x-foo'] == r.headers.get(ALLOW_HEADERS)
+    assert ['http://bar.com'] == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testPolicyFileReload() {
+    File policyFile = File.createTempFile('cors-policy', '.properties')
+    policyFile.deleteOnExit()
+    writePolicy(policyFile, CorsConfig.ALLOW_ORIGIN + '=http://a.com\n')
+    startServer([(CorsConfig.POLICY_FILE): policyFile.path, (CorsConfig.POLICY_FILE_POLL_INTERVAL): '50'])
+
+    assert ['http://a.com'] == doGet('http://localhost:8080/annotatedNoOverrides').headers.get(ALLOW_ORIGIN)
+    assert ['http://a.com'] == doOptions('http://localhost:8080/annotatedNoOverrides').headers.get(ALLOW_ORIGIN)
+    assertOverriddenGetResponse(doGet('http://localhost:8080/annotatedWithOverrides'))
+
+    writePolicy(policyFile, CorsConfig.ALLOW_ORIGIN + '=http://b.com\n' + CorsConfig.EXPOSE_HEADERS + '=x-bar\n' +
+        CorsConfig.MAX_AGE + '=600\n')
+    waitFor { doGet('http://localhost:8080/annotatedNoOverrides').headers.get(ALLOW_ORIGIN) == ['http://b.com'] }
+
+    assert ['x-bar'] == doGet('http://localhost:8080/annotatedNoOverrides').headers.get(EXPOSE_HEADERS)
+    Response options = doOptions('http://localhost:8080/annotatedNoOverrides')
+    assert ['http://b.com'] == options.headers.get(ALLOW_ORIGIN)
+    assert ['600'] == options.headers.get(MAX_AGE)
+    // annotation values still take precedence over the new defaults
+    assertOverriddenGetResponse(doGet('http://localhost:8080/annotatedWithOverrides'))
+    assertOverriddenOptionsResponse(doOptions('http://localhost:8080/annotatedWithOverrides'))
+
+    // an allowlist entry without a scheme is invalid, so the previous policy stays
+    writePolicy(policyFile, CorsConfig.ALLOWED_ORIGINS + '=c.com\n')
+    Thread.sleep(500)
+    assert ['http://b.com'] == doGet('http://localhost:8080/annotatedNoOverrides').headers.get(ALLOW_ORIGIN)
+
+    writePolicy(policyFile, CorsConfig.ALLOWED_ORIGINS + '=http://foo.com\n')
+    waitFor { doGet('http://localhost:8080/annotatedNoOverrides').headers.get(ALLOW_ORIGIN) == ['http://foo.com'] }
+    assert null == doGet('http://localhost:8080/annotatedNoOverrides', 'http://a.com').headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testPolicyFileWatcherStopsWithApplication() {
+    File policyFile = File.createTempFile('cors-policy', '.properties')
+    policyFile.deleteOnExit()
+    int watchers = countPolicyWatchers()
+    startServer([(CorsConfig.POLICY_FILE): policyFile.path])
+
+    // Jersey is only initialized by the first request
+    assertDefaultGetResponse(doGet('http://localhost:8080/annotatedNoOverrides'))
+    assert watchers + 1 == countPolicyWatchers()
+
+    server.stop()
+    waitFor { countPolicyWatchers() == watchers }
+  }
+
+  @Test
+  public void testPolicyRules() {
+    startServer([(CorsConfig.POLICY_RULES_FILE): writePolicyRules()])
+
+    Response get = doGet('http://localhost:8080/ruleCovered')
+    assert ['http://rules.com'] == get.headers.get(ALLOW_ORIGIN)
+    assert ['x-rule'] == get.headers.get(EXPOSE_HEADERS)
+    assert ['http://rules.com'] == doGet('http://localhost:8080/ruleCovered/123').headers.get(ALLOW_ORIGIN)
+
+    Response options = doOptions('http://localhost:8080/ruleCovered')
+    assert ['http://rules.com'] == options.headers.get(ALLOW_ORIGIN)
+    assert ['600'] == options.headers.get(MAX_AGE)
+    assert 'rule' == options.responseBody
+
+    // annotations take precedence over rules
+    assertOverriddenGetResponse(doGet('http://localhost:8080/annotatedWithOverrides'))
+    assertOverriddenOptionsResponse(doOptions('http://localhost:8080/annotatedWithOverrides'))
+    assertDefaultGetResponse(doGet('http://localhost:8080/classAnnotatedNoOverrides'))
+    // paths no rule matches are left alone
+    assert null == doGet('http://localhost:8080/unAnnotated').headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testAutoPreflightUsesPolicyRules() {
+    startServer([(ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS): CorsAutoPreflightRequestFilter.canonicalName,
+        (CorsConfig.POLICY_RULES_FILE): writePolicyRules()])
+
+    Response r = doPreflight('http://localhost:8080/ruleCovered/123')
+
+    assert 204 == r.statusCode
+    assert ['DELETE,GET'] == r.headers.get(ALLOW_METHODS)
+    assert ['600'] == r.headers.get(MAX_AGE)
+    assert ['http://rules.com'] == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testInvalidPolicyRules() {
+    File rulesFile = File.createTempFile('cors-rules', '.properties')
+    rulesFile.deleteOnExit()
+    rulesFile.text = '/foo/**/bar = maxAge=10\n'
+
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.setPropertiesAndFeatures([(CorsConfig.POLICY_RULES_FILE): rulesFile.path] as Map<String, Object>)
+
+    new CorsResourceFilterFactory(config)
+  }
+
+  @Test
+  public void testTenantDefaults() {
+    String tenant = CorsConfig.TENANT_PREFIX + 'localhost:8080.'
+    startServer([(CorsConfig.TENANTS): 'shop.example.com, LOCALHOST:8080',
+        (tenant + 'allowedOrigins'): 'http://tenant.com',
+        (tenant + 'allowCredentials'): 'true',
+        (tenant + 'maxAge'): '600'])
+
+    Response get = doGet('http://localhost:8080/annotatedNoOverrides', 'http://tenant.com')
+    assert ['http://tenant.com'] == get.headers.get(ALLOW_ORIGIN)
+    assert ['true'] == get.headers.get(ALLOW_CREDENTIALS)
+    assert null == doGet('http://localhost:8080/annotatedNoOverrides').headers.get(ALLOW_ORIGIN)
+    Response options = doOptions('http://localhost:8080/annotatedNoOverrides', 'http://tenant.com')
+    assert ['600'] == options.headers.get(MAX_AGE)
+
+    // any other host gets the usual defaults
+    assertDefaultGetResponse(doGet('http://127.0.0.1:8080/annotatedNoOverrides'))
+    assertDefaultOptionsResponse(doOptions('http://127.0.0.1:8080/annotatedNoOverrides'))
+
+    // annotations are applied over each tenant's defaults
+    assertOverriddenGetResponse(doGet('http://localhost:8080/annotatedWithOverrides'))
+    assertOverriddenOptionsResponse(doOptions('http://localhost:8080/annotatedWithOverrides'))
+    Response classAnnotated = doGet('http://localhost:8080/classAnnotatedWithOverrides', 'http://tenant.com')
+    assert ['http://foo.com'] == classAnnotated.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testUnknownTenantProperty() {
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.setPropertiesAndFeatures([(CorsConfig.TENANTS): 'shop.example.com',
+        (CorsConfig.TENANT_PREFIX + 'shop.example.org.allowOrigin'): 'http://foo.com'] as Map<String, Object>)
+
+    new CorsResourceFilterFactory(config)
+  }
+
+  @Test
+  public void testMetrics() {
+    startServer([(CorsConfig.METRICS): 'true', (CorsConfig.METRICS_NAME): 'factoryTest'])
+
+    doGet('http://localhost:8080/allowlist', 'https://a.partner.com')
+    doGet('http://localhost:8080/allowlist', 'https://b.partner.com')
+    doGet('http://localhost:8080/allowlist', 'https://evil.com')
+    http.prepareGet('http://localhost:8080/allowlist').execute().get()
+    doOptions('http://localhost:8080/allowlist', 'http://foo.com')
+
+    MBeanServer mBeanServer = ManagementFactory.platformMBeanServer
+    ObjectName name = new ObjectName('com.palominolabs.jersey.cors:type=CorsMetrics,name=factoryTest')
+    CompositeData total = (CompositeData) mBeanServer.getAttribute(name, 'Total')
+    assert 5L == total.get('requests')
+    assert 4L == total.get('requestsWithOrigin')
+    assert 3L == total.get('allowed')
+    assert 1L == total.get('disallowedOrigins')
+    assert 0L == total.get('latencyNanos')
+    assert 4L == mBeanServer.getAttribute(name, 'DistinctOrigins')
+
+    // one cache for each of the two wildcard allowlists
+    CompositeData originCache = (CompositeData) mBeanServer.getAttribute(name, 'OriginCache')
+    assert 0L == originCache.get('hits')
+    assert 4L == originCache.get('misses')
+    assert 4L == originCache.get('size')
+    assert 2048L == originCache.get('capacity')
+
+    CompositeData[] methods = (CompositeData[]) mBeanServer.getAttribute(name, 'Methods')
+    CompositeData get = methods.find { it.get('name') == AllowlistResource.name + '#get' }
+    assert 4L == get.get('requests')
+    assert 2L == get.get('allowed')
+    CompositeData options = methods.find { it.get('name') == AllowlistResource.name + '#options' }
+    assert 1L == options.get('allowed')
+  }
+
+  @Test
+  public void testPreflightAnalyzer() {
+    startServer([(CorsConfig.PREFLIGHT_ANALYZER): 'true', (CorsConfig.METRICS_NAME): 'factoryTest'])
+
+    3.times { doValidatedPreflight('POST', 'x-foo') }
+    doValidatedPreflight('PUT', 'X-Bar, x-foo')
+    doOptions('http://localhost:8080/annotatedWithOverrides')
+
+    MBeanServer mBeanServer = ManagementFactory.platformMBeanServer
+    ObjectName name = new ObjectName('com.palominolabs.jersey.cors:type=PreflightAnalyzer,name=factoryTest')
+    CompositeData report = (CompositeData) mBeanServer.getAttribute(name, 'Report')
+    // the OPTIONS without Access-Control-Request-Method is not a preflight
+    assert 4L == report.get('preflights')
+
+    CompositeData[] sources = (CompositeData[]) report.get('sources')
+    assert 2 == sources.length
+    assert 'annotatedWithOverrides' == sources[0].get('path')
+    assert 'http://foo.com' == sources[0].get('origin')
+    assert 'POST' == sources[0].get('requestMethod')
+    assert 'x-foo' == sources[0].get('requestHeaders')
+    assert 3L == sources[0].get('preflights')
+    assert 2L == sources[0].get('repeats')
+    assert 12345 == sources[0].get('maxAge')
+
+    assert 'PUT' == sources[1].get('requestMethod')
+    assert 'x-bar,x-foo' == sources[1].get('requestHeaders')
+    assert ['Add x-bar to allowHeaders, or stop sending them: browsers refuse the request after this preflight',
+        'Add PUT to allowMethods: browsers refuse the request after this preflight'] ==
+        sources[1].get('suggestions') as List
+  }
+
+  @Test
+  public void testAutoPreflight() {
+    startAutoPreflightServer()
+
+    Response r = doPreflight('http://localhost:8080/autoPreflight')
+
+    assert 204 == r.statusCode
+    assert ['DELETE,GET'] == r.headers.get(ALLOW_METHODS)
+    assert ['86400'] == r.headers.get(MAX_AGE)
+    assert ['*'] == r.headers.get(ALLOW_ORIGIN)
+    assert !r.headers.containsKey(ALLOW_HEADERS)
+  }
+
+  @Test
+  public void testAutoPreflightSharesFactoryFilters() {
+    DefaultResourceConfig config = new DefaultResourceConfig(AutoPreflightResource)
+    CorsAutoPreflightRequestFilter autoPreflight = new CorsAutoPreflightRequestFilter(config)
+    CorsResourceFilterFactory factory = new CorsResourceFilterFactory(config)
+
+    // filters are interned per registry, so only a shared one hands out the same instance again
+    assert autoPreflight.preflightPaths.get('autoPreflight').is(
+        factory.registry.createAutoPreflightFilter(AutoPreflightResource, 'autoPreflight', 'DELETE,GET'))
+  }
+
+  @Test
+  public void testAutoPreflightTemplatedSubResource() {
+    startAutoPreflightServer()
+
+    Response r = doPreflight('http://localhost:8080/autoPreflight/123/')
+
+    assert 204 == r.statusCode
+    assert ['GET'] == r.headers.get(ALLOW_METHODS)
+  }
+
+  @Test
+  public void testAutoPreflightLeavesLiteralPathMatchedByTemplate() {
+    startAutoPreflightServer()
+
+    // autoPreflight/{id} is answered here, but Jersey dispatches autoPreflight/special to its own @OPTIONS method
+    Response r = doPreflight('http://localhost:8080/autoPreflight/special')
+
+    assert 200 == r.statusCode
+    assert 'special' == r.responseBody
+    assertNoPreflightHeaders(r)
+    assert 204 == doPreflight('http://localhost:8080/autoPreflight/123').statusCode
+  }
+
+  @Test
+  public void testAutoPreflightUsesClassPreflightAnnotation() {
+    startAutoPreflightServer()
+
+    Response r = doPreflight('http://localhost:8080/autoPreflightClassAnnotated')
+
+    assert 204 == r.statusCode
+    assert ['GET,PUT'] == r.headers.get(ALLOW_METHODS)
+    assert ['12345'] == r.headers.get(MAX_AGE)
+    assert ['x-foo'] == r.headers.get(ALLOW_HEADERS)
+  }
+
+  @Test
+  public void testAutoPreflightLeavesExplicitOptionsMethods() {
+    startAutoPreflightServer()
+
+    Response r = doPreflight('http://localhost:8080/annotatedWithOverrides')
+
+    assertOverriddenOptionsResponse(r)
+    assert 'foo' == r.responseBody
+  }
+
+  @Test
+  public void testAutoPreflightRateLimit() {
+    startServer([(ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS): CorsAutoPreflightRequestFilter.canonicalName,
+        (CorsConfig.PREFLIGHT_RATE_LIMIT): '1'])
+
+    assert 204 == doPreflight('http://localhost:8080/autoPreflight').statusCode
+    // the limit is per origin, not per path
+    Response r = doPreflight('http://localhost:8080/autoPreflightClassAnnotated')
+
+    assert 429 == r.statusCode
+    assert 'Too many preflight requests\n' == r.responseBody
+    assertNoPreflightHeaders(r)
+  }
+
+  @Test
+  public void testAutoPreflightIgnoresPlainOptions() {
+    startAutoPreflightServer()
+
+    Response r = doOptions('http://localhost:8080/autoPreflight')
+
+    assert 200 == r.statusCode
+    assert !r.headers.containsKey(ALLOW_METHODS)
+  }
+
+  @Test
+  public void testFallback() {
+    startServer([(ResourceConfig.PROPERTY_CONTAINER_RESPONSE_FILTERS): CorsFallbackResponseFilter.canonicalName,
+        (CorsConfig.FALLBACK): 'true', (CorsConfig.EXPOSE_HEADERS): 'x-default'])
+
+    Response notFound = doGet('http://localhost:8080/noSuchResource')
+    assert 404 == notFound.statusCode
+    assert ['*'] == notFound.headers.get(ALLOW_ORIGIN)
+    assert ['x-default'] == notFound.headers.get(EXPOSE_HEADERS)
+
+    Response notAllowed = doPost('http://localhost:8080/annotatedNoOverrides', 'http://foo.com')
+    assert 405 == notAllowed.statusCode
+    assert ['*'] == notAllowed.headers.get(ALLOW_ORIGIN)
+
+    // responses from resource methods are left to their own filters, or lack of them
+    Response unAnnotated = doGet('http://localhost:8080/unAnnotated')
+    assert 200 == unAnnotated.statusCode
+    assert !unAnnotated.headers.containsKey(ALLOW_ORIGIN)
+    assertOverriddenGetResponse(doGet('http://localhost:8080/annotatedWithOverrides'))
+
+    assert !http.prepareGet('http://localhost:8080/noSuchResource').execute().get().headers.containsKey(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testFallbackLeavesAutoPreflights() {
+    startServer([(ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS): CorsAutoPreflightRequestFilter.canonicalName,
+        (ResourceConfig.PROPERTY_CONTAINER_RESPONSE_FILTERS): CorsFallbackResponseFilter.canonicalName,
+        (CorsConfig.FALLBACK): 'true', (CorsConfig.EXPOSE_HEADERS): 'x-default'])
+
+    Response r = doPreflight('http://localhost:8080/autoPreflight')
+
+    assert 204 == r.statusCode
+    assert ['*'] == r.headers.get(ALLOW_ORIGIN)
+    assert !r.headers.containsKey(EXPOSE_HEADERS)
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testFallbackFilterRequiresFallback() {
+    new CorsFallbackResponseFilter(new DefaultResourceConfig())
+  }
+
+  @Test
+  public void testFallbackFilterSharesFactoryFilters() {
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.setPropertiesAndFeatures([(CorsConfig.FALLBACK): true] as Map)
+    CorsFallbackResponseFilter fallback = new CorsFallbackResponseFilter(config)
+
+    // filters are interned per registry, so only a shared one hands out the same instance again
+    assert fallback.filter.is(new CorsResourceFilterFactory(config).registry.createFallbackFilter())
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testFallbackWithServletFilter() {
+    DefaultResourceConfig config = new DefaultResourceConfig()
+    config.setPropertiesAndFeatures([(CorsConfig.FALLBACK): true, (CorsConfig.SERVLET_FILTER): true] as Map)
+
+    new CorsResourceFilterFactory(config)
+  }
+
+  private static String writePolicyRules() {
+    File rulesFile = File.createTempFile('cors-rules', '.properties')
+    rulesFile.deleteOnExit()
+    rulesFile.text = '/ruleCovered/** = allowOrigin=http://rules.com; exposeHeaders=x-rule; maxAge=600\n' +
+        '/annotatedWithOverrides = allowOrigin=http://ignored.com; maxAge=1\n' +
+        'classAnnotatedNoOverrides = allowOrigin=http://ignored.com\n'
+    return rulesFile.path
+  }
+
+  private void startAutoPreflightServer() {
+    startServer([(ResourceConfig.PROPERTY_CONTAINER_REQUEST_FILTERS):
+        LoggingFilter.canonicalName + ',' + CorsAutoPreflightRequestFilter.canonicalName])
+  }
+
+  private Response doValidatedPreflight(String requestMethod, String requestHeaders) {
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareOptions('http://localhost:8080/annotatedWithOverrides')
+    req.addHeader('Origin', 'http://foo.com')
+    req.addHeader('Access-Control-Request-Method', requestMethod)
+    if (requestHeaders != null) {
+      req.addHeader('Access-Control-Request-Headers', requestHeaders)
+    }
+    return req.execute().get()
+  }
+
+  private static void assertNoPreflightHeaders(Response r) {
+    assert null == r.headers.get(MAX_AGE)
+    assert null == r.headers.get(ALLOW_METHODS)
+    assert null == r.headers.get(ALLOW_CREDENTIALS)
+    assert null == r.headers.get(ALLOW_HEADERS)
+    assert null == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  /**
+   * Replace the policy file the way a safe save does, so the watcher never sees it partly written.
+   */
+  private static void writePolicy(File policyFile, String text) {
+    File tmp = new File(policyFile.parentFile, policyFile.name + '.tmp')
+    tmp.text = text
+    assert tmp.renameTo(policyFile)
+  }
+
+  private static int countPolicyWatchers() {
+    return Thread.allStackTraces.keySet().count { Thread t -> t.name.startsWith('cors-policy-watcher-') }
+  }
+
+  private static void waitFor(Closure<Boolean> condition) {
+    long deadline = System.currentTimeMillis() + 5000
+    while (!condition()) {
+      assert System.currentTimeMillis() < deadline
+      Thread.sleep(20)
+    }
+  }
+
+  private Response doPreflight(String url) {
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareOptions(url)
+    req.addHeader('Origin', 'http://foo.com')
+    req.addHeader('Access-Control-Request-Method', 'GET')
+
+    return req.execute().get()
+  }
+
   private Response doGet(String url) {
+    return doGet(url, 'http://foo.com')
+  }
+
+  private Response doGet(String url, String origin) {
     AsyncHttpClient.BoundRequestBuilder req = http.prepareGet(url)
-    req.addHeader("Origin", 'http://foo.com')
+    req.addHeader("Origin", origin)
+
+    return req.execute().get()
+  }
+
+  private Response doPost(String url, String origin) {
+    AsyncHttpClient.BoundRequestBuilder req = http.preparePost(url)
+    req.addHeader("Origin", origin)
 
     return req.execute().get()
   }
 
   private Response doOptions(String url) {
+    return doOptions(url, 'http://foo.com')
+  }
+
+  private Response doOptions(String url, String origin) {
     AsyncHttpClient.BoundRequestBuilder req = http.prepareOptions(url)
-    req.addHeader("Origin", 'http://foo.com')
+    req.addHeader("Origin", origin)
 
     return req.execute().get()
   }
@@ -300,12 +1081,12 @@ class CorsResourceFilterFactoryTest {
 
     CorsResourceFilterFactory factory = new CorsResourceFilterFactory(config)
 
-    assert 'http://foo.com' == factory.defAllowOrigin
-    assert 'x-foo' == factory.defExposeHeaders
-    assert 12345 == factory.defMaxAge
-    assert TRUE == factory.defAllowCredentials
-    assert 'POST' == factory.defAllowMethods
-    assert 'x-bar' == factory.defAllowHeaders
+    assert 'http://foo.com' == factory.registry.defAllowOrigin
+    assert 'x-foo' == factory.registry.defExposeHeaders
+    assert 12345 == factory.registry.defMaxAge
+    assert TRUE == factory.registry.defAllowCredentials
+    assert 'POST' == factory.registry.defAllowMethods
+    assert 'x-bar' == factory.registry.defAllowHeaders
   }
 
   @Path("unAnnotated")
@@ -414,4 +1195,145 @@ class CorsResourceFilterFactoryTest {
       return 'foo'
     }
   }
+
+  @Path("allowlist")
+  @Cors(allowedOrigins = 'https://*.partner.com', exposeHeaders = 'x-foo')
+  @CorsPreflight(allowedOrigins = 'http://foo.com,https://*.partner.com')
+  static class AllowlistResource {
+    @GET
+    String get() {
+      return 'x'
+    }
+
+    @GET
+    @Path("fixed")
+    @Cors(allowOrigin = 'http://bar.com')
+    String getFixed() {
+      return 'x'
+    }
+
+    @GET
+    @Path("vary")
+    javax.ws.rs.core.Response getVary() {
+      return javax.ws.rs.core.Response.ok('x').header('Vary', 'Accept-Encoding').build()
+    }
+
+    @OPTIONS
+    String options() {
+      return 'foo'
+    }
+  }
+
+  @Path("rejecting")
+  @Cors(allowedOrigins = 'https://*.partner.com')
+  static class RejectingResource {
+    static final AtomicInteger invocations = new AtomicInteger()
+
+    @POST
+    String post() {
+      invocations.incrementAndGet()
+      return 'x'
+    }
+
+    @GET
+    @Path("annotated")
+    @Cors(rejectDisallowedOrigins = TRUE)
+    String getAnnotated() {
+      invocations.incrementAndGet()
+      return 'x'
+    }
+
+    @GET
+    @Path("exempt")
+    @Cors(rejectDisallowedOrigins = FALSE)
+    String getExempt() {
+      invocations.incrementAndGet()
+      return 'x'
+    }
+  }
+
+  @Path("rateLimited")
+  @CorsPreflight(allowedOrigins = 'http://foo.com,http://bar.com')
+  static class RateLimitedResource {
+    static final AtomicInteger invocations = new AtomicInteger()
+
+    @OPTIONS
+    String options() {
+      invocations.incrementAndGet()
+      return 'x'
+    }
+  }
+
+  @Path("ruleCovered")
+  static class RuleCoveredResource {
+    @GET
+    String get() {
+      return 'x'
+    }
+
+    @OPTIONS
+    String options() {
+      return 'rule'
+    }
+
+    @GET
+    @Path("{id}")
+    String getById(@PathParam("id") String id) {
+      return id
+    }
+
+    @DELETE
+    @Path("{id}")
+    String deleteById(@PathParam("id") String id) {
+      return id
+    }
+  }
+
+  @Path("autoPreflight")
+  static class AutoPreflightResource {
+    @GET
+    @Cors
+    String get() {
+      return 'x'
+    }
+
+    @DELETE
+    @Cors
+    String delete() {
+      return 'x'
+    }
+
+    @PUT
+    String put() {
+      return 'x'
+    }
+
+    @GET
+    @Path("{id}")
+    @Cors
+    String getById(@PathParam("id") String id) {
+      return id
+    }
+
+    @OPTIONS
+    @Path("special")
+    String optionsSpecial() {
+      return 'special'
+    }
+  }
+
+  @Path("autoPreflightClassAnnotated")
+  @Cors
+  @CorsPreflight(maxAge = 12345, allowHeaders = 'x-foo')
+  static class AutoPreflightClassAnnotatedResource {
+    @GET
+    String get() {
+      return 'x'
+    }
+
+    @PUT
+    String put() {
+      return 'x'
+    }
+  }
 }
@@ -0,0 +1,272 @@
+package com.palominolabs.jersey.cors
+
+import com.ning.http.client.AsyncHttpClient
+import com.ning.http.client.Response
+import com.sun.jersey.api.core.PackagesResourceConfig
+import com.sun.jersey.api.core.ResourceConfig
+import com.sun.jersey.spi.container.servlet.ServletContainer
+import java.util.concurrent.atomic.AtomicInteger
+import javax.servlet.DispatcherType
+import javax.servlet.http.HttpServletResponse
+import javax.ws.rs.core.MultivaluedMap
+import javax.ws.rs.GET
+import javax.ws.rs.OPTIONS
+import javax.ws.rs.POST
+import javax.ws.rs.Path
+import javax.ws.rs.PathParam
+import org.eclipse.jetty.server.Server
+import org.eclipse.jetty.servlet.FilterHolder
+import org.eclipse.jetty.servlet.ServletContextHandler
+import org.eclipse.jetty.servlet.ServletHolder
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_HEADERS
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_METHODS
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_ORIGIN
+import static com.palominolabs.jersey.cors.CorsHeaders.MAX_AGE
+import static com.palominolabs.jersey.cors.Ternary.TRUE
+
+class CorsServletFilterTest {
+  Server server
+
+  AsyncHttpClient http = new AsyncHttpClient()
+
+  @Before
+  public void setUp() {
+    ServletFilterResource.invocations.set(0)
+
+    server = new Server(8080)
+
+    ServletHolder servletHolder = new ServletHolder(new ServletContainer())
+    servletHolder.initParameters.put(ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES,
+        CorsResourceFilterFactory.canonicalName)
+    servletHolder.initParameters.put(PackagesResourceConfig.PROPERTY_PACKAGES, getClass().package.name)
+    servletHolder.initParameters.put(CorsConfig.SERVLET_FILTER, 'true')
+    servletHolder.initParameters.put(CorsConfig.SERVLET_FILTER_NAME, 'servletFilterTest')
+    servletHolder.initParameters.put(CorsConfig.PREFLIGHT_RATE_LIMIT, '1')
+    servletHolder.initParameters.put(CorsConfig.PREFLIGHT_RATE_LIMIT_BURST, '5')
+    servletHolder.initOrder = 1
+
+    FilterHolder filterHolder = new FilterHolder(new CorsServletFilter())
+    filterHolder.initParameters.put(CorsServletFilter.POLICY_NAME_PARAM, 'servletFilterTest')
+
+    ServletContextHandler handler = new ServletContextHandler()
+    handler.addServlet(servletHolder, '/api/*')
+    handler.addFilter(filterHolder, '/api/*', EnumSet.of(DispatcherType.REQUEST))
+    server.setHandler(handler)
+
+    server.start()
+  }
+
+  @After
+  public void tearDown() {
+    server.stop()
+  }
+
+  @Test
+  public void testPreflightAnsweredWithoutInvokingResource() {
+    Response r = doPreflight('http://localhost:8080/api/servletFilter', 'https://a.partner.com')
+
+    assert 204 == r.statusCode
+    assert ['https://a.partner.com'] == r.headers.get(ALLOW_ORIGIN)
+    assert ['GET,POST'] == r.headers.get(ALLOW_METHODS)
+    assert ['x-foo'] == r.headers.get(ALLOW_HEADERS)
+    assert ['86400'] == r.headers.get(MAX_AGE)
+    assert 0 == ServletFilterResource.invocations.get()
+  }
+
+  @Test
+  public void testPreflightFromDisallowedOriginGetsNoHeaders() {
+    Response r = doPreflight('http://localhost:8080/api/servletFilter', 'https://evil.com')
+
+    assert 204 == r.statusCode
+    assert null == r.headers.get(ALLOW_ORIGIN)
+    assert null == r.headers.get(ALLOW_METHODS)
+    assert 0 == ServletFilterResource.invocations.get()
+  }
+
+  @Test
+  public void testPreflightToPathWithoutOptionsMethod() {
+    Response r = doPreflight('http://localhost:8080/api/servletFilter/items/42', 'https://a.partner.com')
+
+    assert 204 == r.statusCode
+    assert ['https://a.partner.com'] == r.headers.get(ALLOW_ORIGIN)
+    assert ['GET'] == r.headers.get(ALLOW_METHODS)
+  }
+
+  @Test
+  public void testPreflightOverRateLimit() {
+    5.times {
+      assert 204 == doPreflight('http://localhost:8080/api/servletFilter', 'https://a.partner.com').statusCode
+    }
+
+    Response r = doPreflight('http://localhost:8080/api/servletFilter/items/42', 'https://a.partner.com')
+
+    assert 429 == r.statusCode
+    assert 'Too many preflight requests\n' == r.responseBody
+    assert null == r.headers.get(ALLOW_ORIGIN)
+    assert 204 == doPreflight('http://localhost:8080/api/servletFilter', 'https://b.partner.com').statusCode
+    assert 0 == ServletFilterResource.invocations.get()
+  }
+
+  @Test
+  public void testNonPreflightOptionsInvokesResource() {
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareOptions('http://localhost:8080/api/servletFilter')
+    req.addHeader('Origin', 'https://a.partner.com')
+    Response r = req.execute().get()
+
+    assert 200 == r.statusCode
+    assert 'options' == r.responseBody
+    assert ['https://a.partner.com'] == r.headers.get(ALLOW_ORIGIN)
+    assert 1 == ServletFilterResource.invocations.get()
+  }
+
+  @Test
+  public void testSimpleRequestGetsHeadersOnce() {
+    Response r = doGet('http://localhost:8080/api/servletFilter', 'https://a.partner.com')
+
+    assert 200 == r.statusCode
+    assert 'get' == r.responseBody
+    // Jersey gets no filter for exported methods, so the header isn't added a second time
+    assert ['https://a.partner.com'] == r.headers.get(ALLOW_ORIGIN)
+    assert ['Origin'] == r.headers.get('Vary')
+    assert 1 == ServletFilterResource.invocations.get()
+  }
+
+  @Test
+  public void testSimpleRequestToTemplatePath() {
+    Response r = doGet('http://localhost:8080/api/servletFilter/items/42', 'https://a.partner.com')
+
+    assert 200 == r.statusCode
+    assert '42' == r.responseBody
+    assert ['https://a.partner.com'] == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testHeadUsesGetFilter() {
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareHead('http://localhost:8080/api/servletFilter')
+    req.addHeader('Origin', 'https://a.partner.com')
+    Response r = req.execute().get()
+
+    assert 200 == r.statusCode
+    assert ['https://a.partner.com'] == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testDisallowedOriginRejectedWithoutInvokingResource() {
+    AsyncHttpClient.BoundRequestBuilder req = http.preparePost('http://localhost:8080/api/servletFilter')
+    req.addHeader('Origin', 'https://evil.com')
+    Response r = req.execute().get()
+
+    assert 403 == r.statusCode
+    assert 'Origin not allowed\n' == r.responseBody
+    assert null == r.headers.get(ALLOW_ORIGIN)
+    assert ['Origin'] == r.headers.get('Vary')
+    assert 0 == ServletFilterResource.invocations.get()
+  }
+
+  @Test
+  public void testRequestWithoutOriginPassesThrough() {
+    Response r = http.prepareGet('http://localhost:8080/api/servletFilter').execute().get()
+
+    assert 200 == r.statusCode
+    assert null == r.headers.get(ALLOW_ORIGIN)
+    assert 1 == ServletFilterResource.invocations.get()
+  }
+
+  @Test
+  public void testUnannotatedResourcePassesThrough() {
+    Response r = doGet('http://localhost:8080/api/unAnnotated', 'https://a.partner.com')
+
+    assert 200 == r.statusCode
+    assert null == r.headers.get(ALLOW_ORIGIN)
+  }
+
+  @Test
+  public void testUnannotatedLiteralPathMatchedByTemplatePassesThrough() {
+    // servletFilter/items/{id} has a route too, but Jersey dispatches this path to its own, un-annotated resource
+    Response allowed = doGet('http://localhost:8080/api/servletFilter/items/special', 'https://a.partner.com')
+    assert 200 == allowed.statusCode
+    assert 'special' == allowed.responseBody
+    assert null == allowed.headers.get(ALLOW_ORIGIN)
+
+    Response disallowed = doGet('http://localhost:8080/api/servletFilter/items/special', 'https://evil.com')
+    assert 200 == disallowed.statusCode
+    assert 'special' == disallowed.responseBody
+  }
+
+  @Test
+  public void testHeadersReadAsMap() {
+    Map<String, List<String>> sent = [Vary: ['Origin']]
+    HttpServletResponse response = [
+        getHeaderNames: { sent.keySet() },
+        getHeaders: { String name -> sent.get(name) ?: [] },
+        containsHeader: { String name -> sent.containsKey(name) },
+        setHeader: { String name, String value -> sent.put(name, [value]) },
+        addHeader: { String name, String value -> sent.get(name, []).add(value) }] as HttpServletResponse
+    MultivaluedMap<String, Object> headers = CorsServletFilter.SERVLET_HEADERS.getHeaders(response)
+    headers.putSingle(ALLOW_ORIGIN, 'http://foo.com')
+    headers.add('Vary', 'Accept')
+
+    assert 2 == headers.size()
+    assert [Vary: ['Origin', 'Accept'], (ALLOW_ORIGIN): ['http://foo.com']] == headers
+    assert String.valueOf(headers).contains(ALLOW_ORIGIN + '=[http://foo.com]')
+  }
+
+  private Response doPreflight(String url, String origin) {
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareOptions(url)
+    req.addHeader('Origin', origin)
+    req.addHeader('Access-Control-Request-Method', 'POST')
+
+    return req.execute().get()
+  }
+
+  private Response doGet(String url, String origin) {
+    AsyncHttpClient.BoundRequestBuilder req = http.prepareGet(url)
+    req.addHeader('Origin', origin)
+
+    return req.execute().get()
+  }
+
+  @Path("servletFilter")
+  @Cors(allowedOrigins = 'https://*.partner.com', rejectDisallowedOrigins = TRUE)
+  @CorsPreflight(allowedOrigins = 'https://*.partner.com')
+  static class ServletFilterResource {
+    static final AtomicInteger invocations = new AtomicInteger()
+
+    @GET
+    String get() {
+      invocations.incrementAndGet()
+      return 'get'
+    }
+
+    @POST
+    String post() {
+      invocations.incrementAndGet()
+      return 'post'
+    }
+
+    @OPTIONS
+    @CorsPreflight(allowMethods = 'GET,POST', allowHeaders = 'x-foo')
+    String options() {
+      invocations.incrementAndGet()
+      return 'options'
+    }
+
+    @GET
+    @Path("items/{id}")
+    String getItem(@PathParam("id") String id) {
+      return id
+    }
+  }
+
+  @Path("servletFilter/items/special")
+  static class SpecialItemResource {
+    @GET
+    String get() {
+      return 'special'
+    }
+  }
+}
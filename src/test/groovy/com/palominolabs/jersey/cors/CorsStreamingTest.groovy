@@ -0,0 +1,198 @@
+package com.palominolabs.jersey.cors
+
+import com.ning.http.client.AsyncHandler
+import com.ning.http.client.AsyncHttpClient
+import com.ning.http.client.FluentCaseInsensitiveStringsMap
+import com.ning.http.client.HttpResponseBodyPart
+import com.ning.http.client.HttpResponseHeaders
+import com.ning.http.client.HttpResponseStatus
+import com.sun.jersey.api.core.PackagesResourceConfig
+import com.sun.jersey.api.core.ResourceConfig
+import com.sun.jersey.spi.container.servlet.ServletContainer
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import javax.servlet.DispatcherType
+import javax.ws.rs.GET
+import javax.ws.rs.Path
+import javax.ws.rs.Produces
+import javax.ws.rs.WebApplicationException
+import javax.ws.rs.core.StreamingOutput
+import org.eclipse.jetty.server.Server
+import org.eclipse.jetty.servlet.FilterHolder
+import org.eclipse.jetty.servlet.ServletContextHandler
+import org.eclipse.jetty.servlet.ServletHolder
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static com.palominolabs.jersey.cors.CorsHeaders.ALLOW_ORIGIN
+import static com.palominolabs.jersey.cors.CorsHeaders.EXPOSE_HEADERS
+
+/**
+ * Streams bodies much larger than any container buffer and checks that the CORS headers arrive with the first bytes.
+ * The resource holds back the second half of the body until the client has seen the headers, so a response that was
+ * buffered before its headers were written would time out rather than pass.
+ */
+class CorsStreamingTest {
+  static final int CHUNK_SIZE = 64 * 1024
+
+  static final int CHUNKS = 128
+
+  /**
+   * Counted down by the client when it receives the response headers
+   */
+  static volatile CountDownLatch headersReceived
+
+  /**
+   * Whether the resource saw the client get the headers before it finished writing the body
+   */
+  static volatile boolean headersBeforeEnd
+
+  Server server
+
+  AsyncHttpClient http = new AsyncHttpClient()
+
+  @Before
+  public void setUp() {
+    headersReceived = new CountDownLatch(1)
+    headersBeforeEnd = false
+  }
+
+  @After
+  public void tearDown() {
+    server?.stop()
+    http.close()
+  }
+
+  private void startServer(Map<String, String> params, boolean servletFilter) {
+    server = new Server(8080)
+
+    ServletHolder servletHolder = new ServletHolder(new ServletContainer())
+    servletHolder.initParameters.put(ResourceConfig.PROPERTY_RESOURCE_FILTER_FACTORIES,
+        CorsResourceFilterFactory.canonicalName)
+    servletHolder.initParameters.put(PackagesResourceConfig.PROPERTY_PACKAGES, getClass().package.name)
+    servletHolder.initParameters.putAll(params)
+    servletHolder.initOrder = 1
+
+    ServletContextHandler handler = new ServletContextHandler()
+    handler.addServlet(servletHolder, '/*')
+    if (servletFilter) {
+      FilterHolder filterHolder = new FilterHolder(new CorsServletFilter())
+      filterHolder.initParameters.put(CorsServletFilter.POLICY_NAME_PARAM, 'streamingTest')
+      handler.addFilter(filterHolder, '/*', EnumSet.of(DispatcherType.REQUEST))
+    }
+    server.setHandler(handler)
+
+    server.start()
+  }
+
+  @Test
+  public void testStreamedResponseHasHeaders() {
+    startServer([:], false)
+
+    StreamedResponse r = stream('http://foo.com')
+
+    assertStreamed(r)
+    assert ['*'] == r.headers.get(ALLOW_ORIGIN)
+    assert ['x-stream'] == r.headers.get(EXPOSE_HEADERS)
+  }
+
+  @Test
+  public void testStreamedResponseWithAllowlist() {
+    startServer([(CorsConfig.ALLOWED_ORIGINS): 'https://*.partner.com'], false)
+
+    StreamedResponse r = stream('https://a.partner.com')
+
+    assertStreamed(r)
+    assert ['https://a.partner.com'] == r.headers.get(ALLOW_ORIGIN)
+    assert ['Origin'] == r.headers.get('Vary')
+  }
+
+  @Test
+  public void testStreamedResponseWithServletFilter() {
+    startServer([(CorsConfig.SERVLET_FILTER): 'true', (CorsConfig.SERVLET_FILTER_NAME): 'streamingTest'], true)
+
+    StreamedResponse r = stream('http://foo.com')
+
+    assertStreamed(r)
+    assert ['*'] == r.headers.get(ALLOW_ORIGIN)
+    assert ['x-stream'] == r.headers.get(EXPOSE_HEADERS)
+  }
+
+  private static void assertStreamed(StreamedResponse r) {
+    assert 200 == r.statusCode
+    assert headersBeforeEnd
+    assert CHUNK_SIZE * CHUNKS == r.bodyLength
+    // a buffered response would have had its length set
+    assert !r.headers.containsKey('Content-Length')
+  }
+
+  /**
+   * @param origin the request's Origin
+   * @return the response, with the body counted rather than kept
+   */
+  private StreamedResponse stream(String origin) {
+    return http.prepareGet('http://localhost:8080/streaming')
+        .addHeader('Origin', origin)
+        .execute(new StreamedResponse())
+        .get(30, TimeUnit.SECONDS)
+  }
+
+  static class StreamedResponse implements AsyncHandler<StreamedResponse> {
+    int statusCode
+
+    FluentCaseInsensitiveStringsMap headers
+
+    long bodyLength
+
+    @Override
+    void onThrowable(Throwable t) {
+    }
+
+    @Override
+    AsyncHandler.STATE onBodyPartReceived(HttpResponseBodyPart bodyPart) {
+      bodyLength += bodyPart.bodyPartBytes.length
+      return AsyncHandler.STATE.CONTINUE
+    }
+
+    @Override
+    AsyncHandler.STATE onStatusReceived(HttpResponseStatus responseStatus) {
+      statusCode = responseStatus.statusCode
+      return AsyncHandler.STATE.CONTINUE
+    }
+
+    @Override
+    AsyncHandler.STATE onHeadersReceived(HttpResponseHeaders responseHeaders) {
+      headers = responseHeaders.headers
+      headersReceived.countDown()
+      return AsyncHandler.STATE.CONTINUE
+    }
+
+    @Override
+    StreamedResponse onCompleted() {
+      return this
+    }
+  }
+
+  @Path("streaming")
+  static class StreamingResource {
+    @GET
+    @Produces('application/octet-stream')
+    @Cors(exposeHeaders = 'x-stream')
+    StreamingOutput get() {
+      return new StreamingOutput() {
+        @Override
+        void write(OutputStream output) throws IOException, WebApplicationException {
+          byte[] chunk = new byte[CHUNK_SIZE]
+          for (int i = 0; i < CHUNKS; i++) {
+            if (i == CHUNKS / 2) {
+              output.flush()
+              headersBeforeEnd = headersReceived.await(10, TimeUnit.SECONDS)
+            }
+            output.write(chunk)
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package com.palominolabs.jersey.cors
+
+import com.google.common.base.Ticker
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+
+class PreflightAnalyzerTest {
+
+  FakeTicker ticker = new FakeTicker()
+
+  @Test(expected = IllegalArgumentException)
+  public void testRejectsSampleRateBelowOne() {
+    new PreflightAnalyzer(0, 10, ticker)
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testRejectsMaxSourcesBelowOne() {
+    new PreflightAnalyzer(1, 0, ticker)
+  }
+
+  @Test
+  public void testNormalizeHeaders() {
+    assert '' == PreflightAnalyzer.normalizeHeaders(null)
+    assert '' == PreflightAnalyzer.normalizeHeaders(' , ')
+    assert 'content-type,x-bar,x-foo' == PreflightAnalyzer.normalizeHeaders('X-Foo, Content-Type,x-bar,x-foo')
+  }
+
+  @Test
+  public void testCountsRepeatsWithinMaxAge() {
+    PreflightAnalyzer analyzer = new PreflightAnalyzer(1, 10, ticker)
+
+    record(analyzer, 'a', 'PUT', 'x-foo', 600)
+    ticker.advance(599)
+    record(analyzer, 'a', 'PUT', 'X-Foo', 600)
+    ticker.advance(600)
+    record(analyzer, 'a', 'PUT', 'x-foo', 600)
+    // a different source, so not a repeat
+    record(analyzer, 'b', 'PUT', 'x-foo', 600)
+
+    PreflightReport report = analyzer.getReport(10)
+    assert 4 == report.preflights
+    assert 0 == report.untrackedPreflights
+    assert ['a', 'b'] == report.sources*.path
+    assert 3 == report.sources[0].preflights
+    assert 1 == report.sources[0].repeats
+    assert 'x-foo' == report.sources[0].requestHeaders
+    assert 1 == report.sources[1].preflights
+    assert 0 == report.sources[1].repeats
+  }
+
+  @Test
+  public void testReportIsLimitedAndSorted() {
+    PreflightAnalyzer analyzer = new PreflightAnalyzer(1, 10, ticker)
+    ['a', 'b', 'c'].eachWithIndex { String path, int i ->
+      (i + 1).times { record(analyzer, path, 'PUT', null, 7200) }
+    }
+
+    assert ['c', 'b'] == analyzer.getReport(2).sources*.path
+    assert 6 == analyzer.getReport(2).preflights
+  }
+
+  @Test
+  public void testSourcesAreBounded() {
+    PreflightAnalyzer analyzer = new PreflightAnalyzer(1, 2, ticker)
+    record(analyzer, 'a', 'PUT', null, 7200)
+    record(analyzer, 'b', 'PUT', null, 7200)
+    record(analyzer, 'c', 'PUT', null, 7200)
+    record(analyzer, 'a', 'PUT', null, 7200)
+
+    PreflightReport report = analyzer.getReport(10)
+    assert 4 == report.preflights
+    assert 1 == report.untrackedPreflights
+    assert ['a', 'b'] == report.sources*.path
+    assert report.suggestions.any { it.contains(CorsConfig.PREFLIGHT_ANALYZER_MAX_SOURCES) }
+
+    analyzer.reset()
+    assert 0 == analyzer.getReport(10).preflights
+    record(analyzer, 'c', 'PUT', null, 7200)
+    assert ['c'] == analyzer.getReport(10).sources*.path
+  }
+
+  @Test
+  public void testSamplingIsPerSource() {
+    PreflightAnalyzer analyzer = new PreflightAnalyzer(4, 10, ticker)
+
+    int sampled = 0
+    for (int i = 0; i < 4000; i++) {
+      String origin = 'https://host' + i + '.example.com'
+      boolean first = analyzer.isSampled(origin, 'PUT', 'x-foo')
+      // the same source is always either sampled or not, so its repeats can be counted
+      assert first == analyzer.isSampled(origin, 'PUT', 'x-foo')
+      if (first) {
+        sampled++
+      }
+    }
+    assert Math.abs(sampled - 1000) < 150
+
+    record(analyzer, 'a', 'PUT', null, 7200)
+    PreflightReport report = analyzer.getReport(10)
+    assert 4 == report.sampleRate
+    assert 4 == report.preflights
+    assert 4 == report.sources[0].preflights
+  }
+
+  @Test
+  public void testSuggestions() {
+    PreflightAnalyzer analyzer = new PreflightAnalyzer(1, 100, ticker)
+    10.times {
+      analyzer.record('a', 'https://foo.com', 'POST', 'X-Foo,content-type', false, 600, 'GET,POST', 'x-foo')
+    }
+    analyzer.record('b', 'https://foo.com', 'PUT', null, true, 7200, 'GET,POST', 'x-foo')
+
+    List<PreflightSource> sources = analyzer.getReport(10).sources
+    assert [
+        'Add content-type to allowHeaders, or stop sending them: browsers refuse the request after this preflight',
+        'Raise maxAge from 600 to 7200: each browser sends this preflight again every 600 seconds',
+        '9 of 10 sampled preflights came within maxAge of the previous one. That is expected if many clients ' +
+            'share the origin; otherwise the clients\' preflight cache isn\'t being used (e.g. it is disabled, or ' +
+            'responses differ between requests)',
+        'POST requests need no preflight if they send only safelisted headers (and for POST, a form or ' +
+            'text/plain Content-Type); sending content-type,x-foo is what causes this one'
+    ] == sources[0].suggestions
+    assert ['Add PUT to allowMethods: browsers refuse the request after this preflight'] == sources[1].suggestions
+    assert 1 == sources[1].rejected
+  }
+
+  @Test
+  public void testSuggestsAvoidingPreflightsSpreadOverManyPaths() {
+    PreflightAnalyzer analyzer = new PreflightAnalyzer(1, 100, ticker)
+    10.times { int i -> analyzer.record('items/' + i, 'https://foo.com', 'DELETE', null, false, 7200, 'DELETE', '') }
+
+    assert ['https://foo.com sent DELETE preflights for 10 distinct paths. Browsers cache preflights per URL, so ' +
+        'maxAge can\'t help much here; only avoiding the preflight altogether can'] ==
+        analyzer.getReport(10).suggestions
+  }
+
+  private static void record(PreflightAnalyzer analyzer, String path, String method, String headers, int maxAge) {
+    analyzer.record(path, 'https://foo.com', method, headers, false, maxAge, 'GET,PUT', 'x-foo')
+  }
+
+  static class FakeTicker extends Ticker {
+    long nanos
+
+    void advance(int seconds) {
+      nanos += TimeUnit.SECONDS.toNanos(seconds)
+    }
+
+    @Override
+    long read() {
+      return nanos
+    }
+  }
+}
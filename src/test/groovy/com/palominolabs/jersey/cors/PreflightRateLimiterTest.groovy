@@ -0,0 +1,116 @@
+package com.palominolabs.jersey.cors
+
+import com.palominolabs.jersey.cors.PreflightAnalyzerTest.FakeTicker
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.Test
+
+import static com.palominolabs.jersey.cors.PreflightRateLimiter.EVICTIONS
+import static com.palominolabs.jersey.cors.PreflightRateLimiter.LIMITED
+import static com.palominolabs.jersey.cors.PreflightRateLimiter.OVERFLOWS
+
+class PreflightRateLimiterTest {
+
+  FakeTicker ticker = new FakeTicker()
+
+  @Test
+  public void testAllowsBurstThenRate() {
+    PreflightRateLimiter limiter = new PreflightRateLimiter(2, 3, 64, ticker)
+
+    3.times { assert limiter.tryAcquire('https://foo.com') }
+    assert !limiter.tryAcquire('https://foo.com')
+
+    // half a second earns one token
+    ticker.nanos += TimeUnit.MILLISECONDS.toNanos(500)
+    assert limiter.tryAcquire('https://foo.com')
+    assert !limiter.tryAcquire('https://foo.com')
+
+    // tokens don't accumulate past the burst
+    ticker.advance(60)
+    3.times { assert limiter.tryAcquire('https://foo.com') }
+    assert !limiter.tryAcquire('https://foo.com')
+
+    assert 3 == limiter.getCount(LIMITED)
+  }
+
+  @Test
+  public void testOriginsHaveSeparateBuckets() {
+    PreflightRateLimiter limiter = new PreflightRateLimiter(1, 1, 64, ticker)
+
+    assert limiter.tryAcquire('https://foo.com')
+    assert !limiter.tryAcquire('https://foo.com')
+    assert limiter.tryAcquire('https://bar.com')
+
+    assert 2 == limiter.size()
+  }
+
+  @Test
+  public void testIdleBucketsAreReplaced() {
+    PreflightRateLimiter limiter = new PreflightRateLimiter(1, 1, 4, ticker)
+
+    4.times { int i -> assert limiter.tryAcquire('https://' + i + '.foo.com') }
+    assert 4 == limiter.size()
+
+    // every bucket is busy, so a new origin shares the overflow bucket
+    assert limiter.tryAcquire('https://new.foo.com')
+    assert !limiter.tryAcquire('https://other.foo.com')
+    assert 2 == limiter.getCount(OVERFLOWS)
+
+    // once they have filled up again, buckets make room for new origins
+    ticker.advance(1)
+    assert limiter.tryAcquire('https://new.foo.com')
+    assert !limiter.tryAcquire('https://new.foo.com')
+    assert 1 == limiter.getCount(EVICTIONS)
+    assert 4 == limiter.size()
+  }
+
+  @Test
+  public void testTableIsBounded() {
+    PreflightRateLimiter limiter = new PreflightRateLimiter(10, 10, 64, ticker)
+
+    10000.times { int i -> limiter.tryAcquire('https://' + i + '.foo.com') }
+
+    assert 64 == limiter.capacity()
+    assert limiter.size() <= 64
+  }
+
+  @Test
+  public void testLongOriginsShareOverflowBucket() {
+    PreflightRateLimiter limiter = new PreflightRateLimiter(1, 1, 64, ticker)
+    String prefix = 'https://' + ('a' * OriginDecisionCache.MAX_ORIGIN_LENGTH)
+
+    assert limiter.tryAcquire(prefix + '.foo.com')
+    assert !limiter.tryAcquire(prefix + '.bar.com')
+    assert 0 == limiter.size()
+  }
+
+  @Test
+  public void testConcurrentPreflightsGetOneBurst() {
+    PreflightRateLimiter limiter = new PreflightRateLimiter(1, 1000, 64, ticker)
+    limiter.tryAcquire('https://foo.com')
+
+    AtomicInteger allowed = new AtomicInteger()
+    CountDownLatch start = new CountDownLatch(1)
+    List<Thread> threads = (1..8).collect {
+      Thread.start {
+        start.await()
+        500.times {
+          if (limiter.tryAcquire('https://foo.com')) {
+            allowed.incrementAndGet()
+          }
+        }
+      }
+    }
+    start.countDown()
+    threads*.join()
+
+    assert 999 == allowed.get()
+    assert 8 * 500 - 999 == limiter.getCount(LIMITED)
+  }
+
+  @Test(expected = IllegalArgumentException)
+  public void testRejectsZeroBurst() {
+    new PreflightRateLimiter(1, 0, 64, ticker)
+  }
+}
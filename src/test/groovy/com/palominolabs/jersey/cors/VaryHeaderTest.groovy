@@ -0,0 +1,49 @@
+package com.palominolabs.jersey.cors
+
+import com.sun.jersey.core.header.OutBoundHeaders
+import org.junit.Test
+
+class VaryHeaderTest {
+
+  VaryHeader vary = new VaryHeader('Origin', 'Access-Control-Request-Method')
+
+  @Test
+  public void testNoExistingVary() {
+    OutBoundHeaders h = new OutBoundHeaders()
+
+    vary.merge(h)
+
+    assert ['Origin, Access-Control-Request-Method'] == h.get('Vary')
+  }
+
+  @Test
+  public void testMergesWithExistingVary() {
+    OutBoundHeaders h = new OutBoundHeaders()
+    h.add('Vary', 'Accept-Encoding')
+    h.add('Vary', ' origin ,Accept')
+
+    vary.merge(h)
+
+    assert ['Accept-Encoding, origin ,Accept, Access-Control-Request-Method'] == h.get('Vary')
+  }
+
+  @Test
+  public void testLeavesCompleteVaryAlone() {
+    OutBoundHeaders h = new OutBoundHeaders()
+    h.add('Vary', 'Access-Control-Request-Method,Origin')
+
+    vary.merge(h)
+
+    assert ['Access-Control-Request-Method,Origin'] == h.get('Vary')
+  }
+
+  @Test
+  public void testLeavesWildcardVaryAlone() {
+    OutBoundHeaders h = new OutBoundHeaders()
+    h.add('Vary', '*')
+
+    vary.merge(h)
+
+    assert ['*'] == h.get('Vary')
+  }
+}